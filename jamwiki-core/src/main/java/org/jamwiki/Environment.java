@@ -83,15 +83,18 @@ public class Environment {
 	public static final String PROP_EXTERNAL_LINK_NEW_WINDOW = "external-link-new-window";
 	public static final String PROP_FILE_BLACKLIST = "file-blacklist";
 	public static final String PROP_FILE_BLACKLIST_TYPE = "file-blacklist-type";
+	public static final String PROP_FILE_DATABASE_CACHE_SIZE = "file-database-cache-size";
 	public static final String PROP_FILE_DIR_FULL_PATH = "file-dir-full-path";
 	public static final String PROP_FILE_DIR_RELATIVE_PATH = "file-dir-relative-path";
 	public static final String PROP_FILE_MAX_FILE_SIZE = "max-file-size";
 	public static final String PROP_FILE_SERVER_URL = "file-server-url";
+	public static final String PROP_FILE_UPLOAD_DEDUPLICATE = "file-upload-deduplicate";
 	public static final String PROP_FILE_UPLOAD_STORAGE = "file-upload-storage";
 	public static final String PROP_FILE_WHITELIST = "file-whitelist";
 	public static final String PROP_HONEYPOT_ACCESS_KEY = "honeypot-access-key";
 	public static final String PROP_HONEYPOT_FILTER_ENABLED = "honeypot-enabled";
 	public static final String PROP_IMAGE_RESIZE_INCREMENT = "image-resize-increment";
+	public static final String PROP_IMAGE_STANDARD_WIDTHS = "image-standard-widths";
 	public static final String PROP_MAX_RECENT_CHANGES = "max-recent-changes";
 	public static final String PROP_MAX_TOPIC_VERSION_EXPORT = "max-topic-version-export";
 	public static final String PROP_PARSER_ALLOW_CAPITALIZATION = "allow-capitalization";
@@ -128,10 +131,15 @@ public class Environment {
 	public static final String PROP_RECENT_CHANGES_NUM = "recent-changes-days";
 	public static final String PROP_RSS_ALLOWED = "rss-allowed";
 	public static final String PROP_RSS_TITLE = "rss-title";
+	public static final String PROP_SEARCH_DIRECTORY_TYPE = "search-directory-type";
+	public static final String PROP_SEARCH_NRT_CACHING = "search-nrt-caching";
 	public static final String PROP_SERVER_URL = "server-url";
 	public static final String PROP_SHARED_UPLOAD_VIRTUAL_WIKI = "shared-upload-virtual-wiki";
 	public static final String PROP_SITE_NAME = "site-name";
+	public static final String PROP_STYLESHEET_MINIFY = "stylesheet-minify";
 	public static final String PROP_TOPIC_EDITOR = "default-editor";
+	public static final String PROP_TOPIC_PROXY_MAX_AGE = "topic-proxy-max-age";
+	public static final String PROP_TOPIC_RESPONSE_CACHE = "topic-response-cache";
 	public static final String PROP_TOPIC_SPAM_FILTER = "use-spam-filter";
 	public static final String PROP_TOPIC_USE_PREVIEW = "use-preview";
 	public static final String PROP_TOPIC_USE_SHOW_CHANGES = "use-show-changes";
@@ -257,16 +265,19 @@ public class Environment {
 		this.defaults.setProperty(PROP_EXTERNAL_LINK_NEW_WINDOW, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_FILE_BLACKLIST, "bat,bin,exe,htm,html,js,jsp,php,sh");
 		this.defaults.setProperty(PROP_FILE_BLACKLIST_TYPE, String.valueOf(WikiBase.UPLOAD_BLACKLIST));
+		this.defaults.setProperty(PROP_FILE_DATABASE_CACHE_SIZE, "100");
 		this.defaults.setProperty(PROP_FILE_DIR_FULL_PATH, "");
 		this.defaults.setProperty(PROP_FILE_DIR_RELATIVE_PATH, "");
 		// size is in bytes
 		this.defaults.setProperty(PROP_FILE_MAX_FILE_SIZE, "5000000");
 		this.defaults.setProperty(PROP_FILE_SERVER_URL, "");
+		this.defaults.setProperty(PROP_FILE_UPLOAD_DEDUPLICATE, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_FILE_UPLOAD_STORAGE, WikiBase.UPLOAD_STORAGE.JAMWIKI.toString());
 		this.defaults.setProperty(PROP_FILE_WHITELIST, "bmp,gif,jpeg,jpg,pdf,png,properties,svg,txt,zip");
 		this.defaults.setProperty(PROP_HONEYPOT_ACCESS_KEY, "");
 		this.defaults.setProperty(PROP_HONEYPOT_FILTER_ENABLED, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_IMAGE_RESIZE_INCREMENT, "100");
+		this.defaults.setProperty(PROP_IMAGE_STANDARD_WIDTHS, "");
 		this.defaults.setProperty(PROP_MAX_RECENT_CHANGES, "10000");
 		this.defaults.setProperty(PROP_MAX_TOPIC_VERSION_EXPORT, "1000");
 		this.defaults.setProperty(PROP_PARSER_ALLOW_CAPITALIZATION, Boolean.TRUE.toString());
@@ -299,11 +310,16 @@ public class Environment {
 		this.defaults.setProperty(PROP_RECENT_CHANGES_NUM, "100");
 		this.defaults.setProperty(PROP_RSS_ALLOWED, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_RSS_TITLE, "Wiki Recent Changes");
+		this.defaults.setProperty(PROP_SEARCH_DIRECTORY_TYPE, WikiBase.SEARCH_DIRECTORY.FS.toString());
+		this.defaults.setProperty(PROP_SEARCH_NRT_CACHING, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_SERVER_URL, "");
 		this.defaults.setProperty(PROP_SHARED_UPLOAD_VIRTUAL_WIKI, "");
 		this.defaults.setProperty(PROP_SITE_NAME, "JAMWiki");
+		this.defaults.setProperty(PROP_STYLESHEET_MINIFY, Boolean.TRUE.toString());
 		// FIXME - hard coding
 		this.defaults.setProperty(PROP_TOPIC_EDITOR, "toolbar");
+		this.defaults.setProperty(PROP_TOPIC_PROXY_MAX_AGE, "0");
+		this.defaults.setProperty(PROP_TOPIC_RESPONSE_CACHE, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_TOPIC_SPAM_FILTER, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_PREVIEW, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_SHOW_CHANGES, Boolean.TRUE.toString());
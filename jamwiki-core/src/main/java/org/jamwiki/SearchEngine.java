@@ -19,7 +19,9 @@ package org.jamwiki;
 import java.io.IOException;
 import java.util.List;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
+import org.jamwiki.utils.Pagination;
 
 /**
  * This interface provides all methods needed for interacting with a search
@@ -69,6 +71,27 @@ public interface SearchEngine {
 	 */
 	List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces);
 
+	/**
+	 * Find a single page of documents that contain a specific search term,
+	 * ordered by relevance.  Only the results on the requested page are
+	 * retrieved and summarized, so deep pages do not require processing every
+	 * preceding result.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched when
+	 *  retrieving results.  If this list is <code>null</code> or empty then all
+	 *  namespaces will be searched.
+	 * @param pagination The offset and number of results to return.
+	 * @param after The cursor returned by {@link SearchResultPage#getNextCursor}
+	 *  for the previous page of results, or <code>null</code> to retrieve results
+	 *  using only the pagination offset.  If the cursor is invalid or no longer
+	 *  matches the search index then it is ignored.
+	 * @return A SearchResultPage object containing the requested page of
+	 *  results.
+	 */
+	SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, Pagination pagination, String after);
+
 	/**
 	 * Refresh the current search index by re-visiting all topic pages.
 	 *
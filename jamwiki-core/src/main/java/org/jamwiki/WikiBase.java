@@ -75,6 +75,8 @@ public class WikiBase {
 	public static final int UPLOAD_WHITELIST = 3;
 	/** Enum indicating where uploaded files are stored. */
 	public static enum UPLOAD_STORAGE { JAMWIKI, DOCROOT, DATABASE }
+	/** Enum indicating the Lucene directory implementation used for search indexes. */
+	public static enum SEARCH_DIRECTORY { FS, MMAP, NIOFS, RAM }
 
 	static {
 		try {
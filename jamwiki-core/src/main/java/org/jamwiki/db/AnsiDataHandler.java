@@ -22,11 +22,15 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
@@ -58,8 +62,13 @@ import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.utils.Encryption;
+import org.jamwiki.utils.FeedCache;
+import org.jamwiki.utils.IpAddressTrie;
+import org.jamwiki.utils.LayoutCache;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.ResourceUtil;
+import org.jamwiki.utils.ResponseCache;
+import org.jamwiki.utils.TopicSuggestionIndex;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -85,11 +94,18 @@ public class AnsiDataHandler {
 	/** Cache topic IDs by the topic name.  This cache may include deleted topics. */
 	private static final WikiCache<String, Integer> CACHE_TOPIC_IDS_BY_NAME = new WikiCache<String, Integer>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_IDS_BY_NAME");
 	private static final WikiCache<Integer, TopicVersion> CACHE_TOPIC_VERSIONS = new WikiCache<Integer, TopicVersion>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_VERSIONS");
+	private static final WikiCache<String, IpAddressTrie<UserBlock>> CACHE_USER_BLOCK_RANGES = new WikiCache<String, IpAddressTrie<UserBlock>>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BLOCK_RANGES");
 	private static final WikiCache<String, Map<Object, UserBlock>> CACHE_USER_BLOCKS_ACTIVE = new WikiCache<String, Map<Object, UserBlock>>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BLOCKS_ACTIVE");
 	private static final WikiCache<Integer, WikiUser> CACHE_USER_BY_USER_ID = new WikiCache<Integer, WikiUser>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BY_USER_ID");
 	private static final WikiCache<String, WikiUser> CACHE_USER_BY_USER_NAME = new WikiCache<String, WikiUser>("org.jamwiki.db.AnsiDataHandler.CACHE_USER_BY_USER_NAME");
 	private static final WikiCache<String, List<VirtualWiki>> CACHE_VIRTUAL_WIKI_LIST = new WikiCache<String, List<VirtualWiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_VIRTUAL_WIKI_LIST");
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiDataHandler.class.getName());
+	/**
+	 * Per-virtual wiki topic name indexes used for type-ahead suggestions.  These
+	 * are not stored in a WikiCache since they are loaded once and then kept up to
+	 * date as topics are added, moved and deleted.
+	 */
+	private static final Map<String, TopicSuggestionIndex> TOPIC_SUGGESTION_INDEXES = new ConcurrentHashMap<String, TopicSuggestionIndex>();
 
 	// TODO - remove when the ability to upgrade to 1.3 is deprecated
 	private static final Map<String, String> LEGACY_DATA_HANDLER_MAP = new HashMap<String, String>();
@@ -186,7 +202,20 @@ public class AnsiDataHandler {
 	/**
 	 *
 	 */
-	private void addTopicLinks(List<String> links, String virtualWiki, int topicId, Connection conn) throws DataAccessException {
+	private void addTopicLinks(Map<String, Topic> linksMap, int topicId, Connection conn) throws DataAccessException {
+		List<Topic> topicLinks = new ArrayList<Topic>(linksMap.values());
+		try {
+			this.queryHandler().insertTopicLinks(topicLinks, topicId, conn);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
+	/**
+	 * Convert a list of links into a map of topic name and the topic record to
+	 * store for the link.
+	 */
+	private Map<String, Topic> buildTopicLinks(List<String> links, String virtualWiki) {
 		// strip any links longer than 200 characters and any duplicates
 		Map<String, Topic> linksMap = new HashMap<String, Topic>();
 		for (String link : links) {
@@ -200,12 +229,7 @@ public class AnsiDataHandler {
 				linksMap.put(topic.getName(), topic);
 			}
 		}
-		List<Topic> topicLinks = new ArrayList<Topic>(linksMap.values());
-		try {
-			this.queryHandler().insertTopicLinks(topicLinks, topicId, conn);
-		} catch (SQLException e) {
-			throw new DataAccessException(e);
-		}
+		return linksMap;
 	}
 
 	/**
@@ -404,6 +428,8 @@ public class AnsiDataHandler {
 				CACHE_TOPIC_NAMES_BY_NAME.removeFromCacheCaseInsensitive(altKey);
 				CACHE_TOPIC_IDS_BY_NAME.removeFromCacheCaseInsensitive(altKey);
 			}
+			ResponseCache.purgeVirtualWiki(topic.getVirtualWiki());
+			LayoutCache.purgeTopic(topic);
 		}
 		if (topic.getDeleteDate() == null) {
 			// topic name cache does not include deleted topics
@@ -419,6 +445,66 @@ public class AnsiDataHandler {
 		CACHE_TOPICS_BY_ID.addToCache(topic.getTopicId(), new Topic(topic));
 	}
 
+	/**
+	 * Call this method after the links from a topic have been changed to update
+	 * the weights of the linked topics in the topic suggestion index.  Topics
+	 * that are no longer linked to lose one from their weight, and topics that
+	 * are newly linked to gain one.
+	 *
+	 * @param virtualWiki The virtual wiki of the topic whose links were changed.
+	 * @param previousLinks The names of the topics previously linked to.
+	 * @param currentLinks The names of the topics now linked to.
+	 */
+	private void cacheTopicSuggestionLinks(String virtualWiki, Collection<String> previousLinks, Collection<String> currentLinks) {
+		TopicSuggestionIndex topicSuggestionIndex = TOPIC_SUGGESTION_INDEXES.get(virtualWiki);
+		if (topicSuggestionIndex == null) {
+			return;
+		}
+		for (String topicName : previousLinks) {
+			if (!currentLinks.contains(topicName)) {
+				topicSuggestionIndex.adjustWeight(topicName, -1);
+			}
+		}
+		for (String topicName : currentLinks) {
+			if (!previousLinks.contains(topicName)) {
+				topicSuggestionIndex.adjustWeight(topicName, 1);
+			}
+		}
+	}
+
+	/**
+	 * Call this method after a topic is added, moved or deleted to update the
+	 * topic suggestion index for the topic's virtual wiki.  If the index has not
+	 * yet been loaded then no action is taken since the topic will be picked up
+	 * when the index is initialized.
+	 *
+	 * @param topic The topic that has been added/updated.
+	 */
+	private void cacheTopicSuggestionRefresh(Topic topic) {
+		TopicSuggestionIndex topicSuggestionIndex = TOPIC_SUGGESTION_INDEXES.get(topic.getVirtualWiki());
+		if (topicSuggestionIndex == null) {
+			return;
+		}
+		if (topic.getDeleteDate() != null) {
+			topicSuggestionIndex.remove(topic.getName());
+			return;
+		}
+		if (topicSuggestionIndex.contains(topic.getName())) {
+			// existing topic, link counts are updated as links to it change
+			return;
+		}
+		int weight = 0;
+		try {
+			int virtualWikiId = this.lookupVirtualWikiId(topic.getVirtualWiki());
+			weight = this.queryHandler().lookupTopicLinkCount(virtualWikiId, topic.getNamespace().getId(), StringUtils.capitalize(topic.getPageName()));
+		} catch (DataAccessException e) {
+			logger.warn("Failure while retrieving link count for topic " + topic.getVirtualWiki() + ':' + topic.getName(), e);
+		} catch (SQLException e) {
+			logger.warn("Failure while retrieving link count for topic " + topic.getVirtualWiki() + ':' + topic.getName(), e);
+		}
+		topicSuggestionIndex.add(topic.getName(), weight);
+	}
+
 	/**
 	 * Determine if a topic can be moved to a new location.  If the
 	 * destination is not an existing topic, is a topic that has been deleted,
@@ -465,6 +551,8 @@ public class AnsiDataHandler {
 			DatabaseConnection.closeConnection(conn);
 		}
 		CACHE_INTERWIKI_LIST.removeAllFromCache();
+		ResponseCache.purgeAll();
+		LayoutCache.purgeAll();
 	}
 
 	/**
@@ -518,6 +606,7 @@ public class AnsiDataHandler {
 			throw e;
 		}
 		DatabaseConnection.commit(status);
+		FeedCache.purgeVirtualWiki(topic.getVirtualWiki());
 	}
 
 	/**
@@ -919,6 +1008,27 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Return a trie of all active IP address and IP range blocks.  The trie is
+	 * built from the active user blocks and is rebuilt whenever a block is
+	 * added or removed.
+	 */
+	private IpAddressTrie<UserBlock> getUserBlockRanges() throws DataAccessException {
+		IpAddressTrie<UserBlock> userBlockRanges = CACHE_USER_BLOCK_RANGES.retrieveFromCache(CACHE_USER_BLOCK_RANGES.getCacheName());
+		if (userBlockRanges != null) {
+			return userBlockRanges;
+		}
+		Map<String, UserBlock> ipAddressBlocks = new HashMap<String, UserBlock>();
+		for (UserBlock userBlock : this.getUserBlocks().values()) {
+			if (userBlock.getIpAddress() != null) {
+				ipAddressBlocks.put(userBlock.getIpAddress(), userBlock);
+			}
+		}
+		userBlockRanges = new IpAddressTrie<UserBlock>(ipAddressBlocks);
+		CACHE_USER_BLOCK_RANGES.addToCache(CACHE_USER_BLOCK_RANGES.getCacheName(), userBlockRanges);
+		return userBlockRanges;
+	}
+
 	/**
 	 * Return a map of all active user blocks, where the key is the ip or user id
 	 * of the blocked user and the value is the UserBlock object.
@@ -1349,6 +1459,22 @@ public class AnsiDataHandler {
 		return result;
 	}
 
+	/**
+	 * Retrieve the names of all categories that a topic belongs to.
+	 *
+	 * @param topicId The ID of the topic whose categories are being retrieved.
+	 * @return A list of category names, or an empty list if the topic does not
+	 *  belong to any categories.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public List<String> lookupTopicCategories(int topicId) throws DataAccessException {
+		try {
+			return this.queryHandler().lookupTopicCategories(topicId);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
 	/**
 	 * Return a count of all topics, including redirects, comments pages and
 	 * templates, for the given virtual wiki.  Deleted topics are not included
@@ -1500,6 +1626,43 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Return the names of non-deleted topics that begin with a given prefix,
+	 * ignoring case.  Results are served from an in-memory index and ordered
+	 * so that the topics with the most inbound links are returned first.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being queried.
+	 * @param prefix The text that all returned topic names must begin with,
+	 *  including any namespace label.
+	 * @param limit The maximum number of results to return.
+	 * @return A list of matching topic names, or an empty list if no topics
+	 *  match.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public List<String> lookupTopicSuggestions(String virtualWiki, String prefix, int limit) throws DataAccessException {
+		if (StringUtils.isBlank(virtualWiki) || StringUtils.isEmpty(prefix)) {
+			return new ArrayList<String>();
+		}
+		TopicSuggestionIndex topicSuggestionIndex = TOPIC_SUGGESTION_INDEXES.get(virtualWiki);
+		if (topicSuggestionIndex == null) {
+			int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+			if (virtualWikiId == -1) {
+				return new ArrayList<String>();
+			}
+			long start = System.currentTimeMillis();
+			try {
+				topicSuggestionIndex = new TopicSuggestionIndex(this.queryHandler().lookupTopicLinkCounts(virtualWikiId));
+			} catch (SQLException e) {
+				throw new DataAccessException(e);
+			}
+			TOPIC_SUGGESTION_INDEXES.put(virtualWiki, topicSuggestionIndex);
+			if (logger.isInfoEnabled()) {
+				logger.info("Loaded topic suggestion index for " + virtualWiki + " (" + topicSuggestionIndex.size() + " topics) in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+			}
+		}
+		return topicSuggestionIndex.suggest(prefix, limit);
+	}
+
 	/**
 	 * Retrieve a TopicVersion object for a given topic version ID.
 	 *
@@ -1541,12 +1704,15 @@ public class AnsiDataHandler {
 	}
 
 	/**
-	 * Find any active user block for the given user or IP address.
+	 * Find any active user block for the given user or IP address.  If no
+	 * active block exists for exactly the given IP address (or CIDR range) then
+	 * the active block for the most specific range containing the IP address is
+	 * returned.
 	 *
 	 * @param wikiUserId The wiki user ID, or <code>null</code> if the search is
 	 *  by IP address.
-	 * @param ipAddress The IP address, or <code>null</code> if the search is by
-	 *  user ID.
+	 * @param ipAddress The IP address or CIDR range, or <code>null</code> if
+	 *  the search is by user ID.
 	 * @return A currently-active user block for the ID or IP address, or
 	 *  <code>null</code> if no block is currently active.
 	 * @throws DataAccessException Thrown if any error occurs during method execution.
@@ -1557,8 +1723,19 @@ public class AnsiDataHandler {
 		if (wikiUserId != null) {
 			userBlock = userBlocks.get(wikiUserId);
 		}
-		if (userBlock == null && ipAddress != null) {
+		if ((userBlock == null || userBlock.isExpired()) && ipAddress != null) {
 			userBlock = userBlocks.get(ipAddress);
+			if (userBlock == null || userBlock.isExpired()) {
+				// cached blocks may have expired, so an expired block must not hide
+				// an active block for a less specific range
+				userBlock = null;
+				for (UserBlock rangeBlock : this.getUserBlockRanges().lookupAll(ipAddress)) {
+					if (!rangeBlock.isExpired()) {
+						userBlock = rangeBlock;
+						break;
+					}
+				}
+			}
 		}
 		// verify that the block has not expired since being cached
 		return (userBlock != null && userBlock.isExpired()) ? null : userBlock;
@@ -1637,6 +1814,68 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Retrieve WikiFile objects for a group of topic names.  The result is the
+	 * same as calling {@link #lookupWikiFile(String, String)} for each topic
+	 * name, but file records are retrieved with a small number of bulk queries
+	 * rather than one query per file, which matters for pages such as galleries
+	 * that display a large number of images.
+	 *
+	 * @param virtualWiki The virtual wiki for the files being queried.
+	 * @param topicNames The topic names for the files being queried.
+	 * @return A map of topic name and WikiFile.  Every topic name in the
+	 *  collection is included in the map, with a <code>null</code> value if no
+	 *  matching WikiFile exists.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public Map<String, WikiFile> lookupWikiFiles(String virtualWiki, Collection<String> topicNames) throws DataAccessException {
+		Map<String, WikiFile> results = new HashMap<String, WikiFile>();
+		// topics are generally available from the topic cache, so look them up
+		// individually and group the topic ids by the virtual wiki of the topic
+		Map<String, Topic> topics = new LinkedHashMap<String, Topic>();
+		Map<String, List<Integer>> topicIds = new HashMap<String, List<Integer>>();
+		for (String topicName : topicNames) {
+			results.put(topicName, null);
+			if (StringUtils.isBlank(virtualWiki) || StringUtils.isBlank(topicName)) {
+				continue;
+			}
+			Namespace namespace = LinkUtil.retrieveTopicNamespace(virtualWiki, topicName);
+			String pageName = LinkUtil.retrieveTopicPageName(namespace, virtualWiki, topicName);
+			Topic topic = this.lookupTopic(virtualWiki, namespace, pageName, false, null);
+			if (topic == null) {
+				continue;
+			}
+			topics.put(topicName, topic);
+			List<Integer> virtualWikiTopicIds = topicIds.get(topic.getVirtualWiki());
+			if (virtualWikiTopicIds == null) {
+				virtualWikiTopicIds = new ArrayList<Integer>();
+				topicIds.put(topic.getVirtualWiki(), virtualWikiTopicIds);
+			}
+			virtualWikiTopicIds.add(topic.getTopicId());
+		}
+		Map<String, Map<Integer, WikiFile>> wikiFiles = new HashMap<String, Map<Integer, WikiFile>>();
+		try {
+			for (Map.Entry<String, List<Integer>> entry : topicIds.entrySet()) {
+				int virtualWikiId = this.lookupVirtualWikiId(entry.getKey());
+				wikiFiles.put(entry.getKey(), this.queryHandler().lookupWikiFiles(virtualWikiId, entry.getKey(), entry.getValue()));
+			}
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+		for (Map.Entry<String, Topic> entry : topics.entrySet()) {
+			Topic topic = entry.getValue();
+			WikiFile wikiFile = wikiFiles.get(topic.getVirtualWiki()).get(topic.getTopicId());
+			if (wikiFile == null && this.useSharedVirtualWiki(topic.getVirtualWiki(), topic.getNamespace())) {
+				// see the shared virtual wiki corner case in lookupWikiFile.  this
+				// should be rare, so the file is looked up individually.
+				String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+				wikiFile = this.lookupWikiFile(sharedVirtualWiki, topic.getNamespace(), topic.getPageName());
+			}
+			results.put(entry.getKey(), wikiFile);
+		}
+		return results;
+	}
+
 	/**
 	 * Return a count of all wiki files for the given virtual wiki.  Deleted
 	 * files are not included in the count.
@@ -1656,6 +1895,24 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Return a count of all wiki file versions, including versions of deleted
+	 * files, that refer to the specified file URL.  When identical uploads
+	 * share a single stored file this count is the number of references to
+	 * that file.
+	 *
+	 * @param url The file URL relative to the file upload root.
+	 * @return The total number of file versions that refer to the URL.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public int lookupWikiFileVersionCount(String url) throws DataAccessException {
+		try {
+			return this.queryHandler().lookupWikiFileVersionCount(url);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
 	/**
 	 * Retrieve a WikiGroup object for a given group name.
 	 *
@@ -1936,6 +2193,7 @@ public class AnsiDataHandler {
 			throw new DataAccessException(e);
 		}
 		DatabaseConnection.commit(status);
+		FeedCache.purgeVirtualWiki(topic.getVirtualWiki());
 	}
 
 	/**
@@ -2016,6 +2274,15 @@ public class AnsiDataHandler {
 			throw new DataAccessException(e);
 		}
 		DatabaseConnection.commit(status);
+		FeedCache.purgeAll();
+	}
+
+	/**
+	 * Discard all topic suggestion indexes so that they will be reloaded, with
+	 * current link counts, the next time that suggestions are requested.
+	 */
+	public void resetTopicSuggestions() {
+		TOPIC_SUGGESTION_INDEXES.clear();
 	}
 
 	/**
@@ -2255,6 +2522,31 @@ public class AnsiDataHandler {
 		}
 	}
 
+	/**
+	 * Update the stored image dimensions for a file version.  This method is
+	 * used to record dimensions for images uploaded before dimensions were
+	 * stored with the file version.
+	 *
+	 * @param fileVersionId The ID of the file version being updated.
+	 * @param imageWidth The width (in pixels) of the image, or <code>0</code>
+	 *  if the file is not an image.
+	 * @param imageHeight The height (in pixels) of the image, or <code>0</code>
+	 *  if the file is not an image.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public void updateWikiFileVersionDimensions(int fileVersionId, int imageWidth, int imageHeight) throws DataAccessException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction();
+			Connection conn = DatabaseConnection.getConnection();
+			this.queryHandler().updateWikiFileVersionDimensions(fileVersionId, imageWidth, imageHeight, conn);
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			throw new DataAccessException(e);
+		}
+		DatabaseConnection.commit(status);
+	}
+
 	/**
 	 *
 	 */
@@ -2363,6 +2655,7 @@ public class AnsiDataHandler {
 			throw e;
 		}
 		DatabaseConnection.commit(status);
+		ResponseCache.purgeVirtualWiki(wikiFile.getVirtualWiki());
 	}
 
 	/**
@@ -2388,6 +2681,8 @@ public class AnsiDataHandler {
 		}
 		DatabaseConnection.commit(status);
 		CACHE_INTERWIKI_LIST.removeAllFromCache();
+		ResponseCache.purgeAll();
+		LayoutCache.purgeAll();
 	}
 
 	/**
@@ -2412,6 +2707,8 @@ public class AnsiDataHandler {
 		}
 		DatabaseConnection.commit(status);
 		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		ResponseCache.purgeAll();
+		LayoutCache.purgeAll();
 	}
 
 	/**
@@ -2440,6 +2737,8 @@ public class AnsiDataHandler {
 		}
 		DatabaseConnection.commit(status);
 		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		ResponseCache.purgeAll();
+		LayoutCache.purgeAll();
 	}
 
 	/**
@@ -2499,6 +2798,7 @@ public class AnsiDataHandler {
 			}
 			// flush the cache
 			CACHE_ROLE_MAP_GROUP.removeAllFromCache();
+			ResponseCache.purgeAll();
 		} catch (SQLException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw new DataAccessException(e);
@@ -2566,9 +2866,21 @@ public class AnsiDataHandler {
 		long start = System.currentTimeMillis();
 		LinkUtil.validateTopicName(topic.getVirtualWiki(), topic.getName(), false);
 		TransactionStatus status = null;
+		// names of linked topics before and after the update, used to update the
+		// suggestion index if it has been loaded
+		Set<String> previousLinks = null;
+		Set<String> currentLinks = null;
 		try {
 			status = DatabaseConnection.startTransaction();
 			Connection conn = DatabaseConnection.getConnection();
+			if (links != null && TOPIC_SUGGESTION_INDEXES.containsKey(topic.getVirtualWiki())) {
+				previousLinks = new HashSet<String>();
+				if (topic.getTopicId() > 0) {
+					for (Topic linkedTopic : this.queryHandler().lookupTopicLinkTargets(topic, conn)) {
+						previousLinks.add(linkedTopic.getName());
+					}
+				}
+			}
 			if (topic.getTopicId() <= 0) {
 				// create the initial topic record
 				addTopic(topic, conn);
@@ -2620,9 +2932,11 @@ public class AnsiDataHandler {
 			if (links != null) {
 				// add / remove links associated with the topic
 				this.deleteTopicLinks(topic.getTopicId(), conn);
-				if (topic.getDeleteDate() == null && !links.isEmpty()) {
-					this.addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId(), conn);
+				Map<String, Topic> linksMap = (topic.getDeleteDate() == null) ? this.buildTopicLinks(links, topic.getVirtualWiki()) : new HashMap<String, Topic>();
+				if (!linksMap.isEmpty()) {
+					this.addTopicLinks(linksMap, topic.getTopicId(), conn);
 				}
+				currentLinks = linksMap.keySet();
 			}
 			if (topicVersion != null) {
 				// topic version is only null during changes that aren't user visible
@@ -2641,6 +2955,13 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 		// update the cache AFTER the commit
 		this.cacheTopicRefresh(topic, true, null);
+		FeedCache.purgeVirtualWiki(topic.getVirtualWiki());
+		if (previousLinks != null) {
+			// update link weights first so that a new topic's weight, which is read
+			// from the database, is not adjusted for any link to itself
+			this.cacheTopicSuggestionLinks(topic.getVirtualWiki(), previousLinks, currentLinks);
+		}
+		this.cacheTopicSuggestionRefresh(topic);
 		if (logger.isDebugEnabled()) {
 			logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 		}
@@ -2717,6 +3038,8 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 		// flush the cache
 		CACHE_USER_BLOCKS_ACTIVE.removeAllFromCache();
+		CACHE_USER_BLOCK_RANGES.removeAllFromCache();
+		FeedCache.purgeAll();
 	}
 
 	/**
@@ -2754,6 +3077,8 @@ public class AnsiDataHandler {
 		DatabaseConnection.commit(status);
 		// flush the cache
 		CACHE_VIRTUAL_WIKI_LIST.removeAllFromCache();
+		ResponseCache.purgeAll();
+		LayoutCache.purgeAll();
 	}
 
 	/**
@@ -2892,12 +3217,13 @@ public class AnsiDataHandler {
 	 */
 	public void writeWikiUser(WikiUser user, String username, String encryptedPassword) throws DataAccessException, WikiException {
 		WikiUtil.validateUserName(user.getUsername());
+		boolean newUser = (user.getUserId() <= 0);
 		TransactionStatus status = null;
 		Connection conn = null;
 		try {
 			status = DatabaseConnection.startTransaction();
 			conn = DatabaseConnection.getConnection();
-			if (user.getUserId() <= 0) {
+			if (newUser) {
 				WikiUserDetails userDetails = new WikiUserDetails(username, encryptedPassword);
 				this.addUserDetails(userDetails, conn);
 				this.addWikiUser(user, conn);
@@ -2926,6 +3252,10 @@ public class AnsiDataHandler {
 			// update the cache AFTER the commit
 			CACHE_USER_BY_USER_ID.addToCache(user.getUserId(), user);
 			CACHE_USER_BY_USER_NAME.addToCache(user.getUsername(), user);
+			if (newUser) {
+				// new users are added to recent changes
+				FeedCache.purgeAll();
+			}
 		} catch (DataAccessException e) {
 			DatabaseConnection.rollbackOnException(status, e);
 			throw e;
@@ -3030,4 +3360,50 @@ public class AnsiDataHandler {
 			throw new DataAccessException(e);
 		}
 	}
+
+	/**
+	 * Get info of desired version of image without retrieving the image data.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return The image info or null if image version not found. Result's width and height components
+	 * must be negative when data are not an image.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws DataAccessException {
+		try {
+			return this.queryHandler().getImageVersionInfo(fileVersionId, resized);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
+
+	/**
+	 * Stream a file stored in the database to a callback.  Unlike
+	 * {@link #getImageData} and {@link #getImageVersionData} the file data is
+	 * not loaded into memory, making this method suitable for serving large
+	 * files.
+	 *
+	 * @param fileId File identifier, used to retrieve the latest version of the
+	 *  file when fileVersionId is not specified.
+	 * @param fileVersionId File version identifier, or zero to retrieve the latest
+	 *  version of the file.
+	 * @param resized Image width or zero for original.
+	 * @param callback The callback that will process the file data.
+	 * @return <code>true</code> if the file was found and passed to the
+	 *  callback, <code>false</code> otherwise.
+	 * @throws DataAccessException Thrown if any error occurs during method execution.
+	 * @throws IOException Thrown by the callback if an error occurs while
+	 *  processing the file data.
+	 */
+	public boolean streamImageData(int fileId, int fileVersionId, int resized, ImageDataCallback callback) throws DataAccessException, IOException {
+		try {
+			if (fileVersionId != 0) {
+				return this.queryHandler().streamImageVersionData(fileVersionId, resized, callback);
+			}
+			return this.queryHandler().streamImageData(fileId, resized, callback);
+		} catch (SQLException e) {
+			throw new DataAccessException(e);
+		}
+	}
 }
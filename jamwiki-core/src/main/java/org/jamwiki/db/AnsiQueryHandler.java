@@ -16,6 +16,10 @@
  */
 package org.jamwiki.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -33,6 +37,7 @@ import java.util.TreeMap;
 import java.util.Properties;
 
 // import org.apache.commons.lang.ObjectUtils.Null;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.model.Category;
@@ -66,6 +71,8 @@ public class AnsiQueryHandler implements QueryHandler {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiQueryHandler.class.getName());
 	protected static final String SQL_PROPERTY_FILE_NAME = "sql/sql.ansi.properties";
+	/** Maximum number of parameters to use in a single SQL "in" clause. */
+	private static final int MAX_IN_CLAUSE_PARAMETERS = 100;
 
 	protected static String STATEMENT_CONNECTION_VALIDATION_QUERY = null;
 	protected static String STATEMENT_CREATE_AUTHORITIES_TABLE = null;
@@ -101,6 +108,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_CREATE_WATCHLIST_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_FILE_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE = null;
+	protected static String STATEMENT_CREATE_WIKI_FILE_VERSION_URL_INDEX = null;
 	protected static String STATEMENT_CREATE_WIKI_USER_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_USER_LOGIN_INDEX = null;
 	protected static String STATEMENT_CREATE_USER_PREFERENCES_DEFAULTS_TABLE = null;
@@ -215,10 +223,14 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_ROLES = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_TYPE = null;
+	protected static String STATEMENT_SELECT_TOPIC_CATEGORIES = null;
 	protected static String STATEMENT_SELECT_TOPIC_COUNT = null;
 	protected static String STATEMENT_SELECT_TOPIC = null;
 	protected static String STATEMENT_SELECT_TOPIC_HISTORY = null;
+	protected static String STATEMENT_SELECT_TOPIC_LINK_COUNT = null;
+	protected static String STATEMENT_SELECT_TOPIC_LINK_COUNTS = null;
 	protected static String STATEMENT_SELECT_TOPIC_LINK_ORPHANS = null;
+	protected static String STATEMENT_SELECT_TOPIC_LINK_TARGETS = null;
 	protected static String STATEMENT_SELECT_TOPIC_LINKS = null;
 	protected static String STATEMENT_SELECT_TOPIC_LOWER = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAME = null;
@@ -237,9 +249,11 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_WATCHLIST = null;
 	protected static String STATEMENT_SELECT_WATCHLIST_CHANGES = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE = null;
+	protected static String STATEMENT_SELECT_WIKI_FILES = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_COUNT = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE = null;
+	protected static String STATEMENT_SELECT_WIKI_FILE_VERSION_URL_COUNT = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_VERSIONS = null;
 	protected static String STATEMENT_SELECT_WIKI_USER = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = null;
@@ -264,6 +278,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_UPDATE_USER_BLOCK = null;
 	protected static String STATEMENT_UPDATE_VIRTUAL_WIKI = null;
 	protected static String STATEMENT_UPDATE_WIKI_FILE = null;
+	protected static String STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS = null;
 	protected static String STATEMENT_UPDATE_WIKI_USER = null;
 	protected static String STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS = null;
 	protected static String STATEMENT_CREATE_FILE_DATA_TABLE = null;
@@ -273,6 +288,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_FILE_INFO = null;
 	protected static String STATEMENT_SELECT_FILE_DATA = null;
 	protected static String STATEMENT_SELECT_FILE_VERSION_DATA = null;
+	protected static String STATEMENT_SELECT_FILE_VERSION_INFO = null;
 	protected static String STATEMENT_CREATE_SEQUENCES = null;
 	protected static String STATEMENT_DROP_SEQUENCES = null;
 	private Properties props = null;
@@ -343,6 +359,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_TOPIC_LINKS_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WIKI_FILE_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE, conn);
+		DatabaseConnection.executeUpdate(STATEMENT_CREATE_WIKI_FILE_VERSION_URL_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_CATEGORY_TABLE, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_CATEGORY_INDEX, conn);
 		DatabaseConnection.executeUpdate(STATEMENT_CREATE_GROUP_TABLE, conn);
@@ -1317,6 +1334,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_CREATE_USERS_TABLE             = props.getProperty("STATEMENT_CREATE_USERS_TABLE");
 		STATEMENT_CREATE_WIKI_FILE_TABLE         = props.getProperty("STATEMENT_CREATE_WIKI_FILE_TABLE");
 		STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE = props.getProperty("STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE");
+		STATEMENT_CREATE_WIKI_FILE_VERSION_URL_INDEX = props.getProperty("STATEMENT_CREATE_WIKI_FILE_VERSION_URL_INDEX");
 		STATEMENT_CREATE_AUTHORITIES_TABLE       = props.getProperty("STATEMENT_CREATE_AUTHORITIES_TABLE");
 		STATEMENT_CREATE_CATEGORY_TABLE          = props.getProperty("STATEMENT_CREATE_CATEGORY_TABLE");
 		STATEMENT_CREATE_CATEGORY_INDEX          = props.getProperty("STATEMENT_CREATE_CATEGORY_INDEX");
@@ -1434,10 +1452,14 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_ROLES                   = props.getProperty("STATEMENT_SELECT_ROLES");
 		STATEMENT_SELECT_TOPIC_BY_ID             = props.getProperty("STATEMENT_SELECT_TOPIC_BY_ID");
 		STATEMENT_SELECT_TOPIC_BY_TYPE           = props.getProperty("STATEMENT_SELECT_TOPIC_BY_TYPE");
+		STATEMENT_SELECT_TOPIC_CATEGORIES        = props.getProperty("STATEMENT_SELECT_TOPIC_CATEGORIES");
 		STATEMENT_SELECT_TOPIC_COUNT             = props.getProperty("STATEMENT_SELECT_TOPIC_COUNT");
 		STATEMENT_SELECT_TOPIC                   = props.getProperty("STATEMENT_SELECT_TOPIC");
 		STATEMENT_SELECT_TOPIC_HISTORY           = props.getProperty("STATEMENT_SELECT_TOPIC_HISTORY");
+		STATEMENT_SELECT_TOPIC_LINK_COUNT        = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_COUNT");
+		STATEMENT_SELECT_TOPIC_LINK_COUNTS       = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_COUNTS");
 		STATEMENT_SELECT_TOPIC_LINK_ORPHANS      = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_ORPHANS");
+		STATEMENT_SELECT_TOPIC_LINK_TARGETS      = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_TARGETS");
 		STATEMENT_SELECT_TOPIC_LINKS             = props.getProperty("STATEMENT_SELECT_TOPIC_LINKS");
 		STATEMENT_SELECT_TOPIC_LOWER             = props.getProperty("STATEMENT_SELECT_TOPIC_LOWER");
 		STATEMENT_SELECT_TOPIC_NAME              = props.getProperty("STATEMENT_SELECT_TOPIC_NAME");
@@ -1456,9 +1478,11 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_WATCHLIST               = props.getProperty("STATEMENT_SELECT_WATCHLIST");
 		STATEMENT_SELECT_WATCHLIST_CHANGES       = props.getProperty("STATEMENT_SELECT_WATCHLIST_CHANGES");
 		STATEMENT_SELECT_WIKI_FILE               = props.getProperty("STATEMENT_SELECT_WIKI_FILE");
+		STATEMENT_SELECT_WIKI_FILES              = props.getProperty("STATEMENT_SELECT_WIKI_FILES");
 		STATEMENT_SELECT_WIKI_FILE_COUNT         = props.getProperty("STATEMENT_SELECT_WIKI_FILE_COUNT");
 		STATEMENT_SELECT_WIKI_FILE_SEQUENCE      = props.getProperty("STATEMENT_SELECT_WIKI_FILE_SEQUENCE");
 		STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE");
+		STATEMENT_SELECT_WIKI_FILE_VERSION_URL_COUNT = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSION_URL_COUNT");
 		STATEMENT_SELECT_WIKI_FILE_VERSIONS      = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSIONS");
 		STATEMENT_SELECT_WIKI_USER               = props.getProperty("STATEMENT_SELECT_WIKI_USER");
 		STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS");
@@ -1483,6 +1507,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_UPDATE_USER_BLOCK              = props.getProperty("STATEMENT_UPDATE_USER_BLOCK");
 		STATEMENT_UPDATE_VIRTUAL_WIKI            = props.getProperty("STATEMENT_UPDATE_VIRTUAL_WIKI");
 		STATEMENT_UPDATE_WIKI_FILE               = props.getProperty("STATEMENT_UPDATE_WIKI_FILE");
+		STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS = props.getProperty("STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS");
 		STATEMENT_UPDATE_WIKI_USER               = props.getProperty("STATEMENT_UPDATE_WIKI_USER");
 		STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS = props.getProperty("STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS");
 		STATEMENT_CREATE_FILE_DATA_TABLE         = props.getProperty("STATEMENT_CREATE_FILE_DATA_TABLE");
@@ -1492,6 +1517,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_FILE_INFO               = props.getProperty("STATEMENT_SELECT_FILE_INFO");
 		STATEMENT_SELECT_FILE_DATA               = props.getProperty("STATEMENT_SELECT_FILE_DATA");
 		STATEMENT_SELECT_FILE_VERSION_DATA       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_DATA");
+		STATEMENT_SELECT_FILE_VERSION_INFO       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_INFO");
 		STATEMENT_CREATE_SEQUENCES               = props.getProperty("STATEMENT_CREATE_SEQUENCES");
 		STATEMENT_DROP_SEQUENCES                 = props.getProperty("STATEMENT_DROP_SEQUENCES");
 	}
@@ -1690,6 +1716,8 @@ public class AnsiQueryHandler implements QueryHandler {
 		wikiFile.setDeleteDate(rs.getTimestamp("delete_date"));
 		wikiFile.setMimeType(rs.getString("mime_type"));
 		wikiFile.setFileSize(rs.getInt("file_size"));
+		wikiFile.setImageWidth(this.retrieveImageDimension(rs, "image_width"));
+		wikiFile.setImageHeight(this.retrieveImageDimension(rs, "image_height"));
 		return wikiFile;
 	}
 
@@ -1710,9 +1738,33 @@ public class AnsiQueryHandler implements QueryHandler {
 		wikiFileVersion.setMimeType(rs.getString("mime_type"));
 		wikiFileVersion.setAuthorDisplay(rs.getString("wiki_user_display"));
 		wikiFileVersion.setFileSize(rs.getInt("file_size"));
+		wikiFileVersion.setImageWidth(this.retrieveImageDimension(rs, "image_width"));
+		wikiFileVersion.setImageHeight(this.retrieveImageDimension(rs, "image_height"));
 		return wikiFileVersion;
 	}
 
+	/**
+	 * Image dimensions are stored as NULL for files uploaded prior to the
+	 * dimensions being recorded, in which case return -1 to indicate that the
+	 * dimension is unknown.
+	 */
+	private int retrieveImageDimension(ResultSet rs, String column) throws SQLException {
+		int dimension = rs.getInt(column);
+		return (rs.wasNull()) ? -1 : dimension;
+	}
+
+	/**
+	 * Set an image dimension parameter, storing NULL if the dimension is not
+	 * known.
+	 */
+	private void setImageDimension(PreparedStatement stmt, int index, int dimension) throws SQLException {
+		if (dimension < 0) {
+			stmt.setNull(index, Types.INTEGER);
+		} else {
+			stmt.setInt(index, dimension);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2250,6 +2302,8 @@ public class AnsiQueryHandler implements QueryHandler {
 			stmt.setTimestamp(index++, wikiFileVersion.getUploadDate());
 			stmt.setString(index++, wikiFileVersion.getMimeType());
 			stmt.setLong(index++, wikiFileVersion.getFileSize());
+			this.setImageDimension(stmt, index++, wikiFileVersion.getImageWidth());
+			this.setImageDimension(stmt, index++, wikiFileVersion.getImageHeight());
 			stmt.executeUpdate();
 			if (this.autoIncrementPrimaryKeys()) {
 				rs = stmt.getGeneratedKeys();
@@ -2598,6 +2652,28 @@ public class AnsiQueryHandler implements QueryHandler {
 		return stmt;
 	}
 
+	/**
+	 *
+	 */
+	public List<String> lookupTopicCategories(int topicId) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_CATEGORIES);
+			stmt.setInt(1, topicId);
+			rs = stmt.executeQuery();
+			List<String> results = new ArrayList<String>();
+			while (rs.next()) {
+				results.add(rs.getString("category_name"));
+			}
+			return results;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2655,6 +2731,48 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public int lookupTopicLinkCount(int virtualWikiId, int namespaceId, String pageName) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_LINK_COUNT);
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, namespaceId);
+			stmt.setString(3, pageName);
+			rs = stmt.executeQuery();
+			return (rs.next()) ? rs.getInt("link_count") : 0;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public Map<String, Integer> lookupTopicLinkCounts(int virtualWikiId) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_LINK_COUNTS);
+			stmt.setInt(1, virtualWikiId);
+			rs = stmt.executeQuery();
+			Map<String, Integer> results = new HashMap<String, Integer>();
+			while (rs.next()) {
+				results.put(rs.getString("topic_name"), rs.getInt("link_count"));
+			}
+			return results;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2708,6 +2826,28 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public List<Topic> lookupTopicLinkTargets(Topic topic, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_LINK_TARGETS);
+			stmt.setInt(1, topic.getTopicId());
+			rs = stmt.executeQuery();
+			List<Topic> results = new ArrayList<Topic>();
+			while (rs.next()) {
+				Namespace namespace = Namespace.namespace(rs.getInt("link_topic_namespace_id"));
+				results.add(new Topic(topic.getVirtualWiki(), namespace, rs.getString("link_topic_page_name")));
+			}
+			return results;
+		} finally {
+			// close only the statement and result set - leave the connection open for further use
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -2819,6 +2959,59 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public Map<Integer, WikiFile> lookupWikiFiles(int virtualWikiId, String virtualWikiName, List<Integer> topicIds) throws SQLException {
+		Map<Integer, WikiFile> results = new HashMap<Integer, WikiFile>();
+		if (topicIds.isEmpty()) {
+			return results;
+		}
+		Connection conn = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			// split large lists into batches to stay within database limits on
+			// the number of "in" clause parameters
+			for (int start = 0; start < topicIds.size(); start += MAX_IN_CLAUSE_PARAMETERS) {
+				List<Integer> batch = topicIds.subList(start, Math.min(start + MAX_IN_CLAUSE_PARAMETERS, topicIds.size()));
+				this.lookupWikiFiles(conn, virtualWikiId, virtualWikiName, batch, results);
+			}
+		} finally {
+			DatabaseConnection.closeConnection(conn);
+		}
+		return results;
+	}
+
+	/**
+	 *
+	 */
+	private void lookupWikiFiles(Connection conn, int virtualWikiId, String virtualWikiName, List<Integer> topicIds, Map<Integer, WikiFile> results) throws SQLException {
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < topicIds.size(); i++) {
+			placeholders.append((i == 0) ? "?" : ", ?");
+		}
+		String sql = this.formatStatement(STATEMENT_SELECT_WIKI_FILES, new Object[] {placeholders.toString()});
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.prepareStatement(sql);
+			stmt.setInt(1, virtualWikiId);
+			int i = 2;
+			for (Integer topicId : topicIds) {
+				stmt.setInt(i++, topicId);
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				int topicId = rs.getInt("topic_id");
+				if (!results.containsKey(topicId)) {
+					results.put(topicId, this.initWikiFile(rs, virtualWikiName));
+				}
+			}
+		} finally {
+			DatabaseConnection.closeConnection(null, stmt, rs);
+		}
+	}
+
 	/**
 	 * Return a count of all wiki files currently available on the Wiki.  This
 	 * method excludes deleted files.
@@ -2841,6 +3034,24 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public int lookupWikiFileVersionCount(String url) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_WIKI_FILE_VERSION_URL_COUNT);
+			stmt.setString(1, url);
+			rs = stmt.executeQuery();
+			return (rs.next()) ? rs.getInt("file_version_count") : 0;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
 	/**
 	 * 
 	 */
@@ -3682,6 +3893,22 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void updateWikiFileVersionDimensions(int fileVersionId, int imageWidth, int imageHeight, Connection conn) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS);
+			this.setImageDimension(stmt, 1, imageWidth);
+			this.setImageDimension(stmt, 2, imageHeight);
+			stmt.setInt(3, fileVersionId);
+			stmt.executeUpdate();
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -3817,7 +4044,11 @@ public class AnsiQueryHandler implements QueryHandler {
 			stmt.setInt(2, isResized ? imageData.width : 0);
 			stmt.setInt(3, imageData.width);
 			stmt.setInt(4, imageData.height);
-			stmt.setBytes(5, imageData.data);
+			if (imageData.data == null && imageData.dataStream != null) {
+				stmt.setBinaryStream(5, imageData.dataStream, imageData.dataLength);
+			} else {
+				stmt.setBytes(5, imageData.data);
+			}
 			stmt.executeUpdate();
 		} finally {
 			DatabaseConnection.closeStatement(stmt);
@@ -3894,4 +4125,85 @@ public class AnsiQueryHandler implements QueryHandler {
 			DatabaseConnection.closeConnection(conn, stmt, rs);
 		}
 	}
+
+	/**
+	 *
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(STATEMENT_SELECT_FILE_VERSION_INFO);
+			stmt.setInt(1, fileVersionId);
+			stmt.setInt(2, resized);
+			rs = stmt.executeQuery();
+			return (rs.next()) ? new ImageData(rs.getString(1), rs.getInt(2), rs.getInt(3), null) : null;
+		} finally {
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public boolean streamImageData(int fileId, int resized, ImageDataCallback callback) throws IOException, SQLException {
+		return this.streamImageData(STATEMENT_SELECT_FILE_DATA, fileId, resized, callback);
+	}
+
+	/**
+	 *
+	 */
+	public boolean streamImageVersionData(int fileVersionId, int resized, ImageDataCallback callback) throws IOException, SQLException {
+		return this.streamImageData(STATEMENT_SELECT_FILE_VERSION_DATA, fileVersionId, resized, callback);
+	}
+
+	/**
+	 * Execute a file data query and pass the result to the callback as a
+	 * stream.  Where the JDBC driver supports it the data is read through a
+	 * Blob so that it is not loaded into memory, otherwise (for example with
+	 * binary columns such as BYTEA or VARBINARY) the column value is read as
+	 * a byte array.
+	 */
+	private boolean streamImageData(String sql, int id, int resized, ImageDataCallback callback) throws IOException, SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		InputStream data = null;
+		try {
+			conn = DatabaseConnection.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setInt(1, id);
+			stmt.setInt(2, resized);
+			rs = stmt.executeQuery();
+			if (!rs.next()) {
+				return false;
+			}
+			ImageData imageData = new ImageData(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4), null);
+			Blob blob = null;
+			try {
+				blob = rs.getBlob(5);
+			} catch (SQLException e) {
+				// column cannot be read as a Blob, fall back to reading the bytes
+			}
+			long length;
+			if (blob != null) {
+				length = blob.length();
+				data = blob.getBinaryStream();
+			} else {
+				byte[] bytes = rs.getBytes(5);
+				if (bytes == null) {
+					return false;
+				}
+				length = bytes.length;
+				data = new ByteArrayInputStream(bytes);
+			}
+			callback.processImageData(imageData, length, data);
+			return true;
+		} finally {
+			IOUtils.closeQuietly(data);
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+		}
+	}
 }
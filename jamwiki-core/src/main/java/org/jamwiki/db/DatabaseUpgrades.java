@@ -105,4 +105,32 @@ public class DatabaseUpgrades {
 		}
 		DatabaseConnection.commit(status);
 	}
+
+	/**
+	 * Perform the required database upgrade steps when upgrading from versions
+	 * older than JAMWiki 2.0.
+	 */
+	public static void upgrade200(List<WikiMessage> messages) throws WikiException {
+		TransactionStatus status = null;
+		try {
+			status = DatabaseConnection.startTransaction(getTransactionDefinition());
+			Connection conn = DatabaseConnection.getConnection();
+			// store original image dimensions with file versions
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("UPGRADE_200_ADD_FILE_VERSION_TABLE_COLUMN_IMAGE_WIDTH", conn);
+			messages.add(new WikiMessage("upgrade.message.db.column.added", "image_width", "jam_file_version"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("UPGRADE_200_ADD_FILE_VERSION_TABLE_COLUMN_IMAGE_HEIGHT", conn);
+			messages.add(new WikiMessage("upgrade.message.db.column.added", "image_height", "jam_file_version"));
+			// identical uploads may share a file URL when content-addressed storage is enabled
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("UPGRADE_200_DROP_FILE_TABLE_URL_CONSTRAINT", conn);
+			messages.add(new WikiMessage("upgrade.message.db.data.updated", "jam_file"));
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("UPGRADE_200_DROP_FILE_VERSION_TABLE_URL_CONSTRAINT", conn);
+			WikiBase.getDataHandler().queryHandler().executeUpgradeUpdate("STATEMENT_CREATE_WIKI_FILE_VERSION_URL_INDEX", conn);
+			messages.add(new WikiMessage("upgrade.message.db.data.updated", "jam_file_version"));
+		} catch (SQLException e) {
+			DatabaseConnection.rollbackOnException(status, e);
+			logger.error("Database failure during upgrade", e);
+			throw new WikiException(new WikiMessage("upgrade.error.fatal", e.getMessage()));
+		}
+		DatabaseConnection.commit(status);
+	}
 }
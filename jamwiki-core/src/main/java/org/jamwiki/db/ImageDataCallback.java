@@ -0,0 +1,42 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.jamwiki.model.ImageData;
+
+/**
+ * Callback used to process file data stored in the database as a stream,
+ * allowing large files to be served without loading the entire file into
+ * memory.  The stream is only valid for the duration of the callback and is
+ * closed, along with the underlying database resources, once the callback
+ * returns.
+ */
+public interface ImageDataCallback {
+
+	/**
+	 * Process the data for a database file.
+	 *
+	 * @param imageData The file information.  The <code>data</code> field of
+	 *  this object is always <code>null</code>.
+	 * @param length The length of the file data in bytes.
+	 * @param data A stream from which the file data can be read.
+	 * @throws IOException Thrown if any error occurs while processing the data.
+	 */
+	void processImageData(ImageData imageData, long length, InputStream data) throws IOException;
+}
@@ -16,6 +16,7 @@
  */
 package org.jamwiki.db;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
@@ -862,6 +863,16 @@ public interface QueryHandler {
 	 */
 	Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) throws SQLException;
 
+	/**
+	 * Retrieve the names of all categories that a topic belongs to.
+	 *
+	 * @param topicId The ID of the topic whose categories are being retrieved.
+	 * @return A list of category names, or an empty list if the topic does not
+	 *  belong to any categories.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<String> lookupTopicCategories(int topicId) throws SQLException;
+
 	/**
 	 * Return a count of all topics, including redirects, comments pages and templates,
 	 * currently available on the Wiki.  This method excludes deleted topics.
@@ -898,6 +909,32 @@ public interface QueryHandler {
 	 */
 	String lookupTopicName(int virtualWikiId, String virtualWikiName, Namespace namespace, String pageName) throws SQLException;
 
+	/**
+	 * Count the number of topic links that point to a specific topic from
+	 * topics within the same virtual wiki.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the topic being linked to.
+	 *  Links from topics in other virtual wikis are not counted.
+	 * @param namespaceId The namespace id for the topic being linked to.
+	 * @param pageName The page name (topic name without the namespace) for the
+	 *  topic being linked to.
+	 * @return The number of topic link records that point to the given topic.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	int lookupTopicLinkCount(int virtualWikiId, int namespaceId, String pageName) throws SQLException;
+
+	/**
+	 * Retrieve the names of all non-deleted topics for a virtual wiki along
+	 * with the number of topic links that point to each of those topics from
+	 * topics within the same virtual wiki.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the topics being queried.
+	 * @return A map of topic name and inbound link count for all non-deleted
+	 *  topics in the virtual wiki.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	Map<String, Integer> lookupTopicLinkCounts(int virtualWikiId) throws SQLException;
+
 	/**
 	 * Find the names for all topics that link to a specified topic.
 	 *
@@ -922,6 +959,18 @@ public interface QueryHandler {
 	 */
 	List<String> lookupTopicLinkOrphans(int virtualWikiId, int namespaceId) throws SQLException;
 
+	/**
+	 * Find all topics that a specified topic links to.
+	 *
+	 * @param topic The topic whose links are being retrieved.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @return A list of topics (which may not exist) linked to from the topic.
+	 *  If no results are found then an empty list is returned.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	List<Topic> lookupTopicLinkTargets(Topic topic, Connection conn) throws SQLException;
+
 	/**
 	 * Retrieve a result set containing a specific topic version.
 	 *
@@ -970,6 +1019,23 @@ public interface QueryHandler {
 	 */
 	WikiFile lookupWikiFile(int virtualWikiId, String virtualWikiName, int topicId) throws SQLException;
 
+	/**
+	 * Retrieve wiki file information for a group of topics using a minimal
+	 * number of queries.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the wiki
+	 *  files being retrieved.
+	 * @param virtualWikiName The name of the virtual wiki for the virtual wiki of
+	 *  the topics being retrieved.
+	 * @param topicIds The ids of the parent topics for the wiki files being
+	 *  retrieved.
+	 * @return A map of topic id and WikiFile for all topics in the list that
+	 *  have a matching wiki file.  Topics without a wiki file are not included
+	 *  in the map.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	Map<Integer, WikiFile> lookupWikiFiles(int virtualWikiId, String virtualWikiName, List<Integer> topicIds) throws SQLException;
+
 	/**
 	 * Return a count of all wiki files currently available on the Wiki.  This
 	 * method excludes deleted files.
@@ -980,6 +1046,15 @@ public interface QueryHandler {
 	 */
 	int lookupWikiFileCount(int virtualWikiId) throws SQLException;
 
+	/**
+	 * Return a count of all wiki file versions, including versions of deleted
+	 * files, that refer to the specified file URL.
+	 *
+	 * @param url The file URL relative to the file upload root.
+	 * @return The total number of file versions that refer to the URL.
+	 */
+	int lookupWikiFileVersionCount(String url) throws SQLException;
+
 	/**
 	 * Retrieve the GroupMap associated with the group identified by groupId
 	 * @param groupId The GroupMap to retrieve
@@ -1241,6 +1316,21 @@ public interface QueryHandler {
 	 */
 	void updateWikiFile(WikiFile wikiFile, int virtualWikiId, Connection conn) throws SQLException;
 
+	/**
+	 * Update the stored image dimensions for a wiki file version.
+	 *
+	 * @param fileVersionId The ID of the file version record that is to be
+	 *  updated.
+	 * @param imageWidth The width (in pixels) of the image, <code>0</code> if
+	 *  the file is not an image, or <code>-1</code> if the width is not known.
+	 * @param imageHeight The height (in pixels) of the image, <code>0</code> if
+	 *  the file is not an image, or <code>-1</code> if the height is not known.
+	 * @param conn A database connection to use when connecting to the database
+	 *  from this method.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	void updateWikiFileVersionDimensions(int fileVersionId, int imageWidth, int imageHeight, Connection conn) throws SQLException;
+
 	/**
 	 * Update a group record in the database.
 	 *
@@ -1319,4 +1409,45 @@ public interface QueryHandler {
 	 * @throws SQLException Thrown if any error occurs during method execution.
 	 */
 	public ImageData getImageVersionData(int fileVersionId, int resized) throws SQLException;
+
+	/**
+	 * Get info of desired version of image without retrieving the image data.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return The image info or null if image version not found. Result's width and height components
+	 * must be negative when data are not an image. Result's data component is null.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public ImageData getImageVersionInfo(int fileVersionId, int resized) throws SQLException;
+
+	/**
+	 * Stream the latest version of a file to a callback without loading the
+	 * entire file into memory.
+	 *
+	 * @param fileId File identifier.
+	 * @param resized Image width or zero for original.
+	 * @param callback The callback that will process the file data.
+	 * @return <code>true</code> if the file was found and passed to the
+	 *  callback, <code>false</code> otherwise.
+	 * @throws IOException Thrown by the callback if an error occurs while
+	 *  processing the file data.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public boolean streamImageData(int fileId, int resized, ImageDataCallback callback) throws IOException, SQLException;
+
+	/**
+	 * Stream the desired version of a file to a callback without loading the
+	 * entire file into memory.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @param callback The callback that will process the file data.
+	 * @return <code>true</code> if the file version was found and passed to
+	 *  the callback, <code>false</code> otherwise.
+	 * @throws IOException Thrown by the callback if an error occurs while
+	 *  processing the file data.
+	 * @throws SQLException Thrown if any error occurs during method execution.
+	 */
+	public boolean streamImageVersionData(int fileVersionId, int resized, ImageDataCallback callback) throws IOException, SQLException;
 }
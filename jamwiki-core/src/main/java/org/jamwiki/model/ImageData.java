@@ -16,6 +16,7 @@
  */
 package org.jamwiki.model;
 
+import java.io.InputStream;
 import java.io.Serializable;
 
 /**
@@ -28,6 +29,14 @@ public class ImageData implements Serializable {
 	public int width;
 	public int height;
 	public byte data[];
+	/**
+	 * When writing large images, a stream from which the image data is read in
+	 * place of the <code>data</code> array so that the image need not be held in
+	 * memory.  The stream is not closed when the data is written.
+	 */
+	public transient InputStream dataStream;
+	/** The number of bytes to read from <code>dataStream</code>. */
+	public transient int dataLength;
 
 	/**
 	 *
@@ -46,4 +55,13 @@ public class ImageData implements Serializable {
 	public ImageData(String mimeType, int width, int height, byte data[]) {
 		this(-1, mimeType, width, height, data);
 	}
+
+	/**
+	 *
+	 */
+	public ImageData(String mimeType, int width, int height, InputStream dataStream, int dataLength) {
+		this(-1, mimeType, width, height, null);
+		this.dataStream = dataStream;
+		this.dataLength = dataLength;
+	}
 }
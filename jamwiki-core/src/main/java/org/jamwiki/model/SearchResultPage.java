@@ -0,0 +1,100 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides an object that holds a single page of search results, along with
+ * the information needed to retrieve the following page.
+ */
+public class SearchResultPage {
+
+	/** The search results for the current page. */
+	private final List<SearchResultEntry> results;
+	/** The total number of documents matching the search. */
+	private final int totalHits;
+	/** Opaque cursor identifying the position after the last result on this page. */
+	private final String nextCursor;
+	/** Map of namespace ID and number of matching documents in the namespace. */
+	private final Map<Integer, Integer> namespaceCounts;
+	/** Map of category name and number of matching documents in the category. */
+	private final Map<String, Integer> categoryCounts;
+
+	/**
+	 *
+	 */
+	public SearchResultPage(List<SearchResultEntry> results, int totalHits, String nextCursor) {
+		this(results, totalHits, nextCursor, null, null);
+	}
+
+	/**
+	 *
+	 */
+	public SearchResultPage(List<SearchResultEntry> results, int totalHits, String nextCursor, Map<Integer, Integer> namespaceCounts, Map<String, Integer> categoryCounts) {
+		this.results = results;
+		this.totalHits = totalHits;
+		this.nextCursor = nextCursor;
+		this.namespaceCounts = (namespaceCounts == null) ? Collections.<Integer, Integer>emptyMap() : namespaceCounts;
+		this.categoryCounts = (categoryCounts == null) ? Collections.<String, Integer>emptyMap() : categoryCounts;
+	}
+
+	/**
+	 * Return a map of category name and the number of documents matching the
+	 * search in that category, ordered by descending count.  The map may be
+	 * limited to the most common categories.
+	 */
+	public Map<String, Integer> getCategoryCounts() {
+		return this.categoryCounts;
+	}
+
+	/**
+	 * Return a map of namespace ID and the number of documents matching the
+	 * search in that namespace.  Counts reflect all hits for the search, not
+	 * only those on the current page.
+	 */
+	public Map<Integer, Integer> getNamespaceCounts() {
+		return this.namespaceCounts;
+	}
+
+	/**
+	 * Return a cursor value that can be passed to
+	 * {@link org.jamwiki.SearchEngine#findResults(String, String, List, org.jamwiki.utils.Pagination, String)}
+	 * to retrieve the page of results following this one, or <code>null</code>
+	 * if there are no further results or the search engine does not support
+	 * cursors.
+	 */
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+
+	/**
+	 *
+	 */
+	public List<SearchResultEntry> getResults() {
+		return this.results;
+	}
+
+	/**
+	 *
+	 */
+	public int getTotalHits() {
+		return this.totalHits;
+	}
+}
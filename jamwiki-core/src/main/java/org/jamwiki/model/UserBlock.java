@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.sql.Timestamp;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.WikiBase;
+import org.jamwiki.utils.IpAddressTrie;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 
@@ -39,7 +40,7 @@ public class UserBlock implements Serializable {
 	private int blockId = -1;
 	/** The reason the block was applied. */
 	private String blockReason;
-	/** The IP address to block.  Either IP or user ID are required. */
+	/** The IP address or CIDR range to block.  Either IP or user ID are required. */
 	private String ipAddress;
 	/** The date the block was lifted. */
 	private Timestamp unblockDate;
@@ -55,15 +56,16 @@ public class UserBlock implements Serializable {
 	 *
 	 * @param wikiUserId The ID of the user being blocked.  Either ID or IP address
 	 *  must be specified when applying a block.
-	 * @param ipAddress The IP address being blocked.  Either ID or IP address
-	 *  must be specified when applying a block.
+	 * @param ipAddress The IP address or CIDR range (such as "192.168.0.0/16")
+	 *  being blocked.  Either ID or IP address must be specified when applying
+	 *  a block.
 	 * @param blockEndDate The time when the block expires or <code>null</code> if
 	 *  the block is infinite.
 	 * @param blockedByUserId The ID of the user who is applying the block.
 	 * @throws IllegalArgumentException Thrown if a required parameter is missing.
 	 */
 	public UserBlock(Integer wikiUserId, String ipAddress, Timestamp blockEndDate, int blockedByUserId) {
-		if (wikiUserId == null && !Utilities.isIpAddress(ipAddress)) {
+		if (wikiUserId == null && !Utilities.isIpAddress(ipAddress) && !IpAddressTrie.isRange(ipAddress)) {
 			throw new IllegalArgumentException("Either a valid user ID or a valid IP address are required when initializing a user block.");
 		}
 		if (blockedByUserId < 1) {
@@ -181,9 +183,10 @@ public class UserBlock implements Serializable {
 	}
 
 	/**
-	 * Return the IP address to block.  Either IP or user ID are required.
+	 * Return the IP address or CIDR range to block.  Either IP or user ID are
+	 * required.
 	 *
-	 * @return The IP address to block.
+	 * @return The IP address or CIDR range to block.
 	 */
 	public String getIpAddress() {
 		return this.ipAddress;
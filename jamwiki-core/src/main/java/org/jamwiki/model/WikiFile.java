@@ -32,6 +32,8 @@ public class WikiFile implements Serializable {
 	private int fileId = -1;
 	private String fileName;
 	private long fileSize = -1;
+	private int imageHeight = -1;
+	private int imageWidth = -1;
 	private String mimeType = UNKNOWN_MIME_TYPE;
 	private boolean readOnly = false;
 	/** The URL is the image file path relative to the file upload directory. */
@@ -54,6 +56,8 @@ public class WikiFile implements Serializable {
 		this.fileId = wikiFile.getFileId();
 		this.fileName = wikiFile.getFileName();
 		this.fileSize = wikiFile.getFileSize();
+		this.imageHeight = wikiFile.getImageHeight();
+		this.imageWidth = wikiFile.getImageWidth();
 		this.mimeType = wikiFile.getMimeType();
 		this.readOnly = wikiFile.getReadOnly();
 		this.url = wikiFile.getUrl();
@@ -131,6 +135,38 @@ public class WikiFile implements Serializable {
 		this.fileSize = fileSize;
 	}
 
+	/**
+	 * Return the height (in pixels) of the current version of the image,
+	 * <code>0</code> if the file is not an image, or <code>-1</code> if the
+	 * height is not known.
+	 */
+	public int getImageHeight() {
+		return this.imageHeight;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageHeight(int imageHeight) {
+		this.imageHeight = imageHeight;
+	}
+
+	/**
+	 * Return the width (in pixels) of the current version of the image,
+	 * <code>0</code> if the file is not an image, or <code>-1</code> if the
+	 * width is not known.
+	 */
+	public int getImageWidth() {
+		return this.imageWidth;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageWidth(int imageWidth) {
+		this.imageWidth = imageWidth;
+	}
+
 	/**
 	 * This method will either return the MIME type set for the file, or a default
 	 * MIME type indicating that the MIME type is unknown.  This method will never
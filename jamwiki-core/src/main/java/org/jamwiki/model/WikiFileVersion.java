@@ -31,6 +31,8 @@ public class WikiFileVersion implements Serializable {
 	private int fileId = -1;
 	private long fileSize = -1;
 	private int fileVersionId = -1;
+	private int imageHeight = -1;
+	private int imageWidth = -1;
 	private String mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 	private String uploadComment;
 	private Timestamp uploadDate = new Timestamp(System.currentTimeMillis());
@@ -106,6 +108,36 @@ public class WikiFileVersion implements Serializable {
 		this.fileVersionId = fileVersionId;
 	}
 
+	/**
+	 * Return the height (in pixels) of the original image, <code>0</code> if the
+	 * file is not an image, or <code>-1</code> if the height is not known.
+	 */
+	public int getImageHeight() {
+		return this.imageHeight;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageHeight(int imageHeight) {
+		this.imageHeight = imageHeight;
+	}
+
+	/**
+	 * Return the width (in pixels) of the original image, <code>0</code> if the
+	 * file is not an image, or <code>-1</code> if the width is not known.
+	 */
+	public int getImageWidth() {
+		return this.imageWidth;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageWidth(int imageWidth) {
+		this.imageWidth = imageWidth;
+	}
+
 	/**
 	 * This method will either return the MIME type set for the file, or a default
 	 * MIME type indicating that the MIME type is unknown.  This method will never
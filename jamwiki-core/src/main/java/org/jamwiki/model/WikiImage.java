@@ -23,6 +23,7 @@ public class WikiImage extends WikiFile {
 
 	private int fileVersionId = -1;
 	private int height = -1;
+	private String hiDpiUrl = null;
 	private int width = -1;
 
 	/**
@@ -66,6 +67,22 @@ public class WikiImage extends WikiFile {
 		this.height = height;
 	}
 
+	/**
+	 * Return the relative URL of a version of the image with twice the
+	 * resolution of the displayed image for use on high-DPI displays, or
+	 * <code>null</code> if no such version is available.
+	 */
+	public String getHiDpiUrl() {
+		return this.hiDpiUrl;
+	}
+
+	/**
+	 *
+	 */
+	public void setHiDpiUrl(String hiDpiUrl) {
+		this.hiDpiUrl = hiDpiUrl;
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,264 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Content-addressed storage for uploaded files.  When enabled, uploads are
+ * hashed using SHA-256 as they are written and stored under a path derived
+ * from the hash, so identical content uploaded under different names or as a
+ * new version of an existing file is stored only once.  Since resized images
+ * are named after the original file URL, resized versions are shared by all
+ * uploads with the same content.
+ *
+ * Stored files are referenced by the URL of each file version that uses them,
+ * so the number of file versions with a given URL is the reference count for
+ * that file.  Callers that store a file must either {@link #commit} the URL
+ * once a file version referencing it has been written, or {@link #rollback}
+ * the URL if the upload is abandoned, in which case the file is deleted if no
+ * other file version refers to it.
+ */
+public abstract class ContentAddressedStorage {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ContentAddressedStorage.class.getName());
+	/** Directory (relative to the file upload root) under which content-addressed files are stored. */
+	static final String CONTENT_DIRECTORY = "/sha256";
+	/** Pattern matching content-addressed URLs, of the form /sha256/ab/cd/abcd....ext. */
+	private static final Pattern CONTENT_URL_PATTERN = Pattern.compile("/sha256/[0-9a-f]{2}/[0-9a-f]{2}/[0-9a-f]{64}(\\.[^/]+)?");
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	/** Number of uploads in progress for each URL that have not yet been committed or rolled back. */
+	private static final Map<String, Integer> PENDING = new HashMap<String, Integer>();
+
+	/**
+	 *
+	 */
+	private static void addPending(String url) {
+		Integer count = PENDING.get(url);
+		PENDING.put(url, (count == null) ? 1 : count + 1);
+	}
+
+	/**
+	 * Return the relative URL for content with the specified hash.  The first
+	 * two pairs of hex digits are used as directory names so that no single
+	 * directory holds more than a small fraction of all uploads.
+	 */
+	static String buildContentUrl(String hash, String filename) {
+		String extension = FilenameUtils.getExtension(filename);
+		String url = CONTENT_DIRECTORY + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+		return (StringUtils.isBlank(extension)) ? url : url + "." + extension.toLowerCase();
+	}
+
+	/**
+	 * Return the URL to use for stored content when it is saved under a
+	 * different file name than the one passed to {@link #store}.  Since the
+	 * stored file keeps the extension of the file name, a copy of the content
+	 * is stored if the extension changes.  The original URL is rolled back and
+	 * the returned URL must be committed or rolled back in its place.
+	 *
+	 * @param url The URL returned by {@link #store}.
+	 * @param filename The new name of the uploaded file.
+	 * @return The URL of the stored file for the new file name.
+	 * @throws DataAccessException Thrown if the reference count of the original
+	 *  URL cannot be determined.
+	 * @throws IOException Thrown if the content cannot be copied.
+	 */
+	public static String changeFilename(String url, String filename) throws DataAccessException, IOException {
+		if (!isContentUrl(url)) {
+			return url;
+		}
+		String newUrl = buildContentUrl(FilenameUtils.getBaseName(url), filename);
+		if (newUrl.equals(url)) {
+			return url;
+		}
+		synchronized (PENDING) {
+			File file = ImageUtil.buildAbsoluteFile(newUrl);
+			if (!file.exists()) {
+				File source = ImageUtil.buildAbsoluteFile(url);
+				File tempFile = File.createTempFile("upload", ".tmp", ImageUtil.buildAbsoluteFile(CONTENT_DIRECTORY));
+				try {
+					FileUtils.copyFile(source, tempFile);
+					if (!tempFile.renameTo(file)) {
+						throw new IOException("Unable to move upload to " + file.getAbsolutePath());
+					}
+				} finally {
+					FileUtils.deleteQuietly(tempFile);
+				}
+			}
+			addPending(newUrl);
+		}
+		rollback(url);
+		return newUrl;
+	}
+
+	/**
+	 * Indicate that a file version referencing a URL returned by {@link #store}
+	 * has been written.
+	 *
+	 * @param url The URL returned by {@link #store}.
+	 */
+	public static void commit(String url) {
+		synchronized (PENDING) {
+			removePending(url);
+		}
+	}
+
+	/**
+	 * Delete a stored file and any resized versions of it.
+	 */
+	private static void delete(String url) {
+		File file = ImageUtil.buildAbsoluteFile(url);
+		FileUtils.deleteQuietly(file);
+		// resized images are named after the original, so they are stored in
+		// the corresponding directory under the resized image folder
+		File resizedDirectory = ImageUtil.buildAbsoluteFile(ImageUtil.RESIZED_IMAGE_SUBFOLDER + FilenameUtils.getFullPathNoEndSeparator(url));
+		File[] resizedFiles = resizedDirectory.listFiles();
+		if (resizedFiles != null) {
+			String prefix = FilenameUtils.getBaseName(url) + "-";
+			for (File resizedFile : resizedFiles) {
+				if (resizedFile.getName().startsWith(prefix)) {
+					FileUtils.deleteQuietly(resizedFile);
+				}
+			}
+		}
+		logger.info("Deleted unreferenced upload " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Return <code>true</code> if identical uploads should be stored only once.
+	 * Content-addressed storage is only available for files stored on the file
+	 * system.
+	 */
+	public static boolean isEnabled() {
+		return (ImageUtil.isImagesOnFS() && Environment.getBooleanValue(Environment.PROP_FILE_UPLOAD_DEDUPLICATE));
+	}
+
+	/**
+	 * Return <code>true</code> if the URL refers to a content-addressed file.
+	 */
+	public static boolean isContentUrl(String url) {
+		return (url != null && CONTENT_URL_PATTERN.matcher(url).matches());
+	}
+
+	/**
+	 *
+	 */
+	private static void removePending(String url) {
+		Integer count = PENDING.get(url);
+		if (count == null || count <= 1) {
+			PENDING.remove(url);
+		} else {
+			PENDING.put(url, count - 1);
+		}
+	}
+
+	/**
+	 * Indicate that an upload stored using {@link #store} has been abandoned.
+	 * If no file version refers to the stored file and no other upload of the
+	 * same content is in progress then the file and any resized versions of it
+	 * are deleted.
+	 *
+	 * @param url The URL returned by {@link #store}.
+	 * @throws DataAccessException Thrown if the reference count cannot be
+	 *  determined.
+	 */
+	public static void rollback(String url) throws DataAccessException {
+		synchronized (PENDING) {
+			removePending(url);
+			if (!isContentUrl(url) || PENDING.containsKey(url)) {
+				return;
+			}
+			if (WikiBase.getDataHandler().lookupWikiFileVersionCount(url) == 0) {
+				delete(url);
+			}
+		}
+	}
+
+	/**
+	 * Store an upload, computing its SHA-256 hash while the data is written to a
+	 * temporary file.  If a file with the same content already exists the
+	 * temporary file is discarded, otherwise it is moved into place.  Each call
+	 * to this method must be followed by a call to either {@link #commit} or
+	 * {@link #rollback}.
+	 *
+	 * @param in The uploaded data.  The stream is not closed by this method.
+	 * @param filename The name of the uploaded file, used to determine the file
+	 *  extension of the stored file.
+	 * @return The URL of the stored file relative to the file upload root.
+	 * @throws IOException Thrown if the upload cannot be written.
+	 */
+	public static String store(InputStream in, String filename) throws IOException {
+		File tempDirectory = ImageUtil.buildAbsoluteFile(CONTENT_DIRECTORY);
+		FileUtils.forceMkdir(tempDirectory);
+		File tempFile = File.createTempFile("upload", ".tmp", tempDirectory);
+		String url;
+		try {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("JDK does not support the " + DIGEST_ALGORITHM + " algorithm");
+			}
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(tempFile);
+				byte[] buffer = new byte[8192];
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, count);
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+			url = buildContentUrl(new String(Hex.encodeHex(digest.digest())), filename);
+			synchronized (PENDING) {
+				File file = ImageUtil.buildAbsoluteFile(url);
+				if (!file.exists()) {
+					FileUtils.forceMkdir(file.getParentFile());
+					if (!tempFile.renameTo(file)) {
+						throw new IOException("Unable to move upload to " + file.getAbsolutePath());
+					}
+				} else if (logger.isDebugEnabled()) {
+					logger.debug("Upload " + filename + " is identical to existing file " + file.getAbsolutePath());
+				}
+				addPending(url);
+			}
+		} finally {
+			FileUtils.deleteQuietly(tempFile);
+		}
+		return url;
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Local disk cache for files stored in the database.  When uploaded files are
+ * stored in the database every image request would otherwise read the file
+ * data from the database, so original and resized files are copied to a
+ * directory under the JAMWiki system directory the first time they are served
+ * and subsequent requests are served from that copy.
+ *
+ * Cache entries are keyed by file version ID and resized width.  The data for
+ * a given file version and width never changes, so entries never need to be
+ * invalidated and are simply evicted on a least-recently-used basis once the
+ * total size of the cache exceeds the configured limit.  Entries are written
+ * to a temporary file that is then renamed so that a partially written file is
+ * never served.
+ *
+ * Requests for the current version of a file do not specify a file version ID,
+ * so the current version ID of each file is also remembered.  It is discarded
+ * when a new version of the file is uploaded, and also expires after a short
+ * time so that changes made outside of this JVM are eventually seen.
+ *
+ * The cache index is held in memory, so any files left over from a previous
+ * run are deleted when the cache is first used.
+ */
+public abstract class DatabaseFileCache {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(DatabaseFileCache.class.getName());
+	/** Directory (relative to the JAMWiki system directory) in which cached files are stored. */
+	private static final String CACHE_DIRECTORY = "file-cache";
+	/** Files larger than this fraction of the maximum cache size are not cached. */
+	private static final int MAX_ENTRY_FRACTION = 4;
+	/** Cache of file ID and the ID of the current version of the file. */
+	private static final WikiCache<Integer, Integer> CACHE_CURRENT_FILE_VERSION_IDS = new WikiCache<Integer, Integer>("org.jamwiki.parser.image.DatabaseFileCache.CACHE_CURRENT_FILE_VERSION_IDS");
+	/** Cache entries in access order, so that the first entry is the least recently used. */
+	private static final LinkedHashMap<String, CachedFile> ENTRIES = new LinkedHashMap<String, CachedFile>(16, 0.75f, true);
+	private static boolean initialized = false;
+	private static long totalSize = 0;
+
+	/**
+	 *
+	 */
+	private static String buildKey(int fileVersionId, int resized) {
+		return fileVersionId + "-" + resized;
+	}
+
+	/**
+	 * Return the directory in which cached files are stored, deleting any files
+	 * from a previous run the first time this method is called.
+	 */
+	private static File cacheDirectory() throws IOException {
+		File directory = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), CACHE_DIRECTORY);
+		if (!initialized) {
+			if (directory.exists()) {
+				FileUtils.cleanDirectory(directory);
+			}
+			initialized = true;
+		}
+		FileUtils.forceMkdir(directory);
+		return directory;
+	}
+
+	/**
+	 * Remove the least recently used entries until the cache is within its size
+	 * limit.  Must be called while holding the ENTRIES lock.
+	 */
+	private static void evict(long maxSize) {
+		Iterator<CachedFile> iterator = ENTRIES.values().iterator();
+		while (totalSize > maxSize && iterator.hasNext()) {
+			CachedFile cachedFile = iterator.next();
+			iterator.remove();
+			totalSize -= cachedFile.getLength();
+			FileUtils.deleteQuietly(cachedFile.getFile());
+			if (logger.isDebugEnabled()) {
+				logger.debug("Evicted cached database file " + cachedFile.getFile().getName());
+			}
+		}
+	}
+
+	/**
+	 * Return <code>true</code> if files stored in the database should be cached
+	 * on the local file system.
+	 */
+	public static boolean isEnabled() {
+		return (!ImageUtil.isImagesOnFS() && maxSize() > 0);
+	}
+
+	/**
+	 * Return the maximum total size of cached files in bytes.
+	 */
+	private static long maxSize() {
+		return Environment.getLongValue(Environment.PROP_FILE_DATABASE_CACHE_SIZE) * 1024 * 1024;
+	}
+
+	/**
+	 * Discard the remembered current version ID for a file.  This method must
+	 * be called whenever a new version of a file is written.
+	 *
+	 * @param fileId The ID of the file that has been updated.
+	 */
+	public static void removeCurrentFileVersionId(int fileId) {
+		CACHE_CURRENT_FILE_VERSION_IDS.removeFromCache(fileId);
+	}
+
+	/**
+	 * Return a cached file, or <code>null</code> if the file is not cached.
+	 *
+	 * @param fileVersionId The ID of the file version.
+	 * @param resized The resized width of the file, or zero for the original file.
+	 * @return The cached file, or <code>null</code> if the file is not cached.
+	 */
+	public static CachedFile retrieve(int fileVersionId, int resized) {
+		CachedFile cachedFile;
+		synchronized (ENTRIES) {
+			cachedFile = ENTRIES.get(buildKey(fileVersionId, resized));
+			if (cachedFile != null && !cachedFile.getFile().isFile()) {
+				// cached file was deleted outside of the cache
+				ENTRIES.remove(buildKey(fileVersionId, resized));
+				totalSize -= cachedFile.getLength();
+				cachedFile = null;
+			}
+		}
+		return cachedFile;
+	}
+
+	/**
+	 * Return the ID of the current version of a file if it is known, otherwise
+	 * return <code>null</code>.
+	 *
+	 * @param fileId The file ID.
+	 * @return The current file version ID, or <code>null</code> if the current
+	 *  version has not been recorded.
+	 */
+	public static Integer retrieveCurrentFileVersionId(int fileId) {
+		return CACHE_CURRENT_FILE_VERSION_IDS.retrieveFromCache(fileId);
+	}
+
+	/**
+	 * Remember the ID of the current version of a file.
+	 *
+	 * @param fileId The file ID.
+	 * @param fileVersionId The ID of the current version of the file.
+	 */
+	public static void setCurrentFileVersionId(int fileId, int fileVersionId) {
+		CACHE_CURRENT_FILE_VERSION_IDS.addToCache(fileId, fileVersionId);
+	}
+
+	/**
+	 * Copy file data to the cache.  The data is written to a temporary file
+	 * which is then renamed, so concurrent requests never see a partially
+	 * written file.
+	 *
+	 * @param fileVersionId The ID of the file version.
+	 * @param resized The resized width of the file, or zero for the original file.
+	 * @param mimeType The MIME type of the file.
+	 * @param length The length of the file data in bytes.
+	 * @param data A stream from which the file data is read.  The stream is not
+	 *  closed by this method.
+	 * @return The cached file, or <code>null</code> if the file is too large to
+	 *  be cached, in which case no data has been read from the stream.
+	 * @throws IOException Thrown if the file cannot be written to the cache.
+	 */
+	public static CachedFile store(int fileVersionId, int resized, String mimeType, long length, InputStream data) throws IOException {
+		long maxSize = maxSize();
+		if (length > (maxSize / MAX_ENTRY_FRACTION)) {
+			return null;
+		}
+		String key = buildKey(fileVersionId, resized);
+		File directory;
+		synchronized (ENTRIES) {
+			directory = cacheDirectory();
+		}
+		File file = new File(directory, key);
+		File tempFile = File.createTempFile("." + key, ".tmp", directory);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tempFile);
+			long copied = IOUtils.copyLarge(data, out);
+			out.close();
+			out = null;
+			if (copied != length) {
+				throw new IOException("Expected " + length + " bytes but read " + copied + " for file version " + fileVersionId);
+			}
+			synchronized (ENTRIES) {
+				if (!tempFile.renameTo(file)) {
+					// some platforms will not rename over an existing file
+					FileUtils.deleteQuietly(file);
+					if (!tempFile.renameTo(file)) {
+						throw new IOException("Unable to rename temporary file " + tempFile.getAbsolutePath() + " to " + file.getAbsolutePath());
+					}
+				}
+				CachedFile cachedFile = new CachedFile(file, mimeType, length);
+				CachedFile previous = ENTRIES.put(key, cachedFile);
+				if (previous != null) {
+					totalSize -= previous.getLength();
+				}
+				totalSize += length;
+				evict(maxSize);
+				return cachedFile;
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+			// no-op if the file was successfully renamed
+			FileUtils.deleteQuietly(tempFile);
+		}
+	}
+
+	/**
+	 * A file in the database file cache.
+	 */
+	public static final class CachedFile {
+
+		private final File file;
+		private final long length;
+		private final String mimeType;
+
+		/**
+		 *
+		 */
+		private CachedFile(File file, String mimeType, long length) {
+			this.file = file;
+			this.length = length;
+			this.mimeType = mimeType;
+		}
+
+		/**
+		 * Return the cached copy of the file data.
+		 */
+		public File getFile() {
+			return this.file;
+		}
+
+		/**
+		 * Return the length of the file data in bytes.
+		 */
+		public long getLength() {
+			return this.length;
+		}
+
+		/**
+		 * Return the MIME type of the file.
+		 */
+		public String getMimeType() {
+			return this.mimeType;
+		}
+	}
+}
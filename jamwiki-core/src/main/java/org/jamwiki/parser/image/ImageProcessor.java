@@ -19,17 +19,16 @@ package org.jamwiki.parser.image;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.io.FileUtils;
@@ -48,6 +47,12 @@ import org.jamwiki.utils.WikiUtil;
 public class ImageProcessor {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageProcessor.class.getName());
+	/**
+	 * When decoding an image that will be resized, source pixels are skipped so long
+	 * as the decoded image remains at least this many times larger than the resized
+	 * image, allowing the resize filter to smooth out any aliasing.
+	 */
+	private static final int SUBSAMPLING_MARGIN = 3;
 
 	static {
 		// manually set the ImageIO temp directory so that systems with incorrect defaults won't fail
@@ -66,9 +71,10 @@ public class ImageProcessor {
 
 	/**
 	 * Given a file that corresponds to an existing image, return a
-	 * BufferedImage object.
+	 * BufferedImage object, subsampled if the image is much larger than the
+	 * size that it will be resized to.
 	 */
-	private static BufferedImage loadImage(File file) throws IOException {
+	private static BufferedImage loadImage(File file, int targetWidth, int targetHeight) throws IOException {
 		if (!file.exists()) {
 			throw new FileNotFoundException("File does not exist: " + file.getAbsolutePath());
 		}
@@ -77,7 +83,7 @@ public class ImageProcessor {
 		FileInputStream fis = null;
 		try {
 			fis = new FileInputStream(file);
-			BufferedImage image = ImageIO.read(fis);
+			BufferedImage image = ImageProcessor.readImage(fis, targetWidth, targetHeight);
 			if (image == null) {
 				throw new IOException("JDK is unable to process image file, possibly indicating file corruption: " + file.getAbsolutePath());
 			}
@@ -111,16 +117,50 @@ public class ImageProcessor {
 		return imageData;
 	}
 
+	/**
+	 * Decode an image from a stream.  If the image is much larger than the size that
+	 * it will be resized to then source pixels are skipped while decoding so that very
+	 * large images are never fully decoded into memory.
+	 *
+	 * @return The decoded image, or <code>null</code> if no image reader is
+	 *  available for the image data.
+	 */
+	private static BufferedImage readImage(InputStream stream, int targetWidth, int targetHeight) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(stream);
+		if (iis == null) {
+			return null;
+		}
+		ImageReader reader = null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			reader = readers.next();
+			reader.setInput(iis, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			int subsampling = Math.min(reader.getWidth(0) / (Math.max(targetWidth, 1) * SUBSAMPLING_MARGIN), reader.getHeight(0) / (Math.max(targetHeight, 1) * SUBSAMPLING_MARGIN));
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+			return reader.read(0, param);
+		} finally {
+			if (reader != null) {
+				reader.dispose();
+			}
+			try {
+				iis.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
 	/**
 	 * Method for resizing images when images are stored on the filesystem.
 	 *
 	 * Convenience method that returns a scaled instance of the provided image.
-	 * This method never resizes by more than 50% since resizing by more than that
-	 * amount causes quality issues with the BICUBIC and BILINEAR algorithms.
-	 *
-	 * Based on examples from the GraphicsUtilities sample from the book "Filthy
-	 * Rich Clients" by Chet Haase and Romain Guy (http://filthyrichclients.org/).
-	 * That source is dual licensed: LGPL (Sun and Romain Guy) and BSD (Romain Guy).
+	 * See {@link ImageScaler} for details of the resizing algorithm.
 	 *
 	 * @param imageFile The file path for the original image to be scaled.
 	 * @param targetWidth the desired width of the scaled instance in pixels.
@@ -129,8 +169,8 @@ public class ImageProcessor {
 	 */
 	public static BufferedImage resizeImage(File imageFile, int targetWidth, int targetHeight) throws IOException {
 		long start = System.currentTimeMillis();
-		BufferedImage resized = ImageProcessor.loadImage(imageFile);
-		resized = ImageProcessor.resizeImage(resized, targetWidth, targetHeight);
+		BufferedImage resized = ImageProcessor.loadImage(imageFile, targetWidth, targetHeight);
+		resized = ImageScaler.scale(resized, targetWidth, targetHeight, true);
 		if (logger.isDebugEnabled()) {
 			long current = System.currentTimeMillis();
 			String message = "Image resize time (" + ((current - start) / 1000.000) + " s), dimensions: " + targetWidth + "x" + targetHeight + " for file: " + imageFile.getAbsolutePath();
@@ -143,12 +183,7 @@ public class ImageProcessor {
 	 * Method for resizing images when images are stored in the database.
 	 *
 	 * Convenience method that returns a scaled instance of the provided image.
-	 * This method never resizes by more than 50% since resizing by more than that
-	 * amount causes quality issues with the BICUBIC and BILINEAR algorithms.
-	 *
-	 * Based on examples from the GraphicsUtilities sample from the book "Filthy
-	 * Rich Clients" by Chet Haase and Romain Guy (http://filthyrichclients.org/).
-	 * That source is dual licensed: LGPL (Sun and Romain Guy) and BSD (Romain Guy).
+	 * See {@link ImageScaler} for details of the resizing algorithm.
 	 *
 	 * @param fileId The file identifier for the original image to be scaled.
 	 * @param fileVersionId The ID of the image revision being resized, or -1 if
@@ -160,11 +195,11 @@ public class ImageProcessor {
 	public static Dimension resizeImage(int fileId, int fileVersionId, int targetWidth, int targetHeight) throws IOException {
 		long start = System.currentTimeMillis();
 		ImageData imageData = ImageProcessor.loadImage(fileId, fileVersionId);
-		BufferedImage tmp = ImageIO.read(new ByteArrayInputStream(imageData.data));
+		BufferedImage tmp = ImageProcessor.readImage(new ByteArrayInputStream(imageData.data), targetWidth, targetHeight);
 		if (tmp == null) {
 			throw new IOException("JDK is unable to process image data, possibly indicating data corruption: " + fileId);
 		}
-		BufferedImage resized = ImageProcessor.resizeImage(tmp, targetWidth, targetHeight);
+		BufferedImage resized = ImageScaler.scale(tmp, targetWidth, targetHeight, true);
 		int pos = imageData.mimeType.lastIndexOf('/');
 		if (pos == -1 || (pos + 1) >= imageData.mimeType.length()) {
 			throw new IOException("Unknown image file type " + imageData.mimeType);
@@ -187,33 +222,6 @@ public class ImageProcessor {
 		return new Dimension(imageData.width, imageData.height);
 	}
 
-	/**
-	 *
-	 */
-	private static BufferedImage resizeImage(BufferedImage tmp, int targetWidth, int targetHeight) throws IOException {
-		int type = (tmp.getTransparency() == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
-		int width = tmp.getWidth();
-		int height = tmp.getHeight();
-		BufferedImage resized = tmp;
-		do {
-			width /= 2;
-			if (width < targetWidth) {
-				width = targetWidth;
-			}
-			height /= 2;
-			if (height < targetHeight) {
-				height = targetHeight;
-			}
-			tmp = new BufferedImage(width, height, type);
-			Graphics2D g2 = tmp.createGraphics();
-			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-			g2.drawImage(resized, 0, 0, width, height, null);
-			g2.dispose();
-			resized = tmp;
-		} while (width != targetWidth || height != targetHeight);
-		return resized;
-	}
-
 	/**
 	 * Retrieve image dimensions.  This method simply reads headers so it should perform
 	 * relatively fast.
@@ -224,32 +232,14 @@ public class ImageProcessor {
 			logger.info("No file found while determining image dimensions: " + imageFile.getAbsolutePath());
 			return null;
 		}
-		ImageInputStream iis = null;
 		Dimension dimensions = null;
-		ImageReader reader = null;
 		// use a FileInputStream and make sure it gets closed to prevent unclosed file
 		// errors on some operating systems
 		FileInputStream fis = null;
 		try {
 			fis = new FileInputStream(imageFile);
-			iis = ImageIO.createImageInputStream(fis);
-			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
-			if (readers.hasNext()) {
-				reader = readers.next();
-				reader.setInput(iis, true);
-				dimensions = new Dimension(reader.getWidth(0), reader.getHeight(0));
-			}
+			dimensions = ImageProcessor.retrieveImageDimensions(fis);
 		} finally {
-			if (reader != null) {
-				reader.dispose();
-			}
-			if (iis != null) {
-				try {
-					iis.close();
-				} catch (IOException e) {
-					// ignore
-				}
-			}
 			IOUtils.closeQuietly(fis);
 		}
 		if (logger.isDebugEnabled()) {
@@ -259,6 +249,39 @@ public class ImageProcessor {
 		return dimensions;
 	}
 
+	/**
+	 * Retrieve image dimensions from a stream containing image data, reading only the
+	 * image headers.  The stream is not closed by this method.
+	 *
+	 * @return The image dimensions, or <code>null</code> if the data is not a
+	 *  supported image type.
+	 */
+	protected static Dimension retrieveImageDimensions(InputStream stream) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(stream);
+		if (iis == null) {
+			return null;
+		}
+		ImageReader reader = null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			reader = readers.next();
+			reader.setInput(iis, true);
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} finally {
+			if (reader != null) {
+				reader.dispose();
+			}
+			try {
+				iis.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
 	/**
 	 * Retrieve image dimensions for an image stored in the database.
 	 *
@@ -271,7 +294,7 @@ public class ImageProcessor {
 		ImageData imageData = null;
 		try {
 			if (fileVersionId != -1) {
-				imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
+				imageData = WikiBase.getDataHandler().getImageVersionInfo(fileVersionId, resized);
 			} else {
 				imageData = WikiBase.getDataHandler().getImageInfo(fileId, resized);
 			}
@@ -285,7 +308,8 @@ public class ImageProcessor {
 	}
 
 	/**
-	 * Save an image to a specified file.
+	 * Save an image to a specified file.  The image is written to a temporary file
+	 * that is then renamed so that a partially written image is never served.
 	 */
 	protected static void saveImage(BufferedImage image, File file) throws IOException {
 		String filename = file.getName();
@@ -295,19 +319,30 @@ public class ImageProcessor {
 		}
 		String imageType = filename.substring(pos + 1);
 		File imageFile = new File(file.getParent(), filename);
+		// ensure parent directories are created if necessary
+		FileUtils.forceMkdir(imageFile.getParentFile());
+		File tempFile = File.createTempFile("." + filename, ".tmp", imageFile.getParentFile());
 		// use a FileOutputStream and make sure it gets closed to prevent unclosed file
 		// errors on some operating systems
 		FileOutputStream fos = null;
 		try {
-			// use the FileUtils utility method to ensure parent directories are created
-			// if necessary
-			fos = FileUtils.openOutputStream(imageFile);
+			fos = new FileOutputStream(tempFile);
 			boolean result = ImageIO.write(image, imageType, fos);
 			if (!result) {
 				throw new IOException("No appropriate writer found when writing image: " + filename);
 			}
+			fos.close();
+			fos = null;
+			if (!tempFile.renameTo(imageFile)) {
+				if (!imageFile.exists()) {
+					throw new IOException("Unable to rename temporary image file " + tempFile.getAbsolutePath() + " to " + imageFile.getAbsolutePath());
+				}
+				// another thread or process already created the file
+			}
 		} finally {
 			IOUtils.closeQuietly(fos);
+			// no-op if the file was successfully renamed
+			FileUtils.deleteQuietly(tempFile);
 		}
 	}
 
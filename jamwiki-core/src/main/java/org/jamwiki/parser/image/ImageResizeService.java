@@ -0,0 +1,375 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FilenameUtils;
+import org.jamwiki.model.WikiFileVersion;
+import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Generate resized versions of uploaded images outside of the page rendering
+ * path.  Resizing is performed by a small, bounded pool of worker threads, and
+ * concurrent requests to resize the same image version to the same width are
+ * combined into a single job.  Page rendering only schedules jobs, while the
+ * image servlet either generates a missing image on demand or waits for the
+ * job that is already generating it.  Resized images stored in the database
+ * that are known to exist are remembered so that rendering a page does not
+ * schedule a job for them.
+ */
+public abstract class ImageResizeService {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ImageResizeService.class.getName());
+	/** Cache of the dimensions of resized images stored in the database, keyed by image version and width. */
+	private static final WikiCache<String, Dimension> CACHE_RESIZED_IMAGE_BLOBS = new WikiCache<String, Dimension>("org.jamwiki.parser.image.ImageResizeService.CACHE_RESIZED_IMAGE_BLOBS");
+	/** Number of worker threads used to resize images. */
+	private static final int WORKER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	/** Maximum number of resize jobs that may be waiting for a worker thread. */
+	private static final int MAX_QUEUED_JOBS = 256;
+	/** Maximum time (in milliseconds) to wait for a resize job to complete. */
+	private static final long MAX_WAIT_MILLIS = 30000;
+	/** Pattern matching the file name of a resized image, such as "image-200px.jpg". */
+	private static final Pattern RESIZED_IMAGE_PATTERN = Pattern.compile("(.+)-([0-9]{1,6})px(\\.[^./]*)?");
+	/** Jobs that are queued or running, keyed by image version and width. */
+	private static final ConcurrentMap<String, ResizeJob> JOBS = new ConcurrentHashMap<String, ResizeJob>();
+	/** Worker pool.  Jobs submitted when the queue is full are rejected. */
+	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_JOBS), new ResizeThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+
+	/**
+	 *
+	 */
+	private ImageResizeService() {
+	}
+
+	/**
+	 * Wait for a resize job to complete, returning the dimensions of the resized
+	 * image or <code>null</code> if the job did not complete in time.
+	 */
+	private static Dimension await(ResizeJob job) throws IOException {
+		try {
+			return job.get(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			logger.warn("Timed out after " + MAX_WAIT_MILLIS + " ms while waiting to resize image: " + job.key);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Failure while resizing image " + job.key + ": " + e.getCause());
+		}
+	}
+
+	/**
+	 * Return a callable that resizes an image stored in the database, or that simply
+	 * returns the dimensions of the resized image if it already exists.
+	 */
+	private static Callable<Dimension> buildImageBlobResizer(final int fileId, final int fileVersionId, final int width, final int height) {
+		return new Callable<Dimension>() {
+			public Dimension call() throws IOException {
+				Dimension dimensions = ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, width);
+				if (dimensions == null) {
+					dimensions = ImageProcessor.resizeImage(fileId, fileVersionId, width, height);
+				}
+				if (dimensions != null) {
+					CACHE_RESIZED_IMAGE_BLOBS.addToCache(blobKey(fileId, fileVersionId, width), dimensions);
+				}
+				return dimensions;
+			}
+		};
+	}
+
+	/**
+	 * Return a callable that resizes an image stored on the filesystem, or that simply
+	 * returns the dimensions of the resized image if it already exists.
+	 */
+	private static Callable<Dimension> buildImageFileResizer(final String url, final File resizedFile, final int width, final int height) {
+		return new Callable<Dimension>() {
+			public Dimension call() throws IOException {
+				if (resizedFile.exists()) {
+					return new Dimension(width, height);
+				}
+				BufferedImage bufferedImage = ImageProcessor.resizeImage(ImageUtil.buildAbsoluteFile(url), width, height);
+				ImageProcessor.saveImage(bufferedImage, resizedFile);
+				return new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight());
+			}
+		};
+	}
+
+	/**
+	 * Generate a resized version of an image stored in the database if it does not
+	 * already exist, waiting for any in-flight job for the same image and width.
+	 * Only widths that the parser would have generated are accepted.
+	 *
+	 * @param fileId The file identifier for the original image.
+	 * @param fileVersionId The ID of the image revision to resize, or -1 if the
+	 *  current image revision should be resized.
+	 * @param width The width of the resized image.
+	 * @return <code>true</code> if the resized image exists once this method
+	 *  returns.
+	 * @throws IOException Thrown if any error occurs while resizing the image.
+	 */
+	public static boolean generateResizedImageBlob(int fileId, int fileVersionId, int width) throws IOException {
+		Dimension originalDimensions = ImageProcessor.retrieveImageDimensions(fileId, fileVersionId, 0);
+		if (originalDimensions == null || !ImageUtil.isValidIncrementalWidth(originalDimensions, width)) {
+			return false;
+		}
+		int height = ImageUtil.calculateIncrementalHeight(originalDimensions, width);
+		return (await(ImageResizeService.submit(blobKey(fileId, fileVersionId, width), buildImageBlobResizer(fileId, fileVersionId, width, height), true)) != null);
+	}
+
+	/**
+	 * Generate a resized version of an image stored on the filesystem if it does not
+	 * already exist, waiting for any in-flight job for the same image and width.
+	 * Only widths that the parser would have generated are accepted.
+	 *
+	 * @param path The requested path of the resized image relative to the servlet
+	 *  context, such as "/uploads/resized/2012/1/image-200px.jpg".
+	 * @return The resized image file, or <code>null</code> if the path does not
+	 *  correspond to a valid resized image.
+	 * @throws IOException Thrown if any error occurs while resizing the image.
+	 */
+	public static File generateResizedImageFile(String path) throws IOException {
+		if (!ImageUtil.isImagesOnFS()) {
+			return null;
+		}
+		path = FilenameUtils.normalize(path, true);
+		String prefix = ImageUtil.DEFAULT_RELATIVE_FILE_DIRECTORY + "/" + ImageUtil.RESIZED_IMAGE_SUBFOLDER + "/";
+		if (path == null || !path.startsWith(prefix)) {
+			return null;
+		}
+		Matcher matcher = RESIZED_IMAGE_PATTERN.matcher(path.substring(prefix.length()));
+		if (!matcher.matches()) {
+			return null;
+		}
+		String url = matcher.group(1) + ((matcher.group(3) == null) ? "" : matcher.group(3));
+		int width = Integer.parseInt(matcher.group(2));
+		File imageFile = ImageUtil.buildAbsoluteFile(url);
+		if (!imageFile.isFile()) {
+			return null;
+		}
+		Dimension originalDimensions = ImageProcessor.retrieveImageDimensions(imageFile);
+		if (originalDimensions == null || !ImageUtil.isValidIncrementalWidth(originalDimensions, width)) {
+			return null;
+		}
+		String resizedUrl = ImageUtil.buildImagePath(url, originalDimensions.width, width);
+		if (!path.equals(ImageUtil.DEFAULT_RELATIVE_FILE_DIRECTORY + "/" + FilenameUtils.separatorsToUnix(resizedUrl))) {
+			// the original image was resolved to a different path
+			return null;
+		}
+		File resizedFile = ImageUtil.buildAbsoluteFile(resizedUrl);
+		int height = ImageUtil.calculateIncrementalHeight(originalDimensions, width);
+		Dimension dimensions = await(ImageResizeService.submit(fileKey(resizedUrl), buildImageFileResizer(url, resizedFile, width, height), true));
+		return (dimensions != null && resizedFile.exists()) ? resizedFile : null;
+	}
+
+	/**
+	 *
+	 */
+	private static String blobKey(int fileId, int fileVersionId, int width) {
+		return blobKeyPrefix(fileId) + fileVersionId + "/" + width;
+	}
+
+	/**
+	 *
+	 */
+	private static String blobKeyPrefix(int fileId) {
+		return "blob:" + fileId + "/";
+	}
+
+	/**
+	 * Forget the resized images stored in the database for a file.  This method
+	 * must be called whenever the resized images for a file are deleted.
+	 *
+	 * @param fileId The file identifier for the original image.
+	 */
+	protected static void removeResizedImageBlobs(int fileId) {
+		CACHE_RESIZED_IMAGE_BLOBS.removeFromCacheByPrefix(blobKeyPrefix(fileId));
+	}
+
+	/**
+	 *
+	 */
+	private static String fileKey(String resizedUrl) {
+		return "file:" + resizedUrl;
+	}
+
+	/**
+	 * Resize an image stored on the filesystem, waiting for the job to complete.
+	 * This method is used when resized images are served directly by the web
+	 * server and thus cannot be generated on demand.
+	 */
+	protected static Dimension resizeImageFile(String url, String resizedUrl, int width, int height) throws IOException {
+		File resizedFile = ImageUtil.buildAbsoluteFile(resizedUrl);
+		if (resizedFile.exists()) {
+			return new Dimension(width, height);
+		}
+		return await(ImageResizeService.submit(fileKey(resizedUrl), buildImageFileResizer(url, resizedFile, width, height), true));
+	}
+
+	/**
+	 * Schedule resizing of an image stored in the database without waiting for the
+	 * result.  If the work queue is full the request is dropped and the image will
+	 * instead be generated when it is first requested.
+	 */
+	protected static void scheduleImageBlobResize(int fileId, int fileVersionId, int width, int height) {
+		if (CACHE_RESIZED_IMAGE_BLOBS.isKeyInCache(blobKey(fileId, fileVersionId, width))) {
+			return;
+		}
+		ImageResizeService.submit(blobKey(fileId, fileVersionId, width), buildImageBlobResizer(fileId, fileVersionId, width, height), false);
+	}
+
+	/**
+	 * Schedule resizing of an image stored on the filesystem without waiting for the
+	 * result.  If the work queue is full the request is dropped and the image will
+	 * instead be generated when it is first requested.
+	 */
+	protected static void scheduleImageFileResize(String url, String resizedUrl, int width, int height) {
+		File resizedFile = ImageUtil.buildAbsoluteFile(resizedUrl);
+		if (resizedFile.exists()) {
+			return;
+		}
+		ImageResizeService.submit(fileKey(resizedUrl), buildImageFileResizer(url, resizedFile, width, height), false);
+	}
+
+	/**
+	 * Schedule generation of the resized versions of a newly uploaded image at each
+	 * of the configured standard image widths, as well as at twice each standard
+	 * width for high-DPI displays, so that pages displaying the image never need to
+	 * wait for it to be resized.  If the work queue is full then the remaining
+	 * requests are dropped and the images will instead be generated when they are
+	 * first needed.
+	 *
+	 * @param wikiFileVersion The file version that was uploaded.  Its image
+	 *  dimensions must have been recorded, otherwise this method is a no-op.
+	 */
+	protected static void scheduleStandardImageResizes(WikiFileVersion wikiFileVersion) {
+		if (wikiFileVersion.getImageWidth() <= 0 || wikiFileVersion.getImageHeight() <= 0) {
+			return;
+		}
+		Dimension originalDimensions = new Dimension(wikiFileVersion.getImageWidth(), wikiFileVersion.getImageHeight());
+		for (int width : ImageUtil.retrieveStandardImageWidths()) {
+			ImageResizeService.scheduleStandardImageResize(wikiFileVersion, originalDimensions, width);
+			ImageResizeService.scheduleStandardImageResize(wikiFileVersion, originalDimensions, width * 2);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void scheduleStandardImageResize(WikiFileVersion wikiFileVersion, Dimension originalDimensions, int width) {
+		if (width >= originalDimensions.width) {
+			// the original image will be displayed
+			return;
+		}
+		int height = ImageUtil.calculateIncrementalHeight(originalDimensions, width);
+		if (ImageUtil.isImagesOnFS()) {
+			String resizedUrl = ImageUtil.buildImagePath(wikiFileVersion.getUrl(), originalDimensions.width, width);
+			ImageResizeService.scheduleImageFileResize(wikiFileVersion.getUrl(), resizedUrl, width, height);
+		} else {
+			ImageResizeService.scheduleImageBlobResize(wikiFileVersion.getFileId(), wikiFileVersion.getFileVersionId(), width, height);
+		}
+	}
+
+	/**
+	 * Submit a job to the worker pool unless an identical job is already queued or
+	 * running, in which case the existing job is returned.
+	 *
+	 * @param runIfRejected If <code>true</code> and the work queue is full then
+	 *  run the job in the calling thread, otherwise drop the job and return
+	 *  <code>null</code>.
+	 */
+	private static ResizeJob submit(String key, Callable<Dimension> callable, boolean runIfRejected) {
+		ResizeJob job = new ResizeJob(key, callable);
+		ResizeJob existing = JOBS.putIfAbsent(key, job);
+		if (existing != null) {
+			return existing;
+		}
+		try {
+			EXECUTOR.execute(job);
+		} catch (RejectedExecutionException e) {
+			if (!runIfRejected) {
+				JOBS.remove(key, job);
+				logger.debug("Image resize queue is full, job not scheduled: " + key);
+				return null;
+			}
+			// the job remains registered so that other requests for the same image wait on it
+			job.run();
+		}
+		return job;
+	}
+
+	/**
+	 * A queued or running resize job that removes itself from the job registry
+	 * once it completes.
+	 */
+	private static class ResizeJob extends FutureTask<Dimension> {
+
+		private final String key;
+
+		ResizeJob(String key, Callable<Dimension> callable) {
+			super(callable);
+			this.key = key;
+		}
+
+		protected void done() {
+			JOBS.remove(this.key, this);
+			if (!this.isCancelled()) {
+				try {
+					this.get();
+				} catch (Exception e) {
+					logger.warn("Failure while resizing image " + this.key + ": " + e.getCause());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create low-priority daemon threads so that resize jobs never prevent shutdown.
+	 */
+	private static class ResizeThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jamwiki-image-resize-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+}
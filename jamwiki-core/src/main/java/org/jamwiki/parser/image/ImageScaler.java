@@ -0,0 +1,262 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scale images using a separable area-averaging filter, in which each pixel of the
+ * scaled image is the average of the source pixels that it covers.  Source rows are
+ * read one at a time into a reused <code>int[]</code> scanline, filtered
+ * horizontally and then accumulated into the scaled row, so memory use is
+ * proportional to the width of the image rather than to its area and no
+ * intermediate images are created.  Large images are divided into horizontal
+ * stripes that are scaled in parallel.
+ */
+abstract class ImageScaler {
+
+	/** Minimum number of source pixels before an image is scaled in parallel. */
+	private static final long PARALLEL_THRESHOLD = 2000000;
+	/** Minimum number of scaled rows in each parallel stripe. */
+	private static final int MIN_STRIPE_HEIGHT = 32;
+	/** Number of threads used to scale image stripes. */
+	private static final int STRIPE_THREADS = Runtime.getRuntime().availableProcessors();
+	/** Threads used to scale image stripes, created when first needed. */
+	private static ThreadPoolExecutor EXECUTOR = null;
+
+	/**
+	 *
+	 */
+	private ImageScaler() {
+	}
+
+	/**
+	 * Return the pool used to scale image stripes, creating it if necessary.
+	 */
+	private static synchronized ThreadPoolExecutor executor() {
+		if (EXECUTOR == null) {
+			EXECUTOR = new ThreadPoolExecutor(STRIPE_THREADS, STRIPE_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new StripeThreadFactory());
+		}
+		return EXECUTOR;
+	}
+
+	/**
+	 * Return a scaled copy of an image.
+	 *
+	 * @param source The image to scale.
+	 * @param targetWidth The width of the scaled image in pixels.
+	 * @param targetHeight The height of the scaled image in pixels.
+	 * @param parallel If <code>true</code> then large images are divided into
+	 *  stripes that are scaled in parallel.
+	 * @return The scaled image, which is of type <code>TYPE_INT_RGB</code> for
+	 *  opaque images and <code>TYPE_INT_ARGB</code> otherwise.
+	 * @throws IOException Thrown if a parallel stripe fails or the calling thread
+	 *  is interrupted.
+	 */
+	static BufferedImage scale(final BufferedImage source, int targetWidth, int targetHeight, boolean parallel) throws IOException {
+		if (targetWidth <= 0 || targetHeight <= 0) {
+			throw new IllegalArgumentException("Invalid scaled image dimensions: " + targetWidth + "x" + targetHeight);
+		}
+		final boolean opaque = (source.getTransparency() == Transparency.OPAQUE);
+		final BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, (opaque) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		final Filter horizontal = new Filter(source.getWidth(), targetWidth);
+		final Filter vertical = new Filter(source.getHeight(), targetHeight);
+		int stripes = 1;
+		if (parallel && STRIPE_THREADS > 1 && (long)source.getWidth() * (long)source.getHeight() >= PARALLEL_THRESHOLD) {
+			stripes = Math.max(1, Math.min(STRIPE_THREADS, targetHeight / MIN_STRIPE_HEIGHT));
+		}
+		if (stripes == 1) {
+			scaleStripe(source, scaled, horizontal, vertical, 0, targetHeight, opaque);
+			return scaled;
+		}
+		int stripeHeight = (targetHeight + stripes - 1) / stripes;
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int y = stripeHeight; y < targetHeight; y += stripeHeight) {
+			final int first = y;
+			final int last = Math.min(y + stripeHeight, targetHeight);
+			futures.add(executor().submit(new Callable<Object>() {
+				public Object call() {
+					scaleStripe(source, scaled, horizontal, vertical, first, last, opaque);
+					return null;
+				}
+			}));
+		}
+		// the calling thread scales the first stripe rather than sitting idle
+		scaleStripe(source, scaled, horizontal, vertical, 0, Math.min(stripeHeight, targetHeight), opaque);
+		try {
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scaling image");
+		} catch (ExecutionException e) {
+			throw new IOException("Failure while scaling image: " + e.getCause());
+		} finally {
+			for (Future<Object> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return scaled;
+	}
+
+	/**
+	 * Scale the rows <code>first</code> (inclusive) to <code>last</code> (exclusive)
+	 * of the scaled image.  Each stripe uses its own buffers, so stripes may be scaled
+	 * concurrently.
+	 */
+	private static void scaleStripe(BufferedImage source, BufferedImage scaled, Filter horizontal, Filter vertical, int first, int last, boolean opaque) {
+		int sourceWidth = source.getWidth();
+		int targetWidth = scaled.getWidth();
+		int[] scanline = new int[sourceWidth];
+		float[] filtered = new float[targetWidth * 4];
+		float[] accumulated = new float[targetWidth * 4];
+		int[] row = new int[targetWidth];
+		int filteredRow = -1;
+		for (int y = first; y < last; y++) {
+			Arrays.fill(accumulated, 0f);
+			int offset = y * vertical.maxCount;
+			for (int k = 0; k < vertical.count[y]; k++) {
+				int sourceRow = vertical.start[y] + k;
+				if (sourceRow != filteredRow) {
+					// adjacent scaled rows usually share a source row, so avoid filtering it twice
+					source.getRGB(0, sourceRow, sourceWidth, 1, scanline, 0, sourceWidth);
+					filterRow(scanline, horizontal, filtered);
+					filteredRow = sourceRow;
+				}
+				float weight = vertical.weights[offset + k];
+				for (int i = 0; i < accumulated.length; i++) {
+					accumulated[i] += filtered[i] * weight;
+				}
+			}
+			for (int x = 0, i = 0; x < targetWidth; x++, i += 4) {
+				row[x] = toPixel(accumulated, i, opaque);
+			}
+			scaled.setRGB(0, y, targetWidth, 1, row, 0, targetWidth);
+		}
+	}
+
+	/**
+	 * Filter a source scanline horizontally, writing the alpha channel followed by the
+	 * alpha-premultiplied red, green and blue channels for each scaled pixel.
+	 * Premultiplying prevents the color of fully transparent pixels from bleeding into
+	 * their neighbors.
+	 */
+	private static void filterRow(int[] scanline, Filter filter, float[] filtered) {
+		for (int x = 0, i = 0; x < filter.count.length; x++, i += 4) {
+			float a = 0f;
+			float r = 0f;
+			float g = 0f;
+			float b = 0f;
+			int start = filter.start[x];
+			int offset = x * filter.maxCount;
+			for (int k = 0; k < filter.count[x]; k++) {
+				int argb = scanline[start + k];
+				float weightedAlpha = (argb >>> 24) * filter.weights[offset + k];
+				a += weightedAlpha;
+				r += ((argb >> 16) & 0xff) * weightedAlpha;
+				g += ((argb >> 8) & 0xff) * weightedAlpha;
+				b += (argb & 0xff) * weightedAlpha;
+			}
+			filtered[i] = a;
+			filtered[i + 1] = r;
+			filtered[i + 2] = g;
+			filtered[i + 3] = b;
+		}
+	}
+
+	/**
+	 * Convert accumulated alpha-premultiplied channel values back into an ARGB pixel.
+	 */
+	private static int toPixel(float[] accumulated, int i, boolean opaque) {
+		float a = accumulated[i];
+		if (a <= 0f) {
+			return (opaque) ? 0xff000000 : 0;
+		}
+		int alpha = (opaque) ? 255 : clamp(a);
+		return (alpha << 24) | (clamp(accumulated[i + 1] / a) << 16) | (clamp(accumulated[i + 2] / a) << 8) | clamp(accumulated[i + 3] / a);
+	}
+
+	/**
+	 *
+	 */
+	private static int clamp(float value) {
+		int result = (int)(value + 0.5f);
+		return (result < 0) ? 0 : ((result > 255) ? 255 : result);
+	}
+
+	/**
+	 * Area-averaging filter weights for one dimension of an image.  For each scaled
+	 * pixel the filter records the first source pixel that it covers, the number of
+	 * source pixels covered, and the fraction of the scaled pixel covered by each.
+	 */
+	private static final class Filter {
+
+		private final int[] count;
+		private final int maxCount;
+		private final int[] start;
+		private final float[] weights;
+
+		Filter(int sourceSize, int targetSize) {
+			double scale = (double)sourceSize / (double)targetSize;
+			this.count = new int[targetSize];
+			this.maxCount = (int)Math.ceil(scale) + 1;
+			this.start = new int[targetSize];
+			this.weights = new float[targetSize * this.maxCount];
+			for (int i = 0; i < targetSize; i++) {
+				double left = i * scale;
+				double right = Math.min((i + 1) * scale, sourceSize);
+				int first = Math.min((int)left, sourceSize - 1);
+				int last = Math.max(first, Math.min((int)Math.ceil(right) - 1, sourceSize - 1));
+				this.start[i] = first;
+				this.count[i] = last - first + 1;
+				for (int j = first; j <= last; j++) {
+					double coverage = Math.min(j + 1, right) - Math.max(j, left);
+					this.weights[i * this.maxCount + (j - first)] = (float)(coverage / (right - left));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create daemon threads so that scaling threads never prevent shutdown.
+	 */
+	private static class StripeThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "jamwiki-image-scale-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Stream wrapper used to determine whether uploaded data is an image, and if
+ * so what its dimensions are, while the upload is being written to its final
+ * storage location.  The first bytes of the stream are retained as they are
+ * read, and once the stream has been consumed the image type is identified
+ * from its magic bytes and the dimensions are read from the image header.
+ * PNG, GIF, JPEG and BMP headers are parsed directly; other data is passed
+ * to ImageIO, which also reads only the retained header bytes.  In either
+ * case the uploaded file does not need to be read a second time.
+ */
+public class ImageTypeDetector extends FilterInputStream {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ImageTypeDetector.class.getName());
+	/** Number of bytes from the start of the stream retained for detection. */
+	private static final int HEADER_LENGTH = 64 * 1024;
+	private static final byte[] MAGIC_BMP = {'B', 'M'};
+	private static final byte[] MAGIC_GIF = {'G', 'I', 'F', '8'};
+	private static final byte[] MAGIC_JPEG = {(byte)0xFF, (byte)0xD8};
+	private static final byte[] MAGIC_PNG = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private final byte[] header = new byte[HEADER_LENGTH];
+	private int headerLength = 0;
+	/** Set to <code>true</code> once more data has been read than the header can hold. */
+	private boolean truncated = false;
+
+	/**
+	 * Create a new detector that reads from the specified stream.
+	 *
+	 * @param in The stream containing the uploaded data.
+	 */
+	public ImageTypeDetector(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 *
+	 */
+	private void capture(byte[] b, int off, int len) {
+		int count = Math.min(len, HEADER_LENGTH - this.headerLength);
+		if (count > 0) {
+			System.arraycopy(b, off, this.header, this.headerLength, count);
+			this.headerLength += count;
+		}
+		if (count < len) {
+			this.truncated = true;
+		}
+	}
+
+	/**
+	 * Determine the dimensions of the image data that has been read through
+	 * this stream.  This method should only be called after all data has been
+	 * read.
+	 *
+	 * @return The image dimensions, a dimension of 0x0 if the data is not an
+	 *  image, or <code>null</code> if the dimensions could not be determined
+	 *  from the header, in which case the caller must read the full file.
+	 */
+	public Dimension detectDimensions() {
+		Dimension dimensions = parseHeader(this.header, this.headerLength);
+		if (dimensions != null) {
+			return dimensions;
+		}
+		try {
+			dimensions = ImageProcessor.retrieveImageDimensions(new ByteArrayInputStream(this.header, 0, this.headerLength));
+		} catch (IOException e) {
+			// an image reader recognized the data but the header was incomplete
+			if (this.truncated) {
+				logger.debug("Unable to determine image dimensions from upload header: " + e.getMessage());
+				return null;
+			}
+		} catch (RuntimeException e) {
+			// some image readers throw runtime exceptions on corrupt data
+			if (this.truncated) {
+				return null;
+			}
+		}
+		return (dimensions != null && dimensions.width > 0 && dimensions.height > 0) ? dimensions : new Dimension(0, 0);
+	}
+
+	/**
+	 * Return <code>true</code> if the data begins with the specified magic bytes.
+	 */
+	private static boolean matches(byte[] data, int length, byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (data[i] != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Identify the image type from its magic bytes and read the dimensions from
+	 * the image header.  Returns <code>null</code> if the type is not one that is
+	 * parsed directly or if the header is incomplete.
+	 */
+	static Dimension parseHeader(byte[] data, int length) {
+		Dimension dimensions = null;
+		if (matches(data, length, MAGIC_PNG)) {
+			// the IHDR chunk must be first, with width and height at offsets 16 and 20
+			if (length >= 24 && data[12] == 'I' && data[13] == 'H' && data[14] == 'D' && data[15] == 'R') {
+				dimensions = new Dimension(readInt(data, 16, true), readInt(data, 20, true));
+			}
+		} else if (matches(data, length, MAGIC_GIF)) {
+			if (length >= 10) {
+				dimensions = new Dimension(readShort(data, 6, false), readShort(data, 8, false));
+			}
+		} else if (matches(data, length, MAGIC_JPEG)) {
+			dimensions = parseJpegHeader(data, length);
+		} else if (matches(data, length, MAGIC_BMP)) {
+			if (length >= 26) {
+				int infoHeaderSize = readInt(data, 14, false);
+				if (infoHeaderSize == 12) {
+					// OS/2 bitmap header with 16-bit dimensions
+					dimensions = new Dimension(readShort(data, 18, false), readShort(data, 20, false));
+				} else {
+					// the height is negative for top-down bitmaps
+					dimensions = new Dimension(readInt(data, 18, false), Math.abs(readInt(data, 22, false)));
+				}
+			}
+		}
+		return (dimensions != null && dimensions.width > 0 && dimensions.height > 0) ? dimensions : null;
+	}
+
+	/**
+	 * Scan JPEG segments for a start-of-frame marker, which holds the image
+	 * dimensions.
+	 */
+	private static Dimension parseJpegHeader(byte[] data, int length) {
+		int pos = 2;
+		while (pos + 1 < length) {
+			if ((data[pos] & 0xFF) != 0xFF) {
+				// not a marker, so the data is corrupt
+				return null;
+			}
+			int marker = data[pos + 1] & 0xFF;
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			pos += 2;
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+				// markers without a segment
+				continue;
+			}
+			if (marker == 0xD9 || marker == 0xDA) {
+				// end of image or start of scan reached without a frame header
+				return null;
+			}
+			if (pos + 2 > length) {
+				return null;
+			}
+			int segmentLength = readShort(data, pos, true);
+			boolean startOfFrame = (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC);
+			if (startOfFrame) {
+				// segment length, precision, height, width
+				if (pos + 7 > length) {
+					return null;
+				}
+				return new Dimension(readShort(data, pos + 5, true), readShort(data, pos + 3, true));
+			}
+			pos += segmentLength;
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 */
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1) {
+			if (this.headerLength < HEADER_LENGTH) {
+				this.header[this.headerLength++] = (byte)b;
+			} else {
+				this.truncated = true;
+			}
+		}
+		return b;
+	}
+
+	/**
+	 *
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		int count = super.read(b, off, len);
+		if (count > 0) {
+			this.capture(b, off, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Read a 32-bit integer.
+	 */
+	private static int readInt(byte[] data, int pos, boolean bigEndian) {
+		if (bigEndian) {
+			return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16) | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+		}
+		return ((data[pos + 3] & 0xFF) << 24) | ((data[pos + 2] & 0xFF) << 16) | ((data[pos + 1] & 0xFF) << 8) | (data[pos] & 0xFF);
+	}
+
+	/**
+	 * Read an unsigned 16-bit integer.
+	 */
+	private static int readShort(byte[] data, int pos, boolean bigEndian) {
+		if (bigEndian) {
+			return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+		}
+		return ((data[pos + 1] & 0xFF) << 8) | (data[pos] & 0xFF);
+	}
+
+	/**
+	 * Skipped data is read so that the retained header is complete.
+	 */
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		byte[] buffer = new byte[(int)Math.min(n, 8192)];
+		long remaining = n;
+		while (remaining > 0) {
+			int count = this.read(buffer, 0, (int)Math.min(remaining, buffer.length));
+			if (count == -1) {
+				break;
+			}
+			remaining -= count;
+		}
+		return n - remaining;
+	}
+
+	/**
+	 * Mark and reset are not supported since re-read data would be retained twice.
+	 */
+	public boolean markSupported() {
+		return false;
+	}
+}
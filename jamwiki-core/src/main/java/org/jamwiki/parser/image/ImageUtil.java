@@ -17,18 +17,26 @@
 package org.jamwiki.parser.image;
 
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
@@ -39,6 +47,7 @@ import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiImage;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
@@ -48,6 +57,7 @@ import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
+import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
@@ -68,9 +78,11 @@ public abstract class ImageUtil {
 	 */
 	public static final MessageFormat DB_FILE_URL_FORMAT = new MessageFormat("{0}/{1,number,integer}/{2,number,integer}/{3,number,integer}/{4}");
 	/** Default sub-directory into which image files are stored. */
-	private static final String DEFAULT_RELATIVE_FILE_DIRECTORY = "/uploads";
+	static final String DEFAULT_RELATIVE_FILE_DIRECTORY = "/uploads";
 	/** Sub-folder of the upload file directory into which to place resized images. */
-	private static final String RESIZED_IMAGE_SUBFOLDER = "resized";
+	static final String RESIZED_IMAGE_SUBFOLDER = "resized";
+	/** Parsed standard image widths, replaced whenever the property value changes. */
+	private static volatile StandardImageWidths STANDARD_IMAGE_WIDTHS = null;
 	/** Path to the template used to format a center-aligned image. */
 	private static final String TEMPLATE_IMAGE_ALIGN_CENTER = "templates/image-align-center.template";
 	/** Path to the template used to format a left-aligned image. */
@@ -168,6 +180,22 @@ public abstract class ImageUtil {
 	 */
 	public static String buildImageFileUrl(String context, String virtualWiki, String topicName, boolean forceAbsoluteUrl) throws DataAccessException {
 		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName);
+		return buildImageFileUrl(context, wikiFile, forceAbsoluteUrl);
+	}
+
+	/**
+	 * Utility method for building the URL to an uploaded file (NOT the file's
+	 * topic page) when the WikiFile record has already been retrieved.
+	 *
+	 * @param context The servlet context root.
+	 * @param wikiFile The file for which a link is being created.  May be
+	 *  <code>null</code>.
+	 * @param forceAbsoluteUrl Set to <code>true</code> if the returned URL should
+	 *  always be absolute.
+	 * @return The URL to an uploaded file (not the file's topic page) or
+	 *  <code>null</code> if the file is <code>null</code>.
+	 */
+	private static String buildImageFileUrl(String context, WikiFile wikiFile, boolean forceAbsoluteUrl) {
 		if (wikiFile == null) {
 			return null;
 		}
@@ -241,7 +269,41 @@ public abstract class ImageUtil {
 	 * @throws IOException Thrown if any error occurs while reading image information.
 	 */
 	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion) throws DataAccessException, IOException {
-		String url = ImageUtil.buildImageFileUrl(context, linkVirtualWiki, topicName, false);
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(linkVirtualWiki, topicName);
+		return ImageUtil.buildImageLinkHtml(context, linkVirtualWiki, topicName, wikiFile, imageMetadata, style, escapeHtml, fileVersion);
+	}
+
+	/**
+	 * Utility method for building an anchor tag that links to an image page
+	 * and includes the HTML image tag to display the image.  This method
+	 * should be used when the WikiFile record for the image has already been
+	 * retrieved, such as when the files for a page have been retrieved in
+	 * bulk using {@link org.jamwiki.db.AnsiDataHandler#lookupWikiFiles}.
+	 *
+	 * @param context The servlet context for the link that is being created.
+	 * @param linkVirtualWiki The virtual wiki to use when looking up the
+	 *  image/file, and when linking to the image/file topic page.
+	 * @param topicName The name of the image for which a link is being
+	 *  created.
+	 * @param wikiFile The WikiFile record for the image, or <code>null</code>
+	 *  if no file has been uploaded for the topic.
+	 * @param imageMetadata A container for the image display params, such as
+	 *  border, alignment, caption, etc.
+	 * @param style The CSS class to use with the img HTML tag.  This value
+	 *  can be <code>null</code> or empty if no custom style is used.
+	 * @param escapeHtml Set to <code>true</code> if the caption should be
+	 *  HTML escaped.
+	 * @param fileVersion If building image HTML for anything other than the
+	 *  current file version then the version object must be provided, otherwise
+	 *  this parameter should be <code>null</code>.
+	 * @return The full HTML required to display an image enclosed within an
+	 *  HTML anchor tag that links to the image topic page.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving image
+	 *  information.
+	 * @throws IOException Thrown if any error occurs while reading image information.
+	 */
+	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, WikiFile wikiFile, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion) throws DataAccessException, IOException {
+		String url = ImageUtil.buildImageFileUrl(context, wikiFile, false);
 		if (url == null) {
 			return ImageUtil.buildUploadLink(context, linkVirtualWiki, topicName);
 		}
@@ -251,7 +313,6 @@ public abstract class ImageUtil {
 			// file, not an image - use the file name, minus the translated/untranslated namespace
 			return ImageUtil.buildLinkToFile(url, topic, caption, escapeHtml);
 		}
-		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(topic.getVirtualWiki(), topic.getName());
 		WikiImage wikiImage = null;
 		try {
 			wikiImage = ImageUtil.initializeWikiImage(wikiFile, imageMetadata, fileVersion);
@@ -269,19 +330,27 @@ public abstract class ImageUtil {
 		if (imageMetadata.getBordered()) {
 			style += " thumbborder";
 		}
-		Object[] args = (imageMetadata.getVerticalAlignment() != ImageVerticalAlignmentEnum.NOT_SPECIFIED) ? new Object[6] : new Object[5];
+		Object[] args = (imageMetadata.getVerticalAlignment() != ImageVerticalAlignmentEnum.NOT_SPECIFIED) ? new Object[7] : new Object[6];
 		args[0] = style;
 		args[1] = buildImageUrl(context, wikiImage.getUrl(), false);
 		args[2] = wikiImage.getWidth();
 		args[3] = wikiImage.getHeight();
 		String alt = (imageMetadata.getAlt() == null) ? topicName : imageMetadata.getAlt();
 		args[4] = StringEscapeUtils.escapeHtml4(alt);
+		String srcset = "";
+		if (wikiImage.getHiDpiUrl() != null) {
+			// allow browsers on high-DPI displays to use a higher resolution image
+			srcset = " srcset=\"" + args[1] + " 1x, " + buildImageUrl(context, wikiImage.getHiDpiUrl(), false) + " 2x\"";
+		}
 		// TODO: combine the standard & vertical templates by adding a CSS class for
 		// vertical alignment
 		String template = TEMPLATE_IMAGE_IMG_STANDARD;
 		if (imageMetadata.getVerticalAlignment() != ImageVerticalAlignmentEnum.NOT_SPECIFIED) {
 			template = TEMPLATE_IMAGE_IMG_VERTICAL;
 			args[5] = imageMetadata.getVerticalAlignment().toString();
+			args[6] = srcset;
+		} else {
+			args[5] = srcset;
 		}
 		StringBuilder html = new StringBuilder();
 		String imageHtml = WikiUtil.formatFromTemplate(template, args);
@@ -336,7 +405,7 @@ public abstract class ImageUtil {
 	/**
 	 * Given a file URL and a maximum dimension, return a relative path for the file.
 	 */
-	private static String buildImagePath(String currentUrl, int originalWidth, int scaledWidth) {
+	static String buildImagePath(String currentUrl, int originalWidth, int scaledWidth) {
 		if (originalWidth <= scaledWidth) {
 			// no resizing necessary, return the original URL
 			return currentUrl;
@@ -352,6 +421,40 @@ public abstract class ImageUtil {
 		return path;
 	}
 
+	/**
+	 * Determine the relative URL of the image to display on high-DPI screens, which is
+	 * either the resized image at twice the displayed width or the original image if
+	 * it is smaller than that.  Returns <code>null</code> if no standard image widths
+	 * are configured, if the original image is already being displayed, or if the
+	 * high-DPI image cannot be served yet.
+	 */
+	private static String buildHiDpiImageUrl(WikiImage wikiImage, Dimension originalDimensions, Dimension incrementalDimensions, WikiFileVersion fileVersion) {
+		if (retrieveStandardImageWidths().length == 0 || incrementalDimensions.width >= originalDimensions.width) {
+			return null;
+		}
+		int hiDpiWidth = incrementalDimensions.width * 2;
+		if (!isImagesOnFS()) {
+			Integer fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : null;
+			Integer resized = null;
+			if (hiDpiWidth < originalDimensions.width) {
+				ImageResizeService.scheduleImageBlobResize(wikiImage.getFileId(), (fileVersionId != null) ? fileVersionId : -1, hiDpiWidth, calculateIncrementalHeight(originalDimensions, hiDpiWidth));
+				resized = hiDpiWidth;
+			}
+			return buildDatabaseRelativeUrl(wikiImage.getFileId(), fileVersionId, resized, wikiImage.getUrl());
+		}
+		String resizedUrl = buildImagePath(wikiImage.getUrl(), originalDimensions.width, hiDpiWidth);
+		if (hiDpiWidth < originalDimensions.width && !buildAbsoluteFile(resizedUrl).exists()) {
+			// normally generated when the image was uploaded, but may be missing for
+			// older images or if the standard widths have changed
+			ImageResizeService.scheduleImageFileResize(wikiImage.getUrl(), resizedUrl, hiDpiWidth, calculateIncrementalHeight(originalDimensions, hiDpiWidth));
+			if (Environment.getValue(Environment.PROP_FILE_UPLOAD_STORAGE).equals(WikiBase.UPLOAD_STORAGE.DOCROOT.toString())) {
+				// files in the document root cannot be generated on demand
+				return null;
+			}
+		}
+		return resizedUrl;
+	}
+
 	/**
 	 * Determine the CSS styles to apply to the image wrapper div.
 	 */
@@ -432,57 +535,61 @@ public abstract class ImageUtil {
 	}
 
 	/**
-	 * Determine the scaled dimensions, rounded to an increment for performance reasons,
-	 * given a max width and height.  For example, if the original dimensions are 800x400,
-	 * the max width height are 200, and the increment is 400, the result is 400x200.
+	 * Determine the scaled dimensions, rounded up to the nearest standard image width or
+	 * to an increment for performance reasons, given a max width and height.  For example,
+	 * if the original dimensions are 800x400, the max width height are 200, no standard
+	 * widths are configured and the increment is 400, the result is 400x200.  Dimensions
+	 * are calculated from the original image dimensions, and if a resized image does not
+	 * yet exist then it is generated asynchronously by the {@link ImageResizeService}
+	 * rather than while the page is being rendered.
 	 */
 	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion) throws IOException {
-		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
 		// use width for incremental resizing
-		int incrementalWidth = calculateImageIncrement(scaledDimensions.getWidth());
-		if (increment <= 0 || incrementalWidth >= originalDimensions.getWidth()) {
+		int incrementalWidth = calculateResizedWidth(scaledDimensions.getWidth());
+		if (incrementalWidth <= 0 || incrementalWidth >= originalDimensions.getWidth()) {
 			// let the browser scale the image
 			return originalDimensions;
 		}
-		int incrementalHeight = (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
-		if (isImagesOnFS()) {
-			return calculateIncrementalDimensionsForImageFile(wikiImage, originalDimensions, incrementalWidth, incrementalHeight);
-		} else {
-			return calculateIncrementalDimensionsForImageBlob(wikiImage, incrementalWidth, incrementalHeight, fileVersion);
+		int incrementalHeight = calculateIncrementalHeight(originalDimensions, incrementalWidth);
+		if (!isImagesOnFS()) {
+			int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
+			ImageResizeService.scheduleImageBlobResize(wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
+			return new Dimension(incrementalWidth, incrementalHeight);
+		}
+		String resizedUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), incrementalWidth);
+		if (Environment.getValue(Environment.PROP_FILE_UPLOAD_STORAGE).equals(WikiBase.UPLOAD_STORAGE.DOCROOT.toString())) {
+			// files in the document root are served by the web server, so the
+			// resized image must exist before the page is displayed
+			Dimension dimensions = ImageResizeService.resizeImageFile(wikiImage.getUrl(), resizedUrl, incrementalWidth, incrementalHeight);
+			return (dimensions != null) ? dimensions : originalDimensions;
 		}
+		ImageResizeService.scheduleImageFileResize(wikiImage.getUrl(), resizedUrl, incrementalWidth, incrementalHeight);
+		return new Dimension(incrementalWidth, incrementalHeight);
 	}
 
 	/**
-	 * Determine scaled dimensions for images stored on the filesystem.
+	 * Return the width of the resized image to use when displaying an image at the
+	 * given width, which is the smallest standard image width that is at least as
+	 * large as the displayed width or, if there is no such standard width, the
+	 * displayed width rounded up to the resize increment.  Returns -1 if the image
+	 * should not be resized.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageFile(WikiImage wikiImage, Dimension originalDimensions, int incrementalWidth, int incrementalHeight) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		String newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), incrementalWidth);
-		File newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		if (newImageFile.exists()) {
-			return new Dimension(incrementalWidth, incrementalHeight);
+	private static int calculateResizedWidth(double width) {
+		for (int standardWidth : retrieveStandardImageWidths()) {
+			if (standardWidth >= width) {
+				return standardWidth;
+			}
 		}
-		// otherwise generate a scaled instance
-		File imageFile = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
-		BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, incrementalWidth, incrementalHeight);
-		newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), bufferedImage.getWidth());
-		newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		ImageProcessor.saveImage(bufferedImage, newImageFile);
-		return new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight());
+		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
+		return (increment > 0) ? calculateImageIncrement(width) : -1;
 	}
 
 	/**
-	 * Determine scaled dimensions for images stored in the database.
+	 * Given original image dimensions and the width of a resized image, return the
+	 * height of the resized image.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageBlob(WikiImage wikiImage, int incrementalWidth, int incrementalHeight, WikiFileVersion fileVersion) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
-		Dimension d1  = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), fileVersionId, incrementalWidth);
-		if (d1 != null) {
-			return d1;
-		}
-		// otherwise generate a scaled instance
-		return ImageProcessor.resizeImage(wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
+	static int calculateIncrementalHeight(Dimension originalDimensions, int incrementalWidth) {
+		return (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
 	}
 
 	/**
@@ -598,8 +705,15 @@ public abstract class ImageUtil {
 			wikiImage.setMimeType(fileVersion.getMimeType());
 			wikiImage.setUrl(fileVersion.getUrl());
 		}
-		// get the size of the original (unresized) image
-		Dimension originalDimensions = ImageUtil.retrieveFromCache(wikiImage);
+		// get the size of the original (unresized) image, using the dimensions
+		// stored with the file version when available to avoid reading the image
+		int storedWidth = (fileVersion != null) ? fileVersion.getImageWidth() : wikiFile.getImageWidth();
+		int storedHeight = (fileVersion != null) ? fileVersion.getImageHeight() : wikiFile.getImageHeight();
+		if (storedWidth == 0) {
+			// dimensions were recorded but the file is not an image
+			return null;
+		}
+		Dimension originalDimensions = (storedWidth > 0 && storedHeight > 0) ? new Dimension(storedWidth, storedHeight) : ImageUtil.retrieveFromCache(wikiImage);
 		if (originalDimensions == null) {
 			if (isImagesOnFS()) {
 				File file = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
@@ -625,6 +739,7 @@ public abstract class ImageUtil {
 		wikiImage.setHeight((int)scaledDimensions.getHeight());
 		// return an appropriate WikiImage object with URL to the scaled image, proper width, and proper height
 		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, originalDimensions, scaledDimensions, fileVersion);
+		wikiImage.setHiDpiUrl(buildHiDpiImageUrl(wikiImage, originalDimensions, incrementalDimensions, fileVersion));
 		if (isImagesOnFS()) {
 			String url = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), (int)incrementalDimensions.getWidth());
 			wikiImage.setUrl(url);
@@ -698,6 +813,101 @@ public abstract class ImageUtil {
 		}
 	}
 
+	/**
+	 * Record the original image dimensions for all file versions that were
+	 * uploaded before dimensions were stored with the file version.  Once
+	 * dimensions are stored images can be displayed without reading the image
+	 * file or image data.
+	 *
+	 * @return An array of two numeric values, the first of which is the number
+	 *  of file versions updated and the second of which is the number of
+	 *  file versions that could not be updated.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving
+	 *  file information.
+	 */
+	public static int[] rebuildImageDimensions() throws DataAccessException {
+		int numErrors = 0;
+		int numUpdated = 0;
+		final int batchSize = 500;
+		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
+		for (VirtualWiki virtualWiki : virtualWikis) {
+			int offset = 0;
+			Map<Integer, String> topicNames;
+			do {
+				Pagination pagination = new Pagination(batchSize, offset);
+				topicNames = WikiBase.getDataHandler().lookupTopicByType(virtualWiki.getName(), TopicType.IMAGE, TopicType.FILE, Namespace.FILE_ID, pagination);
+				offset += batchSize;
+				for (String topicName : topicNames.values()) {
+					List<WikiFileVersion> fileVersions = WikiBase.getDataHandler().getAllWikiFileVersions(virtualWiki.getName(), topicName, false);
+					for (WikiFileVersion fileVersion : fileVersions) {
+						if (fileVersion.getImageWidth() >= 0) {
+							continue;
+						}
+						Dimension dimensions = null;
+						if (isImagesOnFS()) {
+							dimensions = retrieveImageDimensions(buildAbsoluteFile(fileVersion.getUrl()));
+						} else {
+							// only the stored dimensions are needed, so do not load the file data
+							ImageData imageData = WikiBase.getDataHandler().getImageVersionInfo(fileVersion.getFileVersionId(), 0);
+							if (imageData != null) {
+								dimensions = (imageData.width > 0) ? new Dimension(imageData.width, imageData.height) : new Dimension(0, 0);
+							}
+						}
+						if (dimensions == null) {
+							logger.warn("Unable to determine dimensions for file version " + fileVersion.getFileVersionId() + ": " + virtualWiki.getName() + " / " + topicName);
+							numErrors++;
+							continue;
+						}
+						WikiBase.getDataHandler().updateWikiFileVersionDimensions(fileVersion.getFileVersionId(), dimensions.width, dimensions.height);
+						numUpdated++;
+					}
+				}
+			} while (topicNames.size() >= batchSize);
+		}
+		int[] resultArray = new int[2];
+		resultArray[0] = numUpdated;
+		resultArray[1] = numErrors;
+		return resultArray;
+	}
+
+	/**
+	 * Read the dimensions of an uploaded image from its headers without decoding
+	 * the image data.
+	 *
+	 * @param in A stream containing the uploaded data.  The stream is not closed
+	 *  by this method.
+	 * @return The image dimensions, or a zero-size dimension if the data is not
+	 *  an image that can be read.
+	 */
+	public static Dimension retrieveImageDimensions(InputStream in) {
+		try {
+			Dimension dimensions = ImageProcessor.retrieveImageDimensions(in);
+			return (dimensions != null) ? dimensions : new Dimension(0, 0);
+		} catch (IOException e) {
+			logger.info("Failure while reading image dimensions: " + e.getMessage());
+			return new Dimension(0, 0);
+		}
+	}
+
+	/**
+	 * Read the dimensions of an image file on the file system.
+	 *
+	 * @return The image dimensions, a zero-size dimension if the file is not an
+	 *  image, or <code>null</code> if the file cannot be read.
+	 */
+	private static Dimension retrieveImageDimensions(File file) {
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try {
+			Dimension dimensions = ImageProcessor.retrieveImageDimensions(file);
+			return (dimensions != null) ? dimensions : new Dimension(0, 0);
+		} catch (IOException e) {
+			logger.warn("Unable to read image file " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Determine if image information is available in the cache.  If so return it,
 	 * otherwise return <code>null</code>.
@@ -801,14 +1011,129 @@ public abstract class ImageUtil {
 		wikiFileVersion.setFileSize(fileSize);
 		wikiFile.setFileSize(fileSize);
 		wikiFile.setTopicId(topic.getTopicId());
+		if (wikiFileVersion.getImageWidth() < 0) {
+			Dimension dimensions = null;
+			if (imageData != null) {
+				dimensions = (imageData.width > 0) ? new Dimension(imageData.width, imageData.height) : new Dimension(0, 0);
+			} else if (isImagesOnFS()) {
+				dimensions = retrieveImageDimensions(buildAbsoluteFile(url));
+			}
+			if (dimensions != null) {
+				wikiFileVersion.setImageWidth(dimensions.width);
+				wikiFileVersion.setImageHeight(dimensions.height);
+			}
+		}
+		wikiFile.setImageWidth(wikiFileVersion.getImageWidth());
+		wikiFile.setImageHeight(wikiFileVersion.getImageHeight());
 		WikiBase.getDataHandler().writeFile(wikiFile, wikiFileVersion, imageData);
+		// requests for the current version of the file now refer to the new version
+		DatabaseFileCache.removeCurrentFileVersionId(wikiFile.getFileId());
+		// resized images for the file were deleted when the new version was written
+		ImageResizeService.removeResizedImageBlobs(wikiFile.getFileId());
+		ImageResizeService.scheduleStandardImageResizes(wikiFileVersion);
 		return wikiFile;
 	}
 
+	/**
+	 * Write an uploaded file to its location on the file system.  The data is
+	 * written to a temporary file in the same directory which is then renamed,
+	 * so a partially written upload is never visible and nothing is left behind
+	 * if the upload fails.
+	 *
+	 * @param in The uploaded data.  The stream is not closed by this method.
+	 * @param file The file to write.
+	 * @throws IOException Thrown if the upload cannot be read or written.
+	 */
+	public static void writeUploadedFile(InputStream in, File file) throws IOException {
+		FileUtils.forceMkdir(file.getParentFile());
+		File tempFile = File.createTempFile("upload", ".tmp", file.getParentFile());
+		try {
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(tempFile);
+				IOUtils.copyLarge(in, out);
+				out.close();
+				out = null;
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Unable to move upload to " + file.getAbsolutePath());
+			}
+		} finally {
+			// no-op if the file was successfully renamed
+			FileUtils.deleteQuietly(tempFile);
+		}
+	}
+
 	/**
 	 * @return <code>true</code> if images are stored on file system and <code>false</code> if in database.
 	 */
 	public static boolean isImagesOnFS() {
 		return (!Environment.getValue(Environment.PROP_FILE_UPLOAD_STORAGE).equals(WikiBase.UPLOAD_STORAGE.DATABASE.toString()));
 	}
+
+	/**
+	 * Determine whether a resized image width is one that could have been generated
+	 * for an image with the given dimensions using the current resize increment.  Used
+	 * to prevent arbitrary resize requests from being processed.
+	 */
+	static boolean isValidIncrementalWidth(Dimension originalDimensions, int incrementalWidth) {
+		if (incrementalWidth <= 0 || incrementalWidth >= originalDimensions.getWidth()) {
+			return false;
+		}
+		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
+		if (increment > 0 && (incrementalWidth % increment) == 0) {
+			return true;
+		}
+		for (int standardWidth : retrieveStandardImageWidths()) {
+			if (incrementalWidth == standardWidth || incrementalWidth == standardWidth * 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the standard image widths, in ascending order, for which resized versions
+	 * of each uploaded image are generated in advance.  Returns an empty array if no
+	 * standard widths are configured.
+	 */
+	static int[] retrieveStandardImageWidths() {
+		String value = Environment.getValue(Environment.PROP_IMAGE_STANDARD_WIDTHS);
+		StandardImageWidths standardImageWidths = STANDARD_IMAGE_WIDTHS;
+		if (standardImageWidths == null || !StringUtils.equals(value, standardImageWidths.value)) {
+			standardImageWidths = new StandardImageWidths(value);
+			STANDARD_IMAGE_WIDTHS = standardImageWidths;
+		}
+		return standardImageWidths.widths;
+	}
+
+	/**
+	 * Parsed value of the standard image widths property, cached to avoid parsing
+	 * the property each time an image is displayed.
+	 */
+	private static class StandardImageWidths {
+
+		private final String value;
+		private final int[] widths;
+
+		StandardImageWidths(String value) {
+			this.value = value;
+			SortedSet<Integer> widths = new TreeSet<Integer>();
+			if (!StringUtils.isBlank(value)) {
+				for (String token : value.split(",")) {
+					int width = NumberUtils.toInt(token.trim(), -1);
+					if (width > 0) {
+						widths.add(width);
+					}
+				}
+			}
+			this.widths = new int[widths.size()];
+			int i = 0;
+			for (Integer width : widths) {
+				this.widths[i++] = width;
+			}
+		}
+	}
 }
@@ -108,6 +108,8 @@ public class GalleryTag implements JFlexCustomTagItem {
 					continue;
 				}
 				imageLinks.add(line);
+				// record the file so that all gallery images are retrieved in bulk
+				ImageLinkResolver.addImageLink(parserInput, wikiLink);
 			}
 		}
 		return imageLinks;
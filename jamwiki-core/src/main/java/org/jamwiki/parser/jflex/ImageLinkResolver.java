@@ -0,0 +1,136 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.jflex;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.WikiLink;
+
+/**
+ * Utility class used during parsing.  File references are recorded as image
+ * links are encountered during the pre-processing stage of the parser (and by
+ * the gallery tag), and when the first image is rendered all recorded files
+ * are retrieved with a small number of bulk queries rather than with one set of
+ * queries per image.  An instance of this class is stored as a temporary
+ * parameter of the ParserInput, so retrieved files are only re-used during a
+ * single parse.
+ */
+class ImageLinkResolver {
+
+	/** Temporary parameter used to store the resolver in the ParserInput object. */
+	private static final String PARSER_INPUT_PARAM = "image-link-resolver";
+	/** Map of virtual wiki and file topic names that have not yet been retrieved. */
+	private final Map<String, Set<String>> pendingTopicNames = new HashMap<String, Set<String>>();
+	/** Map of virtual wiki/topic name and WikiFile for all retrieved files. */
+	private final Map<String, WikiFile> wikiFiles = new HashMap<String, WikiFile>();
+
+	/**
+	 *
+	 */
+	private ImageLinkResolver() {
+	}
+
+	/**
+	 * Record an image link so that the file for the link can be retrieved
+	 * along with all other recorded files when the first image is rendered.
+	 *
+	 * @param parserInput The current parser input.
+	 * @param wikiLink The image link to record.
+	 */
+	static void addImageLink(ParserInput parserInput, WikiLink wikiLink) {
+		ImageLinkResolver resolver = (ImageLinkResolver)parserInput.getTempParam(PARSER_INPUT_PARAM);
+		if (resolver == null) {
+			resolver = new ImageLinkResolver();
+			parserInput.addTempParam(PARSER_INPUT_PARAM, resolver);
+		}
+		String virtualWiki = ImageLinkResolver.retrieveVirtualWiki(parserInput, wikiLink);
+		if (resolver.wikiFiles.containsKey(ImageLinkResolver.buildKey(virtualWiki, wikiLink.getDestination()))) {
+			return;
+		}
+		Set<String> topicNames = resolver.pendingTopicNames.get(virtualWiki);
+		if (topicNames == null) {
+			topicNames = new LinkedHashSet<String>();
+			resolver.pendingTopicNames.put(virtualWiki, topicNames);
+		}
+		topicNames.add(wikiLink.getDestination());
+	}
+
+	/**
+	 *
+	 */
+	private static String buildKey(String virtualWiki, String topicName) {
+		// virtual wiki names cannot contain a slash, so the key is unique
+		return virtualWiki + "/" + topicName;
+	}
+
+	/**
+	 * Return the WikiFile for an image link.  If the link was previously
+	 * recorded then all pending files are retrieved in bulk, otherwise the file
+	 * is retrieved individually.
+	 *
+	 * @param parserInput The current parser input.
+	 * @param wikiLink The image link for which the file is being retrieved.
+	 * @return The WikiFile for the image link, or <code>null</code> if no
+	 *  file exists for the link.
+	 * @throws DataAccessException Thrown if any error occurs while retrieving
+	 *  file information.
+	 */
+	static WikiFile lookupWikiFile(ParserInput parserInput, WikiLink wikiLink) throws DataAccessException {
+		String virtualWiki = ImageLinkResolver.retrieveVirtualWiki(parserInput, wikiLink);
+		String topicName = wikiLink.getDestination();
+		ImageLinkResolver resolver = (ImageLinkResolver)parserInput.getTempParam(PARSER_INPUT_PARAM);
+		if (resolver == null) {
+			return WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName);
+		}
+		String key = ImageLinkResolver.buildKey(virtualWiki, topicName);
+		if (!resolver.wikiFiles.containsKey(key)) {
+			Set<String> topicNames = resolver.pendingTopicNames.get(virtualWiki);
+			if (topicNames != null && topicNames.contains(topicName)) {
+				resolver.resolvePending();
+			} else {
+				resolver.wikiFiles.put(key, WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName));
+			}
+		}
+		return resolver.wikiFiles.get(key);
+	}
+
+	/**
+	 * Retrieve all pending files for all virtual wikis.
+	 */
+	private void resolvePending() throws DataAccessException {
+		for (Map.Entry<String, Set<String>> entry : this.pendingTopicNames.entrySet()) {
+			Map<String, WikiFile> results = WikiBase.getDataHandler().lookupWikiFiles(entry.getKey(), entry.getValue());
+			for (Map.Entry<String, WikiFile> result : results.entrySet()) {
+				this.wikiFiles.put(ImageLinkResolver.buildKey(entry.getKey(), result.getKey()), result.getValue());
+			}
+		}
+		this.pendingTopicNames.clear();
+	}
+
+	/**
+	 * Return the virtual wiki to use when looking up the file for an image link.
+	 */
+	static String retrieveVirtualWiki(ParserInput parserInput, WikiLink wikiLink) {
+		return (wikiLink.getAltVirtualWiki() == null) ? parserInput.getVirtualWiki() : wikiLink.getAltVirtualWiki().getName();
+	}
+}
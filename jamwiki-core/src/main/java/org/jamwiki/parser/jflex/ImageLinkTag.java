@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.model.Namespace;
+import org.jamwiki.model.WikiFile;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
@@ -108,8 +109,9 @@ public class ImageLinkTag implements JFlexParserTag {
 		}
 		// do not escape html for caption since parser does it above
 		try {
-			String virtualWiki = (wikiLink.getAltVirtualWiki() == null) ? parserInput.getVirtualWiki() : wikiLink.getAltVirtualWiki().getName();
-			return ImageUtil.buildImageLinkHtml(context, virtualWiki, wikiLink.getDestination(), imageMetadata, null, false, null);
+			String virtualWiki = ImageLinkResolver.retrieveVirtualWiki(parserInput, wikiLink);
+			WikiFile wikiFile = ImageLinkResolver.lookupWikiFile(parserInput, wikiLink);
+			return ImageUtil.buildImageLinkHtml(context, virtualWiki, wikiLink.getDestination(), wikiFile, imageMetadata, null, false, null);
 		} catch (IOException e) {
 			// FIXME - display a broken image icon or something better
 			logger.warn("I/O Failure while parsing image link: " + e.getMessage(), e);
@@ -82,6 +82,10 @@ public class WikiLinkTag implements JFlexParserTag {
 		}
 		raw = this.processLinkMetadata(lexer.getParserInput(), lexer.getParserOutput(), lexer.getMode(), raw, wikiLink);
 		if (lexer.getMode() <= JFlexParser.MODE_PREPROCESS) {
+			if (lexer.getMode() == JFlexParser.MODE_PREPROCESS && !wikiLink.getColon() && wikiLink.getNamespace().getId().equals(Namespace.FILE_ID)) {
+				// record the image so that all files on the page can be retrieved in bulk
+				ImageLinkResolver.addImageLink(lexer.getParserInput(), wikiLink);
+			}
 			// do not parse to HTML when in preprocess mode
 			return raw;
 		}
@@ -0,0 +1,81 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purge generation counter for caches whose entries are built from data that
+ * may change while the entry is being built.  Callers record the
+ * {@link #current} generation before building an entry, every purge calls
+ * {@link #increment}, and {@link #addToCache} refuses entries that were built
+ * before the most recent purge since they may contain stale data.
+ */
+public final class CacheGeneration {
+
+	private final AtomicLong generation;
+
+	/**
+	 * Create a new generation counter.
+	 *
+	 * @param initialValue The initial generation.
+	 */
+	public CacheGeneration(long initialValue) {
+		this.generation = new AtomicLong(initialValue);
+	}
+
+	/**
+	 * Add an entry to a cache if no purge has occurred since the entry was
+	 * built.
+	 *
+	 * @param cache The cache to add the entry to.
+	 * @param key The key for the entry.
+	 * @param value The entry being cached.
+	 * @param generation The value returned by {@link #current} prior to
+	 *  building the entry.
+	 * @return <code>true</code> if the entry was added to the cache.
+	 */
+	public <K, V> boolean addToCache(WikiCache<K, V> cache, K key, V value, long generation) {
+		if (generation != this.generation.get()) {
+			return false;
+		}
+		cache.addToCache(key, value);
+		if (generation != this.generation.get()) {
+			// a purge ran concurrently and may have missed the new entry
+			cache.removeFromCache(key);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the current generation.
+	 */
+	public long current() {
+		return this.generation.get();
+	}
+
+	/**
+	 * Increment the generation.  This method should be called before entries
+	 * are purged from a cache.
+	 *
+	 * @return The new generation.
+	 */
+	public long increment() {
+		return this.generation.incrementAndGet();
+	}
+}
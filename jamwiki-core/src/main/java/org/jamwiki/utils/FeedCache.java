@@ -0,0 +1,161 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Cache of serialized recent changes feeds.  Feed readers poll the recent
+ * changes feed frequently and usually receive the same content each time, so
+ * the serialized feed is stored (as a pre-compressed response) along with the
+ * date of the newest change in the feed, allowing repeated polls to be served
+ * without querying the database and allowing conditional requests to be
+ * answered with a 304 (Not Modified) response.
+ *
+ * Entries are keyed by virtual wiki and the feed parameters, and all feeds for
+ * a virtual wiki are purged whenever a recent change is recorded for it.  Like
+ * {@link ResponseCache}, each purge increments a generation counter so that a
+ * feed generated while a purge occurred is not cached.
+ */
+public abstract class FeedCache {
+
+	private static final WikiCache<String, CachedFeed> CACHE_FEEDS = new WikiCache<String, CachedFeed>("org.jamwiki.utils.FeedCache.CACHE_FEEDS");
+	/** Incremented each time entries are purged from the cache. */
+	private static final CacheGeneration GENERATION = new CacheGeneration(System.currentTimeMillis());
+	private static final char KEY_SEPARATOR = '|';
+
+	/**
+	 * Add a serialized feed to the cache.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @param cachedFeed The feed to cache.
+	 * @param generation The value returned by {@link #currentGeneration} prior
+	 *  to retrieving the recent changes for the feed.  If any purge has occurred
+	 *  since then the feed is not cached.
+	 * @return <code>true</code> if the feed was added to the cache.
+	 */
+	public static boolean addToCache(String cacheKey, CachedFeed cachedFeed, long generation) {
+		return GENERATION.addToCache(CACHE_FEEDS, cacheKey, cachedFeed, generation);
+	}
+
+	/**
+	 * Generate the cache key for a feed.
+	 *
+	 * @param virtualWiki The virtual wiki whose recent changes are displayed.
+	 * @param feedType The feed type, such as "rss_2.0" or "atom_1.0".
+	 * @param includeMinorEdits <code>true</code> if minor edits are included
+	 *  in the feed.
+	 * @param linkToVersion <code>true</code> if feed entries link to the
+	 *  changed version rather than the current version of the topic.
+	 * @param pagination The number of changes and offset of the first change
+	 *  displayed in the feed.
+	 * @param feedUrl The URL used as a prefix for links within the feed.
+	 * @return The key to use when storing or retrieving the feed.
+	 */
+	public static String buildCacheKey(String virtualWiki, String feedType, boolean includeMinorEdits, boolean linkToVersion, Pagination pagination, String feedUrl) {
+		StringBuilder cacheKey = new StringBuilder(virtualWiki);
+		cacheKey.append(KEY_SEPARATOR).append(feedType);
+		cacheKey.append(KEY_SEPARATOR).append(includeMinorEdits);
+		cacheKey.append(KEY_SEPARATOR).append(linkToVersion);
+		cacheKey.append(KEY_SEPARATOR).append(pagination.getNumResults());
+		cacheKey.append(KEY_SEPARATOR).append(pagination.getOffset());
+		cacheKey.append(KEY_SEPARATOR).append(feedUrl);
+		return cacheKey.toString();
+	}
+
+	/**
+	 * Return the current purge generation.  This value should be retrieved
+	 * before retrieving the recent changes for a feed that will be passed to
+	 * {@link #addToCache}.
+	 */
+	public static long currentGeneration() {
+		return GENERATION.current();
+	}
+
+	/**
+	 * Remove all cached feeds.
+	 */
+	public static void purgeAll() {
+		GENERATION.increment();
+		CACHE_FEEDS.removeAllFromCache();
+	}
+
+	/**
+	 * Remove all cached feeds for a virtual wiki.  This method should be
+	 * called after any recent change for the virtual wiki is recorded or
+	 * deleted.
+	 *
+	 * @param virtualWiki The virtual wiki whose feeds are being purged.
+	 */
+	public static void purgeVirtualWiki(String virtualWiki) {
+		if (StringUtils.isBlank(virtualWiki)) {
+			purgeAll();
+			return;
+		}
+		GENERATION.increment();
+		CACHE_FEEDS.removeFromCacheByPrefix(virtualWiki + KEY_SEPARATOR);
+	}
+
+	/**
+	 * Retrieve a cached feed.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @return The cached feed, or <code>null</code> if no feed is cached for
+	 *  the key.
+	 */
+	public static CachedFeed retrieveFromCache(String cacheKey) {
+		return CACHE_FEEDS.retrieveFromCache(cacheKey);
+	}
+
+	/**
+	 * A serialized feed and the time of the newest change that it contains.
+	 */
+	public static final class CachedFeed implements Serializable {
+
+		private final long lastModified;
+		private final ResponseCache.CachedResponse response;
+
+		/**
+		 * Create a cached feed.
+		 *
+		 * @param response The feed response, including its ETag header.
+		 * @param lastModified The time (in milliseconds) of the newest change
+		 *  in the feed, or -1 if the time should not be used to validate the
+		 *  feed.
+		 */
+		public CachedFeed(ResponseCache.CachedResponse response, long lastModified) {
+			this.response = response;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Return the time (in milliseconds) of the newest change in the feed,
+		 * or -1 if the time should not be used to validate the feed.
+		 */
+		public long getLastModified() {
+			return this.lastModified;
+		}
+
+		/**
+		 * Return the feed response.
+		 */
+		public ResponseCache.CachedResponse getResponse() {
+			return this.response;
+		}
+	}
+}
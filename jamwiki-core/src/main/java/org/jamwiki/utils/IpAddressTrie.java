@@ -0,0 +1,328 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Immutable binary (radix 2) trie of IPv4 and IPv6 addresses and CIDR ranges
+ * such as "192.168.0.0/16" or "2001:db8::/32".  Each range is stored as a
+ * path of its prefix bits, so finding the most specific range that contains
+ * an address requires examining at most 32 (IPv4) or 128 (IPv6) nodes,
+ * regardless of the number of ranges in the trie.  Since the trie cannot be
+ * modified after it has been created, lookups require no synchronization and
+ * a new trie should be built whenever the set of ranges changes.
+ */
+public class IpAddressTrie<V> implements Serializable {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(IpAddressTrie.class.getName());
+	private static final String DECIMAL_DIGITS = "0123456789";
+	private static final String HEX_DIGITS = "0123456789abcdefABCDEF";
+	private final Node<V> ipv4Root = new Node<V>();
+	private final Node<V> ipv6Root = new Node<V>();
+	private int size = 0;
+
+	/**
+	 * Create a trie from a map of IP addresses or CIDR ranges and their values.
+	 * An IP address without a prefix length is treated as a range containing
+	 * only that address.  Invalid addresses are logged and ignored.
+	 *
+	 * @param ranges A map of IP address or CIDR range and the value to return
+	 *  for addresses within that range.
+	 */
+	public IpAddressTrie(Map<String, V> ranges) {
+		for (Map.Entry<String, V> range : ranges.entrySet()) {
+			if (!this.add(range.getKey(), range.getValue())) {
+				logger.warn("Ignoring invalid IP address range: " + range.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Add a range to the trie.  This method must only be called during
+	 * construction.
+	 */
+	private boolean add(String range, V value) {
+		if (StringUtils.isBlank(range) || value == null) {
+			return false;
+		}
+		int pos = range.indexOf('/');
+		byte[] address = IpAddressTrie.parseAddress((pos == -1) ? range : range.substring(0, pos));
+		if (address == null) {
+			return false;
+		}
+		int prefixLength = address.length * 8;
+		if (pos != -1) {
+			prefixLength = IpAddressTrie.parsePrefixLength(range.substring(pos + 1), address.length * 8);
+			if (prefixLength == -1) {
+				return false;
+			}
+		}
+		Node<V> node = (address.length == 4) ? this.ipv4Root : this.ipv6Root;
+		for (int i = 0; i < prefixLength; i++) {
+			int bit = IpAddressTrie.bit(address, i);
+			if (node.children[bit] == null) {
+				node.children[bit] = new Node<V>();
+			}
+			node = node.children[bit];
+		}
+		if (node.value == null) {
+			this.size++;
+		}
+		node.value = value;
+		return true;
+	}
+
+	/**
+	 * Return the bit at the specified position of an address, where position
+	 * zero is the most significant bit.
+	 */
+	private static int bit(byte[] address, int position) {
+		return (address[position >> 3] >> (7 - (position & 7))) & 1;
+	}
+
+	/**
+	 * Determine if a string is a valid CIDR range, consisting of an IPv4 or
+	 * IPv6 address followed by a slash and a prefix length, such as
+	 * "192.168.0.0/16" or "2001:db8::/32".
+	 *
+	 * @param range The string to examine.
+	 * @return <code>true</code> if the string is a valid CIDR range.
+	 */
+	public static boolean isRange(String range) {
+		int pos = (range == null) ? -1 : range.indexOf('/');
+		if (pos == -1) {
+			return false;
+		}
+		byte[] address = IpAddressTrie.parseAddress(range.substring(0, pos));
+		return (address != null && IpAddressTrie.parsePrefixLength(range.substring(pos + 1), address.length * 8) != -1);
+	}
+
+	/**
+	 * Return the value for the most specific range containing an IP address.
+	 *
+	 * @param ipAddress The IPv4 or IPv6 address to look up.  IPv4-mapped IPv6
+	 *  addresses such as "::ffff:192.168.0.1" are treated as IPv4 addresses.
+	 * @return The value for the most specific range containing the address, or
+	 *  <code>null</code> if no range contains the address or the address is
+	 *  invalid.
+	 */
+	public V lookup(String ipAddress) {
+		List<V> results = this.lookupAll(ipAddress);
+		return (results.isEmpty()) ? null : results.get(0);
+	}
+
+	/**
+	 * Return the values for all ranges containing an IP address, ordered from
+	 * the most specific range to the least specific range.  Callers whose
+	 * values may no longer apply (such as expired blocks) should use this
+	 * method so that a less specific range can be used instead.
+	 *
+	 * @param ipAddress The IPv4 or IPv6 address to look up.  IPv4-mapped IPv6
+	 *  addresses such as "::ffff:192.168.0.1" are treated as IPv4 addresses.
+	 * @return The values for all ranges containing the address, or an empty
+	 *  list if no range contains the address or the address is invalid.
+	 */
+	public List<V> lookupAll(String ipAddress) {
+		byte[] address = IpAddressTrie.parseAddress(ipAddress);
+		if (address == null) {
+			return Collections.emptyList();
+		}
+		List<V> results = new ArrayList<V>();
+		Node<V> node = (address.length == 4) ? this.ipv4Root : this.ipv6Root;
+		if (node.value != null) {
+			results.add(node.value);
+		}
+		int bits = address.length * 8;
+		for (int i = 0; i < bits; i++) {
+			node = node.children[IpAddressTrie.bit(address, i)];
+			if (node == null) {
+				break;
+			}
+			if (node.value != null) {
+				results.add(node.value);
+			}
+		}
+		Collections.reverse(results);
+		return results;
+	}
+
+	/**
+	 * Convert an IPv4 or IPv6 address to its binary form without performing
+	 * any DNS lookups.  Any IPv6 zone ID (such as "%eth0") is ignored.
+	 *
+	 * @param ipAddress The address to parse.
+	 * @return A four byte array for an IPv4 or IPv4-mapped IPv6 address, a
+	 *  sixteen byte array for any other IPv6 address, or <code>null</code> if
+	 *  the value is not a valid address.
+	 */
+	protected static byte[] parseAddress(String ipAddress) {
+		if (StringUtils.isBlank(ipAddress)) {
+			return null;
+		}
+		int pos = ipAddress.indexOf('%');
+		if (pos != -1) {
+			ipAddress = ipAddress.substring(0, pos);
+		}
+		if (ipAddress.indexOf(':') == -1) {
+			return IpAddressTrie.parseIpv4Address(ipAddress);
+		}
+		byte[] address = IpAddressTrie.parseIpv6Address(ipAddress);
+		if (address == null) {
+			return null;
+		}
+		for (int i = 0; i < 10; i++) {
+			if (address[i] != 0) {
+				return address;
+			}
+		}
+		if (address[10] != (byte)0xff || address[11] != (byte)0xff) {
+			return address;
+		}
+		// IPv4-mapped address
+		byte[] ipv4Address = new byte[4];
+		System.arraycopy(address, 12, ipv4Address, 0, 4);
+		return ipv4Address;
+	}
+
+	/**
+	 * Parse a dotted-quad IPv4 address.
+	 */
+	private static byte[] parseIpv4Address(String ipAddress) {
+		String[] octets = StringUtils.splitPreserveAllTokens(ipAddress, '.');
+		if (octets.length != 4) {
+			return null;
+		}
+		byte[] address = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			if (octets[i].length() < 1 || octets[i].length() > 3 || !StringUtils.containsOnly(octets[i], DECIMAL_DIGITS)) {
+				return null;
+			}
+			int octet = Integer.parseInt(octets[i]);
+			if (octet > 255) {
+				return null;
+			}
+			address[i] = (byte)octet;
+		}
+		return address;
+	}
+
+	/**
+	 * Parse an IPv6 address, including addresses using "::" to represent
+	 * groups of zeroes and addresses ending with a dotted-quad IPv4 address.
+	 */
+	private static byte[] parseIpv6Address(String ipAddress) {
+		int compressed = ipAddress.indexOf("::");
+		if (compressed != -1 && ipAddress.indexOf("::", compressed + 1) != -1) {
+			return null;
+		}
+		String head = (compressed == -1) ? ipAddress : ipAddress.substring(0, compressed);
+		String tail = (compressed == -1) ? "" : ipAddress.substring(compressed + 2);
+		if (compressed != -1 && head.indexOf('.') != -1) {
+			// an embedded IPv4 address must be at the end of the address
+			return null;
+		}
+		byte[] headBytes = IpAddressTrie.parseIpv6Groups(head);
+		byte[] tailBytes = IpAddressTrie.parseIpv6Groups(tail);
+		if (headBytes == null || tailBytes == null) {
+			return null;
+		}
+		int length = headBytes.length + tailBytes.length;
+		if ((compressed == -1 && length != 16) || (compressed != -1 && length > 14)) {
+			return null;
+		}
+		byte[] address = new byte[16];
+		System.arraycopy(headBytes, 0, address, 0, headBytes.length);
+		System.arraycopy(tailBytes, 0, address, 16 - tailBytes.length, tailBytes.length);
+		return address;
+	}
+
+	/**
+	 * Parse a colon-separated list of IPv6 groups, the last of which may be a
+	 * dotted-quad IPv4 address.
+	 */
+	private static byte[] parseIpv6Groups(String groups) {
+		if (groups.length() == 0) {
+			return new byte[0];
+		}
+		String[] tokens = StringUtils.splitPreserveAllTokens(groups, ':');
+		if (tokens.length > 8) {
+			return null;
+		}
+		byte[] ipv4Address = null;
+		int groupCount = tokens.length;
+		if (tokens[tokens.length - 1].indexOf('.') != -1) {
+			ipv4Address = IpAddressTrie.parseIpv4Address(tokens[tokens.length - 1]);
+			if (ipv4Address == null) {
+				return null;
+			}
+			groupCount--;
+		}
+		byte[] result = new byte[groupCount * 2 + ((ipv4Address == null) ? 0 : 4)];
+		for (int i = 0; i < groupCount; i++) {
+			String token = tokens[i];
+			if (token.length() < 1 || token.length() > 4 || !StringUtils.containsOnly(token, HEX_DIGITS)) {
+				return null;
+			}
+			int group = Integer.parseInt(token, 16);
+			result[i * 2] = (byte)(group >> 8);
+			result[i * 2 + 1] = (byte)group;
+		}
+		if (ipv4Address != null) {
+			System.arraycopy(ipv4Address, 0, result, groupCount * 2, 4);
+		}
+		return result;
+	}
+
+	/**
+	 * Parse a CIDR prefix length, returning -1 if the value is not a number
+	 * between zero and the maximum length.
+	 */
+	private static int parsePrefixLength(String prefixLength, int maxLength) {
+		if (prefixLength.length() < 1 || prefixLength.length() > 3 || !StringUtils.containsOnly(prefixLength, DECIMAL_DIGITS)) {
+			return -1;
+		}
+		int result = Integer.parseInt(prefixLength);
+		return (result > maxLength) ? -1 : result;
+	}
+
+	/**
+	 * Return the number of distinct ranges in the trie.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * A trie node.  Nodes are only modified while the trie is being built.
+	 */
+	private static final class Node<V> implements Serializable {
+
+		private final Node<V>[] children = newChildren();
+		private V value;
+
+		@SuppressWarnings("unchecked")
+		private static <V> Node<V>[] newChildren() {
+			return new Node[2];
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.Serializable;
+import java.util.Locale;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+
+/**
+ * Cache of the page layout values (sidebar, header and footer content, logo,
+ * stylesheet and script revisions, etc) displayed on every page of a virtual
+ * wiki.  Layouts are stored per virtual wiki and locale so that a page request
+ * requires a single cache lookup rather than parsing or looking up each of the
+ * layout topics.  The combined stylesheet for each virtual wiki is also cached
+ * as a pre-compressed response.
+ *
+ * The layout topics are all in the JAMWiki namespace, so any change to a topic
+ * in that namespace purges the layouts for its virtual wiki, and changes to
+ * virtual wiki, namespace or interwiki configuration purge all layouts.  Like
+ * the parsed topic content cache, layouts also expire after a short time so
+ * that changes to templates transcluded into a layout topic are eventually
+ * displayed.
+ *
+ * Each purge increments a generation counter, and {@link #addToCache} refuses
+ * layouts that were built prior to the most recent purge since they may
+ * contain stale data.
+ */
+public abstract class LayoutCache {
+
+	private static final WikiCache<String, Layout> CACHE_LAYOUTS = new WikiCache<String, Layout>("org.jamwiki.utils.LayoutCache.CACHE_LAYOUTS");
+	private static final WikiCache<String, ResponseCache.CachedResponse> CACHE_STYLESHEETS = new WikiCache<String, ResponseCache.CachedResponse>("org.jamwiki.utils.LayoutCache.CACHE_STYLESHEETS");
+	/** Incremented each time layouts are purged from the cache. */
+	private static final CacheGeneration GENERATION = new CacheGeneration(0);
+	private static final char KEY_SEPARATOR = '|';
+
+	/**
+	 * Add a layout to the cache.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @param layout The layout to cache.
+	 * @param generation The value returned by {@link #currentGeneration} prior
+	 *  to building the layout.  If any purge has occurred since then the
+	 *  layout is not cached.
+	 */
+	public static void addToCache(String cacheKey, Layout layout, long generation) {
+		GENERATION.addToCache(CACHE_LAYOUTS, cacheKey, layout, generation);
+	}
+
+	/**
+	 * Add a virtual wiki stylesheet to the cache.
+	 *
+	 * @param virtualWiki The virtual wiki for the stylesheet.
+	 * @param stylesheet The stylesheet response to cache.
+	 * @param generation The value returned by {@link #currentGeneration} prior
+	 *  to building the stylesheet.  If any purge has occurred since then the
+	 *  stylesheet is not cached.
+	 */
+	public static void addStylesheetToCache(String virtualWiki, ResponseCache.CachedResponse stylesheet, long generation) {
+		GENERATION.addToCache(CACHE_STYLESHEETS, virtualWiki, stylesheet, generation);
+	}
+
+	/**
+	 * Generate the cache key for a virtual wiki layout.
+	 *
+	 * @param virtualWiki The virtual wiki for the layout.
+	 * @param locale The locale used when parsing the layout topics.
+	 * @return The key to use when storing or retrieving the layout.
+	 */
+	public static String buildCacheKey(String virtualWiki, Locale locale) {
+		return virtualWiki + KEY_SEPARATOR + ((locale == null) ? "" : locale.toString());
+	}
+
+	/**
+	 * Return the current purge generation.  This value should be retrieved
+	 * before building a layout that will be passed to {@link #addToCache}.
+	 */
+	public static long currentGeneration() {
+		return GENERATION.current();
+	}
+
+	/**
+	 * Remove all cached layouts.
+	 */
+	public static void purgeAll() {
+		GENERATION.increment();
+		CACHE_LAYOUTS.removeAllFromCache();
+		CACHE_STYLESHEETS.removeAllFromCache();
+	}
+
+	/**
+	 * Remove any cached layouts that may display the specified topic.  Only
+	 * topics in the JAMWiki namespace are used in layouts, so changes to other
+	 * topics do not purge anything.  If the topic is in the shared upload
+	 * virtual wiki then all layouts are purged.
+	 *
+	 * @param topic The topic that has been added or modified.
+	 */
+	public static void purgeTopic(Topic topic) {
+		if (topic.getNamespace() == null || !topic.getNamespace().getId().equals(Namespace.JAMWIKI_ID)) {
+			return;
+		}
+		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+		if (StringUtils.isBlank(topic.getVirtualWiki()) || StringUtils.equalsIgnoreCase(topic.getVirtualWiki(), sharedVirtualWiki)) {
+			purgeAll();
+			return;
+		}
+		GENERATION.increment();
+		CACHE_LAYOUTS.removeFromCacheByPrefix(topic.getVirtualWiki() + KEY_SEPARATOR);
+		CACHE_STYLESHEETS.removeFromCacheCaseInsensitive(topic.getVirtualWiki());
+	}
+
+	/**
+	 * Retrieve a cached layout.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @return The cached layout, or <code>null</code> if no layout is cached
+	 *  for the key.
+	 */
+	public static Layout retrieveFromCache(String cacheKey) {
+		return CACHE_LAYOUTS.retrieveFromCache(cacheKey);
+	}
+
+	/**
+	 * Retrieve a cached virtual wiki stylesheet.
+	 *
+	 * @param virtualWiki The virtual wiki for the stylesheet.
+	 * @return The cached stylesheet, or <code>null</code> if no stylesheet is
+	 *  cached for the virtual wiki.
+	 */
+	public static ResponseCache.CachedResponse retrieveStylesheetFromCache(String virtualWiki) {
+		return CACHE_STYLESHEETS.retrieveFromCache(virtualWiki);
+	}
+
+	/**
+	 * The layout values for a virtual wiki and locale.
+	 */
+	public static final class Layout implements Serializable {
+
+		private final String cssRevision;
+		private final String defaultTopic;
+		private final String footer;
+		private final long jsRevision;
+		private final String leftMenu;
+		private final String logo;
+		private final String pageHeader;
+
+		/**
+		 * Create a layout.
+		 *
+		 * @param defaultTopic The virtual wiki root topic name.
+		 * @param logo The virtual wiki logo image URL.
+		 * @param leftMenu The parsed sidebar topic content.
+		 * @param pageHeader The parsed header topic content.
+		 * @param footer The parsed footer topic content.
+		 * @param cssRevision A value that changes whenever the stylesheet topics
+		 *  are modified.
+		 * @param jsRevision A value that changes whenever the JAMWiki Javascript
+		 *  file is modified.
+		 */
+		public Layout(String defaultTopic, String logo, String leftMenu, String pageHeader, String footer, String cssRevision, long jsRevision) {
+			this.defaultTopic = defaultTopic;
+			this.logo = logo;
+			this.leftMenu = leftMenu;
+			this.pageHeader = pageHeader;
+			this.footer = footer;
+			this.cssRevision = cssRevision;
+			this.jsRevision = jsRevision;
+		}
+
+		/**
+		 *
+		 */
+		public String getCssRevision() {
+			return this.cssRevision;
+		}
+
+		/**
+		 *
+		 */
+		public String getDefaultTopic() {
+			return this.defaultTopic;
+		}
+
+		/**
+		 *
+		 */
+		public String getFooter() {
+			return this.footer;
+		}
+
+		/**
+		 *
+		 */
+		public long getJsRevision() {
+			return this.jsRevision;
+		}
+
+		/**
+		 *
+		 */
+		public String getLeftMenu() {
+			return this.leftMenu;
+		}
+
+		/**
+		 *
+		 */
+		public String getLogo() {
+			return this.logo;
+		}
+
+		/**
+		 *
+		 */
+		public String getPageHeader() {
+			return this.pageHeader;
+		}
+	}
+}
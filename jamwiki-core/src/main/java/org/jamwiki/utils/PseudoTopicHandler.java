@@ -87,6 +87,7 @@ public class PseudoTopicHandler {
 		PSEUDO_TOPICS.add("Special:Source");
 		PSEUDO_TOPICS.add("Special:SpecialPages");
 		PSEUDO_TOPICS.add("Special:Specialpages");
+		PSEUDO_TOPICS.add("Special:Suggest");
 		PSEUDO_TOPICS.add("Special:TopicsAdmin");
 		PSEUDO_TOPICS.add("Special:Topicsadmin");
 		PSEUDO_TOPICS.add("Special:Translation");
@@ -0,0 +1,255 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+
+/**
+ * Cache of fully rendered topic pages served to anonymous users.  Pages viewed
+ * by anonymous users do not vary by user, so the complete response (headers
+ * and a gzip-compressed copy of the body) can be stored and returned for
+ * subsequent requests without dispatching the request to a servlet.
+ *
+ * Entries are keyed by virtual wiki, locale and request URI.  A single topic
+ * edit can change the rendering of many other pages (links to a new topic,
+ * template transclusions, category listings, redirects, and the sidebar,
+ * header, footer and stylesheet topics that are displayed on every page), so
+ * any change to a topic or file purges all cached pages for its virtual wiki,
+ * and changes to the shared virtual wiki or to wiki-wide configuration purge
+ * the entire cache.
+ *
+ * Each purge increments a generation counter.  A page that was being rendered
+ * while a purge occurred may contain stale data, so callers record the
+ * generation before rendering a page and {@link #addToCache} refuses entries
+ * rendered during an older generation.  Since purges occur whenever anything
+ * that could affect a rendered page changes, the generation at which a virtual
+ * wiki was last purged can also be used when generating HTTP cache
+ * validators for its pages.  The generation is initialized from the system
+ * time so that validators issued prior to a restart are not re-used.
+ */
+public abstract class ResponseCache {
+
+	private static final WikiCache<String, CachedResponse> CACHE_RESPONSES = new WikiCache<String, CachedResponse>("org.jamwiki.utils.ResponseCache.CACHE_RESPONSES");
+	/** Incremented each time entries are purged from the cache. */
+	private static final CacheGeneration GENERATION = new CacheGeneration(System.currentTimeMillis());
+	/** The generation at which all entries were last purged from the cache. */
+	private static volatile long PURGE_ALL_GENERATION = GENERATION.current();
+	/** Map of lower-case virtual wiki name and the generation at which its entries were last purged. */
+	private static final Map<String, Long> VIRTUAL_WIKI_GENERATIONS = new ConcurrentHashMap<String, Long>();
+	private static final char KEY_SEPARATOR = '|';
+
+	/**
+	 * Add a rendered response to the cache.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @param cachedResponse The response to cache.
+	 * @param generation The value returned by {@link #currentGeneration} prior
+	 *  to rendering the response.  If any purge has occurred since then the
+	 *  response is not cached.
+	 * @return <code>true</code> if the response was added to the cache.
+	 */
+	public static boolean addToCache(String cacheKey, CachedResponse cachedResponse, long generation) {
+		return GENERATION.addToCache(CACHE_RESPONSES, cacheKey, cachedResponse, generation);
+	}
+
+	/**
+	 * Generate the cache key for a request.
+	 *
+	 * @param virtualWiki The virtual wiki for the request.
+	 * @param locale The locale used when rendering the response.
+	 * @param requestUri The request URI, not including any query string.
+	 * @return The key to use when storing or retrieving the response.
+	 */
+	public static String buildCacheKey(String virtualWiki, Locale locale, String requestUri) {
+		StringBuilder cacheKey = new StringBuilder(virtualWiki);
+		cacheKey.append(KEY_SEPARATOR);
+		cacheKey.append((locale == null) ? "" : locale.toString());
+		cacheKey.append(KEY_SEPARATOR);
+		cacheKey.append(requestUri);
+		return cacheKey.toString();
+	}
+
+	/**
+	 * Return the current purge generation.  This value should be retrieved
+	 * before rendering a response that will be passed to {@link #addToCache}.
+	 */
+	public static long currentGeneration() {
+		return GENERATION.current();
+	}
+
+	/**
+	 * Return the generation at which cached responses for a virtual wiki were
+	 * last purged.  This value changes whenever anything that could affect a
+	 * rendered page in the virtual wiki changes, but not when topics in other
+	 * virtual wikis are modified.
+	 *
+	 * @param virtualWiki The virtual wiki name.
+	 * @return The generation at which the virtual wiki was last purged.
+	 */
+	public static long currentGeneration(String virtualWiki) {
+		long purgeAllGeneration = PURGE_ALL_GENERATION;
+		Long generation = VIRTUAL_WIKI_GENERATIONS.get(virtualWiki.toLowerCase());
+		return (generation != null && generation > purgeAllGeneration) ? generation : purgeAllGeneration;
+	}
+
+	/**
+	 * Return <code>true</code> if anonymous topic responses should be cached.
+	 */
+	public static boolean isEnabled() {
+		return Environment.getBooleanValue(Environment.PROP_TOPIC_RESPONSE_CACHE);
+	}
+
+	/**
+	 * Remove all cached responses.
+	 */
+	public static void purgeAll() {
+		PURGE_ALL_GENERATION = GENERATION.increment();
+		CACHE_RESPONSES.removeAllFromCache();
+	}
+
+	/**
+	 * Remove all cached responses for a virtual wiki.  If the virtual wiki is
+	 * the shared upload virtual wiki then its topics may be displayed in other
+	 * virtual wikis and the entire cache is purged.
+	 *
+	 * @param virtualWiki The virtual wiki whose responses are being purged.
+	 */
+	public static void purgeVirtualWiki(String virtualWiki) {
+		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+		if (StringUtils.isBlank(virtualWiki) || StringUtils.equalsIgnoreCase(virtualWiki, sharedVirtualWiki)) {
+			purgeAll();
+			return;
+		}
+		VIRTUAL_WIKI_GENERATIONS.put(virtualWiki.toLowerCase(), GENERATION.increment());
+		CACHE_RESPONSES.removeFromCacheByPrefix(virtualWiki + KEY_SEPARATOR);
+	}
+
+	/**
+	 * Retrieve a cached response.
+	 *
+	 * @param cacheKey The cache key, as returned by {@link #buildCacheKey}.
+	 * @return The cached response, or <code>null</code> if no response is
+	 *  cached for the key.
+	 */
+	public static CachedResponse retrieveFromCache(String cacheKey) {
+		return CACHE_RESPONSES.retrieveFromCache(cacheKey);
+	}
+
+	/**
+	 * A rendered response.  The response body is held only in gzip-compressed
+	 * form and is decompressed for the (rare) clients that do not accept gzip
+	 * content encoding.
+	 */
+	public static final class CachedResponse implements Serializable {
+
+		private final byte[] compressedContent;
+		private final int contentLength;
+		private final String contentType;
+		private final LinkedHashMap<String, List<String>> headers;
+		private final Locale locale;
+
+		/**
+		 * Create a cached response.
+		 *
+		 * @param contentType The response content type, including the character
+		 *  encoding.
+		 * @param locale The response locale, or <code>null</code> if no locale
+		 *  was explicitly set for the response.
+		 * @param headers The HTTP headers set for the response, not including the
+		 *  content type and content length.
+		 * @param content The uncompressed response body.
+		 * @throws IOException Thrown if the content cannot be compressed.
+		 */
+		public CachedResponse(String contentType, Locale locale, Map<String, List<String>> headers, byte[] content) throws IOException {
+			this.contentType = contentType;
+			this.locale = locale;
+			this.headers = new LinkedHashMap<String, List<String>>();
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				this.headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+			}
+			this.contentLength = content.length;
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(content);
+			gzip.close();
+			this.compressedContent = compressed.toByteArray();
+		}
+
+		/**
+		 * Return the gzip-compressed response body.
+		 */
+		public byte[] getCompressedContent() {
+			return this.compressedContent;
+		}
+
+		/**
+		 * Return the uncompressed response body.
+		 */
+		public byte[] getContent() throws IOException {
+			GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(this.compressedContent));
+			try {
+				return IOUtils.toByteArray(gzip);
+			} finally {
+				IOUtils.closeQuietly(gzip);
+			}
+		}
+
+		/**
+		 * Return the length of the uncompressed response body.
+		 */
+		public int getContentLength() {
+			return this.contentLength;
+		}
+
+		/**
+		 * Return the response content type.
+		 */
+		public String getContentType() {
+			return this.contentType;
+		}
+
+		/**
+		 * Return the response headers, not including the content type and
+		 * content length headers.
+		 */
+		public Map<String, List<String>> getHeaders() {
+			return this.headers;
+		}
+
+		/**
+		 * Return the response locale, or <code>null</code> if no locale was
+		 * set for the response.
+		 */
+		public Locale getLocale() {
+			return this.locale;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of topic names used to provide type-ahead suggestions
+ * without querying the database or the search engine.  Topic names are held
+ * in a sorted array keyed by the lower-case topic name, allowing a binary
+ * search to find the range of topics matching a prefix, and the matches within
+ * that range are ranked by a weight (typically the number of topics linking to
+ * the topic).
+ *
+ * Reads are lock-free and operate against an immutable snapshot of the index.
+ * Updates are synchronized and replace the snapshot with a modified copy,
+ * which is acceptable since topic edits that change links, creations, moves
+ * and deletions are rare compared to suggestion lookups.
+ */
+public class TopicSuggestionIndex {
+
+	/** Sorted index entries.  The array is never modified once published. */
+	private volatile Entry[] entries;
+
+	/**
+	 * Create a new suggestion index.
+	 *
+	 * @param topicWeights A map of topic name and weight for all topics that
+	 *  should initially be included in the index.  May be <code>null</code> or
+	 *  empty.
+	 */
+	public TopicSuggestionIndex(Map<String, Integer> topicWeights) {
+		int size = (topicWeights == null) ? 0 : topicWeights.size();
+		Entry[] entries = new Entry[size];
+		if (topicWeights != null) {
+			int i = 0;
+			for (Map.Entry<String, Integer> topicWeight : topicWeights.entrySet()) {
+				int weight = (topicWeight.getValue() == null) ? 0 : topicWeight.getValue();
+				entries[i++] = new Entry(topicWeight.getKey(), weight);
+			}
+		}
+		Arrays.sort(entries);
+		this.entries = entries;
+	}
+
+	/**
+	 * Add a topic to the index.  If the topic already exists in the index then
+	 * this method is a no-op.
+	 *
+	 * @param topicName The name of the topic to add.
+	 * @param weight The weight to use when ranking the topic relative to other
+	 *  topics matching the same prefix.
+	 */
+	public synchronized void add(String topicName, int weight) {
+		Entry[] entries = this.entries;
+		Entry entry = new Entry(topicName, weight);
+		int pos = Arrays.binarySearch(entries, entry);
+		if (pos >= 0) {
+			return;
+		}
+		pos = -(pos + 1);
+		Entry[] updated = new Entry[entries.length + 1];
+		System.arraycopy(entries, 0, updated, 0, pos);
+		updated[pos] = entry;
+		System.arraycopy(entries, pos, updated, pos + 1, entries.length - pos);
+		this.entries = updated;
+	}
+
+	/**
+	 * Change the weight of a topic in the index, such as when links to the
+	 * topic are added or removed.  If the topic does not exist in the index
+	 * then this method is a no-op.  Weights are never reduced below zero.
+	 *
+	 * @param topicName The name of the topic to update.
+	 * @param delta The amount to add to the topic's weight.
+	 */
+	public synchronized void adjustWeight(String topicName, int delta) {
+		Entry[] entries = this.entries;
+		int pos = Arrays.binarySearch(entries, new Entry(topicName, 0));
+		if (pos < 0 || delta == 0) {
+			return;
+		}
+		Entry[] updated = entries.clone();
+		updated[pos] = new Entry(topicName, Math.max(0, entries[pos].weight + delta));
+		this.entries = updated;
+	}
+
+	/**
+	 * Determine whether a topic is currently in the index.
+	 *
+	 * @param topicName The name of the topic to check.
+	 * @return <code>true</code> if a topic with exactly the given name is in
+	 *  the index.
+	 */
+	public boolean contains(String topicName) {
+		return (Arrays.binarySearch(this.entries, new Entry(topicName, 0)) >= 0);
+	}
+
+	/**
+	 * Remove a topic from the index.  If the topic does not exist in the index
+	 * then this method is a no-op.
+	 *
+	 * @param topicName The name of the topic to remove.
+	 */
+	public synchronized void remove(String topicName) {
+		Entry[] entries = this.entries;
+		int pos = Arrays.binarySearch(entries, new Entry(topicName, 0));
+		if (pos < 0) {
+			return;
+		}
+		Entry[] updated = new Entry[entries.length - 1];
+		System.arraycopy(entries, 0, updated, 0, pos);
+		System.arraycopy(entries, pos + 1, updated, pos, entries.length - pos - 1);
+		this.entries = updated;
+	}
+
+	/**
+	 * Return the number of topics in the index.
+	 *
+	 * @return The number of topics in the index.
+	 */
+	public int size() {
+		return this.entries.length;
+	}
+
+	/**
+	 * Return the names of topics that begin with the specified prefix, ignoring
+	 * case.  Results are ordered by weight with the highest weighted topics
+	 * first, and topics of equal weight are ordered alphabetically.
+	 *
+	 * @param prefix The text that all returned topic names must begin with.
+	 * @param limit The maximum number of results to return.
+	 * @return A list of matching topic names, or an empty list if no topics
+	 *  match.
+	 */
+	public List<String> suggest(String prefix, int limit) {
+		List<String> results = new ArrayList<String>();
+		if (prefix == null || limit <= 0) {
+			return results;
+		}
+		Entry[] entries = this.entries;
+		String key = prefix.toLowerCase();
+		int start = this.lowerBound(entries, key);
+		int end = start;
+		while (end < entries.length && entries[end].key.startsWith(key)) {
+			end++;
+		}
+		// keep the "limit" best matches in a small array ordered by rank.  the
+		// range is scanned once, so the cost is proportional to the number of
+		// matching topics rather than to the size of the index.
+		Entry[] best = new Entry[Math.min(limit, end - start)];
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			Entry entry = entries[i];
+			if (count == best.length && !entry.ranksAbove(best[count - 1])) {
+				continue;
+			}
+			int pos = (count == best.length) ? count - 1 : count++;
+			while (pos > 0 && entry.ranksAbove(best[pos - 1])) {
+				best[pos] = best[pos - 1];
+				pos--;
+			}
+			best[pos] = entry;
+		}
+		for (int i = 0; i < count; i++) {
+			results.add(best[i].topicName);
+		}
+		return results;
+	}
+
+	/**
+	 * Find the position of the first entry whose key is greater than or equal
+	 * to the specified key.
+	 */
+	private int lowerBound(Entry[] entries, String key) {
+		int low = 0;
+		int high = entries.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entries[mid].key.compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * A single topic name and its weight.  Entries are sorted by the lower-case
+	 * topic name, with the exact topic name used to order topics whose names
+	 * differ only by case.
+	 */
+	private static final class Entry implements Comparable<Entry> {
+
+		private final String key;
+		private final String topicName;
+		private final int weight;
+
+		Entry(String topicName, int weight) {
+			this.key = topicName.toLowerCase();
+			this.topicName = topicName;
+			this.weight = weight;
+		}
+
+		public int compareTo(Entry other) {
+			int result = this.key.compareTo(other.key);
+			return (result != 0) ? result : this.topicName.compareTo(other.topicName);
+		}
+
+		/**
+		 * Return <code>true</code> if this entry should be returned before the
+		 * specified entry in a list of suggestions.
+		 */
+		boolean ranksAbove(Entry other) {
+			if (this.weight != other.weight) {
+				return (this.weight > other.weight);
+			}
+			return (this.compareTo(other) < 0);
+		}
+	}
+}
@@ -33,6 +33,7 @@ import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicVersion;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 
@@ -131,16 +132,39 @@ public class UpgradeUtil {
 	 */
 	private boolean upgradeDatabase() throws WikiException {
 		WikiVersion oldVersion = new WikiVersion(Environment.getValue(Environment.PROP_BASE_WIKI_VERSION));
-		boolean upgradeRequired = (oldVersion.before(1, 3, 0));
+		boolean upgradeRequired = (oldVersion.before(2, 0, 0));
 		if (upgradeRequired && this.performUpgrade) {
-			DatabaseUpgrades.upgrade130(this.messages);
+			if (oldVersion.before(1, 3, 0)) {
+				DatabaseUpgrades.upgrade130(this.messages);
+			}
+			DatabaseUpgrades.upgrade200(this.messages);
 			// Flush connection pool to manage database schema change
 			WikiDatabase.initialize();
 			WikiCache.initialize();
+			this.upgradeImageDimensions();
 		}
 		return upgradeRequired;
 	}
 
+	/**
+	 * Record image dimensions for existing file versions.  Failures are not
+	 * fatal since dimensions that are not stored are read from the image when
+	 * needed, and the tools on the Special:Maintenance page can be used to
+	 * complete this step.
+	 */
+	private void upgradeImageDimensions() {
+		try {
+			int[] results = ImageUtil.rebuildImageDimensions();
+			this.messages.add(new WikiMessage("upgrade.message.db.column.populated", "image_width, image_height", "jam_file_version"));
+			if (results[1] > 0) {
+				logger.warn("Unable to determine image dimensions for " + results[1] + " file version(s) during upgrade");
+			}
+		} catch (Exception e) {
+			logger.warn("Failure during upgrade while storing image dimensions.  Please use the tools on the Special:Maintenance page to complete this step.", e);
+			this.messages.add(new WikiMessage("upgrade.error.nonfatal", e.getMessage()));
+		}
+	}
+
 	/**
 	 * Determine whether or not a search index upgrade is required, and if one
 	 * is required and the flag to perform it is true, upgrade the search index.
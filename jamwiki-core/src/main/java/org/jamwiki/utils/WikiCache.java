@@ -169,6 +169,20 @@ public class WikiCache<K, V> {
 		}
 	}
 
+	/**
+	 * Remove all keys from the cache that begin with the specified prefix,
+	 * ignoring case.  Like {@link #removeFromCacheCaseInsensitive} this method
+	 * examines every key in the cache and should not be used in performance
+	 * critical code.
+	 */
+	public void removeFromCacheByPrefix(String prefix) {
+		for (Object cacheKey : this.getCache().getKeys()) {
+			if (cacheKey != null && cacheKey.toString().regionMatches(true, 0, prefix, 0, prefix.length())) {
+				this.getCache().remove(cacheKey);
+			}
+		}
+	}
+
 	/**
 	 * Retrieve an object from the cache.  IMPORTANT: this method will return
 	 * <code>null</code> if no matching element is cached OR if the cached
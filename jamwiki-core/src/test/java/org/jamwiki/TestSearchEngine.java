@@ -19,7 +19,9 @@ package org.jamwiki;
 import java.util.ArrayList;
 import java.util.List;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
+import org.jamwiki.utils.Pagination;
 
 /**
  * Empty search engine implementation for use in unit tests.
@@ -51,6 +53,13 @@ public class TestSearchEngine implements SearchEngine {
 		return new ArrayList<SearchResultEntry>();
 	}
 
+	/**
+	 *
+	 */
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, Pagination pagination, String after) {
+		return new SearchResultPage(new ArrayList<SearchResultEntry>(), 0, null);
+	}
+
 	/**
 	 *
 	 */
@@ -17,13 +17,19 @@
 package org.jamwiki.db;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
+import org.jamwiki.model.Namespace;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.model.WikiFile;
 import org.jamwiki.utils.Pagination;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -51,6 +57,51 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		assertEquals("Incorrect topic name", topic.getName(), WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
 	}
 
+	/**
+	 * Verify that links from topics in other virtual wikis are not included
+	 * in topic link counts.
+	 */
+	@Test
+	public void testLookupTopicLinkCounts() throws Throwable {
+		VirtualWiki en = WikiBase.getDataHandler().lookupVirtualWiki("en");
+		VirtualWiki test = WikiBase.getDataHandler().lookupVirtualWiki("test");
+		List<String> links = Arrays.asList("Link Count Target");
+		this.setupTopic(en, "Link Count Target", "target");
+		this.setupTopic(test, "Link Count Target", "target");
+		this.writeTopicWithLinks(en, "Link Count Source", links);
+		this.writeTopicWithLinks(test, "Link Count Source 1", links);
+		this.writeTopicWithLinks(test, "Link Count Source 2", links);
+		QueryHandler queryHandler = ((AnsiDataHandler)WikiBase.getDataHandler()).queryHandler();
+		Topic target = WikiBase.getDataHandler().lookupTopic("en", "Link Count Target", false);
+		assertEquals("Incorrect link count", 1, queryHandler.lookupTopicLinkCount(en.getVirtualWikiId(), target.getNamespace().getId(), target.getPageName()));
+		assertEquals("Incorrect link count", 2, queryHandler.lookupTopicLinkCount(test.getVirtualWikiId(), target.getNamespace().getId(), target.getPageName()));
+		assertEquals("Incorrect link count", Integer.valueOf(1), queryHandler.lookupTopicLinkCounts(en.getVirtualWikiId()).get("Link Count Target"));
+		assertEquals("Incorrect link count", Integer.valueOf(2), queryHandler.lookupTopicLinkCounts(test.getVirtualWikiId()).get("Link Count Target"));
+		assertEquals("Incorrect link count", Integer.valueOf(0), queryHandler.lookupTopicLinkCounts(en.getVirtualWikiId()).get("Link Count Source"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupWikiFiles() throws DataAccessException {
+		List<String> topicNames = Arrays.asList("File:Test Image.jpg", "File:Test Image2.jpg", "File:No Such Image.jpg", "Example1");
+		Map<String, WikiFile> results = WikiBase.getDataHandler().lookupWikiFiles("en", topicNames);
+		assertEquals("Incorrect number of results", topicNames.size(), results.size());
+		for (String topicName : topicNames) {
+			WikiFile expected = WikiBase.getDataHandler().lookupWikiFile("en", topicName);
+			WikiFile result = results.get(topicName);
+			assertTrue("Missing result for " + topicName, results.containsKey(topicName));
+			if (expected == null) {
+				assertNull("Unexpected file for " + topicName, result);
+			} else {
+				assertEquals("Incorrect file for " + topicName, expected.getFileId(), result.getFileId());
+				assertEquals("Incorrect image width for " + topicName, expected.getImageWidth(), result.getImageWidth());
+			}
+		}
+		assertNotNull("File not found", results.get("File:Test Image.jpg"));
+	}
+
 	/**
 	 *
 	 */
@@ -104,4 +155,14 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		topic = WikiBase.getDataHandler().lookupTopic("en", "HELP:Test", false);
 		assertEquals("Incorrect topic name (case-insensitive)", topic.getName(), TOPIC_NAME);
 	}
+
+	/**
+	 *
+	 */
+	private void writeTopicWithLinks(VirtualWiki virtualWiki, String topicName, List<String> links) throws DataAccessException, WikiException {
+		Topic topic = new Topic(virtualWiki.getName(), Namespace.namespace(Namespace.MAIN_ID), topicName);
+		topic.setTopicContent("links");
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, links);
+	}
 }
@@ -0,0 +1,122 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import org.apache.commons.io.FileUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.model.WikiFileVersion;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ContentAddressedStorageTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBuildContentUrl() throws Throwable {
+		String hash = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+		String url = ContentAddressedStorage.buildContentUrl(hash, "Example.JPG");
+		assertEquals("Content URL incorrect", "/sha256/e3/b0/" + hash + ".jpg", url);
+		assertTrue("Content URL not recognized", ContentAddressedStorage.isContentUrl(url));
+		assertFalse("Dated upload URL recognized as content URL", ContentAddressedStorage.isContentUrl("/en/2013/2/example-01120000.jpg"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangeFilename() throws Throwable {
+		byte[] data = "renamed upload content".getBytes("UTF-8");
+		String url = ContentAddressedStorage.store(new ByteArrayInputStream(data), "source.png");
+		String renamedUrl = ContentAddressedStorage.changeFilename(url, "Destination.GIF");
+		assertTrue("Renamed URL does not use the destination extension", renamedUrl.endsWith(".gif"));
+		assertEquals("Renamed URL does not use the content hash", url.substring(0, url.length() - ".png".length()), renamedUrl.substring(0, renamedUrl.length() - ".gif".length()));
+		assertFalse("Unreferenced source file was not deleted", ImageUtil.buildAbsoluteFile(url).exists());
+		File file = ImageUtil.buildAbsoluteFile(renamedUrl);
+		assertEquals("Renamed file content incorrect", "renamed upload content", FileUtils.readFileToString(file, "UTF-8"));
+		assertEquals("Unchanged extension produced a new URL", renamedUrl, ContentAddressedStorage.changeFilename(renamedUrl, "other.gif"));
+		ContentAddressedStorage.rollback(renamedUrl);
+		assertFalse("Unreferenced renamed file was not deleted", file.exists());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIdenticalUploads() throws Throwable {
+		byte[] data = "identical uploads under two names".getBytes("UTF-8");
+		String[] filenames = {"Identical Upload One.txt", "Identical Upload Two.txt"};
+		String url = null;
+		int versionCount = 0;
+		WikiFile[] wikiFiles = new WikiFile[filenames.length];
+		for (int i = 0; i < filenames.length; i++) {
+			String storedUrl = ContentAddressedStorage.store(new ByteArrayInputStream(data), filenames[i]);
+			if (url == null) {
+				url = storedUrl;
+				versionCount = WikiBase.getDataHandler().lookupWikiFileVersionCount(url);
+			}
+			assertEquals("Identical content stored under different URLs", url, storedUrl);
+			String pageName = ImageUtil.generateFilePageName(filenames[i]);
+			Topic topic = ImageUtil.writeImageTopic("en", pageName, "", null, false, "127.0.0.1");
+			ImageUtil.writeWikiFile(topic, new WikiFileVersion(), null, "127.0.0.1", filenames[i], storedUrl, "text/plain", data.length, null);
+			ContentAddressedStorage.commit(storedUrl);
+			wikiFiles[i] = WikiBase.getDataHandler().lookupWikiFile("en", topic.getName());
+			assertNotNull("File record not created for " + filenames[i], wikiFiles[i]);
+			assertEquals("File record URL incorrect", url, wikiFiles[i].getUrl());
+		}
+		assertFalse("Identical uploads share a file record", wikiFiles[0].getFileId() == wikiFiles[1].getFileId());
+		assertEquals("File versions not recorded for the shared URL", versionCount + 2, WikiBase.getDataHandler().lookupWikiFileVersionCount(url));
+		// the shared file is referenced, so it must not be deleted
+		ContentAddressedStorage.rollback(url);
+		File file = ImageUtil.buildAbsoluteFile(url);
+		assertTrue("Shared file does not exist", file.exists());
+		assertEquals("Shared file content incorrect", "identical uploads under two names", FileUtils.readFileToString(file, "UTF-8"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStoreIdenticalContent() throws Throwable {
+		byte[] data = "identical upload content".getBytes("UTF-8");
+		String url1 = ContentAddressedStorage.store(new ByteArrayInputStream(data), "first.txt");
+		String url2 = ContentAddressedStorage.store(new ByteArrayInputStream(data), "second.txt");
+		assertEquals("Identical content stored under different URLs", url1, url2);
+		File file = ImageUtil.buildAbsoluteFile(url1);
+		assertTrue("Stored file does not exist", file.exists());
+		assertEquals("Stored file content incorrect", "identical upload content", FileUtils.readFileToString(file, "UTF-8"));
+		String url3 = ContentAddressedStorage.store(new ByteArrayInputStream("different content".getBytes("UTF-8")), "first.txt");
+		assertFalse("Different content stored under the same URL", url1.equals(url3));
+		// one upload is still pending, so the file must not be deleted
+		ContentAddressedStorage.rollback(url1);
+		assertTrue("File deleted while an upload was pending", file.exists());
+		// no file versions refer to the file
+		ContentAddressedStorage.rollback(url2);
+		assertFalse("Unreferenced file was not deleted", file.exists());
+		ContentAddressedStorage.commit(url3);
+		assertTrue("Committed file deleted", ImageUtil.buildAbsoluteFile(url3).exists());
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import org.apache.commons.io.FileUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class DatabaseFileCacheTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private DatabaseFileCache.CachedFile store(int fileVersionId, int length) throws Throwable {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte)fileVersionId);
+		return DatabaseFileCache.store(fileVersionId, 0, "image/png", length, new ByteArrayInputStream(data));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Throwable {
+		String originalSize = Environment.getValue(Environment.PROP_FILE_DATABASE_CACHE_SIZE);
+		Environment.setValue(Environment.PROP_FILE_DATABASE_CACHE_SIZE, "1");
+		try {
+			int length = 200 * 1024;
+			for (int i = 1; i <= 5; i++) {
+				assertNotNull("File not cached: " + i, this.store(i, length));
+			}
+			// access the oldest entry so that the second entry becomes the least recently used
+			DatabaseFileCache.CachedFile cachedFile = DatabaseFileCache.retrieve(1, 0);
+			assertNotNull("Cached file not found", cachedFile);
+			assertEquals("Incorrect MIME type", "image/png", cachedFile.getMimeType());
+			assertEquals("Incorrect cached file length", length, cachedFile.getFile().length());
+			this.store(6, length);
+			assertNull("Least recently used file not evicted", DatabaseFileCache.retrieve(2, 0));
+			assertNotNull("Recently used file evicted", DatabaseFileCache.retrieve(1, 0));
+			assertNotNull("New file not cached", DatabaseFileCache.retrieve(6, 0));
+			byte[] data = FileUtils.readFileToByteArray(DatabaseFileCache.retrieve(6, 0).getFile());
+			assertEquals("Incorrect cached data", 6, data[length - 1]);
+			// files larger than a fraction of the cache are not cached
+			assertNull("Large file cached", this.store(7, 300 * 1024));
+			assertNull("Large file cached", DatabaseFileCache.retrieve(7, 0));
+		} finally {
+			Environment.setValue(Environment.PROP_FILE_DATABASE_CACHE_SIZE, originalSize);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCurrentFileVersionId() throws Throwable {
+		assertNull("Unexpected current version", DatabaseFileCache.retrieveCurrentFileVersionId(100));
+		DatabaseFileCache.setCurrentFileVersionId(100, 5);
+		assertEquals("Incorrect current version", Integer.valueOf(5), DatabaseFileCache.retrieveCurrentFileVersionId(100));
+		DatabaseFileCache.removeCurrentFileVersionId(100);
+		assertNull("Current version not removed", DatabaseFileCache.retrieveCurrentFileVersionId(100));
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Simple benchmark comparing the area-averaging image scaler with the progressive
+ * bicubic scaling previously used by {@link ImageProcessor}.  Speed is reported as
+ * the average time to produce a thumbnail, and quality as the peak signal-to-noise
+ * ratio (higher is better) of each thumbnail relative to one produced by the JDK's
+ * <code>Image.SCALE_AREA_AVERAGING</code> filter.  This class is not a unit test
+ * and is not run as part of the build; run it manually using the test classpath:
+ *
+ * <pre>
+ * java -cp ... org.jamwiki.parser.image.ImageResizeBenchmark [width] [height] [targetWidth] [iterations]
+ * </pre>
+ *
+ * When the system property "jamwiki.benchmark.output" is set to a directory the
+ * thumbnails are written there for visual comparison.
+ */
+public class ImageResizeBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 2;
+
+	/**
+	 *
+	 */
+	public static void main(String[] args) throws Exception {
+		int width = (args.length > 0) ? Integer.parseInt(args[0]) : 6000;
+		int height = (args.length > 1) ? Integer.parseInt(args[1]) : 4000;
+		int targetWidth = (args.length > 2) ? Integer.parseInt(args[2]) : 300;
+		int iterations = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+		int targetHeight = (int)Math.round(((double)targetWidth / (double)width) * (double)height);
+		BufferedImage source = buildSourceImage(width, height);
+		BufferedImage reference = toIntRgb(source.getScaledInstance(targetWidth, targetHeight, Image.SCALE_AREA_AVERAGING), targetWidth, targetHeight);
+		System.out.println("Scaling " + width + "x" + height + " to " + targetWidth + "x" + targetHeight + ", " + iterations + " iterations");
+		BufferedImage progressive = null;
+		BufferedImage serial = null;
+		BufferedImage parallel = null;
+		long progressiveTime = 0;
+		long serialTime = 0;
+		long parallelTime = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+			long start = System.nanoTime();
+			progressive = resizeProgressive(source, targetWidth, targetHeight);
+			long progressiveEnd = System.nanoTime();
+			serial = ImageScaler.scale(source, targetWidth, targetHeight, false);
+			long serialEnd = System.nanoTime();
+			parallel = ImageScaler.scale(source, targetWidth, targetHeight, true);
+			long parallelEnd = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				progressiveTime += progressiveEnd - start;
+				serialTime += serialEnd - progressiveEnd;
+				parallelTime += parallelEnd - serialEnd;
+			}
+		}
+		report("Progressive bicubic", progressiveTime / iterations, progressive, reference);
+		report("Area averaging", serialTime / iterations, serial, reference);
+		report("Area averaging (parallel)", parallelTime / iterations, parallel, reference);
+		// compare the full cost of resizing an uploaded file, including decoding
+		File file = File.createTempFile("jamwiki-resize-benchmark", ".jpg");
+		try {
+			ImageIO.write(source, "jpg", file);
+			long fullDecodeTime = 0;
+			long subsampledTime = 0;
+			BufferedImage fullDecode = null;
+			BufferedImage subsampled = null;
+			for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+				long start = System.nanoTime();
+				fullDecode = resizeProgressive(ImageIO.read(file), targetWidth, targetHeight);
+				long fullDecodeEnd = System.nanoTime();
+				subsampled = ImageProcessor.resizeImage(file, targetWidth, targetHeight);
+				long subsampledEnd = System.nanoTime();
+				if (i >= WARMUP_ITERATIONS) {
+					fullDecodeTime += fullDecodeEnd - start;
+					subsampledTime += subsampledEnd - fullDecodeEnd;
+				}
+			}
+			report("JPEG decode + progressive bicubic", fullDecodeTime / iterations, fullDecode, reference);
+			report("Subsampled JPEG decode + area averaging", subsampledTime / iterations, subsampled, reference);
+		} finally {
+			file.delete();
+		}
+		String output = System.getProperty("jamwiki.benchmark.output");
+		if (output != null) {
+			ImageIO.write(reference, "png", new File(output, "reference.png"));
+			ImageIO.write(progressive, "png", new File(output, "progressive.png"));
+			ImageIO.write(serial, "png", new File(output, "area-averaging.png"));
+		}
+	}
+
+	/**
+	 * Build a test image containing smooth gradients, a pattern of increasingly fine rings that aliases badly
+	 * when scaled poorly, and noise.
+	 */
+	private static BufferedImage buildSourceImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(42);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int r = (x * 255) / width;
+				int g = (y * 255) / height;
+				int b = (int)(127.5 + 127.5 * Math.sin((x * x + y * y) / 20000.0));
+				int noise = random.nextInt(32) - 16;
+				row[x] = (clamp(r + noise) << 16) | (clamp(g + noise) << 8) | clamp(b);
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		return image;
+	}
+
+	/**
+	 *
+	 */
+	private static int clamp(int value) {
+		return (value < 0) ? 0 : ((value > 255) ? 255 : value);
+	}
+
+	/**
+	 * Calculate the peak signal-to-noise ratio of an image relative to a reference.
+	 */
+	private static double psnr(BufferedImage image, BufferedImage reference) {
+		double sum = 0;
+		for (int y = 0; y < reference.getHeight(); y++) {
+			for (int x = 0; x < reference.getWidth(); x++) {
+				int a = image.getRGB(x, y);
+				int b = reference.getRGB(x, y);
+				for (int shift = 0; shift <= 16; shift += 8) {
+					int diff = ((a >> shift) & 0xff) - ((b >> shift) & 0xff);
+					sum += diff * diff;
+				}
+			}
+		}
+		double mse = sum / (3.0 * reference.getWidth() * reference.getHeight());
+		return (mse == 0) ? Double.POSITIVE_INFINITY : 10 * Math.log10((255.0 * 255.0) / mse);
+	}
+
+	/**
+	 *
+	 */
+	private static void report(String name, long nanos, BufferedImage image, BufferedImage reference) {
+		System.out.println(name + ": " + (nanos / 1000000) + " ms, PSNR " + Math.round(psnr(image, reference) * 100) / 100.0 + " dB");
+	}
+
+	/**
+	 * The progressive bicubic algorithm previously used by ImageProcessor, which
+	 * halves the image repeatedly, allocating a new image at each step.
+	 */
+	private static BufferedImage resizeProgressive(BufferedImage tmp, int targetWidth, int targetHeight) {
+		int type = (tmp.getTransparency() == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+		int width = tmp.getWidth();
+		int height = tmp.getHeight();
+		BufferedImage resized = tmp;
+		do {
+			width /= 2;
+			if (width < targetWidth) {
+				width = targetWidth;
+			}
+			height /= 2;
+			if (height < targetHeight) {
+				height = targetHeight;
+			}
+			tmp = new BufferedImage(width, height, type);
+			Graphics2D g2 = tmp.createGraphics();
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			g2.drawImage(resized, 0, 0, width, height, null);
+			g2.dispose();
+			resized = tmp;
+		} while (width != targetWidth || height != targetHeight);
+		return resized;
+	}
+
+	/**
+	 *
+	 */
+	private static BufferedImage toIntRgb(Image image, int width, int height) {
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = result.createGraphics();
+		g2.drawImage(image, 0, 0, null);
+		g2.dispose();
+		return result;
+	}
+}
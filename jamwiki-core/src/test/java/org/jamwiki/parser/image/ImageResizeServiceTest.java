@@ -0,0 +1,93 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageResizeServiceTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsValidIncrementalWidth() throws Throwable {
+		String originalIncrement = Environment.getValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
+		try {
+			Environment.setValue(Environment.PROP_IMAGE_RESIZE_INCREMENT, "100");
+			Dimension originalDimensions = new Dimension(450, 300);
+			assertTrue("Increment below original width", ImageUtil.isValidIncrementalWidth(originalDimensions, 200));
+			assertTrue("Largest increment below original width", ImageUtil.isValidIncrementalWidth(originalDimensions, 400));
+			assertFalse("Width that is not an increment", ImageUtil.isValidIncrementalWidth(originalDimensions, 250));
+			assertFalse("Increment above original width", ImageUtil.isValidIncrementalWidth(originalDimensions, 500));
+			assertFalse("Zero width", ImageUtil.isValidIncrementalWidth(originalDimensions, 0));
+			assertEquals("Incremental height", 133, ImageUtil.calculateIncrementalHeight(originalDimensions, 200));
+			Environment.setValue(Environment.PROP_IMAGE_RESIZE_INCREMENT, "0");
+			assertFalse("Resizing disabled", ImageUtil.isValidIncrementalWidth(originalDimensions, 200));
+		} finally {
+			Environment.setValue(Environment.PROP_IMAGE_RESIZE_INCREMENT, originalIncrement);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsValidStandardWidth() throws Throwable {
+		String originalIncrement = Environment.getValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
+		String originalStandardWidths = Environment.getValue(Environment.PROP_IMAGE_STANDARD_WIDTHS);
+		try {
+			Environment.setValue(Environment.PROP_IMAGE_RESIZE_INCREMENT, "0");
+			Environment.setValue(Environment.PROP_IMAGE_STANDARD_WIDTHS, "300, 120,invalid,");
+			assertArrayEquals("Standard widths parsed incorrectly", new int[] {120, 300}, ImageUtil.retrieveStandardImageWidths());
+			Dimension originalDimensions = new Dimension(450, 300);
+			assertTrue("Standard width", ImageUtil.isValidIncrementalWidth(originalDimensions, 120));
+			assertTrue("High-DPI standard width", ImageUtil.isValidIncrementalWidth(originalDimensions, 240));
+			assertFalse("High-DPI standard width above original width", ImageUtil.isValidIncrementalWidth(originalDimensions, 600));
+			assertFalse("Width that is not a standard width", ImageUtil.isValidIncrementalWidth(originalDimensions, 200));
+		} finally {
+			Environment.setValue(Environment.PROP_IMAGE_RESIZE_INCREMENT, originalIncrement);
+			Environment.setValue(Environment.PROP_IMAGE_STANDARD_WIDTHS, originalStandardWidths);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGenerateResizedImageFileInvalidPath() throws Throwable {
+		String originalFileUploadStorage = Environment.getValue(Environment.PROP_FILE_UPLOAD_STORAGE);
+		try {
+			Environment.setValue(Environment.PROP_FILE_UPLOAD_STORAGE, WikiBase.UPLOAD_STORAGE.JAMWIKI.toString());
+			assertNull("Non-resized path", ImageResizeService.generateResizedImageFile("/uploads/2010/10/example.jpg"));
+			assertNull("Path without a width", ImageResizeService.generateResizedImageFile("/uploads/resized/2010/10/example.jpg"));
+			assertNull("Missing original image", ImageResizeService.generateResizedImageFile("/uploads/resized/2010/10/example-200px.jpg"));
+			assertNull("Path outside of the upload directory", ImageResizeService.generateResizedImageFile("/uploads/resized/../../../example-200px.jpg"));
+			Environment.setValue(Environment.PROP_FILE_UPLOAD_STORAGE, WikiBase.UPLOAD_STORAGE.DATABASE.toString());
+			assertNull("Database storage", ImageResizeService.generateResizedImageFile("/uploads/resized/2010/10/example-200px.jpg"));
+		} finally {
+			Environment.setValue(Environment.PROP_FILE_UPLOAD_STORAGE, originalFileUploadStorage);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageScalerTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleAveragesPixels() throws Throwable {
+		// alternating black and white columns should average to grey
+		BufferedImage source = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < source.getWidth(); x++) {
+			for (int y = 0; y < source.getHeight(); y++) {
+				source.setRGB(x, y, (x % 2 == 0) ? 0xffffff : 0x000000);
+			}
+		}
+		BufferedImage scaled = ImageScaler.scale(source, 100, 75, false);
+		assertEquals("Scaled width", 100, scaled.getWidth());
+		assertEquals("Scaled height", 75, scaled.getHeight());
+		assertEquals("Scaled image type", BufferedImage.TYPE_INT_RGB, scaled.getType());
+		assertEquals("Averaged pixel", 0xff808080, scaled.getRGB(50, 40));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleTransparentPixels() throws Throwable {
+		// transparent pixels must not darken their opaque neighbors
+		BufferedImage source = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+		for (int x = 0; x < source.getWidth(); x++) {
+			for (int y = 0; y < source.getHeight(); y++) {
+				source.setRGB(x, y, (x % 2 == 0) ? 0xffff0000 : 0x00000000);
+			}
+		}
+		BufferedImage scaled = ImageScaler.scale(source, 2, 2, false);
+		assertEquals("Scaled image type", BufferedImage.TYPE_INT_ARGB, scaled.getType());
+		assertEquals("Half transparent pixel", 0x80ff0000, scaled.getRGB(0, 0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testScaleParallel() throws Throwable {
+		BufferedImage source = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+		for (int x = 0; x < source.getWidth(); x++) {
+			for (int y = 0; y < source.getHeight(); y++) {
+				source.setRGB(x, y, ((x * 7) ^ (y * 13)) & 0xffffff);
+			}
+		}
+		BufferedImage serial = ImageScaler.scale(source, 300, 225, false);
+		BufferedImage parallel = ImageScaler.scale(source, 300, 225, true);
+		for (int x = 0; x < serial.getWidth(); x++) {
+			for (int y = 0; y < serial.getHeight(); y++) {
+				assertEquals("Pixel " + x + "," + y, serial.getRGB(x, y), parallel.getRGB(x, y));
+			}
+		}
+	}
+}
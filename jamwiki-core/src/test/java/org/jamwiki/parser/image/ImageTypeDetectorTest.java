@@ -0,0 +1,102 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.TestFileUtil;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageTypeDetectorTest extends JAMWikiUnitTest {
+
+	/**
+	 * Read the data through a detector and return the detected dimensions.
+	 */
+	private Dimension detect(InputStream in) throws Throwable {
+		ImageTypeDetector detector = new ImageTypeDetector(in);
+		try {
+			IOUtils.copy(detector, new NullOutputStream());
+		} finally {
+			detector.close();
+		}
+		return detector.detectDimensions();
+	}
+
+	/**
+	 *
+	 */
+	private byte[] writeImage(String formatName, int width, int height) throws Throwable {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue("No writer for " + formatName, ImageIO.write(image, formatName, out));
+		return out.toByteArray();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDetectJpeg() throws Throwable {
+		Dimension dimensions = this.detect(new FileInputStream(TestFileUtil.retrieveFile("data/files/", "test_image.jpg")));
+		assertEquals("JPEG width incorrect", 400, dimensions.width);
+		assertEquals("JPEG height incorrect", 267, dimensions.height);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseHeaders() throws Throwable {
+		String[] formatNames = {"png", "gif", "bmp", "jpeg"};
+		for (String formatName : formatNames) {
+			byte[] data = this.writeImage(formatName, 37, 23);
+			Dimension dimensions = ImageTypeDetector.parseHeader(data, data.length);
+			assertNotNull("Header not parsed for " + formatName, dimensions);
+			assertEquals("Width incorrect for " + formatName, 37, dimensions.width);
+			assertEquals("Height incorrect for " + formatName, 23, dimensions.height);
+			assertEquals("Detected dimensions incorrect for " + formatName, dimensions, this.detect(new ByteArrayInputStream(data)));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDetectNonImage() throws Throwable {
+		Dimension dimensions = this.detect(new ByteArrayInputStream("not an image".getBytes("UTF-8")));
+		assertEquals("Text detected as an image", 0, dimensions.width);
+		// data larger than the retained header
+		byte[] data = new byte[200 * 1024];
+		dimensions = this.detect(new ByteArrayInputStream(data));
+		assertEquals("Binary data detected as an image", 0, dimensions.width);
+		// a truncated header cannot be parsed
+		byte[] png = this.writeImage("png", 10, 10);
+		assertNull("Truncated header parsed", ImageTypeDetector.parseHeader(png, 16));
+	}
+}
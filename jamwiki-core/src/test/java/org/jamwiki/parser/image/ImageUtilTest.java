@@ -16,10 +16,17 @@
  */
 package org.jamwiki.parser.image;
 
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import org.apache.commons.io.FileUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.TestFileUtil;
 import org.jamwiki.WikiBase;
+import org.jamwiki.model.WikiFile;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -40,6 +47,62 @@ public class ImageUtilTest extends JAMWikiUnitTest {
 		assertEquals("Image link HTML built incorrectly", expectedResult, actualResult);
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testBuildImageLinkHtmlStandardWidths() throws Throwable {
+		String originalStandardWidths = Environment.getValue(Environment.PROP_IMAGE_STANDARD_WIDTHS);
+		try {
+			Environment.setValue(Environment.PROP_IMAGE_STANDARD_WIDTHS, "250");
+			ImageMetadata imageMetadata = new ImageMetadata();
+			imageMetadata.setLink("");
+			imageMetadata.setMaxWidth(200);
+			String actualResult = ImageUtil.buildImageLinkHtml("/wiki", "en", "File:Test Image.jpg", imageMetadata, null, true, null);
+			String expectedResult = "<img class=\"wikiimg\" src=\"/files/resized/test_image-250px.jpg\" srcset=\"/files/resized/test_image-250px.jpg 1x, /files/test_image.jpg 2x\" width=\"200\" height=\"134\" alt=\"File:Test Image.jpg\" />";
+			assertEquals("Image link HTML with standard widths built incorrectly", expectedResult, actualResult);
+		} finally {
+			Environment.setValue(Environment.PROP_IMAGE_STANDARD_WIDTHS, originalStandardWidths);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testWriteUploadedFile() throws Throwable {
+		File file = new File(System.getProperty("java.io.tmpdir"), "jamwiki-upload-test/uploaded_image.jpg");
+		InputStream in = new FileInputStream(TestFileUtil.retrieveFile("data/files/", "test_image.jpg"));
+		try {
+			ImageUtil.writeUploadedFile(in, file);
+		} finally {
+			in.close();
+		}
+		assertTrue("Uploaded file not written", file.exists());
+		in = new FileInputStream(file);
+		try {
+			Dimension dimensions = ImageUtil.retrieveImageDimensions(in);
+			assertEquals("Uploaded image width incorrect", 400, dimensions.width);
+			assertEquals("Uploaded image height incorrect", 267, dimensions.height);
+		} finally {
+			in.close();
+		}
+		assertEquals("Non-image data has dimensions", 0, ImageUtil.retrieveImageDimensions(new ByteArrayInputStream("not an image".getBytes("UTF-8"))).width);
+		FileUtils.deleteDirectory(file.getParentFile());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStoredImageDimensions() throws Throwable {
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertEquals("Stored image width incorrect", 400, wikiFile.getImageWidth());
+		assertEquals("Stored image height incorrect", 267, wikiFile.getImageHeight());
+		int[] resultArray = ImageUtil.rebuildImageDimensions();
+		assertEquals("Image dimensions unexpectedly rebuilt", 0, resultArray[0]);
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,47 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class CacheGenerationTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddToCache() throws Throwable {
+		WikiCache<String, Integer> cache = new WikiCache<String, Integer>("org.jamwiki.db.AnsiDataHandler.CACHE_TOPIC_IDS_BY_NAME");
+		CacheGeneration cacheGeneration = new CacheGeneration(0);
+		long generation = cacheGeneration.current();
+		assertTrue("Entry not cached", cacheGeneration.addToCache(cache, "CacheGenerationTest1", 1, generation));
+		assertEquals("Entry not cached", Integer.valueOf(1), cache.retrieveFromCache("CacheGenerationTest1"));
+		assertEquals("Incorrect generation", generation + 1, cacheGeneration.increment());
+		// entries built before the purge must not be cached
+		assertFalse("Stale entry cached", cacheGeneration.addToCache(cache, "CacheGenerationTest2", 2, generation));
+		assertFalse("Stale entry cached", cache.isKeyInCache("CacheGenerationTest2"));
+		generation = cacheGeneration.current();
+		assertTrue("Entry not cached", cacheGeneration.addToCache(cache, "CacheGenerationTest2", 2, generation));
+		cache.removeFromCache("CacheGenerationTest1");
+		cache.removeFromCache("CacheGenerationTest2");
+	}
+}
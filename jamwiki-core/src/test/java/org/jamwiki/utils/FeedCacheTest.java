@@ -0,0 +1,57 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class FeedCacheTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private FeedCache.CachedFeed buildFeed(String content) throws Exception {
+		ResponseCache.CachedResponse response = new ResponseCache.CachedResponse("application/xml;charset=UTF-8", null, new LinkedHashMap<String, List<String>>(), content.getBytes("UTF-8"));
+		return new FeedCache.CachedFeed(response, 1000);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPurgeVirtualWiki() throws Throwable {
+		Pagination pagination = new Pagination(50, 0);
+		String key1 = FeedCache.buildCacheKey("wiki1", "rss_2.0", false, false, pagination, "http://localhost/wiki1/");
+		String key2 = FeedCache.buildCacheKey("wiki2", "rss_2.0", false, false, pagination, "http://localhost/wiki2/");
+		assertFalse("Feed parameters not included in key", key1.equals(FeedCache.buildCacheKey("wiki1", "atom_1.0", false, false, pagination, "http://localhost/wiki1/")));
+		long generation = FeedCache.currentGeneration();
+		FeedCache.addToCache(key1, this.buildFeed("one"), generation);
+		FeedCache.addToCache(key2, this.buildFeed("two"), generation);
+		assertEquals("Feed not cached", "one", new String(FeedCache.retrieveFromCache(key1).getResponse().getContent(), "UTF-8"));
+		FeedCache.purgeVirtualWiki("wiki1");
+		assertNull("Feed not purged", FeedCache.retrieveFromCache(key1));
+		assertNotNull("Feed for other virtual wiki purged", FeedCache.retrieveFromCache(key2));
+		FeedCache.purgeAll();
+		assertNull("Feed not purged", FeedCache.retrieveFromCache(key2));
+	}
+}
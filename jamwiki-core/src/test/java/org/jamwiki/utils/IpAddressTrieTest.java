@@ -0,0 +1,119 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class IpAddressTrieTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private IpAddressTrie<String> buildTrie() {
+		Map<String, String> ranges = new LinkedHashMap<String, String>();
+		ranges.put("10.0.0.0/8", "ten");
+		ranges.put("10.1.0.0/16", "ten-one");
+		ranges.put("192.168.1.77", "single");
+		ranges.put("2001:db8::/32", "doc");
+		ranges.put("2001:db8:1::/48", "doc-one");
+		ranges.put("not-an-address/8", "invalid");
+		ranges.put("10.0.0.0/33", "invalid");
+		return new IpAddressTrie<String>(ranges);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsRange() throws Throwable {
+		assertTrue(IpAddressTrie.isRange("10.0.0.0/8"));
+		assertTrue(IpAddressTrie.isRange("2001:db8::/32"));
+		assertTrue(IpAddressTrie.isRange("0.0.0.0/0"));
+		assertFalse(IpAddressTrie.isRange("10.0.0.1"));
+		assertFalse(IpAddressTrie.isRange("10.0.0.0/33"));
+		assertFalse(IpAddressTrie.isRange("2001:db8::/129"));
+		assertFalse(IpAddressTrie.isRange("10.0.0.0/-1"));
+		assertFalse(IpAddressTrie.isRange("example.com/8"));
+		assertFalse(IpAddressTrie.isRange(null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupIpv4() throws Throwable {
+		IpAddressTrie<String> trie = this.buildTrie();
+		assertEquals("ten", trie.lookup("10.200.3.4"));
+		assertEquals("ten-one", trie.lookup("10.1.255.255"));
+		assertEquals("single", trie.lookup("192.168.1.77"));
+		assertNull(trie.lookup("192.168.1.78"));
+		assertNull(trie.lookup("11.0.0.1"));
+		assertNull(trie.lookup("not-an-address"));
+		assertNull(trie.lookup(null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupAll() throws Throwable {
+		IpAddressTrie<String> trie = this.buildTrie();
+		assertEquals(Arrays.asList("ten-one", "ten"), trie.lookupAll("10.1.2.3"));
+		assertEquals(Arrays.asList("ten"), trie.lookupAll("10.2.3.4"));
+		assertEquals(Arrays.asList("doc-one", "doc"), trie.lookupAll("2001:db8:1::1"));
+		assertTrue(trie.lookupAll("11.0.0.1").isEmpty());
+		assertTrue(trie.lookupAll("not-an-address").isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupIpv4Mapped() throws Throwable {
+		IpAddressTrie<String> trie = this.buildTrie();
+		assertEquals("ten-one", trie.lookup("::ffff:10.1.2.3"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLookupIpv6() throws Throwable {
+		IpAddressTrie<String> trie = this.buildTrie();
+		assertEquals("doc", trie.lookup("2001:db8:ffff::1"));
+		assertEquals("doc-one", trie.lookup("2001:0db8:0001:0000:0000:0000:0000:0001"));
+		assertEquals("doc-one", trie.lookup("2001:db8:1::abcd%eth0"));
+		assertNull(trie.lookup("2001:db9::1"));
+		assertNull(trie.lookup("2001:db8:::1"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSize() throws Throwable {
+		assertEquals(5, this.buildTrie().size());
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.Locale;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class LayoutCacheTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private LayoutCache.Layout buildLayout(String leftMenu) {
+		return new LayoutCache.Layout("StartingPoints", "../images/wiki_logo.jpg", leftMenu, "header", "footer", "1_2", 0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPurgeTopic() throws Throwable {
+		String key1 = LayoutCache.buildCacheKey("wiki1", Locale.US);
+		String key2 = LayoutCache.buildCacheKey("wiki2", Locale.US);
+		long generation = LayoutCache.currentGeneration();
+		LayoutCache.addToCache(key1, this.buildLayout("one"), generation);
+		LayoutCache.addToCache(key2, this.buildLayout("two"), generation);
+		assertEquals("Layout not cached", "one", LayoutCache.retrieveFromCache(key1).getLeftMenu());
+		// topics outside of the JAMWiki namespace are not used in layouts
+		LayoutCache.purgeTopic(new Topic("wiki1", Namespace.namespace(Namespace.MAIN_ID), "Sidebar"));
+		assertNotNull("Layout purged for non-layout topic", LayoutCache.retrieveFromCache(key1));
+		LayoutCache.purgeTopic(new Topic("wiki1", Namespace.namespace(Namespace.JAMWIKI_ID), "Sidebar"));
+		assertNull("Layout not purged", LayoutCache.retrieveFromCache(key1));
+		assertNotNull("Layout for other virtual wiki purged", LayoutCache.retrieveFromCache(key2));
+		LayoutCache.purgeAll();
+		assertNull("Layout not purged", LayoutCache.retrieveFromCache(key2));
+	}
+}
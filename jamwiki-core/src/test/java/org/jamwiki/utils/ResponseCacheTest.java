@@ -0,0 +1,106 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ResponseCacheTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private ResponseCache.CachedResponse buildCachedResponse(String content) throws Throwable {
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		List<String> values = new ArrayList<String>();
+		values.add("no-cache");
+		headers.put("Pragma", values);
+		return new ResponseCache.CachedResponse("text/html;charset=UTF-8", Locale.US, headers, content.getBytes("UTF-8"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCachedResponse() throws Throwable {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			content.append("<p>Paragraph ").append(i).append("</p>\n");
+		}
+		ResponseCache.CachedResponse cachedResponse = this.buildCachedResponse(content.toString());
+		assertEquals("Incorrect content", content.toString(), new String(cachedResponse.getContent(), "UTF-8"));
+		assertEquals("Incorrect content length", content.length(), cachedResponse.getContentLength());
+		assertTrue("Content not compressed", cachedResponse.getCompressedContent().length < content.length());
+		assertEquals("Incorrect header", "no-cache", cachedResponse.getHeaders().get("Pragma").get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPurge() throws Throwable {
+		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+		String key1 = ResponseCache.buildCacheKey("wiki1", Locale.US, "/wiki/wiki1/Topic");
+		String key2 = ResponseCache.buildCacheKey("wiki2", Locale.US, "/wiki/wiki2/Topic");
+		long generation = ResponseCache.currentGeneration();
+		assertTrue("Response not cached", ResponseCache.addToCache(key1, this.buildCachedResponse("one"), generation));
+		assertTrue("Response not cached", ResponseCache.addToCache(key2, this.buildCachedResponse("two"), generation));
+		ResponseCache.purgeVirtualWiki("WIKI1");
+		assertNull("Response not purged", ResponseCache.retrieveFromCache(key1));
+		assertNotNull("Response for other virtual wiki purged", ResponseCache.retrieveFromCache(key2));
+		// responses rendered before the purge must not be cached
+		assertFalse("Stale response cached", ResponseCache.addToCache(key1, this.buildCachedResponse("one"), generation));
+		assertNull("Stale response cached", ResponseCache.retrieveFromCache(key1));
+		generation = ResponseCache.currentGeneration();
+		assertTrue("Response not cached", ResponseCache.addToCache(key1, this.buildCachedResponse("one"), generation));
+		// changes to the shared virtual wiki purge all responses
+		Environment.setValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI, "wiki3");
+		try {
+			ResponseCache.purgeVirtualWiki("wiki3");
+		} finally {
+			Environment.setValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI, sharedVirtualWiki);
+		}
+		assertNull("Response not purged", ResponseCache.retrieveFromCache(key1));
+		assertNull("Response not purged", ResponseCache.retrieveFromCache(key2));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testVirtualWikiGeneration() throws Throwable {
+		long generation1 = ResponseCache.currentGeneration("wiki1");
+		long generation2 = ResponseCache.currentGeneration("wiki2");
+		ResponseCache.purgeVirtualWiki("WIKI1");
+		assertTrue("Generation not changed by purge", ResponseCache.currentGeneration("wiki1") > generation1);
+		assertEquals("Generation changed by purge of another virtual wiki", generation2, ResponseCache.currentGeneration("wiki2"));
+		generation1 = ResponseCache.currentGeneration("wiki1");
+		ResponseCache.purgeAll();
+		assertTrue("Generation not changed by purge of all responses", ResponseCache.currentGeneration("wiki1") > generation1);
+		assertTrue("Generation not changed by purge of all responses", ResponseCache.currentGeneration("wiki2") > generation2);
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TopicSuggestionIndexTest {
+
+	/**
+	 *
+	 */
+	private TopicSuggestionIndex buildIndex() {
+		Map<String, Integer> topicWeights = new HashMap<String, Integer>();
+		topicWeights.put("Apple", 3);
+		topicWeights.put("Apple Pie", 10);
+		topicWeights.put("apple sauce", 3);
+		topicWeights.put("Applet", 0);
+		topicWeights.put("Banana", 50);
+		topicWeights.put("Category:Apples", 7);
+		return new TopicSuggestionIndex(topicWeights);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggest() throws Throwable {
+		TopicSuggestionIndex index = this.buildIndex();
+		List<String> results = index.suggest("app", 10);
+		assertEquals("results.size()", 4, results.size());
+		assertEquals("results.get(0)", "Apple Pie", results.get(0));
+		assertEquals("results.get(1)", "Apple", results.get(1));
+		assertEquals("results.get(2)", "apple sauce", results.get(2));
+		assertEquals("results.get(3)", "Applet", results.get(3));
+		results = index.suggest("APPLE ", 10);
+		assertEquals("results.size()", 2, results.size());
+		results = index.suggest("category:", 10);
+		assertEquals("results.size()", 1, results.size());
+		assertEquals("results.get(0)", "Category:Apples", results.get(0));
+		assertTrue("no match", index.suggest("cherry", 10).isEmpty());
+		assertTrue("zero limit", index.suggest("a", 0).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuggestLimit() throws Throwable {
+		TopicSuggestionIndex index = this.buildIndex();
+		List<String> results = index.suggest("", 2);
+		assertEquals("results.size()", 2, results.size());
+		assertEquals("results.get(0)", "Banana", results.get(0));
+		assertEquals("results.get(1)", "Apple Pie", results.get(1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemove() throws Throwable {
+		TopicSuggestionIndex index = this.buildIndex();
+		index.add("Apricot", 100);
+		index.add("Apple", 1000);
+		assertEquals("index.size()", 7, index.size());
+		assertTrue("index.contains(Apricot)", index.contains("Apricot"));
+		List<String> results = index.suggest("ap", 1);
+		assertEquals("results.get(0)", "Apricot", results.get(0));
+		index.remove("Apricot");
+		index.remove("Does Not Exist");
+		assertEquals("index.size()", 6, index.size());
+		assertFalse("index.contains(Apricot)", index.contains("Apricot"));
+		results = index.suggest("ap", 1);
+		assertEquals("results.get(0)", "Apple Pie", results.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAdjustWeight() throws Throwable {
+		TopicSuggestionIndex index = this.buildIndex();
+		index.adjustWeight("Apple", 8);
+		index.adjustWeight("Does Not Exist", 5);
+		assertEquals("index.size()", 6, index.size());
+		List<String> results = index.suggest("apple", 2);
+		assertEquals("results.get(0)", "Apple", results.get(0));
+		assertEquals("results.get(1)", "Apple Pie", results.get(1));
+		index.adjustWeight("Apple", -20);
+		index.adjustWeight("Applet", 1);
+		results = index.suggest("apple", 4);
+		assertEquals("results.get(2)", "Applet", results.get(2));
+		assertEquals("results.get(3)", "Apple", results.get(3));
+	}
+}
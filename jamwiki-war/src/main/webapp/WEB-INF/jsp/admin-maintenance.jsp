@@ -180,6 +180,25 @@
 </form>
 </fieldset>
 
+<%-- Image Dimensions --%>
+<c:if test="${!empty pageInfo.messages && function == 'images'}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<c:if test="${!empty pageInfo.errors && function == 'images'}">
+<div class="message red"><c:forEach items="${pageInfo.errors}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.maintenance.title.images" /></legend>
+<form action="<jamwiki:link value="Special:Maintenance" />#data" method="post">
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.images" /></label>
+	<span><input type="submit" value="<fmt:message key="common.update" />" /></span>
+	<div class="formhelp"><fmt:message key="admin.maintenance.help.images" /></div>
+</div>
+<input type="hidden" name="function" value="images" />
+</form>
+</fieldset>
+
 </div>
 
 <%-- Password Reset --%>
@@ -150,6 +150,43 @@
 		</select>
 	</span>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_SEARCH_DIRECTORY_TYPE %>"><fmt:message key="admin.caption.searchdirectory" /></label>
+	<span>
+		<select name="<%= Environment.PROP_SEARCH_DIRECTORY_TYPE %>" id="<%= Environment.PROP_SEARCH_DIRECTORY_TYPE %>">
+		<c:set var="PROP_SEARCH_DIRECTORY_TYPE"><%= Environment.PROP_SEARCH_DIRECTORY_TYPE %></c:set>
+		<option value="FS"<c:if test="${props[PROP_SEARCH_DIRECTORY_TYPE] == 'FS'}"> selected="selected"</c:if>><fmt:message key="admin.searchdirectory.fs" /> (<fmt:message key="common.caption.default" />)</option>
+		<option value="MMAP"<c:if test="${props[PROP_SEARCH_DIRECTORY_TYPE] == 'MMAP'}"> selected="selected"</c:if>><fmt:message key="admin.searchdirectory.mmap" /></option>
+		<option value="NIOFS"<c:if test="${props[PROP_SEARCH_DIRECTORY_TYPE] == 'NIOFS'}"> selected="selected"</c:if>><fmt:message key="admin.searchdirectory.niofs" /></option>
+		<option value="RAM"<c:if test="${props[PROP_SEARCH_DIRECTORY_TYPE] == 'RAM'}"> selected="selected"</c:if>><fmt:message key="admin.searchdirectory.ram" /> (<fmt:message key="common.caption.experimental" />)</option>
+		</select>
+	</span>
+	<div class="formhelp"><fmt:message key="admin.help.searchdirectory" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_SEARCH_NRT_CACHING %>"><fmt:message key="admin.caption.searchnrtcaching" /></label>
+	<c:set var="PROP_SEARCH_NRT_CACHING"><%= Environment.PROP_SEARCH_NRT_CACHING %></c:set>
+	<span><jamwiki:checkbox name="${PROP_SEARCH_NRT_CACHING}" value="true" checked="${props[PROP_SEARCH_NRT_CACHING]}" id="${PROP_SEARCH_NRT_CACHING}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.searchnrtcaching" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_RESPONSE_CACHE %>"><fmt:message key="admin.caption.topicresponsecache" /></label>
+	<c:set var="PROP_TOPIC_RESPONSE_CACHE"><%= Environment.PROP_TOPIC_RESPONSE_CACHE %></c:set>
+	<span><jamwiki:checkbox name="${PROP_TOPIC_RESPONSE_CACHE}" value="true" checked="${props[PROP_TOPIC_RESPONSE_CACHE]}" id="${PROP_TOPIC_RESPONSE_CACHE}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.topicresponsecache" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_PROXY_MAX_AGE %>"><fmt:message key="admin.caption.topicproxymaxage" /></label>
+	<c:set var="PROP_TOPIC_PROXY_MAX_AGE"><%= Environment.PROP_TOPIC_PROXY_MAX_AGE %></c:set>
+	<span><jamwiki:text name="${PROP_TOPIC_PROXY_MAX_AGE}" size="5" maxlength="6" value="${props[PROP_TOPIC_PROXY_MAX_AGE]}" id="${PROP_TOPIC_PROXY_MAX_AGE}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.topicproxymaxage" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_STYLESHEET_MINIFY %>"><fmt:message key="admin.caption.stylesheetminify" /></label>
+	<c:set var="PROP_STYLESHEET_MINIFY"><%= Environment.PROP_STYLESHEET_MINIFY %></c:set>
+	<span><jamwiki:checkbox name="${PROP_STYLESHEET_MINIFY}" value="true" checked="${props[PROP_STYLESHEET_MINIFY]}" id="${PROP_STYLESHEET_MINIFY}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.stylesheetminify" /></div>
+</div>
 <div class="row">
 	<label for="<%= Environment.PROP_TOPIC_EDITOR %>"><fmt:message key="admin.caption.editor" /></label>
 	<c:set var="PROP_TOPIC_EDITOR"><%= Environment.PROP_TOPIC_EDITOR %></c:set>
@@ -283,6 +320,12 @@
 	<span><jamwiki:text name="${PROP_IMAGE_RESIZE_INCREMENT}" size="5" maxlength="4" value="${props[PROP_IMAGE_RESIZE_INCREMENT]}" id="${PROP_IMAGE_RESIZE_INCREMENT}" /></span>
 	<div class="formhelp"><fmt:message key="admin.help.imageresize" /></div>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_IMAGE_STANDARD_WIDTHS %>"><fmt:message key="admin.caption.imagestandardwidths" /></label>
+	<c:set var="PROP_IMAGE_STANDARD_WIDTHS"><%= Environment.PROP_IMAGE_STANDARD_WIDTHS %></c:set>
+	<span><jamwiki:text name="${PROP_IMAGE_STANDARD_WIDTHS}" size="30" value="${props[PROP_IMAGE_STANDARD_WIDTHS]}" id="${PROP_IMAGE_STANDARD_WIDTHS}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.imagestandardwidths" /></div>
+</div>
 <div class="row">
 	<label for="<%= Environment.PROP_PARSER_SIGNATURE_USER_PATTERN %>"><fmt:message key="admin.parser.caption.signatureuser" /></label>
 	<c:set var="PROP_PARSER_SIGNATURE_USER_PATTERN"><%= Environment.PROP_PARSER_SIGNATURE_USER_PATTERN %></c:set>
@@ -430,6 +473,18 @@
 	</span>
 	<div class="formhelp"><fmt:message key="admin.upload.help.storage" /> <fmt:message key="admin.upload.help.storage.note" /></div>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_FILE_UPLOAD_DEDUPLICATE %>"><fmt:message key="admin.upload.caption.deduplicate" /></label>
+	<c:set var="PROP_FILE_UPLOAD_DEDUPLICATE"><%= Environment.PROP_FILE_UPLOAD_DEDUPLICATE %></c:set>
+	<span><jamwiki:checkbox name="${PROP_FILE_UPLOAD_DEDUPLICATE}" value="true" checked="${props[PROP_FILE_UPLOAD_DEDUPLICATE]}" id="${PROP_FILE_UPLOAD_DEDUPLICATE}" /></span>
+	<div class="formhelp"><fmt:message key="admin.upload.help.deduplicate" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_FILE_DATABASE_CACHE_SIZE %>"><fmt:message key="admin.upload.caption.databasecache" /></label>
+	<c:set var="PROP_FILE_DATABASE_CACHE_SIZE"><%= Environment.PROP_FILE_DATABASE_CACHE_SIZE %></c:set>
+	<span><jamwiki:text name="${PROP_FILE_DATABASE_CACHE_SIZE}" id="${PROP_FILE_DATABASE_CACHE_SIZE}" value="${props[PROP_FILE_DATABASE_CACHE_SIZE]}" size="5" maxlength="6" /></span>
+	<div class="formhelp"><fmt:message key="admin.upload.help.databasecache" /></div>
+</div>
 <div id="upload-details" class="expander expander-open">
 	<div class="row">
 		<label for="<%= Environment.PROP_FILE_DIR_FULL_PATH %>"><fmt:message key="admin.upload.caption.uploaddir" /></label>
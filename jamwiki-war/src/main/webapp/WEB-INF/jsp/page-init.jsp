@@ -17,6 +17,8 @@
 
 --%>
 
+<%-- do not create an HTTP session simply to render a page --%>
+<%@ page session="false" %>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
 <%@ taglib uri="http://jamwiki.org/taglib" prefix="jamwiki" %>
@@ -24,10 +26,12 @@
 <%@ taglib uri="http://www.springframework.org/security/tags" prefix="security" %>
 
 <%
-// no-cache headers
-response.setHeader("Cache-Control", "private, s-maxage=0, max-age=0, must-revalidate");
-response.setHeader("Expires", "Thu, 01 Jan 1970 00:00:00 GMT");
-response.setHeader("Pragma", "no-cache");
+// no-cache headers, unless the servlet has already set caching headers
+if (!response.containsHeader("Cache-Control")) {
+	response.setHeader("Cache-Control", "private, s-maxage=0, max-age=0, must-revalidate");
+	response.setHeader("Expires", "Thu, 01 Jan 1970 00:00:00 GMT");
+	response.setHeader("Pragma", "no-cache");
+}
 %>
 <fmt:setBundle basename="ApplicationResources" />
 <%
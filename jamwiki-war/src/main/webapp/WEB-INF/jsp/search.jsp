@@ -46,10 +46,28 @@
 		<div id="searchhints"><fmt:message key="search.hints"/></div>
 	</c:when>
 	<c:when test="${!empty results}">
+		<div id="searchfacets">
+			<div class="message"><fmt:message key="searchresult.count"><fmt:param value="${totalHits}" /></fmt:message></div>
+			<c:if test="${!empty namespaceCounts}">
+				<div><fmt:message key="search.caption.facets.namespaces" />:
+				<c:forEach items="${namespaceCounts}" var="facet" varStatus="status">
+					<c:if test="${!status.first}">&#160;|&#160;</c:if><jamwiki:link value="${searchUrl}&amp;ns=${facet.key}" text="${namespaces[facet.key]}" />&#160;(${facet.value})
+				</c:forEach>
+				</div>
+			</c:if>
+			<c:if test="${!empty categoryCounts}">
+				<div><fmt:message key="search.caption.facets.categories" />:
+				<c:forEach items="${categoryCounts}" var="facet" varStatus="status">
+					<c:if test="${!status.first}">&#160;|&#160;</c:if><jamwiki:link value="${facet.key}" text="${facet.key}" />&#160;(${facet.value})
+				</c:forEach>
+				</div>
+			</c:if>
+		</div>
 		<c:forEach items="${results}" var="result">
 			<div class="searchresult"><jamwiki:link value="${result.topic}" text="${result.topic}" /></div>
 			<div class="searchsummary"><c:out value="${result.summary}" escapeXml="false" /></div>
 		</c:forEach>
+		<div class="message"><fmt:message key="common.caption.view" />: <jamwiki:pagination total="${numResults}" rootUrl="${rootUrl}" cursor="${nextCursor}" /></div>
 	</c:when>
 	<c:otherwise>
 		<div class="message"><fmt:message key="searchresult.notfound"><fmt:param><c:out value="${searchField}" escapeXml="true"/></fmt:param></fmt:message></div>
@@ -0,0 +1,204 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocTermOrds;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Lucene collector that counts the number of hits in each namespace and
+ * category while the search is executed, passing each hit on to a delegate
+ * collector (if any) that handles scoring and ranking.  Counts are accumulated
+ * by term ordinal for each index segment, so only one pass is made over the hit
+ * set and term values are only resolved once per segment rather than once per
+ * hit.
+ */
+class FacetCountCollector extends Collector {
+
+	/** Maximum number of category facets to return, ordered by hit count. */
+	private static final int MAXIMUM_CATEGORY_FACETS = 20;
+	/** Size of the buffer used when reading category ordinals for a document. */
+	private static final int ORD_BUFFER_SIZE = 10;
+
+	private final Collector delegate;
+	private final String namespaceField;
+	private final String categoryField;
+	private final Map<Integer, Integer> namespaceCounts = new TreeMap<Integer, Integer>();
+	private final Map<String, Integer> categoryCounts = new HashMap<String, Integer>();
+	private final int[] ordBuffer = new int[ORD_BUFFER_SIZE];
+	// per-segment state
+	private AtomicReader reader;
+	private FieldCache.DocTermsIndex namespaceIndex;
+	private int[] namespaceOrdCounts;
+	private DocTermOrds categoryOrds;
+	private DocTermOrds.TermOrdsIterator categoryIterator;
+	private int[] categoryOrdCounts;
+
+	/**
+	 * @param delegate The collector to pass hits on to, or <code>null</code> if
+	 *  only facet counts are needed.
+	 * @param namespaceField The name of the single-valued index field holding the
+	 *  topic namespace ID.
+	 * @param categoryField The name of the multi-valued index field holding the
+	 *  topic category names.
+	 */
+	FacetCountCollector(Collector delegate, String namespaceField, String categoryField) {
+		this.delegate = delegate;
+		this.namespaceField = namespaceField;
+		this.categoryField = categoryField;
+	}
+
+	/**
+	 *
+	 */
+	public boolean acceptsDocsOutOfOrder() {
+		return (this.delegate == null || this.delegate.acceptsDocsOutOfOrder());
+	}
+
+	/**
+	 *
+	 */
+	public void collect(int doc) throws IOException {
+		if (this.delegate != null) {
+			this.delegate.collect(doc);
+		}
+		this.namespaceOrdCounts[this.namespaceIndex.getOrd(doc)]++;
+		if (this.categoryOrds != null) {
+			this.categoryIterator = this.categoryOrds.lookup(doc, this.categoryIterator);
+			// a partially filled buffer indicates that all ordinals have been read
+			int count;
+			do {
+				count = this.categoryIterator.read(this.ordBuffer);
+				for (int i = 0; i < count; i++) {
+					this.categoryOrdCounts[this.ordBuffer[i]]++;
+				}
+			} while (count == this.ordBuffer.length);
+		}
+	}
+
+	/**
+	 * Convert the ordinal counts for the current segment into term counts.
+	 */
+	private void flushSegment() throws IOException {
+		if (this.reader == null) {
+			return;
+		}
+		BytesRef spare = new BytesRef();
+		// ordinal zero is reserved for documents with no value
+		for (int ord = 1; ord < this.namespaceOrdCounts.length; ord++) {
+			if (this.namespaceOrdCounts[ord] == 0) {
+				continue;
+			}
+			int namespaceId = NumberUtils.toInt(this.namespaceIndex.lookup(ord, spare).utf8ToString(), -1);
+			this.increment(this.namespaceCounts, namespaceId, this.namespaceOrdCounts[ord]);
+		}
+		if (this.categoryOrds != null) {
+			TermsEnum termsEnum = this.categoryOrds.getOrdTermsEnum(this.reader);
+			for (int ord = 0; termsEnum != null && ord < this.categoryOrdCounts.length; ord++) {
+				if (this.categoryOrdCounts[ord] == 0) {
+					continue;
+				}
+				String categoryName = this.categoryOrds.lookupTerm(termsEnum, ord).utf8ToString();
+				this.increment(this.categoryCounts, categoryName, this.categoryOrdCounts[ord]);
+			}
+		}
+		this.reader = null;
+	}
+
+	/**
+	 * Return a map of category name and hit count for the categories with the most
+	 * hits, ordered by hit count.  This method should only be called after the
+	 * search has completed.
+	 */
+	Map<String, Integer> getCategoryCounts() throws IOException {
+		this.flushSegment();
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(this.categoryCounts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+			public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+				int result = o2.getValue().compareTo(o1.getValue());
+				return (result != 0) ? result : o1.getKey().compareTo(o2.getKey());
+			}
+		});
+		Map<String, Integer> results = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : entries) {
+			if (results.size() >= MAXIMUM_CATEGORY_FACETS) {
+				break;
+			}
+			results.put(entry.getKey(), entry.getValue());
+		}
+		return results;
+	}
+
+	/**
+	 * Return a map of namespace ID and hit count, ordered by namespace ID.  This
+	 * method should only be called after the search has completed.
+	 */
+	Map<Integer, Integer> getNamespaceCounts() throws IOException {
+		this.flushSegment();
+		return this.namespaceCounts;
+	}
+
+	/**
+	 *
+	 */
+	private <T> void increment(Map<T, Integer> counts, T key, int count) {
+		Integer current = counts.get(key);
+		counts.put(key, (current == null) ? count : current + count);
+	}
+
+	/**
+	 *
+	 */
+	public void setNextReader(AtomicReaderContext context) throws IOException {
+		if (this.delegate != null) {
+			this.delegate.setNextReader(context);
+		}
+		this.flushSegment();
+		this.reader = context.reader();
+		this.namespaceIndex = FieldCache.DEFAULT.getTermsIndex(this.reader, this.namespaceField);
+		this.namespaceOrdCounts = new int[this.namespaceIndex.numOrd()];
+		DocTermOrds docTermOrds = FieldCache.DEFAULT.getDocTermOrds(this.reader, this.categoryField);
+		this.categoryOrds = (docTermOrds.isEmpty()) ? null : docTermOrds;
+		this.categoryIterator = null;
+		this.categoryOrdCounts = (this.categoryOrds == null) ? null : new int[this.categoryOrds.numTerms()];
+	}
+
+	/**
+	 *
+	 */
+	public void setScorer(Scorer scorer) throws IOException {
+		if (this.delegate != null) {
+			this.delegate.setScorer(scorer);
+		}
+	}
+}
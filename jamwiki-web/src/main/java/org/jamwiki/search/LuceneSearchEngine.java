@@ -20,11 +20,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
@@ -42,6 +43,7 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -49,18 +51,27 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.store.SimpleFSLockFactory;
+import org.apache.lucene.util.Constants;
 import org.apache.lucene.util.Version;
-import org.apache.lucene.store.LockObtainFailedException;
+import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.SearchEngine;
 import org.jamwiki.WikiBase;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -75,28 +86,38 @@ public class LuceneSearchEngine implements SearchEngine {
 	/** Directory for search index files */
 	private static final String SEARCH_DIR = "search";
 	/** Name of the search index field that holds the processed topic content. */
-	private static final String FIELD_TOPIC_CONTENT = "topic_content";
+	protected static final String FIELD_TOPIC_CONTENT = "topic_content";
 	/** Name of the search index field that holds the un-processed topic name. */
 	protected static final String FIELD_TOPIC_NAME = "topic_name";
 	/** Name of the search index field that holds the processed topic name. */
 	private static final String FIELD_TOPIC_NAME_ANALYZED = "topic_name_analyzed";
 	/** Name of the search index field that holds the un-processed topic namespace. */
-	private static final String FIELD_TOPIC_NAMESPACE = "topic_namespace";
+	protected static final String FIELD_TOPIC_NAMESPACE = "topic_namespace";
+	/** Name of the search index field that holds the un-processed topic category names. */
+	protected static final String FIELD_TOPIC_CATEGORY = "topic_category";
 	/** Lucene compatibility version. */
 	protected static final Version USE_LUCENE_VERSION = Version.LUCENE_41;
 	/** Maximum number of results to return per search. */
 	// FIXME - make this configurable
 	protected static final int MAXIMUM_RESULTS_PER_SEARCH = 200;
+	/** Maximum size (in MB) of a newly flushed segment that will be cached in memory by NRTCachingDirectory. */
+	private static final double NRT_CACHE_MAX_MERGE_SIZE_MB = 5.0;
+	/** Maximum total size (in MB) of all segments cached in memory by NRTCachingDirectory. */
+	private static final double NRT_CACHE_MAX_CACHED_MB = 60.0;
+	/** Type of Lucene directory used to hold search indexes. */
+	private final WikiBase.SEARCH_DIRECTORY directoryType = retrieveDirectoryType();
+	/** Flag indicating whether searches use near-real-time readers and a cached directory. */
+	private final boolean nrtCaching = Environment.getBooleanValue(Environment.PROP_SEARCH_NRT_CACHING);
 	/** Flag indicating whether or not to commit search index changes immediately. */
 	private boolean autoCommit = true;
 	/** Flag indicating whether write operations are temporarily disabled. */
 	private boolean disabled = false;
-	/** Store Searchers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexSearcher> searchers = new HashMap<String, IndexSearcher>();
-	/** Store Readers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexReader> indexReaders = new HashMap<String, IndexReader>();
+	/** Store Directories (once opened) so that readers and writers share the same instance. */
+	private Map<String, Directory> directories = new ConcurrentHashMap<String, Directory>();
+	/** Store SearcherManagers (once opened) for re-use and to refresh searchers as the index changes.  Read without locking when releasing searchers. */
+	private Map<String, SearcherManager> searcherManagers = new ConcurrentHashMap<String, SearcherManager>();
 	/** Store Writers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexWriter> indexWriters = new HashMap<String, IndexWriter>();
+	private Map<String, IndexWriter> indexWriters = new ConcurrentHashMap<String, IndexWriter>();
 
 	/**
 	 * Add a topic to the search index.
@@ -126,14 +147,13 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * @param writer The IndexWriter to use when updating the search index.
 	 * @param topic The Topic object that is to be added to the index.
 	 */
-	private void addToIndex(IndexWriter writer, Topic topic) throws IOException {
+	private void addToIndex(IndexWriter writer, Topic topic) throws DataAccessException, IOException {
 		if (topic.getTopicType() == TopicType.REDIRECT) {
 			// do not index redirects
 			return;
 		}
 		Document standardDocument = createStandardDocument(topic);
 		writer.addDocument(standardDocument);
-		this.resetIndexSearcher(topic.getVirtualWiki());
 	}
 
 	/**
@@ -198,7 +218,7 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * Create a basic Lucene document to add to the index.  This document
 	 * is suitable to be parsed with the StandardAnalyzer.
 	 */
-	private Document createStandardDocument(Topic topic) {
+	private Document createStandardDocument(Topic topic) throws DataAccessException {
 		String topicContent = topic.getTopicContent();
 		if (topicContent == null) {
 			topicContent = "";
@@ -209,6 +229,10 @@ public class LuceneSearchEngine implements SearchEngine {
 		// add the topic namespace (not analyzed) topic namespace to allow retrieval by namespace.
 		// this field is used internally in searches.
 		doc.add(new StringField(FIELD_TOPIC_NAMESPACE, topic.getNamespace().getId().toString(), Field.Store.NO));
+		// add the (not analyzed) category names to allow per-category result counts.
+		for (String categoryName : WikiBase.getDataHandler().lookupTopicCategories(topic.getTopicId())) {
+			doc.add(new StringField(FIELD_TOPIC_CATEGORY, categoryName, Field.Store.NO));
+		}
 		// analyze the topic name so that (for example) a search for "New York" will match "New York City"
 		TextField nameField = new TextField(FIELD_TOPIC_NAME_ANALYZED, topic.getName(), Field.Store.NO);
 		// make the topic name worth 3x as much as topic content in searches
@@ -251,7 +275,6 @@ public class LuceneSearchEngine implements SearchEngine {
 	 */
 	private void deleteFromIndex(IndexWriter writer, Topic topic) throws IOException {
 		writer.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName()));
-		this.resetIndexSearcher(topic.getVirtualWiki());
 	}
 
 	/**
@@ -264,30 +287,129 @@ public class LuceneSearchEngine implements SearchEngine {
 	 *  contain the search term.
 	 */
 	public List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces) {
+		return this.findResults(virtualWiki, text, namespaces, new Pagination(MAXIMUM_RESULTS_PER_SEARCH, 0), null).getResults();
+	}
+
+	/**
+	 * Find a single page of documents that contain a specific search term, ordered
+	 * by relevance.  This method supports all Lucene search query syntax.  When a
+	 * valid cursor is provided the search resumes after the last hit of the previous
+	 * page, otherwise only offset + numResults hits are collected.  In either case
+	 * only the hits on the requested page are loaded and highlighted.  Namespace
+	 * and category counts for the full hit set are gathered in the same pass.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched when
+	 *  retrieving results.  If this list is <code>null</code> or empty then all
+	 *  namespaces will be searched.
+	 * @param pagination The offset and number of results to return.
+	 * @param after The cursor for the previous page of results, or
+	 *  <code>null</code>.
+	 * @return A SearchResultPage object containing the requested page of
+	 *  results.
+	 */
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, Pagination pagination, String after) {
 		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
 		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
 		if (logger.isTraceEnabled()) {
 			logger.trace("search text: " + text);
 		}
+		int totalHits = 0;
+		String nextCursor = null;
+		Map<Integer, Integer> namespaceCounts = null;
+		Map<String, Integer> categoryCounts = null;
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.acquireIndexSearcher(virtualWiki);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
+			int maxDoc = Math.max(1, searcher.getIndexReader().maxDoc());
+			int numResults = Math.min(Math.max(1, pagination.getNumResults()), maxDoc);
+			long readerVersion = this.retrieveReaderVersion(searcher);
+			ScoreDoc afterDoc = (pagination.getOffset() > 0) ? this.parseCursor(after, readerVersion) : null;
 			// actually perform the search
-			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
-			searcher.search(query, collector);
+			TopScoreDocCollector collector;
+			int first = 0;
+			if (afterDoc != null) {
+				collector = TopScoreDocCollector.create(numResults, afterDoc, true);
+			} else {
+				// no cursor, so collect everything up to the end of the requested page
+				collector = TopScoreDocCollector.create(Math.min(pagination.getOffset() + numResults, maxDoc), true);
+				first = pagination.getOffset();
+			}
+			FacetCountCollector facetCollector = new FacetCountCollector(collector, FIELD_TOPIC_NAMESPACE, FIELD_TOPIC_CATEGORY);
+			searcher.search(query, facetCollector);
+			totalHits = collector.getTotalHits();
+			namespaceCounts = facetCollector.getNamespaceCounts();
+			categoryCounts = facetCollector.getCategoryCounts();
 			Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query, FIELD_TOPIC_CONTENT));
 			ScoreDoc[] hits = collector.topDocs().scoreDocs;
-			for (int i = 0; i < hits.length; i++) {
+			for (int i = first; i < hits.length; i++) {
 				int docId = hits[i].doc;
 				Document doc = searcher.doc(docId);
 				String summary = retrieveResultSummary(doc, highlighter, analyzer);
 				SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), hits[i].score, summary);
 				results.add(result);
 			}
+			if (!results.isEmpty() && pagination.getOffset() + results.size() < totalHits && readerVersion != -1) {
+				nextCursor = this.buildCursor(readerVersion, hits[hits.length - 1]);
+			}
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+		} finally {
+			this.releaseIndexSearcher(virtualWiki, searcher);
 		}
-		return results;
+		return new SearchResultPage(results, totalHits, nextCursor, namespaceCounts, categoryCounts);
+	}
+
+	/**
+	 * Convert the last hit of a page of search results into a cursor value that can
+	 * be passed back to findResults to retrieve the following page.  Document IDs
+	 * and scores change whenever the index changes, so the cursor includes the
+	 * version of the index reader that produced the hit.
+	 */
+	private String buildCursor(long readerVersion, ScoreDoc scoreDoc) {
+		return Long.toHexString(readerVersion) + "_" + scoreDoc.doc + "_" + Integer.toHexString(Float.floatToIntBits(scoreDoc.score));
+	}
+
+	/**
+	 * Convert a cursor value generated by buildCursor back into a ScoreDoc, returning
+	 * <code>null</code> if the cursor is missing or was generated by a different
+	 * version of the index reader, in which case the search falls back to
+	 * collecting all hits up to the requested offset.
+	 */
+	private ScoreDoc parseCursor(String cursor, long readerVersion) {
+		if (StringUtils.isBlank(cursor) || readerVersion == -1) {
+			return null;
+		}
+		String[] tokens = StringUtils.splitPreserveAllTokens(cursor, '_');
+		if (tokens.length != 3) {
+			return null;
+		}
+		int docId = NumberUtils.toInt(tokens[1], -1);
+		if (docId < 0) {
+			return null;
+		}
+		float score;
+		try {
+			if (Long.parseLong(tokens[0], 16) != readerVersion) {
+				// index has changed since the cursor was generated
+				return null;
+			}
+			score = Float.intBitsToFloat((int)Long.parseLong(tokens[2], 16));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return new ScoreDoc(docId, score);
+	}
+
+	/**
+	 * Return the version of the index reader used by a searcher, or -1 if the
+	 * version cannot be determined.
+	 */
+	private long retrieveReaderVersion(IndexSearcher searcher) {
+		IndexReader reader = searcher.getIndexReader();
+		return (reader instanceof DirectoryReader) ? ((DirectoryReader)reader).getVersion() : -1;
 	}
 
 	/**
@@ -307,46 +429,71 @@ public class LuceneSearchEngine implements SearchEngine {
 		}
 		File child = new File(parent.getPath(), "index" + virtualWiki + File.separator);
 		if (!child.exists()) {
-			// create the search instance
 			child.mkdirs();
-			IndexWriter writer = this.openIndexWriter(child, true);
-			writer.close();
 		}
 		return child;
 	}
 
 	/**
-	 * Open an IndexReader, executing error handling as needed.
+	 * Open a Lucene directory of the specified type.  File-based directories use
+	 * SimpleFSLockFactory since NFS doesn't work with Lucene default locking as
+	 * of Lucene 3.3.
+	 *
+	 * @param directoryType The type of directory to open.
+	 * @param searchIndexPath The file system path for the index.  Ignored for
+	 *  RAM directories.
+	 * @param nrtCaching If <code>true</code> then wrap the directory in an
+	 *  NRTCachingDirectory so that small, newly flushed segments are held in
+	 *  memory for near-real-time readers.
+	 * @return The opened directory.
 	 */
-	private IndexReader openIndexReader(File searchIndexPath) throws IOException {
-		return DirectoryReader.open(FSDirectory.open(searchIndexPath));
+	protected static Directory openDirectory(WikiBase.SEARCH_DIRECTORY directoryType, File searchIndexPath, boolean nrtCaching) throws IOException {
+		Directory directory;
+		LockFactory lockFactory = new SimpleFSLockFactory();
+		switch (directoryType) {
+			case MMAP:
+				if (!Constants.JRE_IS_64BIT) {
+					logger.warn("Memory-mapped search index directories are not recommended on 32-bit JVMs due to address space limits");
+				}
+				directory = new MMapDirectory(searchIndexPath, lockFactory);
+				break;
+			case NIOFS:
+				directory = new NIOFSDirectory(searchIndexPath, lockFactory);
+				break;
+			case RAM:
+				directory = new RAMDirectory();
+				break;
+			default:
+				// let Lucene choose the best implementation for the platform
+				directory = FSDirectory.open(searchIndexPath, lockFactory);
+		}
+		if (nrtCaching) {
+			directory = new NRTCachingDirectory(directory, NRT_CACHE_MAX_MERGE_SIZE_MB, NRT_CACHE_MAX_CACHED_MB);
+		}
+		return directory;
 	}
 
 	/**
 	 * Open an IndexWriter, executing error handling as needed.
 	 */
-	private IndexWriter openIndexWriter(File searchIndexPath, boolean create) throws IOException {
-		// NFS doesn't work with Lucene default locking as of Lucene 3.3, so use
-		// SimpleFSLockFactory instead.
-		LockFactory lockFactory = new SimpleFSLockFactory();
-		FSDirectory fsDirectory = FSDirectory.open(searchIndexPath, lockFactory);
+	private IndexWriter openIndexWriter(Directory directory, boolean create) throws IOException {
 		IndexWriter indexWriter = null;
 		try {
-			indexWriter = new IndexWriter(fsDirectory, this.retrieveIndexWriterConfig(create));
+			indexWriter = new IndexWriter(directory, this.retrieveIndexWriterConfig(create));
 		} catch (LockObtainFailedException e) {
-			logger.warn("Unable to obtain lock for " + searchIndexPath.getAbsolutePath() + ".  Attempting to forcibly unlock the index.");
-			if (IndexWriter.isLocked(fsDirectory)) {
+			logger.warn("Unable to obtain lock for " + directory + ".  Attempting to forcibly unlock the index.");
+			if (IndexWriter.isLocked(directory)) {
 				try {
-					IndexWriter.unlock(fsDirectory);
-					logger.info("Successfully unlocked search directory " + searchIndexPath.getAbsolutePath());
+					IndexWriter.unlock(directory);
+					logger.info("Successfully unlocked search directory " + directory);
 				} catch (IOException ex) {
-					logger.warn("Unable to unlock search directory " + searchIndexPath.getAbsolutePath() + " " + ex.toString());
+					logger.warn("Unable to unlock search directory " + directory + " " + ex.toString());
 				}
 			}
 		}
 		if (indexWriter == null) {
 			// try again, there could have been a stale lock
-			indexWriter = new IndexWriter(fsDirectory, this.retrieveIndexWriterConfig(create));
+			indexWriter = new IndexWriter(directory, this.retrieveIndexWriterConfig(create));
 		}
 		return indexWriter;
 	}
@@ -396,38 +543,93 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 * Call this method after a search index is updated to reset the searcher.
+	 * Retrieve an up-to-date IndexSearcher for the virtual wiki.  Searchers are
+	 * reference counted and any searcher acquired with this method MUST be released
+	 * using {@link #releaseIndexSearcher(String, IndexSearcher)}.
 	 */
-	private void resetIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
-		if (searcher != null) {
-			searchers.remove(virtualWiki);
-		}
+	protected IndexSearcher acquireIndexSearcher(String virtualWiki) throws IOException {
+		SearcherManager searcherManager = this.retrieveSearcherManager(virtualWiki);
+		// cheap if nothing has changed since the last refresh
+		searcherManager.maybeRefresh();
+		return searcherManager.acquire();
 	}
 
 	/**
-	 * For performance reasons cache the IndexSearcher for re-use.
+	 * Release a searcher previously acquired using
+	 * {@link #acquireIndexSearcher(String)}.  Null searchers are ignored.
 	 */
-	protected IndexSearcher retrieveIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
+	protected void releaseIndexSearcher(String virtualWiki, IndexSearcher searcher) {
 		if (searcher == null) {
-			searcher = new IndexSearcher(this.retrieveIndexReader(virtualWiki));
-			searchers.put(virtualWiki, searcher);
+			return;
+		}
+		SearcherManager searcherManager = this.searcherManagers.get(virtualWiki);
+		try {
+			if (searcherManager != null) {
+				searcherManager.release(searcher);
+			} else {
+				// the manager was closed while the search was running
+				searcher.getIndexReader().decRef();
+			}
+		} catch (IOException e) {
+			logger.warn("Failure while releasing index searcher for virtual wiki " + virtualWiki, e);
+		}
+	}
+
+	/**
+	 * Return the configured search directory type, defaulting to FS if the
+	 * configured value is invalid.
+	 */
+	private static WikiBase.SEARCH_DIRECTORY retrieveDirectoryType() {
+		String value = Environment.getValue(Environment.PROP_SEARCH_DIRECTORY_TYPE);
+		try {
+			return WikiBase.SEARCH_DIRECTORY.valueOf(StringUtils.upperCase(StringUtils.trim(value)));
+		} catch (Exception e) {
+			logger.warn("Invalid search directory type " + value + ", defaulting to " + WikiBase.SEARCH_DIRECTORY.FS);
+			return WikiBase.SEARCH_DIRECTORY.FS;
 		}
-		return searcher;
 	}
 
 	/**
-	 * For performance reasons create a cache of readers.
+	 * For performance reasons create a cache of directories.  Readers and writers for
+	 * a virtual wiki must share the same directory instance for RAM and NRT-cached
+	 * directories to work.  If the directory does not yet contain an index then an
+	 * empty index is created.
 	 */
-	private IndexReader retrieveIndexReader(String virtualWiki) throws IOException {
-		IndexReader indexReader = indexReaders.get(virtualWiki);
-		if (indexReader == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexReader = this.openIndexReader(searchIndexPath);
-			indexReaders.put(virtualWiki, indexReader);
-		}
-		return indexReader;
+	private synchronized Directory retrieveDirectory(String virtualWiki) throws IOException {
+		Directory directory = this.directories.get(virtualWiki);
+		if (directory == null) {
+			File searchIndexPath = (this.directoryType == WikiBase.SEARCH_DIRECTORY.RAM) ? null : this.getSearchIndexPath(virtualWiki);
+			directory = openDirectory(this.directoryType, searchIndexPath, this.nrtCaching);
+			if (!DirectoryReader.indexExists(directory)) {
+				// create the search instance
+				if (this.directoryType == WikiBase.SEARCH_DIRECTORY.RAM) {
+					logger.info("Created empty in-memory search index for virtual wiki " + virtualWiki + ".  The search index must be rebuilt before results will be returned for existing topics.");
+				}
+				IndexWriter writer = this.openIndexWriter(directory, true);
+				writer.close();
+			}
+			this.directories.put(virtualWiki, directory);
+		}
+		return directory;
+	}
+
+	/**
+	 * For performance reasons create a cache of searcher managers.  When NRT caching is
+	 * enabled searchers are opened from the index writer so that uncommitted changes
+	 * are visible, otherwise searchers are opened from the directory and only see
+	 * committed changes.
+	 */
+	private synchronized SearcherManager retrieveSearcherManager(String virtualWiki) throws IOException {
+		SearcherManager searcherManager = this.searcherManagers.get(virtualWiki);
+		if (searcherManager == null) {
+			if (this.nrtCaching) {
+				searcherManager = new SearcherManager(this.retrieveIndexWriter(virtualWiki, false), true, null);
+			} else {
+				searcherManager = new SearcherManager(this.retrieveDirectory(virtualWiki), null);
+			}
+			this.searcherManagers.put(virtualWiki, searcherManager);
+		}
+		return searcherManager;
 	}
 
 	/**
@@ -435,8 +637,15 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * re-initialized then commit() must be called to explicitly flush data to the index,
 	 * otherwise it will be flushed on a programmatic basis by Lucene.
 	 */
-	private IndexWriter retrieveIndexWriter(String virtualWiki, boolean create) throws IOException {
+	private synchronized IndexWriter retrieveIndexWriter(String virtualWiki, boolean create) throws IOException {
 		IndexWriter indexWriter = indexWriters.get(virtualWiki);
+		if (create) {
+			// searchers may be tied to the writer that is about to be closed
+			SearcherManager searcherManager = this.searcherManagers.remove(virtualWiki);
+			if (searcherManager != null) {
+				searcherManager.close();
+			}
+		}
 		if (create && indexWriter != null) {
 			// if the writer is going to blow away the existing index and create a new one then it
 			// should not be cached.  instead, close any open writer, create a new one, and return.
@@ -445,8 +654,7 @@ public class LuceneSearchEngine implements SearchEngine {
 			indexWriter = null;
 		}
 		if (indexWriter == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexWriter = this.openIndexWriter(searchIndexPath, create);
+			indexWriter = this.openIndexWriter(this.retrieveDirectory(virtualWiki), create);
 			if (!create) {
 				indexWriters.put(virtualWiki, indexWriter);
 			}
@@ -496,13 +704,19 @@ public class LuceneSearchEngine implements SearchEngine {
 	/**
 	 * 
 	 */
-	public void shutdown() throws IOException {
-		for (IndexReader indexReader : this.indexReaders.values()) {
-			indexReader.close();
+	public synchronized void shutdown() throws IOException {
+		for (SearcherManager searcherManager : this.searcherManagers.values()) {
+			searcherManager.close();
 		}
+		this.searcherManagers.clear();
 		for (IndexWriter indexWriter : this.indexWriters.values()) {
 			indexWriter.close();
 		}
+		this.indexWriters.clear();
+		for (Directory directory : this.directories.values()) {
+			directory.close();
+		}
+		this.directories.clear();
 	}
 
 	/**
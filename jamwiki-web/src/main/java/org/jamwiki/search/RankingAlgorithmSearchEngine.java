@@ -16,88 +16,170 @@
  */
 package org.jamwiki.search;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.lang.reflect.Method;
+import java.util.Map;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
+import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
 
 /**
  * An implementation of {@link org.jamwiki.SearchEngine} that uses
  * <a href="http://rankingalgorithm.tgels.com">RankingAlgorithm</a> to perform searches of
- * Wiki content.
+ * Wiki content.  The RankingAlgorithm classes are resolved once when the engine is
+ * created, and if the library is not available then searches are performed using the
+ * standard {@link LuceneSearchEngine} implementation.
  */
 public class RankingAlgorithmSearchEngine extends LuceneSearchEngine {
 
 	/** Where to log to */
 	private static final WikiLogger logger = WikiLogger.getLogger(RankingAlgorithmSearchEngine.class.getName());
+	/** RankingAlgorithm query class name. */
+	private static final String RANKING_QUERY_CLASS = "com.transaxtions.search.rankingalgorithm.RankingQuery";
+	/** Constructor for the RankingQuery class, or <code>null</code> if RankingAlgorithm is not available. */
+	private final Constructor<?> rankingQueryConstructor;
+	/** RankingQuery.search(Query, IndexSearcher) method. */
+	private final Method searchMethod;
+	/** RankingHits.length() method. */
+	private final Method lengthMethod;
+	/** RankingHits.docid(int) method. */
+	private final Method docidMethod;
+	/** RankingHits.score(int) method. */
+	private final Method scoreMethod;
+
+	/**
+	 * Create a new search engine instance, resolving the RankingAlgorithm classes and
+	 * methods that will be used for all searches.
+	 */
+	public RankingAlgorithmSearchEngine() {
+		Constructor<?> rankingQueryConstructor = null;
+		Method searchMethod = null;
+		Method lengthMethod = null;
+		Method docidMethod = null;
+		Method scoreMethod = null;
+		try {
+			Class<?> classRQ = Class.forName(RANKING_QUERY_CLASS);
+			rankingQueryConstructor = classRQ.getConstructor();
+			searchMethod = classRQ.getMethod("search", Query.class, IndexSearcher.class);
+			Class<?> classRH = searchMethod.getReturnType();
+			lengthMethod = classRH.getMethod("length");
+			docidMethod = classRH.getMethod("docid", int.class);
+			scoreMethod = classRH.getMethod("score", int.class);
+		} catch (Throwable t) {
+			logger.warn("RankingAlgorithm is not available, the standard Lucene search implementation will be used instead: " + t.toString());
+			rankingQueryConstructor = null;
+		}
+		this.rankingQueryConstructor = rankingQueryConstructor;
+		this.searchMethod = searchMethod;
+		this.lengthMethod = lengthMethod;
+		this.docidMethod = docidMethod;
+		this.scoreMethod = scoreMethod;
+	}
 
 	/**
-	 * Find all documents that contain a specific search term, ordered by relevance.
-	 * This method supports all Lucene search query syntax.
+	 * Find a single page of documents that contain a specific search term, ordered
+	 * by relevance.  This method supports all Lucene search query syntax.
+	 * RankingAlgorithm returns the full set of hits for a query, so the cursor is
+	 * not used and paging is done using the pagination offset, but only the hits on
+	 * the requested page are loaded and highlighted.  If RankingAlgorithm is not
+	 * available then the standard Lucene search is used.
 	 *
 	 * @param virtualWiki The virtual wiki for the topic.
 	 * @param text The search term being searched for.
-	 * @return A list of SearchResultEntry objects for all documents that
-	 *  contain the search term.
+	 * @param namespaces A list of all namespaces that should be searched when
+	 *  retrieving results.  If this list is <code>null</code> or empty then all
+	 *  namespaces will be searched.
+	 * @param pagination The offset and number of results to return.
+	 * @param after Ignored by this implementation unless RankingAlgorithm is not
+	 *  available.
+	 * @return A SearchResultPage object containing the requested page of
+	 *  results.
 	 */
-	public List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces) {
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, Pagination pagination, String after) {
+		if (this.rankingQueryConstructor == null) {
+			return super.findResults(virtualWiki, text, namespaces, pagination, after);
+		}
 		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
 		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
+		int length = 0;
+		Map<Integer, Integer> namespaceCounts = null;
+		Map<String, Integer> categoryCounts = null;
 		logger.trace("search text: " + text);
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.acquireIndexSearcher(virtualWiki);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
+			// RankingAlgorithm does not expose a collector, so gather facet counts
+			// with a separate pass over the same query
+			FacetCountCollector facetCollector = new FacetCountCollector(null, FIELD_TOPIC_NAMESPACE, FIELD_TOPIC_CATEGORY);
+			searcher.search(query, facetCollector);
+			namespaceCounts = facetCollector.getNamespaceCounts();
+			categoryCounts = facetCollector.getCategoryCounts();
 			// actually perform the search
-			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
 			Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query));
 			try {
-				Class classRQ = Class.forName("com.transaxtions.search.rankingalgorithm.RankingQuery");
-				Class classQuery = Class.forName("org.apache.lucene.search.Query");
-				Object rq = classRQ.newInstance();
-				Class classArray[] = new Class[2];
-				classArray[0] = classQuery;
-				classArray[1] = searcher.getClass();
-				Object args[] = new Object[2];
-				args[0] = query;
-				args[1] = searcher;
-				Method methodRQ_search = classRQ.getMethod("search", classArray);
-				Object hitsobject = methodRQ_search.invoke(rq, args); 
-				Class classRH = hitsobject.getClass();
-				classArray = new Class[1];
-				classArray[0] = int.class;
-				Method methodRH_length = classRH.getMethod("length", null);
-				Method methodRH_docid = classRH.getMethod("docid", classArray);
-				Method methodRH_score = classRH.getMethod("score", classArray);
-				Object lenobject = methodRH_length.invoke(hitsobject);
-				int length = ((Integer)lenobject).intValue();
-				for (int i = 0; i < length; i++) {
-					args = new Object[1];
-					args[0] = new Integer(i);
-					Object docobject = methodRH_docid.invoke(hitsobject, args);
-					int docId = ((Integer)docobject).intValue();
-					Document doc = searcher.doc(docId);
+				Object hits = this.searchMethod.invoke(this.rankingQueryConstructor.newInstance(), query, searcher);
+				length = ((Integer)this.lengthMethod.invoke(hits)).intValue();
+				int start = Math.min(length, pagination.getOffset());
+				int end = Math.min(length, pagination.getOffset() + pagination.getNumResults());
+				// retrieve the ids and scores for the full page before loading any stored
+				// fields so that documents can be read in index order
+				PageHit[] pageHits = new PageHit[end - start];
+				for (int i = start; i < end; i++) {
+					Integer position = Integer.valueOf(i);
+					int docId = ((Integer)this.docidMethod.invoke(hits, position)).intValue();
+					float score = ((Float)this.scoreMethod.invoke(hits, position)).floatValue();
+					pageHits[i - start] = new PageHit(i - start, docId, score);
+				}
+				PageHit[] loadOrder = pageHits.clone();
+				Arrays.sort(loadOrder);
+				SearchResultEntry[] entries = new SearchResultEntry[pageHits.length];
+				for (PageHit pageHit : loadOrder) {
+					Document doc = searcher.doc(pageHit.docId);
 					String summary = retrieveResultSummary(doc, highlighter, analyzer);
-					Object scoreobject = methodRH_score.invoke(hitsobject, args);
-					float score = ((Float)scoreobject).floatValue();
-					SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), score, summary);
-					results.add(result);
+					entries[pageHit.rank] = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), pageHit.score, summary);
 				}
+				results.addAll(Arrays.asList(entries));
 			} catch (Throwable t) {
 				logger.error("Failure while executing RankingAlgorithm search", t);
 			}
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+		} finally {
+			this.releaseIndexSearcher(virtualWiki, searcher);
+		}
+		return new SearchResultPage(results, length, null, namespaceCounts, categoryCounts);
+	}
+
+	/**
+	 * A single hit on the requested page of results, sortable by document id.
+	 */
+	private static final class PageHit implements Comparable<PageHit> {
+
+		private final int rank;
+		private final int docId;
+		private final float score;
+
+		PageHit(int rank, int docId, float score) {
+			this.rank = rank;
+			this.docId = docId;
+			this.score = score;
+		}
+
+		public int compareTo(PageHit other) {
+			return (this.docId < other.docId) ? -1 : ((this.docId == other.docId) ? 0 : 1);
 		}
-		return results;
 	}
 }
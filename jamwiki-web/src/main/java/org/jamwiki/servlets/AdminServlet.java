@@ -39,6 +39,7 @@ import org.jamwiki.model.Role;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiConfigurationObject;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
@@ -95,6 +96,8 @@ public class AdminServlet extends JAMWikiServlet {
 			namespaces(request, next, pageInfo);
 		} else if (function.equals("links")) {
 			links(request, next, pageInfo);
+		} else if (function.equals("images")) {
+			images(request, next, pageInfo);
 		}
 		return next;
 	}
@@ -145,6 +148,7 @@ public class AdminServlet extends JAMWikiServlet {
 	private void cache(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		try {
 			WikiCache.initialize();
+			WikiBase.getDataHandler().resetTopicSuggestions();
 			pageInfo.addMessage(new WikiMessage("admin.message.cache"));
 		} catch (Exception e) {
 			logger.error("Failure while clearing cache", e);
@@ -153,11 +157,25 @@ public class AdminServlet extends JAMWikiServlet {
 		viewAdminSystem(request, next, pageInfo);
 	}
 
+	/**
+	 *
+	 */
+	private void images(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws DataAccessException {
+		int[] resultArray = ImageUtil.rebuildImageDimensions();
+		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.images", Integer.toString(resultArray[0])));
+		if (resultArray[1] != 0) {
+			pageInfo.addError(new WikiMessage("admin.maintenance.error.images", Integer.toString(resultArray[1])));
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
 	/**
 	 *
 	 */
 	private void links(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws DataAccessException {
 		int[] resultArray = WikiDatabase.rebuildTopicMetadata();
+		// link counts may have changed, so force suggestions to be reloaded
+		WikiBase.getDataHandler().resetTopicSuggestions();
 		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.metadata", Integer.toString(resultArray[0])));
 		if (resultArray[1] != 0) {
 			pageInfo.addError(new WikiMessage("admin.maintenance.error.metadata", Integer.toString(resultArray[1])));
@@ -272,6 +290,11 @@ public class AdminServlet extends JAMWikiServlet {
 			setBooleanProperty(props, request, Environment.PROP_TOPIC_USE_SHOW_CHANGES);
 			setProperty(props, request, Environment.PROP_BASE_META_DESCRIPTION);
 			setProperty(props, request, Environment.PROP_BASE_SEARCH_ENGINE);
+			setProperty(props, request, Environment.PROP_SEARCH_DIRECTORY_TYPE);
+			setBooleanProperty(props, request, Environment.PROP_SEARCH_NRT_CACHING);
+			setBooleanProperty(props, request, Environment.PROP_TOPIC_RESPONSE_CACHE);
+			setNumericProperty(props, request, Environment.PROP_TOPIC_PROXY_MAX_AGE, pageInfo.getErrors());
+			setBooleanProperty(props, request, Environment.PROP_STYLESHEET_MINIFY);
 			setProperty(props, request, Environment.PROP_TOPIC_EDITOR);
 			setNumericProperty(props, request, Environment.PROP_MAX_TOPIC_VERSION_EXPORT, pageInfo.getErrors());
 			// parser
@@ -289,6 +312,7 @@ public class AdminServlet extends JAMWikiServlet {
 			setBooleanProperty(props, request, Environment.PROP_PARSER_DISPLAY_VIRTUALWIKI_LINKS_INLINE);
 			setBooleanProperty(props, request, Environment.PROP_PARSER_DISPLAY_SPECIAL_PAGE_VIRTUAL_WIKI_LINKS);
 			setNumericProperty(props, request, Environment.PROP_IMAGE_RESIZE_INCREMENT, pageInfo.getErrors());
+			setProperty(props, request, Environment.PROP_IMAGE_STANDARD_WIDTHS);
 			setProperty(props, request, Environment.PROP_PARSER_SIGNATURE_USER_PATTERN);
 			setDatePatternProperty(props, request, Environment.PROP_PARSER_SIGNATURE_DATE_PATTERN, pageInfo.getErrors());
 			// database
@@ -315,6 +339,8 @@ public class AdminServlet extends JAMWikiServlet {
 			setProperty(props, request, Environment.PROP_DBCP_WHEN_EXHAUSTED_ACTION);
 			// upload
 			setProperty(props, request, Environment.PROP_FILE_UPLOAD_STORAGE);
+			setBooleanProperty(props, request, Environment.PROP_FILE_UPLOAD_DEDUPLICATE);
+			setNumericProperty(props, request, Environment.PROP_FILE_DATABASE_CACHE_SIZE, pageInfo.getErrors());
 			String maxFileSizeString = request.getParameter(Environment.PROP_FILE_MAX_FILE_SIZE);
 			if (StringUtils.isBlank(maxFileSizeString) || !StringUtils.isNumeric(maxFileSizeString)) {
 				pageInfo.addError(new WikiMessage("admin.message.nonnumeric", Environment.PROP_FILE_MAX_FILE_SIZE, maxFileSizeString));
@@ -29,6 +29,7 @@ import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.model.UserBlock;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.utils.IpAddressTrie;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 import org.springframework.web.servlet.ModelAndView;
@@ -94,7 +95,7 @@ public class BlockServlet extends JAMWikiServlet {
 	 */
 	private UserBlock initializeBlock(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws DataAccessException {
 		String username = StringUtils.trim(request.getParameter("user"));
-		String ipAddress = Utilities.isIpAddress(username) ? username : null;
+		String ipAddress = this.isIpAddressOrRange(username) ? username : null;
 		WikiUser wikiUser = this.initializeWikiUser(request, pageInfo);
 		int durationUnit = NumberUtils.toInt(request.getParameter("durationUnit"), -1);
 		int durationNumber = NumberUtils.toInt(request.getParameter("durationNumber"), -1);
@@ -132,7 +133,7 @@ public class BlockServlet extends JAMWikiServlet {
 	 */
 	private UserBlock initializeUnblock(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws DataAccessException {
 		String username = StringUtils.trim(request.getParameter("user"));
-		String ipAddress = Utilities.isIpAddress(username) ? username : null;
+		String ipAddress = this.isIpAddressOrRange(username) ? username : null;
 		WikiUser wikiUser = this.initializeWikiUser(request, pageInfo);
 		Integer wikiUserId = (wikiUser != null) ? wikiUser.getUserId() : null;
 		UserBlock userBlock = null;
@@ -141,6 +142,10 @@ public class BlockServlet extends JAMWikiServlet {
 			if (userBlock == null) {
 				// user is not blocked
 				pageInfo.addError(new WikiMessage("unblock.error.notblocked", username));
+			} else if (wikiUserId == null && !ipAddress.equals(userBlock.getIpAddress())) {
+				// do not lift a range block when unblocking an address within the range
+				pageInfo.addError(new WikiMessage("unblock.error.rangeblock", username, userBlock.getIpAddress()));
+				userBlock = null;
 			}
 		}
 		if (pageInfo.getErrors().isEmpty()) {
@@ -168,7 +173,7 @@ public class BlockServlet extends JAMWikiServlet {
 		WikiUser wikiUser = null;
 		if (StringUtils.isBlank(username)) {
 			pageInfo.addError(new WikiMessage("block.error.user"));
-		} else if (!Utilities.isIpAddress(username)) {
+		} else if (!this.isIpAddressOrRange(username)) {
 			wikiUser = WikiBase.getDataHandler().lookupWikiUser(username);
 			if (wikiUser == null) {
 				pageInfo.addError(new WikiMessage("block.error.invaliduser", username));
@@ -177,6 +182,14 @@ public class BlockServlet extends JAMWikiServlet {
 		return wikiUser;
 	}
 
+	/**
+	 * Determine whether a value entered on the block or unblock form is an IP
+	 * address or a CIDR range of IP addresses rather than a username.
+	 */
+	private boolean isIpAddressOrRange(String value) {
+		return (Utilities.isIpAddress(value) || IpAddressTrie.isRange(value));
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,384 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Response wrapper used by {@link JAMWikiFilter} to capture a rendered HTML
+ * page so that it can be stored in the response cache.  Headers and status
+ * codes are passed to the wrapped response immediately, but if the response
+ * content type is HTML then the body is buffered and must be written to the
+ * wrapped response by the caller once processing completes.  Responses that
+ * are not HTML are passed through unmodified.
+ *
+ * While processing the request the wrapper also determines whether the
+ * response is safe to share with other users - responses that set cookies,
+ * encode a session ID into URLs, or return an error or redirect are not.
+ */
+class CachingResponseWrapper extends HttpServletResponseWrapper {
+
+	private ByteArrayOutputStream buffer;
+	private boolean cacheable = true;
+	private final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+	private Locale locale;
+	private ServletOutputStream outputStream;
+	private boolean passthrough;
+	private int status = HttpServletResponse.SC_OK;
+	private PrintWriter writer;
+
+	/**
+	 *
+	 */
+	CachingResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 *
+	 */
+	public void addCookie(Cookie cookie) {
+		this.cacheable = false;
+		super.addCookie(cookie);
+	}
+
+	/**
+	 *
+	 */
+	public void addDateHeader(String name, long date) {
+		this.recordHeader(name, this.formatDate(date), false);
+		super.addDateHeader(name, date);
+	}
+
+	/**
+	 *
+	 */
+	public void addHeader(String name, String value) {
+		this.recordHeader(name, value, false);
+		super.addHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void addIntHeader(String name, int value) {
+		this.recordHeader(name, Integer.toString(value), false);
+		super.addIntHeader(name, value);
+	}
+
+	/**
+	 * Mark the response as not cacheable if encoding the URL added a session
+	 * ID, since the encoded URL would otherwise be served to other users.
+	 */
+	public String encodeRedirectURL(String url) {
+		return this.verifyEncodedUrl(url, super.encodeRedirectURL(url));
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public String encodeRedirectUrl(String url) {
+		return this.verifyEncodedUrl(url, super.encodeRedirectUrl(url));
+	}
+
+	/**
+	 * Mark the response as not cacheable if encoding the URL added a session
+	 * ID, since the encoded URL would otherwise be served to other users.
+	 */
+	public String encodeURL(String url) {
+		return this.verifyEncodedUrl(url, super.encodeURL(url));
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public String encodeUrl(String url) {
+		return this.verifyEncodedUrl(url, super.encodeUrl(url));
+	}
+
+	/**
+	 *
+	 */
+	public void flushBuffer() throws IOException {
+		if (this.buffer == null) {
+			super.flushBuffer();
+		} else if (this.writer != null) {
+			// do not commit the response while content is being buffered
+			this.writer.flush();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private String formatDate(long date) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(date));
+	}
+
+	/**
+	 * Return the buffered response body, or <code>null</code> if the response
+	 * was not buffered and has already been written to the wrapped response.
+	 */
+	byte[] getBufferedContent() {
+		if (this.buffer == null) {
+			return null;
+		}
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		return this.buffer.toByteArray();
+	}
+
+	/**
+	 * Return the headers that have been set for the response, not including
+	 * the content type and content length.
+	 */
+	Map<String, List<String>> getHeaders() {
+		return this.headers;
+	}
+
+	/**
+	 *
+	 */
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (this.writer != null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+		if (this.outputStream == null) {
+			if (!this.startBuffering()) {
+				return super.getOutputStream();
+			}
+			this.outputStream = new ServletOutputStream() {
+				public void write(int b) {
+					buffer.write(b);
+				}
+				public void write(byte[] b, int off, int len) {
+					buffer.write(b, off, len);
+				}
+			};
+		}
+		return this.outputStream;
+	}
+
+	/**
+	 * Return the locale explicitly set for the response, or <code>null</code>
+	 * if no locale was set.
+	 */
+	Locale getResponseLocale() {
+		return this.locale;
+	}
+
+	/**
+	 *
+	 */
+	public PrintWriter getWriter() throws IOException {
+		if (this.outputStream != null) {
+			throw new IllegalStateException("getOutputStream() has already been called for this response");
+		}
+		if (this.writer == null) {
+			if (!this.startBuffering()) {
+				return super.getWriter();
+			}
+			this.writer = new PrintWriter(new OutputStreamWriter(this.buffer, this.getCharacterEncoding()));
+		}
+		return this.writer;
+	}
+
+	/**
+	 * Return <code>true</code> if the response completed successfully and
+	 * contains nothing specific to the current user.
+	 */
+	boolean isCacheable() {
+		return (this.cacheable && this.status == HttpServletResponse.SC_OK && this.buffer != null);
+	}
+
+	/**
+	 *
+	 */
+	private void recordHeader(String name, String value, boolean replace) {
+		if (StringUtils.equalsIgnoreCase(name, "Set-Cookie")) {
+			this.cacheable = false;
+			return;
+		}
+		if (StringUtils.equalsIgnoreCase(name, "Content-Length") || StringUtils.equalsIgnoreCase(name, "Content-Type")) {
+			return;
+		}
+		List<String> values = this.headers.get(name);
+		if (values == null || replace) {
+			values = new ArrayList<String>();
+			this.headers.put(name, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 *
+	 */
+	public void reset() {
+		super.reset();
+		this.headers.clear();
+		this.locale = null;
+		this.status = HttpServletResponse.SC_OK;
+		this.resetBuffer();
+	}
+
+	/**
+	 *
+	 */
+	public void resetBuffer() {
+		if (this.buffer == null) {
+			super.resetBuffer();
+			return;
+		}
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		this.buffer.reset();
+	}
+
+	/**
+	 *
+	 */
+	public void sendError(int sc) throws IOException {
+		this.stopBuffering(sc);
+		super.sendError(sc);
+	}
+
+	/**
+	 *
+	 */
+	public void sendError(int sc, String msg) throws IOException {
+		this.stopBuffering(sc);
+		super.sendError(sc, msg);
+	}
+
+	/**
+	 *
+	 */
+	public void sendRedirect(String location) throws IOException {
+		this.stopBuffering(HttpServletResponse.SC_MOVED_TEMPORARILY);
+		super.sendRedirect(location);
+	}
+
+	/**
+	 *
+	 */
+	public void setDateHeader(String name, long date) {
+		this.recordHeader(name, this.formatDate(date), true);
+		super.setDateHeader(name, date);
+	}
+
+	/**
+	 *
+	 */
+	public void setHeader(String name, String value) {
+		this.recordHeader(name, value, true);
+		super.setHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void setIntHeader(String name, int value) {
+		this.recordHeader(name, Integer.toString(value), true);
+		super.setIntHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+		super.setLocale(locale);
+	}
+
+	/**
+	 *
+	 */
+	public void setStatus(int sc) {
+		this.status = sc;
+		super.setStatus(sc);
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public void setStatus(int sc, String sm) {
+		this.status = sc;
+		super.setStatus(sc, sm);
+	}
+
+	/**
+	 * Begin buffering the response body if the response is an HTML page,
+	 * otherwise mark the response as not cacheable.
+	 *
+	 * @return <code>true</code> if the response body is being buffered.
+	 */
+	private boolean startBuffering() {
+		if (this.buffer != null) {
+			return true;
+		}
+		if (this.passthrough || !StringUtils.startsWithIgnoreCase(this.getContentType(), "text/html")) {
+			this.passthrough = true;
+			this.cacheable = false;
+			return false;
+		}
+		this.buffer = new ByteArrayOutputStream(16 * 1024);
+		return true;
+	}
+
+	/**
+	 * Discard any buffered content prior to an error or redirect, which is
+	 * written directly to the wrapped response.
+	 */
+	private void stopBuffering(int sc) {
+		this.status = sc;
+		this.cacheable = false;
+		this.passthrough = true;
+		this.buffer = null;
+		this.outputStream = null;
+		this.writer = null;
+	}
+
+	/**
+	 *
+	 */
+	private String verifyEncodedUrl(String url, String encodedUrl) {
+		if (!StringUtils.equals(url, encodedUrl)) {
+			this.cacheable = false;
+		}
+		return encodedUrl;
+	}
+}
@@ -129,6 +129,13 @@ public class ExportServlet extends JAMWikiServlet {
 		out.close();
 	}
 
+	/**
+	 * Only requests that generate an export file are rate limited.
+	 */
+	protected int rateLimitCost(HttpServletRequest request) {
+		return (StringUtils.isBlank(request.getParameter("export"))) ? 0 : 1;
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,82 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet filter that gzip-compresses textual responses for clients that
+ * accept gzip content encoding.  Output is compressed as it is written, so
+ * responses are not buffered in memory.  Responses that already specify a
+ * content encoding, such as pages from the response cache and stylesheets
+ * that are stored in compressed form, are passed through unchanged.
+ *
+ * This filter should be mapped ahead of any other filter that writes a
+ * response body.
+ */
+public class GzipFilter implements Filter {
+
+	/**
+	 * Standard servlet filter destroy() method implementation.
+	 */
+	public void destroy() {
+	}
+
+	/**
+	 * Wrap the response with a compressing response wrapper if the client
+	 * accepts gzip content encoding.
+	 */
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (!this.isCompressionCandidate(request, response)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		GzipResponseWrapper wrapper = new GzipResponseWrapper((HttpServletResponse)response);
+		chain.doFilter(request, wrapper);
+		wrapper.finish();
+	}
+
+	/**
+	 * Standard servlet filter init() method implementation.
+	 */
+	public void init(FilterConfig config) throws ServletException {
+	}
+
+	/**
+	 * Determine whether the response to a request may be compressed.  HEAD
+	 * requests have no body and range requests must return byte ranges of
+	 * the uncompressed content, so neither is compressed.
+	 */
+	private boolean isCompressionCandidate(ServletRequest servletRequest, ServletResponse servletResponse) {
+		if (!(servletRequest instanceof HttpServletRequest) || !(servletResponse instanceof HttpServletResponse)) {
+			return false;
+		}
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+		if ("HEAD".equals(request.getMethod()) || request.getHeader("Range") != null) {
+			return false;
+		}
+		return ServletUtil.isGzipAccepted(request);
+	}
+}
@@ -0,0 +1,386 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Response wrapper used by {@link GzipFilter} to compress the response body as
+ * it is written.  Whether or not to compress is decided when the first byte of
+ * the body is written: textual content types are compressed unless the
+ * response has already set a content encoding (for example when serving
+ * content that was compressed when it was cached), in which case the body is
+ * passed through unmodified.
+ *
+ * Since the compressed length is not known in advance, any content length set
+ * for a compressed response is discarded.
+ */
+class GzipResponseWrapper extends HttpServletResponseWrapper {
+
+	/** Content types (other than text/*) that benefit from compression. */
+	private static final String[] COMPRESSIBLE_TYPES = {"javascript", "json", "xml"};
+	/** Size of the buffer used by the gzip output stream. */
+	private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+	/** <code>null</code> until the first byte of the body is written. */
+	private Boolean compress;
+	private long contentLength = -1;
+	private boolean encoded;
+	private String etag;
+	private GZIPOutputStream gzipStream;
+	private ServletOutputStream outputStream;
+	private int status = HttpServletResponse.SC_OK;
+	private PrintWriter writer;
+
+	/**
+	 *
+	 */
+	GzipResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 *
+	 */
+	public void addHeader(String name, String value) {
+		if (this.interceptHeader(name, value)) {
+			return;
+		}
+		super.addHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void addIntHeader(String name, int value) {
+		if (this.interceptHeader(name, Integer.toString(value))) {
+			return;
+		}
+		super.addIntHeader(name, value);
+	}
+
+	/**
+	 * Stop compressing prior to an error or redirect, since the container
+	 * discards any body written so far and writes its own body directly.
+	 */
+	private void cancelCompression() {
+		if (this.compress == Boolean.TRUE && !this.isCommitted()) {
+			super.setHeader("Content-Encoding", "identity");
+			if (this.etag != null) {
+				super.setHeader("ETag", this.etag);
+			}
+		}
+		this.compress = Boolean.FALSE;
+		this.gzipStream = null;
+	}
+
+	/**
+	 * Decide whether or not to compress the response body.  This method is
+	 * called before the first byte of the body is written or the response is
+	 * flushed, after which point the decision cannot change.
+	 */
+	private void decide() throws IOException {
+		if (this.compress != null) {
+			return;
+		}
+		this.compress = Boolean.valueOf(!this.encoded && this.isCompressibleStatus() && this.isCompressibleContentType(this.getContentType()));
+		if (!this.compress) {
+			if (this.contentLength >= 0) {
+				this.setContentLengthHeader(this.contentLength);
+			}
+			return;
+		}
+		super.setHeader("Content-Encoding", "gzip");
+		if (!this.containsHeader("Vary")) {
+			super.addHeader("Vary", "Accept-Encoding");
+		}
+		if (this.etag != null) {
+			super.setHeader("ETag", ServletUtil.gzipETag(this.etag));
+		}
+		this.gzipStream = new GZIPOutputStream(super.getOutputStream(), GZIP_BUFFER_SIZE);
+	}
+
+	/**
+	 * Complete the response, writing any remaining compressed data.  This
+	 * method must be called once the filter chain has finished processing the
+	 * request.
+	 */
+	void finish() throws IOException {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		if (this.compress == null) {
+			// no body was written
+			this.compress = Boolean.FALSE;
+			if (this.contentLength >= 0) {
+				this.setContentLengthHeader(this.contentLength);
+			}
+		}
+		if (this.gzipStream != null) {
+			this.gzipStream.finish();
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void flushBuffer() throws IOException {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		// flushing commits the response, so the headers must be final
+		this.decide();
+		if (this.gzipStream != null) {
+			this.gzipStream.flush();
+		}
+		super.flushBuffer();
+	}
+
+	/**
+	 *
+	 */
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (this.writer != null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+		return this.retrieveOutputStream();
+	}
+
+	/**
+	 *
+	 */
+	public PrintWriter getWriter() throws IOException {
+		if (this.outputStream != null && this.writer == null) {
+			throw new IllegalStateException("getOutputStream() has already been called for this response");
+		}
+		if (this.writer == null) {
+			this.writer = new PrintWriter(new OutputStreamWriter(this.retrieveOutputStream(), this.getCharacterEncoding()));
+		}
+		return this.writer;
+	}
+
+	/**
+	 * Track headers that affect compression.  Returns <code>true</code> if the
+	 * header has been handled and should not be passed to the wrapped response.
+	 */
+	private boolean interceptHeader(String name, String value) {
+		if (StringUtils.equalsIgnoreCase(name, "Content-Length")) {
+			try {
+				this.setContentLengthLong(Long.parseLong(value));
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		if (StringUtils.equalsIgnoreCase(name, "Content-Encoding")) {
+			this.encoded = true;
+			if (this.compress == null) {
+				this.compress = Boolean.FALSE;
+			}
+		} else if (StringUtils.equalsIgnoreCase(name, "ETag")) {
+			this.etag = value;
+			if (this.compress == Boolean.TRUE) {
+				super.setHeader(name, ServletUtil.gzipETag(value));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 */
+	private boolean isCompressibleContentType(String contentType) {
+		if (StringUtils.startsWithIgnoreCase(contentType, "text/")) {
+			return true;
+		}
+		for (String compressibleType : COMPRESSIBLE_TYPES) {
+			if (StringUtils.containsIgnoreCase(contentType, compressibleType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Partial content and responses without a body are never compressed.
+	 */
+	private boolean isCompressibleStatus() {
+		return (this.status != HttpServletResponse.SC_PARTIAL_CONTENT && this.status != HttpServletResponse.SC_NO_CONTENT && this.status != HttpServletResponse.SC_NOT_MODIFIED);
+	}
+
+	/**
+	 *
+	 */
+	public void reset() {
+		super.reset();
+		// headers set by the wrapper have been cleared, so start over
+		this.compress = null;
+		this.contentLength = -1;
+		this.encoded = false;
+		this.etag = null;
+		this.gzipStream = null;
+		this.status = HttpServletResponse.SC_OK;
+	}
+
+	/**
+	 *
+	 */
+	public void resetBuffer() {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+		super.resetBuffer();
+		if (this.gzipStream != null) {
+			// the gzip header has been discarded, so begin a new stream
+			try {
+				this.gzipStream = new GZIPOutputStream(super.getOutputStream(), GZIP_BUFFER_SIZE);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to reset response buffer", e);
+			}
+		}
+	}
+
+	/**
+	 * Return an output stream that compresses data written to it if the
+	 * response should be compressed.
+	 */
+	private ServletOutputStream retrieveOutputStream() {
+		if (this.outputStream == null) {
+			this.outputStream = new ServletOutputStream() {
+				public void flush() throws IOException {
+					retrieveTargetStream().flush();
+				}
+				public void write(int b) throws IOException {
+					retrieveTargetStream().write(b);
+				}
+				public void write(byte[] b, int off, int len) throws IOException {
+					retrieveTargetStream().write(b, off, len);
+				}
+			};
+		}
+		return this.outputStream;
+	}
+
+	/**
+	 * Return the stream to which body content should be written, deciding
+	 * whether or not to compress the response if that has not yet been done.
+	 */
+	private OutputStream retrieveTargetStream() throws IOException {
+		this.decide();
+		return (this.gzipStream != null) ? this.gzipStream : super.getOutputStream();
+	}
+
+	/**
+	 *
+	 */
+	public void sendError(int sc) throws IOException {
+		this.cancelCompression();
+		super.sendError(sc);
+	}
+
+	/**
+	 *
+	 */
+	public void sendError(int sc, String msg) throws IOException {
+		this.cancelCompression();
+		super.sendError(sc, msg);
+	}
+
+	/**
+	 *
+	 */
+	public void sendRedirect(String location) throws IOException {
+		this.cancelCompression();
+		super.sendRedirect(location);
+	}
+
+	/**
+	 *
+	 */
+	public void setContentLength(int len) {
+		this.setContentLengthLong(len);
+	}
+
+	/**
+	 * Servlet 3.1 method, defined here so that containers supporting it do not
+	 * set a content length for a compressed response.
+	 */
+	public void setContentLengthLong(long len) {
+		if (this.compress == null) {
+			// wait until it is known whether the response will be compressed
+			this.contentLength = len;
+		} else if (!this.compress) {
+			this.setContentLengthHeader(len);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void setContentLengthHeader(long len) {
+		if (len <= Integer.MAX_VALUE) {
+			super.setContentLength((int)len);
+		} else {
+			super.setHeader("Content-Length", Long.toString(len));
+		}
+	}
+
+	/**
+	 *
+	 */
+	public void setHeader(String name, String value) {
+		if (this.interceptHeader(name, value)) {
+			return;
+		}
+		super.setHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void setIntHeader(String name, int value) {
+		if (this.interceptHeader(name, Integer.toString(value))) {
+			return;
+		}
+		super.setIntHeader(name, value);
+	}
+
+	/**
+	 *
+	 */
+	public void setStatus(int sc) {
+		this.status = sc;
+		super.setStatus(sc);
+	}
+
+	/**
+	 * @deprecated
+	 */
+	public void setStatus(int sc, String sm) {
+		this.status = sc;
+		super.setStatus(sc, sm);
+	}
+}
@@ -20,6 +20,7 @@ import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
@@ -72,6 +73,20 @@ public class HistoryServlet extends JAMWikiServlet {
 		next.addObject("numChanges", changes.size());
 	}
 
+	/**
+	 * Topic histories are only rate limited when more than the default number
+	 * of history entries is requested, with the cost increasing with the
+	 * number of entries.
+	 */
+	protected int rateLimitCost(HttpServletRequest request) {
+		if (!StringUtils.isBlank(request.getParameter("topicVersionId"))) {
+			return 0;
+		}
+		int defaultNum = Math.max(Environment.getIntValue(Environment.PROP_RECENT_CHANGES_NUM), 1);
+		int num = WikiUtil.buildPagination(request).getNumResults();
+		return (num <= defaultNum) ? 0 : (num + defaultNum - 1) / defaultNum;
+	}
+
 	/**
 	 *
 	 */
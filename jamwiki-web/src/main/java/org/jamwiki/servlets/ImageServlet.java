@@ -18,14 +18,17 @@ package org.jamwiki.servlets;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.ParseException;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
@@ -33,8 +36,11 @@ import org.apache.commons.io.IOUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
+import org.jamwiki.db.ImageDataCallback;
 import org.jamwiki.model.ImageData;
 import org.jamwiki.model.WikiFile;
+import org.jamwiki.parser.image.DatabaseFileCache;
+import org.jamwiki.parser.image.ImageResizeService;
 import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
 
@@ -44,6 +50,14 @@ import org.jamwiki.utils.WikiLogger;
 public class ImageServlet extends JAMWikiServlet {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageServlet.class.getName());
+	/**
+	 * Cache-Control header for URLs that always refer to the same content.  Uploaded
+	 * file names include an upload timestamp and database URLs may include a file
+	 * version ID, so such URLs change whenever a new version is uploaded.
+	 */
+	private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000";
+	/** Cache-Control header for URLs whose content may change, such as the current version of a database file. */
+	private static final String CACHE_CONTROL_REVALIDATE = "public, max-age=0, must-revalidate";
 
 	/**
 	 * This servlet requires slightly different initialization parameters from most
@@ -58,39 +72,196 @@ public class ImageServlet extends JAMWikiServlet {
 	 * can be invoked either via the Special:Image path, for database files,
 	 * or via a path that appears to end users as any other image request but
 	 * that is actually a servlet request that will serve a file from the
-	 * filesystem.
+	 * filesystem.  Resized images that have not yet been generated are created
+	 * on demand.
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws ServletException, IOException {
 		File file = this.retrieveFile(request);
+		if (file == null && ImageUtil.isImagesOnFS()) {
+			file = ImageResizeService.generateResizedImageFile(this.retrieveFilename(request));
+		}
 		if (file == null) {
 			this.streamFileFromDatabase(request, response);
 		} else {
-			this.streamFileFromFileSystem(file, response);
+			this.streamFileFromFileSystem(file, request, response);
 		}
 		return null;
 	}
 
+	/**
+	 * Return the ETag for a database file.  The data for a specific file version
+	 * and size never changes.
+	 */
+	private String buildDatabaseETag(int fileVersionId, int resized) {
+		return "\"" + fileVersionId + "-" + resized + "\"";
+	}
+
+	/**
+	 * Parse the Range header of a request and return the first and last bytes of the
+	 * requested range as a two element array.  Returns <code>null</code> if the
+	 * entire file should be returned, either because no range was requested,
+	 * because the If-Range condition does not match, or because multiple ranges were
+	 * requested (which servers may satisfy by returning the entire file).  Returns an
+	 * empty array if the requested range cannot be satisfied.
+	 */
+	protected static long[] parseRange(HttpServletRequest request, String etag, long lastModified, long length) {
+		String range = request.getHeader("Range");
+		if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+			return null;
+		}
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange != null) {
+			if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+				if (!ifRange.equals(etag)) {
+					return null;
+				}
+			} else {
+				long ifRangeDate = ServletUtil.retrieveDateHeader(request, "If-Range");
+				if (ifRangeDate == -1 || (lastModified / 1000) != (ifRangeDate / 1000)) {
+					return null;
+				}
+			}
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int pos = spec.indexOf('-');
+		if (pos == -1) {
+			return null;
+		}
+		long start;
+		long end;
+		try {
+			if (pos == 0) {
+				// suffix range - the last N bytes of the file
+				long suffixLength = Long.parseLong(spec.substring(1).trim());
+				if (suffixLength <= 0) {
+					return new long[0];
+				}
+				start = Math.max(0, length - suffixLength);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, pos).trim());
+				String endValue = spec.substring(pos + 1).trim();
+				end = (endValue.length() == 0) ? length - 1 : Math.min(Long.parseLong(endValue), length - 1);
+			}
+		} catch (NumberFormatException e) {
+			// invalid range headers are ignored
+			return null;
+		}
+		if (start < 0 || start > end || start >= length) {
+			return new long[0];
+		}
+		return new long[] {start, end};
+	}
+
 	/**
 	 * If a file corresponding to the request is on the filesystem return it,
 	 * otherwise return <code>null</code>.
 	 */
 	private File retrieveFile(HttpServletRequest request) {
+		File file = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), this.retrieveFilename(request));
+		return (file.exists()) ? file : null;
+	}
+
+	/**
+	 * Return the decoded request path relative to the servlet context.
+	 */
+	private String retrieveFilename(HttpServletRequest request) {
 		String filename = request.getRequestURI().substring(request.getContextPath().length());
 		try {
 			filename = URLDecoder.decode(filename, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
 			// this doesn't happen - UTF-8 is always supported
 		}
-		File file = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), filename);
-		return (file.exists()) ? file : null;
+		return filename;
+	}
+
+	/**
+	 * Set caching headers and handle conditional and range requests.  If the
+	 * response body should be sent then the range of bytes to send is returned
+	 * as a two element array, otherwise the response status has been set and
+	 * <code>null</code> is returned.
+	 */
+	protected static long[] prepareResponse(HttpServletRequest request, HttpServletResponse response, String mimeType, long length, String etag, long lastModified, String cacheControl) {
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", cacheControl);
+		if (lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		if (ServletUtil.isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		long[] range = ImageServlet.parseRange(request, etag, lastModified, length);
+		if (range != null && range.length == 0) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return null;
+		}
+		response.setContentType(mimeType);
+		if (range == null) {
+			range = new long[] {0, length - 1};
+		} else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		// use a header rather than setContentLength() to support files larger than 2GB
+		response.setHeader("Content-Length", Long.toString(range[1] - range[0] + 1));
+		return range;
+	}
+
+	/**
+	 * Serve a database file from the local file system cache.  Returns
+	 * <code>false</code> if the file is not cached.
+	 */
+	private boolean streamFileFromCache(int fileId, int fileVersionId, int resized, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		int cachedFileVersionId = fileVersionId;
+		if (cachedFileVersionId == 0) {
+			// request for the current version of the file
+			Integer currentFileVersionId = DatabaseFileCache.retrieveCurrentFileVersionId(fileId);
+			if (currentFileVersionId == null) {
+				return false;
+			}
+			cachedFileVersionId = currentFileVersionId;
+		}
+		DatabaseFileCache.CachedFile cachedFile = DatabaseFileCache.retrieve(cachedFileVersionId, resized);
+		return (cachedFile != null && this.streamCachedFile(cachedFile, cachedFileVersionId, fileVersionId, resized, request, response));
+	}
+
+	/**
+	 * Serve a cached copy of a database file.  Returns <code>false</code> if
+	 * the file was evicted from the cache before it could be opened.
+	 */
+	private boolean streamCachedFile(DatabaseFileCache.CachedFile cachedFile, int cachedFileVersionId, int fileVersionId, int resized, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		FileInputStream in = null;
+		try {
+			// open the file before sending any headers.  once open the file
+			// remains readable even if it is evicted while being served.
+			in = new FileInputStream(cachedFile.getFile());
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		try {
+			String etag = this.buildDatabaseETag(cachedFileVersionId, resized);
+			String cacheControl = (fileVersionId != 0) ? CACHE_CONTROL_IMMUTABLE : CACHE_CONTROL_REVALIDATE;
+			long[] range = ImageServlet.prepareResponse(request, response, cachedFile.getMimeType(), cachedFile.getLength(), etag, -1, cacheControl);
+			if (range != null) {
+				this.transferFile(in, range, response);
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return true;
 	}
 
 	/**
 	 * Serve a file from the database.  In some cases users may choose to store
 	 * files directly in the database, and this method provides a way of serving
-	 * those files.
+	 * those files.  File data is streamed from the database rather than being
+	 * loaded into memory, and if the database file cache is enabled then the
+	 * file is copied to the cache and served from there.
 	 */
-	private void streamFileFromDatabase(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	private void streamFileFromDatabase(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
 		String filename = request.getRequestURI().substring(request.getContextPath().length() + 1);
 		Object[] args;
 		try {
@@ -100,43 +271,62 @@ public class ImageServlet extends JAMWikiServlet {
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		int fileId = Integer.parseInt(args[1].toString());
-		int fileVersionId = Integer.parseInt(args[2].toString());
-		int resized = Integer.parseInt(args[3].toString());
-		ImageData imageData;
+		final int fileId = Integer.parseInt(args[1].toString());
+		final int fileVersionId = Integer.parseInt(args[2].toString());
+		final int resized = Integer.parseInt(args[3].toString());
+		final boolean useCache = DatabaseFileCache.isEnabled();
+		if (useCache && this.streamFileFromCache(fileId, fileVersionId, resized, request, response)) {
+			return;
+		}
+		ImageDataCallback callback = new ImageDataCallback() {
+			public void processImageData(ImageData imageData, long length, InputStream data) throws IOException {
+				if (useCache) {
+					if (fileVersionId == 0) {
+						DatabaseFileCache.setCurrentFileVersionId(fileId, imageData.fileVersionId);
+					}
+					DatabaseFileCache.CachedFile cachedFile = DatabaseFileCache.store(imageData.fileVersionId, resized, imageData.mimeType, length, data);
+					if (cachedFile != null) {
+						if (!streamCachedFile(cachedFile, imageData.fileVersionId, fileVersionId, resized, request, response)) {
+							throw new IOException("Cached copy of file version " + imageData.fileVersionId + " removed before it could be served");
+						}
+						return;
+					}
+				}
+				String etag = buildDatabaseETag(imageData.fileVersionId, resized);
+				String cacheControl = (fileVersionId != 0) ? CACHE_CONTROL_IMMUTABLE : CACHE_CONTROL_REVALIDATE;
+				long[] range = ImageServlet.prepareResponse(request, response, imageData.mimeType, length, etag, -1, cacheControl);
+				if (range == null) {
+					return;
+				}
+				OutputStream out = response.getOutputStream();
+				IOUtils.copyLarge(data, out, range[0], range[1] - range[0] + 1);
+				out.flush();
+			}
+		};
+		boolean found;
 		try {
-			if (fileVersionId != 0) {
-				imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
-			} else {
-				imageData = WikiBase.getDataHandler().getImageData(fileId, resized);
+			found = WikiBase.getDataHandler().streamImageData(fileId, fileVersionId, resized, callback);
+			if (!found && resized > 0 && ImageResizeService.generateResizedImageBlob(fileId, (fileVersionId != 0) ? fileVersionId : -1, resized)) {
+				// resized image has now been generated
+				found = WikiBase.getDataHandler().streamImageData(fileId, fileVersionId, resized, callback);
 			}
 		} catch (DataAccessException dae) {
 			throw new ServletException(dae);
 		}
-		if (imageData == null) {
+		if (!found) {
 			logger.debug("Database file does not exist: fileId=" + fileId + " / fileVersionId=" + fileVersionId + " / resized=" + resized + " / request=" + request.getRequestURI());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-			return;
-		}
-		response.setContentType(imageData.mimeType);
-		response.setContentLength(imageData.data.length);
-		OutputStream os = null;
-		try {
-			os = response.getOutputStream();
-			os.write(imageData.data);
-		} finally {
-			IOUtils.closeQuietly(os);
 		}
 	}
 
 	/**
 	 * Serve a file from the filesystem.  This is less efficient than serving the file
 	 * directly via Tomcat or Apache, but allows files to be stored outside of the
-	 * webapp and thus keeps wiki data (files) separate from application code.
+	 * webapp and thus keeps wiki data (files) separate from application code.  File
+	 * data is copied using FileChannel.transferTo() to avoid copying it through
+	 * intermediate buffers where the container allows.
 	 */
-	private void streamFileFromFileSystem(File file, HttpServletResponse response) throws ServletException, IOException {
-		ServletOutputStream out = null;
-		InputStream in = null;
+	private void streamFileFromFileSystem(File file, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		if (file.isDirectory() || !file.canRead()) {
 			logger.debug("File does not exist: " + file.getAbsolutePath());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -146,16 +336,39 @@ public class ImageServlet extends JAMWikiServlet {
 		if (mimeType == null) {
 			mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 		}
+		long length = file.length();
+		long lastModified = file.lastModified();
+		String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+		long[] range = ImageServlet.prepareResponse(request, response, mimeType, length, etag, lastModified, CACHE_CONTROL_IMMUTABLE);
+		if (range == null) {
+			return;
+		}
+		FileInputStream in = null;
 		try {
-			response.setContentType(mimeType);
-			response.setContentLength((int)file.length());
-			out = response.getOutputStream();
 			in = new FileInputStream(file);
-			IOUtils.copy(in, out);
-			out.flush();
+			this.transferFile(in, range, response);
 		} finally {
 			IOUtils.closeQuietly(in);
-			IOUtils.closeQuietly(out);
 		}
 	}
+
+	/**
+	 * Copy a range of bytes from a file to the response.
+	 */
+	private void transferFile(FileInputStream in, long[] range, HttpServletResponse response) throws IOException {
+		FileChannel channel = in.getChannel();
+		WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+		long position = range[0];
+		long remaining = range[1] - range[0] + 1;
+		while (remaining > 0) {
+			long transferred = channel.transferTo(position, remaining, out);
+			if (transferred <= 0) {
+				// file was truncated while being served
+				break;
+			}
+			position += transferred;
+			remaining -= transferred;
+		}
+		response.getOutputStream().flush();
+	}
 }
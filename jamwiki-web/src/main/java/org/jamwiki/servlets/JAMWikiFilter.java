@@ -17,28 +17,46 @@
 package org.jamwiki.servlets;
 
 import java.io.IOException;
+import java.util.Locale;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.authentication.JAMWikiAuthenticationConstants;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.ResponseCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.authentication.rememberme.AbstractRememberMeServices;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
 
 /**
  * Perform filtering of all Wiki page requests, including setting the
  * character encoding to UTF-8 and verifying that no setup or upgrade is
- * required.
+ * required.  When the response cache is enabled this filter also serves
+ * topic pages requested by anonymous users from the cache, bypassing the
+ * Spring filter chain and servlet processing entirely.
  */
 public class JAMWikiFilter implements Filter {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(JAMWikiFilter.class.getName());
+	/**
+	 * Request attribute set by servlets to indicate that the response for the
+	 * current request may be stored in the response cache.
+	 */
+	public static final String ATTRIBUTE_RESPONSE_CACHEABLE = "org.jamwiki.servlets.JAMWikiFilter.RESPONSE_CACHEABLE";
 	private String encoding = "UTF-8";
+	private final JAMWikiLocaleResolver localeResolver = new JAMWikiLocaleResolver();
 
 	/**
 	 * Standard servlet filter destroy() method implementation.
@@ -59,9 +77,43 @@ public class JAMWikiFilter implements Filter {
 		if (redirectNeeded(request, response)) {
 			return;
 		}
+		if (this.isResponseCacheCandidate(request)) {
+			this.doFilterWithResponseCache((HttpServletRequest)request, (HttpServletResponse)response, chain);
+			return;
+		}
 		chain.doFilter(request, response);
 	}
 
+	/**
+	 * Serve the request from the response cache if possible, otherwise process
+	 * the request normally and add the response to the cache if the servlet
+	 * that handled the request has marked it as cacheable.
+	 */
+	private void doFilterWithResponseCache(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+		String cacheKey = ResponseCache.buildCacheKey(WikiUtil.getVirtualWikiFromURI(request), this.retrieveLocale(request), request.getRequestURI());
+		ResponseCache.CachedResponse cachedResponse = ResponseCache.retrieveFromCache(cacheKey);
+		if (cachedResponse != null) {
+			ServletUtil.writeCachedResponse(request, response, cachedResponse);
+			return;
+		}
+		long generation = ResponseCache.currentGeneration();
+		CachingResponseWrapper wrapper = new CachingResponseWrapper(response);
+		chain.doFilter(request, wrapper);
+		byte[] content = wrapper.getBufferedContent();
+		if (content == null) {
+			// response was not buffered and has already been sent
+			return;
+		}
+		if (!wrapper.isCacheable() || request.getAttribute(ATTRIBUTE_RESPONSE_CACHEABLE) == null || !this.isAnonymousRequest(request)) {
+			response.setContentLength(content.length);
+			response.getOutputStream().write(content);
+			return;
+		}
+		cachedResponse = new ResponseCache.CachedResponse(response.getContentType(), wrapper.getResponseLocale(), wrapper.getHeaders(), content);
+		ResponseCache.addToCache(cacheKey, cachedResponse, generation);
+		ServletUtil.writeCachedContent(request, response, cachedResponse, content);
+	}
+
 	/**
 	 * Standard servlet filter init() method implementation to configure
 	 * parameters specified via web.xml init-param configuration.
@@ -84,6 +136,57 @@ public class JAMWikiFilter implements Filter {
 		return false;
 	}
 
+	/**
+	 * Determine whether the request is from an anonymous user.  This filter runs
+	 * before Spring Security, so the session and cookies are examined directly
+	 * rather than using the security context.
+	 */
+	private boolean isAnonymousRequest(HttpServletRequest request) {
+		if (request.getRemoteUser() != null) {
+			return false;
+		}
+		Cookie[] cookies = request.getCookies();
+		if (cookies != null) {
+			for (Cookie cookie : cookies) {
+				if (AbstractRememberMeServices.SPRING_SECURITY_REMEMBER_ME_COOKIE_KEY.equals(cookie.getName())) {
+					return false;
+				}
+			}
+		}
+		HttpSession session = request.getSession(false);
+		if (session == null) {
+			return true;
+		}
+		Object securityContext = session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+		if (!(securityContext instanceof SecurityContext)) {
+			return true;
+		}
+		Authentication authentication = ((SecurityContext)securityContext).getAuthentication();
+		return (authentication == null || authentication instanceof AnonymousAuthenticationToken);
+	}
+
+	/**
+	 * Determine whether a request may be served from or added to the response
+	 * cache.  Only GET requests without query parameters from anonymous users
+	 * are candidates.
+	 */
+	private boolean isResponseCacheCandidate(ServletRequest servletRequest) {
+		if (!(servletRequest instanceof HttpServletRequest)) {
+			return false;
+		}
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+		if (!"GET".equals(request.getMethod()) || !StringUtils.isBlank(request.getQueryString())) {
+			return false;
+		}
+		if (WikiUtil.isFirstUse() || WikiUtil.isUpgrade() || !ResponseCache.isEnabled()) {
+			return false;
+		}
+		if (this.isIgnoreableFile(request) || StringUtils.isBlank(WikiUtil.getVirtualWikiFromURI(request))) {
+			return false;
+		}
+		return this.isAnonymousRequest(request);
+	}
+
 	/**
 	 *
 	 */
@@ -158,4 +261,12 @@ public class JAMWikiFilter implements Filter {
 		}
 		return true;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Return the locale that will be used to render the response, which is the
+	 * locale selected by the user (if any) or the request locale.
+	 */
+	private Locale retrieveLocale(HttpServletRequest request) {
+		return this.localeResolver.resolveLocale(request);
+	}
+}
@@ -25,36 +25,50 @@ import org.jamwiki.model.WikiUser;
 import org.jamwiki.utils.WikiLogger;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.i18n.CookieLocaleResolver;
 import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
-import org.springframework.web.servlet.i18n.SessionLocaleResolver;
 import org.springframework.web.servlet.support.RequestContextUtils;
+import org.springframework.web.util.WebUtils;
 
 /**
  * This method extends the Spring <code>LocaleChangeInterceptor</code> to
- * search for and use a locale key in either the session or the request if one
- * can be found.
+ * apply a logged-in user's default locale if the user has not otherwise
+ * selected a locale.  The locale is stored by the configured
+ * <code>LocaleResolver</code> rather than directly in the session so that
+ * anonymous requests do not require an HTTP session.
  */
 public class JAMWikiLocaleInterceptor extends LocaleChangeInterceptor {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(JAMWikiServlet.class.getName());
 
 	/**
-	 * Ensure that the session locale value is set.
+	 * If the user has not already selected a locale then apply the user's
+	 * default locale, if any.
 	 */
 	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws ServletException {
-		Locale locale = (Locale)request.getSession().getAttribute(SessionLocaleResolver.LOCALE_SESSION_ATTRIBUTE_NAME);
-		if (locale == null) {
-			locale = this.setUserLocale(request, response);
-		}
-		if (locale != null) {
-			LocaleResolver resolver = RequestContextUtils.getLocaleResolver(request);
-			if (resolver != null) {
+		LocaleResolver resolver = RequestContextUtils.getLocaleResolver(request);
+		if (resolver != null && !this.isLocaleSelected(request, resolver)) {
+			Locale locale = this.retrieveUserLocale(request);
+			if (locale != null) {
 				resolver.setLocale(request, response, locale);
 			}
 		}
 		return super.preHandle(request, response, handler);
 	}
 
+	/**
+	 * Determine whether a locale has already been stored for the current user.
+	 * Anonymous users who have not selected a locale have nothing stored, and
+	 * their locale is determined from the request headers.
+	 */
+	private boolean isLocaleSelected(HttpServletRequest request, LocaleResolver resolver) {
+		if (resolver instanceof CookieLocaleResolver) {
+			return (WebUtils.getCookie(request, ((CookieLocaleResolver)resolver).getCookieName()) != null);
+		}
+		// other resolvers always return a locale, so there is no way to tell
+		return true;
+	}
+
 	/**
 	 *
 	 */
@@ -68,13 +82,4 @@ public class JAMWikiLocaleInterceptor extends LocaleChangeInterceptor {
 		}
 		return locale;
 	}
-
-	/**
-	 *
-	 */
-	private Locale setUserLocale(HttpServletRequest request, HttpServletResponse response) throws ServletException {
-		Locale locale = this.retrieveUserLocale(request);
-		request.getSession().setAttribute(SessionLocaleResolver.LOCALE_SESSION_ATTRIBUTE_NAME, locale);
-		return locale;
-	}
 }
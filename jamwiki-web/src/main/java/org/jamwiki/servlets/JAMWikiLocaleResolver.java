@@ -0,0 +1,39 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import org.springframework.web.servlet.i18n.CookieLocaleResolver;
+
+/**
+ * Locale resolver that stores an explicitly selected locale in a cookie rather
+ * than in the HTTP session, falling back to the <code>Accept-Language</code>
+ * request header when no locale has been selected.  Because no session is
+ * required, anonymous users (including search engine crawlers) can browse the
+ * wiki without a session being created for each visitor.
+ */
+public class JAMWikiLocaleResolver extends CookieLocaleResolver {
+
+	/** Name of the cookie used to store the user's selected locale. */
+	public static final String LOCALE_COOKIE_NAME = "jamwiki-locale";
+
+	/**
+	 *
+	 */
+	public JAMWikiLocaleResolver() {
+		this.setCookieName(LOCALE_COOKIE_NAME);
+	}
+}
@@ -17,6 +17,7 @@
 package org.jamwiki.servlets;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -29,12 +30,12 @@ import org.jamwiki.WikiMessage;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Role;
-import org.jamwiki.model.Topic;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.Watchlist;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.WikiLink;
+import org.jamwiki.utils.LayoutCache;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -75,6 +76,8 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 	protected static final int SLOW_PAGE_LIMIT = 1000;
 	/** Parameter used to indicate that a topic should be the target of a successful login. */
 	protected static final String PARAM_LOGIN_SUCCESS_TARGET = "returnto";
+	/** Optional rate limiter used to shed load from clients that make too many expensive requests. */
+	private RateLimiter rateLimiter = null;
 
 	/**
 	 * This method ensures that the left menu, logo, and other required values
@@ -92,37 +95,42 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		}
 		VirtualWiki virtualWiki = ServletUtil.retrieveVirtualWiki(virtualWikiName);
 		// build the layout contents
-		String leftMenu = ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWikiName, WikiBase.SPECIAL_PAGE_SIDEBAR, true);
-		next.addObject("leftMenu", leftMenu);
-		next.addObject("defaultTopic", virtualWiki.getRootTopicName());
+		LayoutCache.Layout layout = this.retrieveLayout(request, virtualWiki);
+		next.addObject("leftMenu", layout.getLeftMenu());
+		next.addObject("defaultTopic", layout.getDefaultTopic());
 		next.addObject("virtualWiki", virtualWiki.getName());
-		next.addObject("logo", virtualWiki.getLogoImageUrl());
-		String footer = ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWiki.getName(), WikiBase.SPECIAL_PAGE_FOOTER, true);
-		next.addObject("footer", footer);
-		String pageHeader = ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWiki.getName(), WikiBase.SPECIAL_PAGE_HEADER, true);
-		next.addObject("pageHeader", pageHeader);
+		next.addObject("logo", layout.getLogo());
+		next.addObject("footer", layout.getFooter());
+		next.addObject("pageHeader", layout.getPageHeader());
 		next.addObject(WikiUtil.PARAMETER_VIRTUAL_WIKI, virtualWiki.getName());
 		// add cache-buster parameters for CSS & JS to ensure that browsers update
 		// cache if files change.
+		next.addObject("cssRevision", layout.getCssRevision());
+		next.addObject("jsRevision", layout.getJsRevision());
+	}
+
+	/**
+	 * Build the layout values for a virtual wiki.  This method performs
+	 * several topic lookups and parses the sidebar, header and footer topics,
+	 * so callers should use {@link #retrieveLayout} to retrieve a cached copy
+	 * of the layout.
+	 */
+	private LayoutCache.Layout buildLayoutCacheEntry(HttpServletRequest request, VirtualWiki virtualWiki) {
+		String leftMenu = ServletUtil.retrieveTopicContent(request.getContextPath(), request.getLocale(), virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SIDEBAR, true);
+		String pageHeader = ServletUtil.retrieveTopicContent(request.getContextPath(), request.getLocale(), virtualWiki.getName(), WikiBase.SPECIAL_PAGE_HEADER, true);
+		String footer = ServletUtil.retrieveTopicContent(request.getContextPath(), request.getLocale(), virtualWiki.getName(), WikiBase.SPECIAL_PAGE_FOOTER, true);
 		String cssRevision = "0";
 		try {
-			Topic systemCss = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SYSTEM_CSS, false);
-			if (systemCss != null) {
-				cssRevision = Integer.toString(systemCss.getCurrentVersionId());
-			}
-			cssRevision += '_';
-			Topic customCss = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), WikiBase.SPECIAL_PAGE_CUSTOM_CSS, false);
-			if (customCss != null) {
-				cssRevision += Integer.toString(customCss.getCurrentVersionId());
-			}
-		} catch (DataAccessException e) {}
-		next.addObject("cssRevision", cssRevision);
+			cssRevision = StylesheetServlet.retrieveStylesheetRevision(virtualWiki.getName());
+		} catch (IOException e) {
+			logger.warn("Failure while retrieving stylesheet revision for virtual wiki " + virtualWiki.getName(), e);
+		}
 		long jsRevision = 0;
 		try {
-			File jsFile = new File(request.getSession().getServletContext().getRealPath("/js/jamwiki.js"));
+			File jsFile = new File(this.getServletContext().getRealPath("/js/jamwiki.js"));
 			jsRevision = jsFile.lastModified();
 		} catch (Exception e) {}
-		next.addObject("jsRevision", jsRevision);
+		return new LayoutCache.Layout(virtualWiki.getRootTopicName(), virtualWiki.getLogoImageUrl(), leftMenu, pageHeader, footer, cssRevision, jsRevision);
 	}
 
 	/**
@@ -262,6 +270,35 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		return links;
 	}
 
+	/**
+	 * If a rate limiter is configured for this servlet then verify that the
+	 * client has not exceeded its request allowance.  Logged-in users are
+	 * identified by user ID and anonymous users by IP address.
+	 *
+	 * @return <code>true</code> if the client has exceeded its allowance and a
+	 *  429 (Too Many Requests) response has been sent.
+	 */
+	private boolean handleRateLimit(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (this.rateLimiter == null) {
+			return false;
+		}
+		int cost = this.rateLimitCost(request);
+		if (cost <= 0) {
+			return false;
+		}
+		WikiUserDetailsImpl userDetails = ServletUtil.currentUserDetails();
+		String key = (userDetails.hasRole(Role.ROLE_ANONYMOUS)) ? ServletUtil.getIpAddress(request) : "user:" + ServletUtil.currentWikiUser().getUserId();
+		long wait = this.rateLimiter.tryAcquire(key, cost);
+		if (wait <= 0) {
+			return false;
+		}
+		long retryAfter = (wait + 999) / 1000;
+		logger.info("Rate limit " + this.rateLimiter.getName() + " exceeded for " + key + " requesting " + request.getRequestURI() + ", retry after " + retryAfter + " s.");
+		response.setHeader("Retry-After", Long.toString(retryAfter));
+		response.sendError(RateLimiter.SC_TOO_MANY_REQUESTS, "Too many requests, please retry after " + retryAfter + " seconds.");
+		return true;
+	}
+
 	/**
 	 * Handle redirection cases, such as case-sensitive issues or legacy support.
 	 */
@@ -322,6 +359,9 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		WikiPageInfo pageInfo = new WikiPageInfo(request, ServletUtil.currentWikiUser());
 		ModelAndView blockedUserModelAndView = null;
 		try {
+			if (this.handleRateLimit(request, response)) {
+				return null;
+			}
 			if (!this.handleRedirect(request, next, pageInfo)) {
 				if (this.blockable) {
 					// verify that the user is not blocked from accessing the servlet
@@ -431,6 +471,41 @@ public abstract class JAMWikiServlet extends AbstractController implements JAMWi
 		this.buildTabMenu(request, pageInfo);
 	}
 
+	/**
+	 * Return the number of rate limiter tokens required for a request.  By
+	 * default every request costs one token; servlets whose cost varies with
+	 * the request, such as the number of results requested, may override
+	 * this method.  A value of zero or less exempts the request from rate
+	 * limiting.
+	 */
+	protected int rateLimitCost(HttpServletRequest request) {
+		return 1;
+	}
+
+	/**
+	 * Retrieve the layout values for a virtual wiki from the layout cache,
+	 * building and caching the layout if it is not already cached.
+	 */
+	private LayoutCache.Layout retrieveLayout(HttpServletRequest request, VirtualWiki virtualWiki) {
+		String cacheKey = LayoutCache.buildCacheKey(virtualWiki.getName(), request.getLocale());
+		LayoutCache.Layout layout = LayoutCache.retrieveFromCache(cacheKey);
+		if (layout == null) {
+			long generation = LayoutCache.currentGeneration();
+			layout = this.buildLayoutCacheEntry(request, virtualWiki);
+			LayoutCache.addToCache(cacheKey, layout, generation);
+		}
+		return layout;
+	}
+
+	/**
+	 * Set the rate limiter used to shed load from clients that make too many
+	 * requests to this servlet.  Rate limiters are configured in the Spring
+	 * configuration file.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
 	/**
 	 * Method used when redirecting to an error page.  The HTTP response will be
 	 * set to 500 (Internal Server Error).
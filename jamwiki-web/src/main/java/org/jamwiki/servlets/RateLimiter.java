@@ -0,0 +1,200 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Token bucket rate limiter used to shed load from expensive pages such as
+ * search, diffs and exports.  Each client (identified by a key such as a user
+ * ID or IP address) is given a bucket that holds up to <code>burst</code>
+ * tokens and refills at <code>requestsPerMinute</code> tokens per minute.  A
+ * request that costs more tokens than are available is rejected, and the
+ * caller is told how long to wait before retrying.
+ *
+ * Rate limiters are configured as Spring beans and injected into the servlets
+ * that they protect, with one limiter per class of endpoint so that clients
+ * have separate allowances for (for example) searches and exports.
+ *
+ * Buckets are tracked without locking using the "generic cell rate" form of
+ * the token bucket algorithm, in which each bucket is a single value holding
+ * the time at which the bucket will again be full.  A bucket whose time has
+ * passed is equivalent to a new bucket, so when the number of tracked clients
+ * exceeds <code>maxEntries</code> those buckets are discarded first.  If the
+ * store is still full then arbitrary buckets are discarded, which errs on the
+ * side of allowing requests rather than consuming unbounded memory.
+ */
+public class RateLimiter {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(RateLimiter.class.getName());
+	/** The HTTP status code for responses rejected by a rate limiter. */
+	public static final int SC_TOO_MANY_REQUESTS = 429;
+	/** Map of client key and the time (from System.nanoTime()) at which the client's bucket will be full. */
+	private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicBoolean evicting = new AtomicBoolean(false);
+	private int burst = 10;
+	private int maxEntries = 10000;
+	private String name = "default";
+	private int requestsPerMinute = 30;
+
+	/**
+	 * Discard buckets when the maximum number of buckets has been reached.
+	 * Only one thread performs the eviction, other threads proceed without
+	 * waiting.
+	 */
+	private void evict(long now) {
+		if (!this.evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int removed = 0;
+			Iterator<Map.Entry<String, AtomicLong>> iterator = this.buckets.entrySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().getValue().get() - now <= 0) {
+					// bucket is full and can be recreated if needed
+					iterator.remove();
+					removed++;
+				}
+			}
+			iterator = this.buckets.entrySet().iterator();
+			while (this.buckets.size() >= this.maxEntries && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+				removed++;
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("Rate limiter " + this.name + " discarded " + removed + " client buckets");
+			}
+		} finally {
+			this.evicting.set(false);
+		}
+	}
+
+	/**
+	 * Return the maximum number of tokens that a client bucket can hold, which
+	 * is the number of requests that can be made in quick succession.
+	 */
+	public int getBurst() {
+		return this.burst;
+	}
+
+	/**
+	 * Return the maximum number of client buckets that are tracked.
+	 */
+	public int getMaxEntries() {
+		return this.maxEntries;
+	}
+
+	/**
+	 * Return the name of the rate limiter, used in log messages.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Return the number of tokens added to each client bucket per minute.  A
+	 * value of zero or less disables rate limiting.
+	 */
+	public int getRequestsPerMinute() {
+		return this.requestsPerMinute;
+	}
+
+	/**
+	 *
+	 */
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	/**
+	 *
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 *
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 *
+	 */
+	public void setRequestsPerMinute(int requestsPerMinute) {
+		this.requestsPerMinute = requestsPerMinute;
+	}
+
+	/**
+	 * Return the number of client buckets currently tracked.
+	 */
+	int size() {
+		return this.buckets.size();
+	}
+
+	/**
+	 * Attempt to take tokens from a client's bucket.
+	 *
+	 * @param key A value identifying the client, such as a user ID or IP
+	 *  address.
+	 * @param cost The number of tokens required for the request.  Costs
+	 *  greater than the burst size are treated as the burst size so that
+	 *  expensive requests are possible when a bucket is full.
+	 * @return Zero if the request is allowed, otherwise the number of
+	 *  milliseconds until the bucket holds enough tokens for the request.
+	 */
+	public long tryAcquire(String key, int cost) {
+		if (this.requestsPerMinute <= 0 || cost <= 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		long interval = TimeUnit.MINUTES.toNanos(1) / this.requestsPerMinute;
+		long tolerance = interval * Math.max(this.burst, 1);
+		long increment = interval * Math.min(cost, Math.max(this.burst, 1));
+		AtomicLong bucket = this.buckets.get(key);
+		if (bucket == null) {
+			if (this.buckets.size() >= this.maxEntries) {
+				this.evict(now);
+			}
+			bucket = new AtomicLong(now);
+			AtomicLong existing = this.buckets.putIfAbsent(key, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		while (true) {
+			long full = bucket.get();
+			long next = ((full - now > 0) ? full : now) + increment;
+			long wait = next - now - tolerance;
+			if (wait > 0) {
+				return Math.max(TimeUnit.NANOSECONDS.toMillis(wait), 1);
+			}
+			if (bucket.compareAndSet(full, next)) {
+				return 0;
+			}
+		}
+	}
+}
@@ -19,7 +19,9 @@ package org.jamwiki.servlets;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import com.sun.syndication.feed.synd.SyndContent;
@@ -29,11 +31,14 @@ import com.sun.syndication.feed.synd.SyndEntryImpl;
 import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.feed.synd.SyndFeedImpl;
 import com.sun.syndication.io.SyndFeedOutput;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.model.RecentChange;
+import org.jamwiki.utils.FeedCache;
 import org.jamwiki.utils.Pagination;
+import org.jamwiki.utils.ResponseCache;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -53,6 +58,10 @@ import org.springframework.web.servlet.mvc.AbstractController;
  * {@link WikiUtil#buildPagination(HttpServletRequest)})</li>
  * </ul>
  *
+ * Serialized feeds are cached until a new recent change is recorded, and
+ * clients that poll the feed using If-None-Match or If-Modified-Since headers
+ * receive a 304 (Not Modified) response if no change has occurred.
+ *
  * @author Rainer Schmitz
  * @since 22.12.2006
  */
@@ -60,6 +69,7 @@ public class RecentChangesFeedServlet extends AbstractController {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(RecentChangesFeedServlet.class.getName());
 	private static final String MIME_TYPE = "application/xml";
+	private static final String CONTENT_TYPE = MIME_TYPE + ";charset=UTF-8";
 	private static final String FEED_ENCODING = "UTF-8";
 	private static final String DEFAULT_FEED_TYPE = "rss_2.0";
 	private static final String FEED_TYPE = "feedType";
@@ -135,14 +145,27 @@ public class RecentChangesFeedServlet extends AbstractController {
 	 */
 	protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
 		try {
+			String virtualWiki = WikiUtil.getVirtualWikiFromURI(request);
 			String feedType = ServletRequestUtils.getStringParameter(request, FEED_TYPE, defaultFeedType);
-			logger.trace("Serving xml feed of type " + feedType);
-			SyndFeed feed = getFeed(request);
-			feed.setFeedType(feedType);
-			response.setContentType(MIME_TYPE);
-			response.setCharacterEncoding(FEED_ENCODING);
-			SyndFeedOutput output = new SyndFeedOutput();
-			output.output(feed, response.getWriter());
+			boolean includeMinorEdits = ServletRequestUtils.getBooleanParameter(request, MINOR_EDITS, defaultIncludeMinorEdits);
+			boolean linkToVersion = ServletRequestUtils.getBooleanParameter(request, LINK_TO_VERSION, defaultLinkToVersion);
+			Pagination pagination = WikiUtil.buildPagination(request);
+			String feedURL = getFeedURL(request);
+			String cacheKey = FeedCache.buildCacheKey(virtualWiki, feedType, includeMinorEdits, linkToVersion, pagination, feedURL);
+			FeedCache.CachedFeed cachedFeed = FeedCache.retrieveFromCache(cacheKey);
+			if (cachedFeed == null) {
+				logger.trace("Generating xml feed of type " + feedType);
+				long generation = FeedCache.currentGeneration();
+				List<RecentChange> changes = WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
+				SyndFeed feed = getFeed(changes, includeMinorEdits, linkToVersion, feedURL);
+				feed.setFeedType(feedType);
+				cachedFeed = buildCachedFeed(feed, changes);
+				FeedCache.addToCache(cacheKey, cachedFeed, generation);
+			}
+			if (cachedFeed.getLastModified() > 0) {
+				response.setDateHeader("Last-Modified", cachedFeed.getLastModified());
+			}
+			ServletUtil.writeCachedResponse(request, response, cachedFeed.getResponse(), cachedFeed.getLastModified());
 		} catch (Exception e) {
 			logger.error("Could not generate feed: " + e.getMessage(), e);
 			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not generate feed: "
@@ -152,22 +175,44 @@ public class RecentChangesFeedServlet extends AbstractController {
 	}
 
 	/**
-	 * TODO cache feed to avoid high load caused by RSS aggregators
+	 * Serialize a feed and build the cache entry for it.  The ETag is generated
+	 * from the serialized feed, and the last-modified time is the time of the
+	 * newest change in the feed.
+	 */
+	private FeedCache.CachedFeed buildCachedFeed(SyndFeed feed, List<RecentChange> changes) throws Exception {
+		SyndFeedOutput output = new SyndFeedOutput();
+		byte[] content = output.outputString(feed).getBytes(FEED_ENCODING);
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		List<String> etag = new ArrayList<String>();
+		etag.add("\"" + DigestUtils.md5Hex(content) + "\"");
+		headers.put("ETag", etag);
+		List<String> cacheControl = new ArrayList<String>();
+		cacheControl.add("public, max-age=0, must-revalidate");
+		headers.put("Cache-Control", cacheControl);
+		long lastModified = -1;
+		for (RecentChange change : changes) {
+			if (change.getChangeDate() != null) {
+				lastModified = Math.max(lastModified, change.getChangeDate().getTime());
+			}
+		}
+		if (System.currentTimeMillis() - lastModified < 1000) {
+			// HTTP dates have a resolution of one second, so a change made within
+			// the last second is not yet safe to report as the last-modified time.
+			lastModified = -1;
+		}
+		ResponseCache.CachedResponse response = new ResponseCache.CachedResponse(CONTENT_TYPE, null, headers, content);
+		return new FeedCache.CachedFeed(response, lastModified);
+	}
+
+	/**
 	 *
-	 * @throws Exception
 	 */
-	private SyndFeed getFeed(HttpServletRequest request) throws Exception {
-		List<RecentChange> changes = getChanges(request);
+	private SyndFeed getFeed(List<RecentChange> changes, boolean includeMinorEdits, boolean linkToVersion, String feedURL) {
 		SyndFeed feed = new SyndFeedImpl();
 		feed.setEncoding(FEED_ENCODING);
 		feed.setTitle(Environment.getValue(Environment.PROP_RSS_TITLE));
-		StringBuffer requestURL = request.getRequestURL();
-		String feedURL = feedUrlPrefix + requestURL.substring(0, requestURL.length() - WikiUtil.getTopicFromURI(request).length());
 		feed.setLink(feedURL);
 		feed.setDescription("List of the last " + changes.size() + " changed wiki pages.");
-		boolean includeMinorEdits = ServletRequestUtils.getBooleanParameter(request, MINOR_EDITS,
-				defaultIncludeMinorEdits);
-		boolean linkToVersion = ServletRequestUtils.getBooleanParameter(request, LINK_TO_VERSION, defaultLinkToVersion);
 		feed.setEntries(getFeedEntries(changes, includeMinorEdits, linkToVersion, feedURL));
 		return feed;
 	}
@@ -230,11 +275,10 @@ public class RecentChangesFeedServlet extends AbstractController {
 	}
 
 	/**
-	 *
+	 * Return the URL used as a prefix for links within the feed.
 	 */
-	private List<RecentChange> getChanges(HttpServletRequest request) throws Exception {
-		String virtualWiki = WikiUtil.getVirtualWikiFromURI(request);
-		Pagination pagination = WikiUtil.buildPagination(request);
-		return WikiBase.getDataHandler().getRecentChanges(virtualWiki, pagination, true);
+	private String getFeedURL(HttpServletRequest request) {
+		StringBuffer requestURL = request.getRequestURL();
+		return feedUrlPrefix + requestURL.substring(0, requestURL.length() - WikiUtil.getTopicFromURI(request).length());
 	}
 }
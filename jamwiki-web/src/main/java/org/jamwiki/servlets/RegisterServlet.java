@@ -45,8 +45,9 @@ import org.jamwiki.web.utils.UserPreferencesUtil.UserPreferenceItem;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.ModelAndView;
-import org.springframework.web.servlet.i18n.SessionLocaleResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * Used to process new user account setup.
@@ -71,7 +72,7 @@ public class RegisterServlet extends JAMWikiServlet {
 		if (request.getParameter("function") == null) {
 			view(request, next, pageInfo);
 		} else {
-			register(request, next, pageInfo);
+			register(request, response, next, pageInfo);
 		}
 		return next;
 	}
@@ -109,7 +110,7 @@ public class RegisterServlet extends JAMWikiServlet {
 	/**
 	 *
 	 */
-	private void register(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+	private void register(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String virtualWikiName = pageInfo.getVirtualWikiName();
 		WikiUser user = this.setWikiUser(request);
 		boolean isUpdate = (user.getUserId() != -1);
@@ -144,7 +145,10 @@ public class RegisterServlet extends JAMWikiServlet {
 			// update the locale key since the user may have changed default locale
 			if (!StringUtils.isBlank(user.getDefaultLocale())) {
 				Locale locale = LocaleUtils.toLocale(user.getDefaultLocale());
-				request.getSession().setAttribute(SessionLocaleResolver.LOCALE_SESSION_ATTRIBUTE_NAME, locale);
+				LocaleResolver resolver = RequestContextUtils.getLocaleResolver(request);
+				if (resolver != null) {
+					resolver.setLocale(request, response, locale);
+				}
 			}
 			if (isUpdate) {
 				pageInfo.addMessage(new WikiMessage("register.caption.updatesuccess"));
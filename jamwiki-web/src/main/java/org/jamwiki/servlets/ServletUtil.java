@@ -25,8 +25,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
@@ -60,6 +62,7 @@ import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.ResourceUtil;
+import org.jamwiki.utils.ResponseCache;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -76,6 +79,8 @@ import org.springframework.web.servlet.ModelAndView;
 public class ServletUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ServletUtil.class.getName());
+	/** Suffix added to a strong ETag to identify the gzip-compressed representation of a response. */
+	private static final String ETAG_GZIP_SUFFIX = "-gzip";
 	/** The name of the output parameter used to store page information. */
 	public static final String PARAMETER_PAGE_INFO = "pageInfo";
 	/** The name of the output parameter used to store topic information. */
@@ -135,25 +140,9 @@ public class ServletUtil {
 		if (content != null || WikiBase.CACHE_PARSED_TOPIC_CONTENT.isKeyInCache(cacheKey)) {
 			return content;
 		}
-		try {
-			Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
-			if (topic == null) {
-				logger.warn("Missing system topic, this should be created to avoid errors: " + virtualWiki + " / " + topicName);
-				return content;
-			}
-			content = topic.getTopicContent();
-			if (cook) {
-				ParserInput parserInput = new ParserInput(virtualWiki, topicName);
-				parserInput.setAllowSectionEdit(false);
-				parserInput.setAllowTableOfContents(false);
-				parserInput.setContext(context);
-				parserInput.setLocale(locale);
-				content = ParserUtil.parse(parserInput, null, content);
-			}
+		content = ServletUtil.retrieveTopicContent(context, locale, virtualWiki, topicName, cook);
+		if (content != null) {
 			WikiBase.CACHE_PARSED_TOPIC_CONTENT.addToCache(cacheKey, content);
-		} catch (Exception e) {
-			logger.warn("error getting cached page " + virtualWiki + " / " + topicName, e);
-			return null;
 		}
 		return content;
 	}
@@ -276,28 +265,31 @@ public class ServletUtil {
 	 * @throws WikiException Thrown if any error occurs during processing.
 	 */
 	public static Watchlist currentWatchlist(HttpServletRequest request, String virtualWiki) throws WikiException {
-		// try to get watchlist stored in session
-		if (request.getSession(false) != null) {
-			Watchlist watchlist = (Watchlist)request.getSession(false).getAttribute(WikiUtil.PARAMETER_WATCHLIST);
-			if (watchlist != null) {
-				return watchlist;
-			}
-		}
-		// no watchlist in session, retrieve from database
+		// anonymous users do not have a watchlist, so there is no need to
+		// examine (or create) a session
 		WikiUserDetailsImpl userDetails = ServletUtil.currentUserDetails();
 		Watchlist watchlist = new Watchlist();
 		if (userDetails.hasRole(Role.ROLE_ANONYMOUS)) {
 			return watchlist;
 		}
+		// try to get watchlist stored in session
+		HttpSession session = request.getSession(false);
+		if (session != null) {
+			Watchlist sessionWatchlist = (Watchlist)session.getAttribute(WikiUtil.PARAMETER_WATCHLIST);
+			if (sessionWatchlist != null) {
+				return sessionWatchlist;
+			}
+		}
+		// no watchlist in session, retrieve from database
 		WikiUser user = ServletUtil.currentWikiUser();
 		try {
 			watchlist = WikiBase.getDataHandler().getWatchlist(virtualWiki, user.getUserId());
 		} catch (DataAccessException e) {
 			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
 		}
-		if (request.getSession(false) != null) {
+		if (session != null) {
 			// add watchlist to session
-			request.getSession(false).setAttribute(WikiUtil.PARAMETER_WATCHLIST, watchlist);
+			session.setAttribute(WikiUtil.PARAMETER_WATCHLIST, watchlist);
 		}
 		return watchlist;
 	}
@@ -360,6 +352,46 @@ public class ServletUtil {
 		return topic;
 	}
 
+	/**
+	 * Return the ETag to use for the gzip-compressed representation of a
+	 * response.  Strong ETags must differ between representations, so the
+	 * compressed representation uses the uncompressed ETag with a suffix
+	 * appended.  {@link #isNotModified} accepts either form.
+	 *
+	 * @param etag The (quoted) ETag for the uncompressed response.
+	 * @return The ETag for the compressed response.
+	 */
+	protected static String gzipETag(String etag) {
+		if (etag == null || etag.startsWith("W/") || etag.endsWith(ETAG_GZIP_SUFFIX + "\"")) {
+			return etag;
+		}
+		return etag.substring(0, etag.length() - 1) + ETAG_GZIP_SUFFIX + "\"";
+	}
+
+	/**
+	 * Determine whether the client accepts gzip-compressed responses, as
+	 * specified by the request's Accept-Encoding header.
+	 *
+	 * @param request The current servlet request.
+	 * @return <code>true</code> if the response may be sent using gzip
+	 *  content encoding.
+	 */
+	protected static boolean isGzipAccepted(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (StringUtils.isBlank(acceptEncoding)) {
+			return false;
+		}
+		for (String encoding : acceptEncoding.split(",")) {
+			String[] tokens = encoding.split(";");
+			if (!StringUtils.equalsIgnoreCase(tokens[0].trim(), "gzip")) {
+				continue;
+			}
+			// an encoding with a quality value of zero is not acceptable
+			return (tokens.length == 1 || !tokens[1].trim().matches("q\\s*=\\s*0(\\.0*)?"));
+		}
+		return false;
+	}
+
 	/**
 	 * Determine if a user has permission to edit a topic.
 	 *
@@ -434,6 +466,32 @@ public class ServletUtil {
 		return true;
 	}
 
+	/**
+	 * Determine whether the client already has a current copy of a response,
+	 * either because its ETag matches an If-None-Match header or because the
+	 * response has not been modified since the If-Modified-Since date.
+	 *
+	 * @param request The current servlet request.
+	 * @param etag The (quoted) ETag for the current response.
+	 * @param lastModified The time at which the response was last modified,
+	 *  or -1 if the modification time is not known.
+	 * @return <code>true</code> if a 304 (Not Modified) response should be
+	 *  returned.
+	 */
+	protected static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			// If-None-Match takes precedence over If-Modified-Since
+			return ServletUtil.matchesETag(ifNoneMatch, etag);
+		}
+		if (lastModified <= 0) {
+			return false;
+		}
+		long ifModifiedSince = ServletUtil.retrieveDateHeader(request, "If-Modified-Since");
+		// HTTP dates have a resolution of one second
+		return (ifModifiedSince != -1 && (lastModified / 1000) <= (ifModifiedSince / 1000));
+	}
+
 	/**
 	 * Examine the request object, and see if the requested topic or page
 	 * matches a given value.
@@ -581,6 +639,51 @@ public class ServletUtil {
 		}
 	}
 
+	/**
+	 * Utility method for parsing a multipart servlet request using the streaming
+	 * API.  Unlike {@link #processMultipartRequest} no part of the request is
+	 * buffered in memory or in temporary files; each item must be read from the
+	 * returned iterator before moving to the next item.  The maximum file size
+	 * is enforced while the items are read.
+	 *
+	 * @param request The servlet request containing the multipart request.
+	 * @return Returns an iterator over the items in the request.
+	 * @throws WikiException Thrown if any problems occur while processing the request.
+	 */
+	public static FileItemIterator processMultipartStream(HttpServletRequest request) throws WikiException {
+		long maxFileSize = Environment.getLongValue(Environment.PROP_FILE_MAX_FILE_SIZE);
+		ServletFileUpload upload = new ServletFileUpload();
+		upload.setHeaderEncoding("UTF-8");
+		upload.setSizeMax(maxFileSize);
+		try {
+			return upload.getItemIterator(request);
+		} catch (FileUploadException e) {
+			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
+		} catch (IOException e) {
+			throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Determine whether an ETag matches a comma-separated list of entity tags
+	 * from an If-None-Match header.  The gzip-compressed form of the ETag is
+	 * also considered a match.
+	 */
+	private static boolean matchesETag(String header, String etag) {
+		String gzipETag = ServletUtil.gzipETag(etag);
+		for (String value : StringUtils.split(header, ',')) {
+			value = value.trim();
+			if (value.startsWith("W/")) {
+				// weak comparison is used for If-None-Match
+				value = value.substring(2);
+			}
+			if (value.equals("*") || value.equals(etag) || value.equals(gzipETag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Modify the current ModelAndView object to create a Spring redirect
 	 * response, meaning that the view name becomes "redirect:" followed by
@@ -659,6 +762,68 @@ public class ServletUtil {
 		return request.getLocale();
 	}
 
+	/**
+	 * Return the value of a date header, or -1 if the header is not present or
+	 * is not a valid date.
+	 */
+	protected static long retrieveDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Return the ETag of a cached response, or <code>null</code> if the response
+	 * does not have an ETag.
+	 */
+	private static String retrieveETag(ResponseCache.CachedResponse cachedResponse) {
+		List<String> values = cachedResponse.getHeaders().get("ETag");
+		return (values == null || values.isEmpty()) ? null : values.get(0);
+	}
+
+	/**
+	 * Retrieve the content of a topic such as the sidebar or stylesheet,
+	 * optionally parsing it.  Callers are responsible for any caching.
+	 *
+	 * @param context The servlet context for the topic being retrieved.  May
+	 *  be <code>null</code> if the <code>cook</code> parameter is set to
+	 *  <code>false</code>.
+	 * @param locale The locale for the topic being retrieved.  May be
+	 *  <code>null</code> if the <code>cook</code> parameter is set to
+	 *  <code>false</code>.
+	 * @param virtualWiki The virtual wiki for the topic being retrieved.
+	 * @param topicName The name of the topic being retrieved.
+	 * @param cook A parameter indicating whether or not the content should be
+	 *  parsed.
+	 * @return The parsed or unparsed (depending on the <code>cook</code>
+	 *  parameter) topic content, or <code>null</code> if the topic does not
+	 *  exist or cannot be parsed.
+	 */
+	protected static String retrieveTopicContent(String context, Locale locale, String virtualWiki, String topicName, boolean cook) {
+		try {
+			Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+			if (topic == null) {
+				logger.warn("Missing system topic, this should be created to avoid errors: " + virtualWiki + " / " + topicName);
+				return null;
+			}
+			String content = topic.getTopicContent();
+			if (cook) {
+				ParserInput parserInput = new ParserInput(virtualWiki, topicName);
+				parserInput.setAllowSectionEdit(false);
+				parserInput.setAllowTableOfContents(false);
+				parserInput.setContext(context);
+				parserInput.setLocale(locale);
+				content = ParserUtil.parse(parserInput, null, content);
+			}
+			return content;
+		} catch (Exception e) {
+			logger.warn("error getting cached page " + virtualWiki + " / " + topicName, e);
+			return null;
+		}
+	}
+
 	/**
 	 * Given a virtual wiki name, return a <code>VirtualWiki</code> object.
 	 * If there is no virtual wiki available with the given name then the
@@ -927,4 +1092,65 @@ public class ServletUtil {
 			pageInfo.setSpecial(true);
 		}
 	}
+
+	/**
+	 * Write the body of a cached response to the client, compressed if the
+	 * client accepts gzip content encoding.
+	 *
+	 * @param content The uncompressed response body, or <code>null</code> if it
+	 *  should be retrieved from the cached response when needed.
+	 */
+	protected static void writeCachedContent(HttpServletRequest request, HttpServletResponse response, ResponseCache.CachedResponse cachedResponse, byte[] content) throws IOException {
+		if (!response.containsHeader("Vary")) {
+			response.addHeader("Vary", "Accept-Encoding");
+		}
+		if (ServletUtil.isGzipAccepted(request)) {
+			response.setHeader("Content-Encoding", "gzip");
+			String etag = ServletUtil.retrieveETag(cachedResponse);
+			if (etag != null) {
+				response.setHeader("ETag", ServletUtil.gzipETag(etag));
+			}
+			content = cachedResponse.getCompressedContent();
+		} else if (content == null) {
+			content = cachedResponse.getContent();
+		}
+		response.setContentLength(content.length);
+		response.getOutputStream().write(content);
+	}
+
+	/**
+	 * Write a cached response, including all headers, to the client.  If the
+	 * client already has a copy of the response with a matching ETag then a
+	 * 304 (Not Modified) response is sent instead.
+	 */
+	protected static void writeCachedResponse(HttpServletRequest request, HttpServletResponse response, ResponseCache.CachedResponse cachedResponse) throws IOException {
+		ServletUtil.writeCachedResponse(request, response, cachedResponse, -1);
+	}
+
+	/**
+	 * Write a cached response, including all headers, to the client.  If the
+	 * client already has a copy of the response with a matching ETag, or (if no
+	 * ETag is sent by the client) a copy that is at least as recent as the
+	 * last-modified time, then a 304 (Not Modified) response is sent instead.
+	 *
+	 * @param lastModified The time (in milliseconds) at which the response
+	 *  content was last modified, or -1 if the time is not known.
+	 */
+	protected static void writeCachedResponse(HttpServletRequest request, HttpServletResponse response, ResponseCache.CachedResponse cachedResponse, long lastModified) throws IOException {
+		if (cachedResponse.getLocale() != null) {
+			response.setLocale(cachedResponse.getLocale());
+		}
+		for (Map.Entry<String, List<String>> header : cachedResponse.getHeaders().entrySet()) {
+			for (String value : header.getValue()) {
+				response.addHeader(header.getKey(), value);
+			}
+		}
+		String etag = ServletUtil.retrieveETag(cachedResponse);
+		if ((etag != null || lastModified > 0) && ServletUtil.isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType(cachedResponse.getContentType());
+		ServletUtil.writeCachedContent(request, response, cachedResponse, null);
+	}
 }
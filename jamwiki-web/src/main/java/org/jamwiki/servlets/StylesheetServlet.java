@@ -16,19 +16,40 @@
  */
 package org.jamwiki.servlets;
 
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
+import org.jamwiki.utils.LayoutCache;
+import org.jamwiki.utils.ResponseCache;
 import org.jamwiki.utils.WikiLogger;
 import org.springframework.web.servlet.ModelAndView;
 
 /**
- * Used to generate the jamwiki.css stylesheet.
+ * Used to generate the jamwiki.css stylesheet.  The stylesheet for each
+ * virtual wiki is concatenated from the stylesheet topics, optionally
+ * minified, and cached in compressed form along with a hash of its content.
+ * The hash is used as the stylesheet revision in page links and as the ETag,
+ * so requests for the current revision can be cached by browsers indefinitely
+ * and revalidation requests are answered with a 304 (Not Modified) response
+ * without retrieving or compressing the stylesheet topics.
  */
 public class StylesheetServlet extends JAMWikiServlet {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(StylesheetServlet.class.getName());
+	/** Cache-Control header for requests that include the current stylesheet revision. */
+	private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000, immutable";
+	/** Cache-Control header for requests without a current stylesheet revision (30 minutes). */
+	private static final String CACHE_CONTROL_DEFAULT = "public, max-age=1800";
+	/** Characters that never need to be separated from adjacent tokens by whitespace. */
+	private static final String MINIFY_DELIMITERS = "{};,>";
 
 	/**
 	 * This servlet requires slightly different initialization parameters from most
@@ -38,22 +59,130 @@ public class StylesheetServlet extends JAMWikiServlet {
 		this.layout = false;
 	}
 
+	/**
+	 * Build the stylesheet response for a virtual wiki from the system and
+	 * custom stylesheet topics.
+	 */
+	private static ResponseCache.CachedResponse buildStylesheet(String virtualWiki) throws IOException {
+		String stylesheet = StringUtils.defaultString(ServletUtil.retrieveTopicContent(null, null, virtualWiki, WikiBase.SPECIAL_PAGE_SYSTEM_CSS, false));
+		stylesheet += '\n' + StringUtils.defaultString(ServletUtil.retrieveTopicContent(null, null, virtualWiki, WikiBase.SPECIAL_PAGE_CUSTOM_CSS, false));
+		if (Environment.getBooleanValue(Environment.PROP_STYLESHEET_MINIFY)) {
+			stylesheet = StylesheetServlet.minify(stylesheet);
+		}
+		byte[] content = stylesheet.getBytes("UTF-8");
+		Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		List<String> etag = new ArrayList<String>();
+		etag.add("\"" + DigestUtils.md5Hex(content) + "\"");
+		headers.put("ETag", etag);
+		return new ResponseCache.CachedResponse("text/css;charset=UTF-8", null, headers, content);
+	}
+
 	/**
 	 *
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String virtualWiki = pageInfo.getVirtualWikiName();
-		String stylesheet = ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWiki, WikiBase.SPECIAL_PAGE_SYSTEM_CSS, false);
-		stylesheet += '\n' + ServletUtil.cachedContent(request.getContextPath(), request.getLocale(), virtualWiki, WikiBase.SPECIAL_PAGE_CUSTOM_CSS, false);
-		response.setContentType("text/css");
-		response.setCharacterEncoding("UTF-8");
-		// cache for 30 minutes (60 * 30 = 1800)
-		// FIXME - make configurable
-		response.setHeader("Cache-Control", "max-age=1800");
-		PrintWriter out = response.getWriter();
-		out.print(stylesheet);
-		out.close();
+		ResponseCache.CachedResponse stylesheet = StylesheetServlet.retrieveStylesheet(virtualWiki);
+		String revision = StylesheetServlet.retrieveRevision(stylesheet);
+		if (revision != null && revision.equals(request.getQueryString())) {
+			// the URL changes whenever the stylesheet changes
+			response.setHeader("Cache-Control", CACHE_CONTROL_IMMUTABLE);
+		} else {
+			response.setHeader("Cache-Control", CACHE_CONTROL_DEFAULT);
+		}
+		ServletUtil.writeCachedResponse(request, response, stylesheet);
 		// do not load defaults or redirect - return as raw CSS
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Remove comments and unnecessary whitespace from a stylesheet.  Quoted
+	 * strings and escaped characters are copied without modification, and
+	 * whitespace is only removed where it cannot change the meaning of the
+	 * stylesheet (whitespace before a colon is retained since it is
+	 * significant in selectors such as "div :first-child").
+	 *
+	 * @param stylesheet The stylesheet to minify.
+	 * @return The minified stylesheet.
+	 */
+	protected static String minify(String stylesheet) {
+		int length = stylesheet.length();
+		StringBuilder result = new StringBuilder(length);
+		boolean whitespace = false;
+		for (int i = 0; i < length; i++) {
+			char c = stylesheet.charAt(i);
+			if (c == '/' && i + 1 < length && stylesheet.charAt(i + 1) == '*') {
+				int end = stylesheet.indexOf("*/", i + 2);
+				i = (end == -1) ? length : end + 1;
+				// comments separate tokens in the same way as whitespace
+				whitespace = true;
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				whitespace = true;
+				continue;
+			}
+			int last = result.length() - 1;
+			if (c == '}' && last >= 0 && result.charAt(last) == ';') {
+				// the final semicolon in a declaration block is optional
+				result.setLength(last);
+				last--;
+			}
+			if (whitespace && last >= 0 && result.charAt(last) != ':' && MINIFY_DELIMITERS.indexOf(result.charAt(last)) == -1 && MINIFY_DELIMITERS.indexOf(c) == -1) {
+				result.append(' ');
+			}
+			whitespace = false;
+			int end = i;
+			if (c == '"' || c == '\'') {
+				// copy the quoted string, including any escaped quotes
+				end++;
+				while (end < length - 1 && stylesheet.charAt(end) != c) {
+					end += (stylesheet.charAt(end) == '\\') ? 2 : 1;
+				}
+			} else if (c == '\\') {
+				// copy the escaped character
+				end++;
+			}
+			end = Math.min(end, length - 1);
+			result.append(stylesheet, i, end + 1);
+			i = end;
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Return the revision of a stylesheet, which is the hash of its content.
+	 */
+	private static String retrieveRevision(ResponseCache.CachedResponse stylesheet) {
+		List<String> etag = stylesheet.getHeaders().get("ETag");
+		return (etag == null || etag.isEmpty()) ? null : StringUtils.strip(etag.get(0), "\"");
+	}
+
+	/**
+	 * Retrieve the stylesheet response for a virtual wiki, building and
+	 * caching it if it is not already cached.
+	 */
+	private static ResponseCache.CachedResponse retrieveStylesheet(String virtualWiki) throws IOException {
+		ResponseCache.CachedResponse stylesheet = LayoutCache.retrieveStylesheetFromCache(virtualWiki);
+		if (stylesheet == null) {
+			long generation = LayoutCache.currentGeneration();
+			stylesheet = StylesheetServlet.buildStylesheet(virtualWiki);
+			LayoutCache.addStylesheetToCache(virtualWiki, stylesheet, generation);
+		}
+		return stylesheet;
+	}
+
+	/**
+	 * Return the current stylesheet revision for a virtual wiki.  The revision
+	 * changes whenever the content of the stylesheet changes, and should be
+	 * appended to the stylesheet URL so that browsers can cache the stylesheet
+	 * indefinitely.
+	 *
+	 * @param virtualWiki The virtual wiki for the stylesheet.
+	 * @return The current stylesheet revision.
+	 * @throws IOException Thrown if the stylesheet cannot be built.
+	 */
+	protected static String retrieveStylesheetRevision(String virtualWiki) throws IOException {
+		return StylesheetServlet.retrieveRevision(StylesheetServlet.retrieveStylesheet(virtualWiki));
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jamwiki.WikiBase;
+import org.jamwiki.utils.WikiLogger;
+import org.jamwiki.utils.WikiUtil;
+import org.springframework.web.bind.ServletRequestUtils;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Provides topic name suggestions for type-ahead search boxes.  Results are
+ * returned in the OpenSearch suggestions JSON format, for example
+ * <code>["Foo",["Foo","Foo Bar"]]</code>.
+ *
+ * Suggestions can be influenced through following request parameters:
+ * <ul>
+ * <li><code>text</code>: the topic name prefix to match.</li>
+ * <li><code>num</code>: the maximum number of suggestions to return.</li>
+ * </ul>
+ */
+public class SuggestServlet extends AbstractController {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(SuggestServlet.class.getName());
+	private static final String MIME_TYPE = "application/json";
+	private static final String ENCODING = "UTF-8";
+	private static final int DEFAULT_RESULTS = 10;
+	private static final int MAXIMUM_RESULTS = 50;
+
+	/**
+	 * Handle the servlet request, generating appropriate output.
+	 *
+	 * @see org.springframework.web.servlet.mvc.AbstractController#handleRequestInternal(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		String virtualWiki = WikiUtil.getVirtualWikiFromURI(request);
+		String text = ServletRequestUtils.getStringParameter(request, "text", "");
+		int num = ServletRequestUtils.getIntParameter(request, "num", DEFAULT_RESULTS);
+		num = Math.max(0, Math.min(num, MAXIMUM_RESULTS));
+		try {
+			List<String> suggestions = WikiBase.getDataHandler().lookupTopicSuggestions(virtualWiki, text, num);
+			StringBuilder json = new StringBuilder();
+			json.append('[');
+			this.appendJsonString(json, text);
+			json.append(",[");
+			for (int i = 0; i < suggestions.size(); i++) {
+				if (i > 0) {
+					json.append(',');
+				}
+				this.appendJsonString(json, suggestions.get(i));
+			}
+			json.append("]]");
+			response.setContentType(MIME_TYPE);
+			response.setCharacterEncoding(ENCODING);
+			response.getWriter().write(json.toString());
+		} catch (Exception e) {
+			logger.error("Could not generate topic suggestions: " + e.getMessage(), e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not generate topic suggestions: " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Append a value to a JSON buffer as a quoted and escaped JSON string.
+	 */
+	private void appendJsonString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					json.append("\\\"");
+					break;
+				case '\\':
+					json.append("\\\\");
+					break;
+				case '\n':
+					json.append("\\n");
+					break;
+				case '\r':
+					json.append("\\r");
+					break;
+				case '\t':
+					json.append("\\t");
+					break;
+				default:
+					// escape control characters as well as "<" and ">" so that the
+					// output can never be interpreted as markup
+					if (c < 0x20 || c == '<' || c == '>') {
+						json.append(String.format("\\u%04x", (int)c));
+					} else {
+						json.append(c);
+					}
+			}
+		}
+		json.append('"');
+	}
+}
@@ -18,14 +18,23 @@ package org.jamwiki.servlets;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.DataAccessException;
+import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
+import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.authentication.WikiUserDetailsImpl;
+import org.jamwiki.model.Role;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.model.WikiUser;
+import org.jamwiki.utils.ResponseCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * Used to display a JAMWiki topic.
@@ -34,6 +43,8 @@ public class TopicServlet extends JAMWikiServlet {
 
 	/** Logger for this class and subclasses. */
 	private static final WikiLogger logger = WikiLogger.getLogger(TopicServlet.class.getName());
+	/** Layout topics that are displayed on every page, and whose versions are included in the page ETag. */
+	private static final String[] LAYOUT_TOPICS = {WikiBase.SPECIAL_PAGE_SIDEBAR, WikiBase.SPECIAL_PAGE_HEADER, WikiBase.SPECIAL_PAGE_FOOTER, WikiBase.SPECIAL_PAGE_SYSTEM_CSS, WikiBase.SPECIAL_PAGE_CUSTOM_CSS};
 
 	/**
 	 * This method handles the request after its parent class receives control. It gets the topic's name and the
@@ -44,14 +55,74 @@ public class TopicServlet extends JAMWikiServlet {
 	 * @return A <code>ModelAndView</code> object to be handled by the rest of the Spring framework.
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
-		view(request, response, next, pageInfo);
-		return next;
+		return view(request, response, next, pageInfo);
+	}
+
+	/**
+	 * Generate a strong ETag for the rendered topic page.  A rendered page
+	 * depends on the topic version, the versions of the layout topics, the
+	 * locale and the current user.  It may also depend on other topics, such as
+	 * templates, link targets and redirect targets, so the response cache purge
+	 * generation for the virtual wiki (which changes whenever any topic in the
+	 * virtual wiki or the shared virtual wiki is modified) is included as well.
+	 */
+	private String buildETag(HttpServletRequest request, String virtualWiki, Topic topic, WikiUserDetailsImpl userDetails) throws DataAccessException, WikiException {
+		StringBuilder validator = new StringBuilder();
+		validator.append(ResponseCache.currentGeneration(virtualWiki));
+		validator.append('|').append(topic.getTopicId()).append('|').append(topic.getCurrentVersionId());
+		for (String layoutTopicName : LAYOUT_TOPICS) {
+			Topic layoutTopic = WikiBase.getDataHandler().lookupTopic(virtualWiki, layoutTopicName, false);
+			validator.append('|').append((layoutTopic == null) ? -1 : layoutTopic.getCurrentVersionId());
+		}
+		validator.append('|').append(RequestContextUtils.getLocale(request));
+		validator.append('|').append(StringUtils.defaultString(request.getQueryString()));
+		if (!userDetails.hasRole(Role.ROLE_ANONYMOUS)) {
+			// logged-in users see their user name, roles and watchlist status
+			WikiUser user = ServletUtil.currentWikiUser();
+			validator.append('|').append(user.getUserId()).append('|').append(user.getDisplayName());
+			validator.append('|').append(userDetails.getAuthorities());
+			validator.append('|').append(ServletUtil.currentWatchlist(request, virtualWiki).containsTopic(topic.getName()));
+		}
+		return "\"" + DigestUtils.md5Hex(validator.toString()) + "\"";
 	}
 
 	/**
+	 * Set the ETag and Cache-Control headers for a topic page, and determine
+	 * whether the client already has a current copy of the page.  Pages viewed
+	 * by anonymous users may be stored by shared caches such as a reverse
+	 * proxy, while pages viewed by logged-in users are private.  No
+	 * Last-Modified header is sent since a page may change when other topics
+	 * are modified, so clients must revalidate using the ETag.
 	 *
+	 * @return <code>true</code> if the client's copy of the page is current and
+	 *  a 304 (Not Modified) response has been returned.
+	 */
+	private boolean handleConditionalRequest(HttpServletRequest request, HttpServletResponse response, String virtualWiki, Topic topic) throws DataAccessException, WikiException {
+		WikiUserDetailsImpl userDetails = ServletUtil.currentUserDetails();
+		boolean anonymous = userDetails.hasRole(Role.ROLE_ANONYMOUS);
+		String etag = this.buildETag(request, virtualWiki, topic, userDetails);
+		response.setHeader("ETag", etag);
+		if (anonymous) {
+			int sharedMaxAge = Environment.getIntValue(Environment.PROP_TOPIC_PROXY_MAX_AGE);
+			response.setHeader("Cache-Control", "public, max-age=0, s-maxage=" + sharedMaxAge + ", must-revalidate");
+		} else {
+			response.setHeader("Cache-Control", "private, max-age=0, must-revalidate");
+		}
+		// pages differ between anonymous and logged-in users and by language
+		response.setHeader("Vary", "Accept-Encoding, Accept-Language, Cookie");
+		if (!ServletUtil.isNotModified(request, etag, -1)) {
+			return false;
+		}
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		return true;
+	}
+
+	/**
+	 * Display a topic.  If the client already has a current copy of the topic
+	 * page then a 304 (Not Modified) response is sent without parsing or
+	 * rendering the topic and <code>null</code> is returned.
 	 */
-	private void view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+	private ModelAndView view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String topicName = WikiUtil.getTopicFromURI(request);
 		if (StringUtils.isBlank(topicName)) {
 			String virtualWikiName = pageInfo.getVirtualWikiName();
@@ -63,6 +134,9 @@ public class TopicServlet extends JAMWikiServlet {
 			virtualWiki = VirtualWiki.defaultVirtualWiki().getName();
 		}
 		Topic topic = ServletUtil.initializeTopic(virtualWiki, topicName);
+		if (topic.getTopicId() > 0 && this.handleConditionalRequest(request, response, virtualWiki, topic)) {
+			return null;
+		}
 		if (topic.getTopicId() <= 0) {
 			// topic does not exist, return 404 and display empty page
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -73,5 +147,10 @@ public class TopicServlet extends JAMWikiServlet {
 		}
 		WikiMessage pageTitle = new WikiMessage("topic.title", topicName);
 		ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, true, true);
+		if (topic.getTopicId() > 0) {
+			// existing topics do not vary by user when viewed anonymously
+			request.setAttribute(JAMWikiFilter.ATTRIBUTE_RESPONSE_CACHEABLE, Boolean.TRUE);
+		}
+		return next;
 	}
 }
\ No newline at end of file
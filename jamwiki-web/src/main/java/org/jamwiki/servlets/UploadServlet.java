@@ -16,16 +16,24 @@
  */
 package org.jamwiki.servlets;
 
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
@@ -34,6 +42,8 @@ import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.image.ContentAddressedStorage;
+import org.jamwiki.parser.image.ImageTypeDetector;
 import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -47,6 +57,8 @@ public class UploadServlet extends JAMWikiServlet {
 	private static final WikiLogger logger = WikiLogger.getLogger(UploadServlet.class.getName());
 	/** The name of the JSP file used to render the servlet output. */
 	protected static final String JSP_UPLOAD = "upload.jsp";
+	/** Uploads stored in the database that are larger than this many bytes are held in a temporary file rather than in memory. */
+	private static final int SPOOL_THRESHOLD = 1024 * 1024;
 
 	/**
 	 * Override defaults to enable user blocking.
@@ -88,103 +100,199 @@ public class UploadServlet extends JAMWikiServlet {
 	 */
 	private void upload(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String virtualWiki = pageInfo.getVirtualWikiName();
-		List<FileItem> fileItems = ServletUtil.processMultipartRequest(request);
+		FileItemIterator iterator = ServletUtil.processMultipartStream(request);
 		String filename = null;
 		String destinationFilename = null;
 		String contentType = null;
 		long fileSize = 0;
 		String contents = null;
 		boolean isImage = true;
+		// image dimensions detected from the upload header, 0x0 if the upload is
+		// not an image, or null if they could not be determined from the header
+		Dimension dimensions = null;
 		File uploadedFile = null;
 		String url = null;
-		byte buff[] = null;
-		for (FileItem fileItem : fileItems) {
-			String fieldName = fileItem.getFieldName();
-			if (fileItem.isFormField()) {
-				if (fieldName.equals("description")) {
-					// FIXME - these should be parsed
-					contents = fileItem.getString("UTF-8");
-				} else if (fieldName.equals("destination")) {
-					destinationFilename = fileItem.getString("UTF-8");
+		// uploads stored in the database are held here until the file version
+		// record has been created
+		DeferredFileOutputStream spool = null;
+		ImageData imageData = null;
+		// set when an upload has been stored in content-addressed storage but
+		// not yet recorded in the database
+		String pendingContentUrl = null;
+		try {
+			try {
+				while (iterator.hasNext()) {
+					// each item must be completely processed before moving to the next
+					FileItemStream fileItem = iterator.next();
+					String fieldName = fileItem.getFieldName();
+					if (fileItem.isFormField()) {
+						if (fieldName.equals("description")) {
+							// FIXME - these should be parsed
+							contents = Streams.asString(fileItem.openStream(), "UTF-8");
+						} else if (fieldName.equals("destination")) {
+							destinationFilename = Streams.asString(fileItem.openStream(), "UTF-8");
+						}
+						continue;
+					}
+					// file name can have encoding issues, so manually convert
+					filename = fileItem.getName();
+					if (filename == null) {
+						throw new WikiException(new WikiMessage("upload.error.filename"));
+					}
+					filename = ImageUtil.sanitizeFilename(filename);
+					if (!ImageUtil.isFileTypeAllowed(filename)) {
+						String extension = FilenameUtils.getExtension(filename);
+						throw new WikiException(new WikiMessage("upload.error.filetype", extension));
+					}
+					contentType = fileItem.getContentType();
+					// the upload is read exactly once, directly into its final storage,
+					// and the image type and dimensions are detected as it is read
+					ImageTypeDetector detector = new ImageTypeDetector(fileItem.openStream());
+					CountingInputStream in = new CountingInputStream(detector);
+					try {
+						if (ContentAddressedStorage.isEnabled()) {
+							if (pendingContentUrl != null) {
+								// only the last file in the request is used
+								ContentAddressedStorage.rollback(pendingContentUrl);
+								pendingContentUrl = null;
+							}
+							url = ContentAddressedStorage.store(in, filename);
+							pendingContentUrl = url;
+							uploadedFile = ImageUtil.buildAbsoluteFile(url);
+						} else if (ImageUtil.isImagesOnFS()) {
+							url = ImageUtil.generateFileUrl(virtualWiki, filename, null);
+							uploadedFile = ImageUtil.buildAbsoluteFile(url);
+							ImageUtil.writeUploadedFile(in, uploadedFile);
+						} else {
+							url = ImageUtil.generateFileUrl(virtualWiki, filename, null);
+							// only the last file in the request is used
+							this.deleteSpool(spool);
+							spool = new DeferredFileOutputStream(SPOOL_THRESHOLD, "upload", ".tmp", WikiUtil.getTempDirectory());
+							try {
+								IOUtils.copyLarge(in, spool);
+							} finally {
+								spool.close();
+							}
+						}
+					} finally {
+						IOUtils.closeQuietly(in);
+					}
+					fileSize = in.getByteCount();
+					dimensions = detector.detectDimensions();
+					if (dimensions != null) {
+						isImage = (dimensions.width > 0);
+					} else if (uploadedFile != null) {
+						// header could not be parsed, so read the image headers from the file
+						isImage = ImageUtil.isImage(uploadedFile);
+					}
 				}
-				continue;
+			} catch (FileUploadBase.FileUploadIOException e) {
+				// thrown while reading an upload that exceeds the maximum size
+				throw new WikiException(new WikiMessage("error.unknown", e.getCause().getMessage()), e);
+			} catch (FileUploadException e) {
+				throw new WikiException(new WikiMessage("error.unknown", e.getMessage()), e);
 			}
-			// file name can have encoding issues, so manually convert
-			filename = fileItem.getName();
-			if (filename == null) {
-				throw new WikiException(new WikiMessage("upload.error.filename"));
+			if ((ImageUtil.isImagesOnFS() && uploadedFile == null) || (!ImageUtil.isImagesOnFS() && spool == null)) {
+				throw new WikiException(new WikiMessage("upload.error.filenotfound"));
 			}
-			filename = ImageUtil.sanitizeFilename(filename);
-			url = ImageUtil.generateFileUrl(virtualWiki, filename, null);
-			if (!ImageUtil.isFileTypeAllowed(filename)) {
-				String extension = FilenameUtils.getExtension(filename);
-				throw new WikiException(new WikiMessage("upload.error.filetype", extension));
+			destinationFilename = processDestinationFilename(virtualWiki, destinationFilename, filename);
+			String pageName = ImageUtil.generateFilePageName((!StringUtils.isEmpty(destinationFilename) ? destinationFilename : filename));
+			if (this.handleSpam(request, pageInfo, pageName, contents, null)) {
+				if (pendingContentUrl != null) {
+					// the content may be shared with other uploads, so only delete
+					// it if it is not referenced
+					ContentAddressedStorage.rollback(pendingContentUrl);
+					pendingContentUrl = null;
+				} else if (ImageUtil.isImagesOnFS()) {
+					// delete the spam file
+					uploadedFile.delete();
+				}
+				this.view(request, next, pageInfo);
+				next.addObject("contents", contents);
+				return;
 			}
-			fileSize = fileItem.getSize();
-			contentType = fileItem.getContentType();
-			if (ImageUtil.isImagesOnFS()) {
-				uploadedFile = ImageUtil.buildAbsoluteFile(url);
-				fileItem.write(uploadedFile);
-				isImage = ImageUtil.isImage(uploadedFile);
-			} else {
-				buff = fileItem.get();
+			if (!StringUtils.isEmpty(destinationFilename)) {
+				// rename the uploaded file if a destination file name was specified
+				filename = ImageUtil.sanitizeFilename(destinationFilename);
+				if (pendingContentUrl != null) {
+					// content-addressed file URLs only depend on the file extension
+					url = ContentAddressedStorage.changeFilename(pendingContentUrl, filename);
+					pendingContentUrl = url;
+					uploadedFile = ImageUtil.buildAbsoluteFile(url);
+				} else if (ImageUtil.isImagesOnFS()) {
+					url = ImageUtil.generateFileUrl(virtualWiki, filename, null);
+					File renamedFile = ImageUtil.buildAbsoluteFile(url);
+					if (!uploadedFile.renameTo(renamedFile)) {
+						throw new WikiException(new WikiMessage("upload.error.filerename", destinationFilename));
+					}
+				}
 			}
-		}
-		if (ImageUtil.isImagesOnFS() && uploadedFile == null) {
-			throw new WikiException(new WikiMessage("upload.error.filenotfound"));
-		}
-		destinationFilename = processDestinationFilename(virtualWiki, destinationFilename, filename);
-		String pageName = ImageUtil.generateFilePageName((!StringUtils.isEmpty(destinationFilename) ? destinationFilename : filename));
-		if (this.handleSpam(request, pageInfo, pageName, contents, null)) {
-			if (ImageUtil.isImagesOnFS()) {
-				// delete the spam file
-				uploadedFile.delete();
+			if (!ImageUtil.isImagesOnFS()) {
+				imageData = processImageData(contentType, spool, dimensions);
+				isImage = (imageData.width >= 0);
 			}
-			this.view(request, next, pageInfo);
-			next.addObject("contents", contents);
-			return;
-		}
-		if (!StringUtils.isEmpty(destinationFilename)) {
-			// rename the uploaded file if a destination file name was specified
-			filename = ImageUtil.sanitizeFilename(destinationFilename);
-			url = ImageUtil.generateFileUrl(virtualWiki, filename, null);
-			if (ImageUtil.isImagesOnFS()) {
-				File renamedFile = ImageUtil.buildAbsoluteFile(url);
-				if (!uploadedFile.renameTo(renamedFile)) {
-					throw new WikiException(new WikiMessage("upload.error.filerename", destinationFilename));
-				}
+			String ipAddress = ServletUtil.getIpAddress(request);
+			WikiUser user = ServletUtil.currentWikiUser();
+			Topic topic = ImageUtil.writeImageTopic(virtualWiki, pageName, contents, user, isImage, ipAddress);
+			WikiFileVersion wikiFileVersion = new WikiFileVersion();
+			wikiFileVersion.setUploadComment(topic.getTopicContent());
+			if (dimensions != null) {
+				// store the detected type so that it never needs to be read from the file
+				wikiFileVersion.setImageWidth(dimensions.width);
+				wikiFileVersion.setImageHeight(dimensions.height);
+			}
+			ImageUtil.writeWikiFile(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData);
+			if (pendingContentUrl != null) {
+				ContentAddressedStorage.commit(pendingContentUrl);
+				pendingContentUrl = null;
+			}
+			ServletUtil.redirect(next, virtualWiki, topic.getName());
+		} finally {
+			if (pendingContentUrl != null) {
+				// upload failed, so release the stored content
+				ContentAddressedStorage.rollback(pendingContentUrl);
 			}
+			if (imageData != null) {
+				IOUtils.closeQuietly(imageData.dataStream);
+			}
+			this.deleteSpool(spool);
 		}
-		ImageData imageData = null;
-		if (!ImageUtil.isImagesOnFS()) {
-			imageData = processImageData(contentType, buff);
-			isImage = (imageData.width >= 0);
+	}
+
+	/**
+	 * Delete the temporary file used to hold an upload that is stored in the
+	 * database, if one was created.
+	 */
+	private void deleteSpool(DeferredFileOutputStream spool) {
+		if (spool != null && spool.getFile() != null) {
+			FileUtils.deleteQuietly(spool.getFile());
 		}
-		String ipAddress = ServletUtil.getIpAddress(request);
-		WikiUser user = ServletUtil.currentWikiUser();
-		Topic topic = ImageUtil.writeImageTopic(virtualWiki, pageName, contents, user, isImage, ipAddress);
-		WikiFileVersion wikiFileVersion = new WikiFileVersion();
-		wikiFileVersion.setUploadComment(topic.getTopicContent());
-		ImageUtil.writeWikiFile(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData);
-		ServletUtil.redirect(next, virtualWiki, topic.getName());
 	}
 
 	/**
+	 * Create an ImageData object for an upload that is stored in the database.
+	 * If the image dimensions were not detected while the upload was read then
+	 * the image headers are read to determine them, and uploads that were too
+	 * large to hold in memory are read from their temporary file when written
+	 * to the database.
+	 *
 	 * @return ImageData object from uploaded binary data.
 	 */
-	private ImageData processImageData(String contentType, byte buff[]) {
-		int width = -1;
-		int height = -1; 
-		try {
-			BufferedImage image = ImageIO.read(new ByteArrayInputStream(buff));
-			if (image != null) {
-				width = image.getWidth ();
-				height = image.getHeight();
+	private ImageData processImageData(String contentType, DeferredFileOutputStream spool, Dimension dimensions) throws IOException {
+		if (dimensions == null) {
+			InputStream in = (spool.isInMemory()) ? new ByteArrayInputStream(spool.getData()) : new FileInputStream(spool.getFile());
+			try {
+				dimensions = ImageUtil.retrieveImageDimensions(in);
+			} finally {
+				IOUtils.closeQuietly(in);
 			}
-		} catch (IOException e) {
-			logger.info("Failure while processing image", e);
 		}
-		return new ImageData(contentType, width, height, buff);
+		int width = (dimensions.width > 0) ? dimensions.width : -1;
+		int height = (dimensions.width > 0) ? dimensions.height : -1;
+		if (spool.isInMemory()) {
+			return new ImageData(contentType, width, height, spool.getData());
+		}
+		return new ImageData(contentType, width, height, new FileInputStream(spool.getFile()), (int)spool.getFile().length());
 	}
 
 	/**
@@ -18,6 +18,7 @@ package org.jamwiki.taglib;
 
 import java.io.IOException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.TagSupport;
 import org.apache.commons.lang3.StringUtils;
@@ -73,10 +74,12 @@ public class AuthMsgTag extends TagSupport {
 	 */
 	private String processSpringSecurityException() throws JspException {
 		HttpServletRequest request = (HttpServletRequest)this.pageContext.getRequest();
-		if (request.getSession().getAttribute(JAMWikiAuthenticationConstants.JAMWIKI_ACCESS_DENIED_ERROR_KEY) != null) {
+		// do not create a session if one does not already exist
+		HttpSession session = request.getSession(false);
+		if (session != null && session.getAttribute(JAMWikiAuthenticationConstants.JAMWIKI_ACCESS_DENIED_ERROR_KEY) != null) {
 			return this.processAccessDeniedException(request);
 		}
-		if (request.getSession().getAttribute(JAMWikiAuthenticationConstants.JAMWIKI_AUTHENTICATION_REQUIRED_KEY) != null) {
+		if (session != null && session.getAttribute(JAMWikiAuthenticationConstants.JAMWIKI_AUTHENTICATION_REQUIRED_KEY) != null) {
 			return this.processAuthenticationRequiredException(request);
 		}
 		if (request.getParameter("message") != null) {
@@ -20,6 +20,7 @@ import java.io.IOException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.tagext.BodyTagSupport;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.WikiLink;
@@ -35,6 +36,7 @@ public class PaginationTag extends BodyTagSupport {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(PaginationTag.class.getName());
 
+	private String cursor = null;
 	private String rootUrl = null;
 	private String total = null;
 
@@ -79,6 +81,13 @@ public class PaginationTag extends BodyTagSupport {
 		return output;
 	}
 
+	/**
+	 *
+	 */
+	public String getCursor() {
+		return this.cursor;
+	}
+
 	/**
 	 *
 	 */
@@ -105,7 +114,10 @@ public class PaginationTag extends BodyTagSupport {
 			output.append(Utilities.formatMessage("common.pagination.previous", request.getLocale(), objects));
 			return output;
 		}
-		if (pagination.getNumResults() != count && !previous) {
+		// when a cursor is provided it determines whether there is a next page,
+		// otherwise assume that a full page of results means more are available
+		boolean hasNext = (this.cursor != null) ? !StringUtils.isBlank(this.cursor) : (pagination.getNumResults() == count);
+		if (!hasNext && !previous) {
 			output.append(Utilities.formatMessage("common.pagination.next", request.getLocale(), objects));
 			return output;
 		}
@@ -121,6 +133,9 @@ public class PaginationTag extends BodyTagSupport {
 		}
 		String query = LinkUtil.appendQueryParam(wikiLink.getQuery(), "num", Integer.toString(pagination.getNumResults()));
 		query += "&amp;offset=" + offset;
+		if (!previous && !StringUtils.isBlank(this.cursor)) {
+			query = LinkUtil.appendQueryParam(query, "after", this.cursor);
+		}
 		wikiLink.setQuery(query);
 		try {
 			output.append(LinkUtil.buildTopicUrl(wikiLink));
@@ -175,6 +190,14 @@ public class PaginationTag extends BodyTagSupport {
 		return output.toString();
 	}
 
+	/**
+	 * Set an optional search cursor to pass with the "next" link.  If this value
+	 * is set but empty then no "next" link is displayed.
+	 */
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
 	/**
 	 *
 	 */
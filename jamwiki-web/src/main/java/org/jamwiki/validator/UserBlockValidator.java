@@ -45,7 +45,7 @@ public class UserBlockValidator implements RequestValidator {
 		Integer wikiUserId = (wikiUser.getUserId() > 0) ? wikiUser.getUserId() : null;
 		UserBlock userBlock = null;
 		try {
-			userBlock = WikiBase.getDataHandler().lookupUserBlock(wikiUserId, request.getRemoteAddr());
+			userBlock = WikiBase.getDataHandler().lookupUserBlock(wikiUserId, ServletUtil.getIpAddress(request));
 		} catch (DataAccessException e) {
 			logger.error("Data access exception while retrieving user block status, e");
 		}
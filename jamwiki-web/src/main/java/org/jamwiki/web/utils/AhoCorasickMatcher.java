@@ -0,0 +1,209 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton that finds occurrences of any of a set of literal
+ * strings in a single linear pass over the text being searched, regardless of
+ * the number of strings.  Matching is case-insensitive for US-ASCII characters
+ * only, consistent with regular expressions compiled using
+ * <code>Pattern.CASE_INSENSITIVE</code>.
+ *
+ * Instances are immutable once constructed and may be shared between threads.
+ */
+class AhoCorasickMatcher {
+
+	/** Sorted transition characters for each node. */
+	private final char[][] keys;
+	/** Target nodes for each transition, in the same order as the keys. */
+	private final int[][] targets;
+	/** Node to fall back to when no transition exists for a character. */
+	private final int[] failures;
+	/** Index of the pattern ending at each node, or -1. */
+	private final int[] outputs;
+	/** Nearest node along the failure chain with an output, or -1. */
+	private final int[] outputLinks;
+	private final int[] patternLengths;
+
+	/**
+	 * Build an automaton for the given list of patterns.  Patterns are
+	 * identified by their position in the list; empty or duplicate patterns
+	 * are never reported.
+	 */
+	AhoCorasickMatcher(List<String> patterns) {
+		List<Map<Character, Integer>> trie = new ArrayList<Map<Character, Integer>>();
+		List<Integer> trieOutputs = new ArrayList<Integer>();
+		trie.add(new HashMap<Character, Integer>());
+		trieOutputs.add(-1);
+		this.patternLengths = new int[patterns.size()];
+		for (int i = 0; i < patterns.size(); i++) {
+			String pattern = patterns.get(i);
+			this.patternLengths[i] = pattern.length();
+			if (pattern.length() == 0) {
+				continue;
+			}
+			int node = 0;
+			for (int j = 0; j < pattern.length(); j++) {
+				Character c = fold(pattern.charAt(j));
+				Integer next = trie.get(node).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.add(new HashMap<Character, Integer>());
+					trieOutputs.add(-1);
+					trie.get(node).put(c, next);
+				}
+				node = next;
+			}
+			if (trieOutputs.get(node) == -1) {
+				trieOutputs.set(node, i);
+			}
+		}
+		int size = trie.size();
+		this.keys = new char[size][];
+		this.targets = new int[size][];
+		this.failures = new int[size];
+		this.outputs = new int[size];
+		this.outputLinks = new int[size];
+		for (int node = 0; node < size; node++) {
+			Map<Character, Integer> transitions = trie.get(node);
+			char[] nodeKeys = new char[transitions.size()];
+			int i = 0;
+			for (Character c : transitions.keySet()) {
+				nodeKeys[i++] = c;
+			}
+			Arrays.sort(nodeKeys);
+			int[] nodeTargets = new int[nodeKeys.length];
+			for (i = 0; i < nodeKeys.length; i++) {
+				nodeTargets[i] = transitions.get(nodeKeys[i]);
+			}
+			this.keys[node] = nodeKeys;
+			this.targets[node] = nodeTargets;
+			this.outputs[node] = trieOutputs.get(node);
+		}
+		this.buildFailures();
+	}
+
+	/**
+	 * Compute failure and output links using a breadth-first traversal so
+	 * that the links of shallower nodes are available when processing their
+	 * children.
+	 */
+	private void buildFailures() {
+		int[] queue = new int[this.keys.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = 0;
+		this.outputLinks[0] = -1;
+		while (head < tail) {
+			int node = queue[head++];
+			for (int i = 0; i < this.keys[node].length; i++) {
+				char c = this.keys[node][i];
+				int child = this.targets[node][i];
+				int failure = this.failures[node];
+				while (failure != 0 && this.transition(failure, c) == -1) {
+					failure = this.failures[failure];
+				}
+				int target = this.transition(failure, c);
+				failure = (target == -1 || target == child) ? 0 : target;
+				this.failures[child] = failure;
+				this.outputLinks[child] = (this.outputs[failure] != -1) ? failure : this.outputLinks[failure];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Search the text for the first occurrence of any pattern, returning the
+	 * matching text (in its original case) or <code>null</code> if no pattern
+	 * occurs in the text.  If several patterns match, the match that ends
+	 * earliest in the text is returned.
+	 */
+	String find(String text) {
+		int node = 0;
+		for (int i = 0; i < text.length(); i++) {
+			node = this.step(node, text.charAt(i));
+			int match = (this.outputs[node] != -1) ? node : this.outputLinks[node];
+			if (match != -1) {
+				return text.substring(i + 1 - this.patternLengths[this.outputs[match]], i + 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Search the text for all patterns, returning a set containing the index
+	 * of each pattern that occurs in the text at least once.
+	 */
+	BitSet findAll(String text) {
+		BitSet result = new BitSet(this.patternLengths.length);
+		int node = 0;
+		for (int i = 0; i < text.length(); i++) {
+			node = this.step(node, text.charAt(i));
+			int match = (this.outputs[node] != -1) ? node : this.outputLinks[node];
+			while (match != -1) {
+				result.set(this.outputs[match]);
+				match = this.outputLinks[match];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Convert US-ASCII upper-case characters to lower-case.  Other characters
+	 * are returned unchanged.
+	 */
+	static char fold(char c) {
+		return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Return the number of nodes in the automaton.
+	 */
+	int size() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Advance the automaton by one character, following failure links until
+	 * a node with a matching transition (or the root) is found.
+	 */
+	private int step(int node, char c) {
+		c = fold(c);
+		int next = this.transition(node, c);
+		while (next == -1 && node != 0) {
+			node = this.failures[node];
+			next = this.transition(node, c);
+		}
+		return (next == -1) ? 0 : next;
+	}
+
+	/**
+	 * Return the target of the transition from a node for a character, or -1
+	 * if no such transition exists.
+	 */
+	private int transition(int node, char c) {
+		int position = Arrays.binarySearch(this.keys[node], c);
+		return (position < 0) ? -1 : this.targets[node][position];
+	}
+}
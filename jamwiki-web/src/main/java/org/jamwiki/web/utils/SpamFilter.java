@@ -17,10 +17,15 @@
 package org.jamwiki.web.utils;
 
 import java.io.File;
-import java.util.regex.PatternSyntaxException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.DataAccessException;
@@ -31,14 +36,24 @@ import org.jamwiki.utils.WikiLogger;
 /**
  * Provide the capability for filtering content based on a predefined list of
  * regular expressions.
+ *
+ * Most blacklist entries are plain strings (typically escaped domain names),
+ * and these are matched together using an Aho-Corasick automaton in a single
+ * pass over the content.  The remaining entries are compiled as individual
+ * regular expressions; where an expression requires a literal string to be
+ * present in any match, that string is used as a prefilter so that the
+ * expression is only evaluated against content that could possibly match.
  */
 public class SpamFilter {
 
 	/** Logger */
 	public static final WikiLogger logger = WikiLogger.getLogger(SpamFilter.class.getName());
+	/** Characters that have special meaning when not escaped in a regular expression. */
+	private static final String REGEX_METACHARACTERS = "\\[](){}*+?.|^$";
 	/** Spam blacklist file name. */
 	private static final String SPAM_BLACKLIST_FILE = "spam-blacklist.txt";
-	private static Pattern spamRegexPattern = null;
+	/** The active blacklist.  Reloading replaces the blacklist in a single assignment. */
+	private static volatile CompiledBlacklist blacklist = null;
 
 	/**
 	 *
@@ -65,14 +80,7 @@ public class SpamFilter {
 			return null;
 		}
 		long start = System.currentTimeMillis();
-		if (spamRegexPattern == null) {
-			SpamFilter.initialize();
-		}
-		Matcher m = spamRegexPattern.matcher(content);
-		String result = null;
-		if (m.find()) {
-			result = m.group(0);
-		}
+		String result = SpamFilter.getBlacklist().find(content);
 		if (logger.isDebugEnabled()) {
 			long execution = System.currentTimeMillis() - start;
 			logger.debug("Executed spam filter (" + (execution / 1000.000) + " s.)");
@@ -80,50 +88,415 @@ public class SpamFilter {
 		return result;
 	}
 
+	/**
+	 * Return the active blacklist, loading it if it has not yet been
+	 * initialized.
+	 */
+	private static CompiledBlacklist getBlacklist() throws DataAccessException {
+		CompiledBlacklist current = blacklist;
+		if (current == null) {
+			synchronized (SpamFilter.class) {
+				if (blacklist == null) {
+					blacklist = SpamFilter.initialize();
+				}
+				current = blacklist;
+			}
+		}
+		return current;
+	}
+
 	/**
 	 *
 	 */
-	private static void initialize() throws DataAccessException {
+	private static CompiledBlacklist initialize() throws DataAccessException {
 		File file = null;
 		try {
 			file = ResourceUtil.getJAMWikiResourceFile(SPAM_BLACKLIST_FILE);
 		} catch (IOException e) {
 			throw new DataAccessException("I/O exception while initlaizing spam blacklist", e);
 		}
-		String regex = "";
 		String regexText = null;
 		try {
 			regexText = FileUtils.readFileToString(file, "UTF-8").trim();
 		} catch (IOException e) {
 			throw new DataAccessException("I/O exception while initlaizing spam blacklist", e);
 		}
+		List<String> entries = new ArrayList<String>();
 		String[] tokens = regexText.split("\n");
 		for (int i = 0; i < tokens.length; i++) {
 			String token = tokens[i];
 			if (StringUtils.isBlank(token)) {
 				continue;
 			}
-			if (i > 0) {
-				regex += "|";
-			}
-			regex += token.trim();
+			entries.add(token.trim());
 		}
+		CompiledBlacklist result = null;
 		try {
-			spamRegexPattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			result = new CompiledBlacklist(entries);
 		} catch (PatternSyntaxException e) {
 			throw new DataAccessException("Failure while parsing spam regular expression list", e);
 		}
-		logger.info("Loading spam filter regular expressions from " + file.getAbsolutePath());
+		logger.info("Loading spam filter regular expressions from " + file.getAbsolutePath() + " (" + result.getLiteralCount() + " literal entries, " + result.getPatternCount() + " regular expressions)");
+		return result;
 	}
 
 	/**
 	 * Reload the spam-blacklist.txt file, updating the current spam regular
-	 * expression patterns.
+	 * expression patterns.  The new blacklist is compiled before it replaces
+	 * the current blacklist, so content checks that are in progress are not
+	 * affected and the current blacklist remains active if the reload fails.
 	 *
 	 * @throws DataAccessException Thrown if any error occurs while reading or compiling
 	 *  the spam filter regular expressions.
 	 */
 	public static void reload() throws DataAccessException {
-		SpamFilter.initialize();
+		blacklist = SpamFilter.initialize();
+	}
+
+	/**
+	 * Determine the longest literal string that must be present in any text
+	 * matched by a regular expression, ignoring case.  This method is
+	 * conservative, and returns <code>null</code> if no such string can be
+	 * found or if the expression uses any construct that it does not
+	 * understand.
+	 */
+	protected static String requiredLiteral(String regex) {
+		try {
+			String result = new RequiredLiteralParser(regex).parse();
+			return (result.length() == 0) ? null : result;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * If a blacklist entry matches only a single literal string then return
+	 * that string with any escaping removed, otherwise return
+	 * <code>null</code>.
+	 */
+	protected static String unescapeLiteral(String entry) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < entry.length(); i++) {
+			char c = entry.charAt(i);
+			if (c == '\\') {
+				i++;
+				if (i >= entry.length() || Character.isLetterOrDigit(entry.charAt(i))) {
+					// character classes, back references, quoting, etc
+					return null;
+				}
+				result.append(entry.charAt(i));
+			} else if (REGEX_METACHARACTERS.indexOf(c) != -1) {
+				return null;
+			} else {
+				result.append(c);
+			}
+		}
+		return (result.length() == 0) ? null : result.toString();
+	}
+
+	/**
+	 * Compiled form of the spam blacklist.  Instances are immutable and may be
+	 * shared between threads.
+	 */
+	static final class CompiledBlacklist {
+
+		private final AhoCorasickMatcher literalMatcher;
+		private final int literalCount;
+		private final Pattern[] patterns;
+		/** For each pattern, the index of its prefilter literal, or -1 if the pattern must always be evaluated. */
+		private final int[] prefilters;
+		private final AhoCorasickMatcher prefilterMatcher;
+
+		/**
+		 * @throws PatternSyntaxException Thrown if any entry is not a valid
+		 *  regular expression.
+		 */
+		CompiledBlacklist(List<String> entries) {
+			List<String> literals = new ArrayList<String>();
+			List<Pattern> patternList = new ArrayList<Pattern>();
+			List<Integer> prefilterList = new ArrayList<Integer>();
+			Map<String, Integer> prefilterLiterals = new LinkedHashMap<String, Integer>();
+			for (String entry : entries) {
+				String literal = SpamFilter.unescapeLiteral(entry);
+				if (literal != null) {
+					literals.add(literal);
+					continue;
+				}
+				patternList.add(Pattern.compile(entry, Pattern.CASE_INSENSITIVE));
+				String prefilter = SpamFilter.requiredLiteral(entry);
+				if (prefilter == null) {
+					prefilterList.add(-1);
+					continue;
+				}
+				Integer index = prefilterLiterals.get(prefilter);
+				if (index == null) {
+					index = prefilterLiterals.size();
+					prefilterLiterals.put(prefilter, index);
+				}
+				prefilterList.add(index);
+			}
+			this.literalCount = literals.size();
+			this.literalMatcher = (literals.isEmpty()) ? null : new AhoCorasickMatcher(literals);
+			this.patterns = patternList.toArray(new Pattern[patternList.size()]);
+			this.prefilters = new int[prefilterList.size()];
+			for (int i = 0; i < this.prefilters.length; i++) {
+				this.prefilters[i] = prefilterList.get(i);
+			}
+			this.prefilterMatcher = (prefilterLiterals.isEmpty()) ? null : new AhoCorasickMatcher(new ArrayList<String>(prefilterLiterals.keySet()));
+		}
+
+		/**
+		 * Return the text of the first blacklist match found in the content,
+		 * or <code>null</code> if the content does not match any entry.
+		 */
+		String find(String content) {
+			if (this.literalMatcher != null) {
+				String result = this.literalMatcher.find(content);
+				if (result != null) {
+					return result;
+				}
+			}
+			if (this.patterns.length == 0) {
+				return null;
+			}
+			BitSet candidates = (this.prefilterMatcher == null) ? new BitSet() : this.prefilterMatcher.findAll(content);
+			for (int i = 0; i < this.patterns.length; i++) {
+				if (this.prefilters[i] != -1 && !candidates.get(this.prefilters[i])) {
+					continue;
+				}
+				Matcher matcher = this.patterns[i].matcher(content);
+				if (matcher.find()) {
+					return matcher.group(0);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Return the number of blacklist entries matched as literal strings.
+		 */
+		int getLiteralCount() {
+			return this.literalCount;
+		}
+
+		/**
+		 * Return the number of blacklist entries matched as regular expressions.
+		 */
+		int getPatternCount() {
+			return this.patterns.length;
+		}
+	}
+
+	/**
+	 * Minimal recursive descent parser that finds the longest literal string
+	 * required by a regular expression.  Alternations, optional elements and
+	 * character classes end a literal run, and any construct that is not
+	 * understood results in an <code>IllegalArgumentException</code>.
+	 */
+	private static final class RequiredLiteralParser {
+
+		private int position = 0;
+		private final String regex;
+
+		/**
+		 *
+		 */
+		RequiredLiteralParser(String regex) {
+			this.regex = regex;
+		}
+
+		/**
+		 *
+		 */
+		private String longer(String best, StringBuilder run) {
+			String candidate = run.toString();
+			run.setLength(0);
+			return (candidate.length() > best.length()) ? candidate : best;
+		}
+
+		/**
+		 *
+		 */
+		String parse() {
+			String result = this.parseSequence(false);
+			if (this.position != this.regex.length()) {
+				throw new IllegalArgumentException("Unbalanced group in " + this.regex);
+			}
+			return result;
+		}
+
+		/**
+		 * Parse the opening of a group, returning <code>true</code> if the
+		 * group content must be present in any match.  Groups that change
+		 * matching flags are not supported.
+		 */
+		private boolean parseGroupStart() {
+			this.position++;
+			String[] required = {"?:", "?=", "?>", "?<="};
+			for (String prefix : required) {
+				if (this.regex.startsWith(prefix, this.position)) {
+					this.position += prefix.length();
+					return true;
+				}
+			}
+			String[] optional = {"?!", "?<!"};
+			for (String prefix : optional) {
+				if (this.regex.startsWith(prefix, this.position)) {
+					this.position += prefix.length();
+					return false;
+				}
+			}
+			if (this.regex.startsWith("?", this.position)) {
+				throw new IllegalArgumentException("Unsupported group in " + this.regex);
+			}
+			return true;
+		}
+
+		/**
+		 * Parse a quantifier at the current position, returning the minimum
+		 * number of repetitions or -1 if there is no quantifier.
+		 */
+		private int parseQuantifier() {
+			if (this.position >= this.regex.length()) {
+				return -1;
+			}
+			int result;
+			char c = this.regex.charAt(this.position);
+			if (c == '?' || c == '*') {
+				result = 0;
+				this.position++;
+			} else if (c == '+') {
+				result = 1;
+				this.position++;
+			} else if (c == '{') {
+				int end = this.regex.indexOf('}', this.position);
+				if (end == -1) {
+					throw new IllegalArgumentException("Invalid quantifier in " + this.regex);
+				}
+				String minimum = StringUtils.substringBefore(this.regex.substring(this.position + 1, end), ",");
+				if (minimum.length() == 0 || !StringUtils.isNumeric(minimum)) {
+					throw new IllegalArgumentException("Invalid quantifier in " + this.regex);
+				}
+				result = Integer.parseInt(minimum);
+				this.position = end + 1;
+			} else {
+				return -1;
+			}
+			// reluctant and possessive quantifiers
+			if (this.position < this.regex.length() && (this.regex.charAt(this.position) == '?' || this.regex.charAt(this.position) == '+')) {
+				this.position++;
+			}
+			return result;
+		}
+
+		/**
+		 * Parse a sequence of elements up to the end of the expression or the
+		 * end of the enclosing group, returning the longest required literal
+		 * or an empty string if the sequence contains an alternation.
+		 */
+		private String parseSequence(boolean nested) {
+			String best = "";
+			StringBuilder run = new StringBuilder();
+			boolean alternation = false;
+			while (this.position < this.regex.length()) {
+				char c = this.regex.charAt(this.position);
+				if (c == ')') {
+					if (!nested) {
+						throw new IllegalArgumentException("Unbalanced group in " + this.regex);
+					}
+					break;
+				}
+				if (c == '|') {
+					alternation = true;
+					best = this.longer(best, run);
+					this.position++;
+					continue;
+				}
+				if (c == '(') {
+					best = this.longer(best, run);
+					boolean required = this.parseGroupStart();
+					String group = this.parseSequence(true);
+					if (this.position >= this.regex.length()) {
+						throw new IllegalArgumentException("Unbalanced group in " + this.regex);
+					}
+					this.position++;
+					int minimum = this.parseQuantifier();
+					if (required && minimum != 0) {
+						best = (group.length() > best.length()) ? group : best;
+					}
+					continue;
+				}
+				if (c == '[' || c == '.' || c == '^' || c == '$') {
+					best = this.longer(best, run);
+					if (c == '[') {
+						this.skipCharacterClass();
+					} else {
+						this.position++;
+					}
+					this.parseQuantifier();
+					continue;
+				}
+				if (c == '*' || c == '+' || c == '?' || c == '{') {
+					throw new IllegalArgumentException("Dangling quantifier in " + this.regex);
+				}
+				char literal = c;
+				if (c == '\\') {
+					if (this.position + 1 >= this.regex.length()) {
+						throw new IllegalArgumentException("Trailing escape in " + this.regex);
+					}
+					literal = this.regex.charAt(this.position + 1);
+					if (Character.isLetterOrDigit(literal)) {
+						if ("bBdDsSwWAGZz".indexOf(literal) == -1) {
+							throw new IllegalArgumentException("Unsupported escape in " + this.regex);
+						}
+						// character class or boundary
+						best = this.longer(best, run);
+						this.position += 2;
+						this.parseQuantifier();
+						continue;
+					}
+					this.position++;
+				}
+				this.position++;
+				int minimum = this.parseQuantifier();
+				if (minimum == -1) {
+					run.append(literal);
+					continue;
+				}
+				if (minimum > 0) {
+					run.append(literal);
+				}
+				best = this.longer(best, run);
+			}
+			best = this.longer(best, run);
+			return (alternation) ? "" : best;
+		}
+
+		/**
+		 * Skip over a character class, including any nested classes.
+		 */
+		private void skipCharacterClass() {
+			this.position++;
+			if (this.position < this.regex.length() && this.regex.charAt(this.position) == '^') {
+				this.position++;
+			}
+			if (this.position < this.regex.length() && this.regex.charAt(this.position) == ']') {
+				this.position++;
+			}
+			while (this.position < this.regex.length()) {
+				char c = this.regex.charAt(this.position);
+				if (c == '\\') {
+					this.position += 2;
+				} else if (c == '[') {
+					this.skipCharacterClass();
+				} else if (c == ']') {
+					this.position++;
+					return;
+				} else {
+					this.position++;
+				}
+			}
+			throw new IllegalArgumentException("Unterminated character class in " + this.regex);
+		}
 	}
 }
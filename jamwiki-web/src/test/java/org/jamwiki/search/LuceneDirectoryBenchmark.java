@@ -0,0 +1,130 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.io.File;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.jamwiki.WikiBase;
+
+/**
+ * Simple benchmark comparing indexing and search throughput for each of the
+ * supported search index directory types.  This class is not a unit test and
+ * is not run as part of the build; run it manually using the test classpath:
+ *
+ * <pre>
+ * java -cp ... org.jamwiki.search.LuceneDirectoryBenchmark [numDocs] [numQueries]
+ * </pre>
+ */
+public class LuceneDirectoryBenchmark {
+
+	private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango"};
+	private static final int WARMUP_ITERATIONS = 2;
+
+	/**
+	 *
+	 */
+	public static void main(String[] args) throws Exception {
+		int numDocs = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int numQueries = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+		for (WikiBase.SEARCH_DIRECTORY directoryType : WikiBase.SEARCH_DIRECTORY.values()) {
+			run(directoryType, false, numDocs, numQueries);
+			run(directoryType, true, numDocs, numQueries);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void run(WikiBase.SEARCH_DIRECTORY directoryType, boolean nrtCaching, int numDocs, int numQueries) throws Exception {
+		File path = new File(System.getProperty("java.io.tmpdir"), "jamwiki-directory-benchmark");
+		long indexTime = 0;
+		long searchTime = 0;
+		for (int i = 0; i <= WARMUP_ITERATIONS; i++) {
+			FileUtils.deleteDirectory(path);
+			path.mkdirs();
+			Directory directory = LuceneSearchEngine.openDirectory(directoryType, path, nrtCaching);
+			try {
+				long start = System.nanoTime();
+				IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(LuceneSearchEngine.USE_LUCENE_VERSION, new StandardAnalyzer(LuceneSearchEngine.USE_LUCENE_VERSION)));
+				index(writer, numDocs);
+				long indexed = System.nanoTime();
+				DirectoryReader reader = DirectoryReader.open(writer, true);
+				try {
+					search(new IndexSearcher(reader), numQueries);
+				} finally {
+					reader.close();
+					writer.close();
+				}
+				if (i == WARMUP_ITERATIONS) {
+					indexTime = indexed - start;
+					searchTime = System.nanoTime() - indexed;
+				}
+			} finally {
+				directory.close();
+			}
+		}
+		FileUtils.deleteDirectory(path);
+		System.out.println(directoryType + (nrtCaching ? " + NRT caching" : "") + ": indexed " + numDocs + " documents in " + (indexTime / 1000000) + " ms, executed " + numQueries + " queries in " + (searchTime / 1000000) + " ms");
+	}
+
+	/**
+	 *
+	 */
+	private static void index(IndexWriter writer, int numDocs) throws Exception {
+		Random random = new Random(42);
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < numDocs; i++) {
+			content.setLength(0);
+			for (int j = 0; j < 100; j++) {
+				content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			Document doc = new Document();
+			doc.add(new StringField(LuceneSearchEngine.FIELD_TOPIC_NAME, "Topic" + i, Field.Store.YES));
+			doc.add(new TextField(LuceneSearchEngine.FIELD_TOPIC_CONTENT, content.toString(), Field.Store.NO));
+			writer.addDocument(doc);
+		}
+		writer.commit();
+	}
+
+	/**
+	 *
+	 */
+	private static void search(IndexSearcher searcher, int numQueries) throws Exception {
+		Random random = new Random(42);
+		long totalHits = 0;
+		for (int i = 0; i < numQueries; i++) {
+			TermQuery query = new TermQuery(new Term(LuceneSearchEngine.FIELD_TOPIC_CONTENT, WORDS[random.nextInt(WORDS.length)]));
+			totalHits += searcher.search(query, 10).totalHits;
+		}
+		if (totalHits == 0) {
+			throw new IllegalStateException("Benchmark queries returned no results");
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class GzipResponseWrapperTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCompressedResponse() throws Throwable {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		GzipResponseWrapper wrapper = new GzipResponseWrapper(response);
+		wrapper.setContentType("text/html;charset=UTF-8");
+		wrapper.setHeader("ETag", "\"abc\"");
+		wrapper.setContentLength(11);
+		wrapper.getWriter().print("hello world");
+		wrapper.finish();
+		assertEquals("Content-Encoding not set", "gzip", response.getHeader("Content-Encoding"));
+		assertEquals("Incorrect ETag", "\"abc-gzip\"", response.getHeader("ETag"));
+		assertFalse("Content length set for compressed response", response.containsHeader("Content-Length"));
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()));
+		assertEquals("Incorrect content", "hello world", new String(IOUtils.toByteArray(gzip), "UTF-8"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUncompressedResponse() throws Throwable {
+		// binary content types are not compressed
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		GzipResponseWrapper wrapper = new GzipResponseWrapper(response);
+		wrapper.setContentType("image/png");
+		wrapper.setContentLength(3);
+		wrapper.getOutputStream().write(new byte[] {1, 2, 3});
+		wrapper.finish();
+		assertFalse("Binary content compressed", response.containsHeader("Content-Encoding"));
+		assertEquals("Content length not set", 3, response.getContentLength());
+		assertEquals("Incorrect content", 3, response.getContentAsByteArray().length);
+		// content that has already been encoded is passed through
+		response = new MockHttpServletResponse();
+		wrapper = new GzipResponseWrapper(response);
+		wrapper.setContentType("text/html;charset=UTF-8");
+		wrapper.setHeader("Content-Encoding", "gzip");
+		wrapper.setContentLength(3);
+		wrapper.getOutputStream().write(new byte[] {1, 2, 3});
+		wrapper.finish();
+		assertEquals("Content length not set", 3, response.getContentLength());
+		assertArrayEquals("Encoded content modified", new byte[] {1, 2, 3}, response.getContentAsByteArray());
+	}
+}
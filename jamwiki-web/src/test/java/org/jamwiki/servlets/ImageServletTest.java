@@ -0,0 +1,167 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import javax.servlet.http.HttpServletResponse;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageServletTest extends JAMWikiUnitTest {
+
+	private static final String CACHE_CONTROL = "public, max-age=0, must-revalidate";
+	private static final String ETAG = "\"12-0\"";
+	private static final long LAST_MODIFIED = 1350000000000L;
+	private static final long LENGTH = 10;
+
+	/**
+	 *
+	 */
+	private MockHttpServletRequest buildRangeRequest(String range) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/en/Special:Image");
+		if (range != null) {
+			request.addHeader("Range", range);
+		}
+		return request;
+	}
+
+	/**
+	 *
+	 */
+	private void assertRange(String range, long start, long end) {
+		long[] result = ImageServlet.parseRange(this.buildRangeRequest(range), ETAG, LAST_MODIFIED, LENGTH);
+		assertNotNull("No range returned for " + range, result);
+		assertEquals("Incorrect range for " + range, 2, result.length);
+		assertEquals("Incorrect range start for " + range, start, result[0]);
+		assertEquals("Incorrect range end for " + range, end, result[1]);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseRange() throws Throwable {
+		this.assertRange("bytes=0-4", 0, 4);
+		this.assertRange("bytes=2-100", 2, 9);
+		// open-ended range
+		this.assertRange("bytes=4-", 4, 9);
+		// suffix ranges
+		this.assertRange("bytes=-3", 7, 9);
+		this.assertRange("bytes=-50", 0, 9);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseRangeIfRange() throws Throwable {
+		MockHttpServletRequest request = this.buildRangeRequest("bytes=0-4");
+		request.addHeader("If-Range", ETAG);
+		assertNotNull("Matching If-Range ETag ignored", ImageServlet.parseRange(request, ETAG, LAST_MODIFIED, LENGTH));
+		request = this.buildRangeRequest("bytes=0-4");
+		request.addHeader("If-Range", "\"11-0\"");
+		assertNull("Range returned for non-matching If-Range ETag", ImageServlet.parseRange(request, ETAG, LAST_MODIFIED, LENGTH));
+		request = this.buildRangeRequest("bytes=0-4");
+		request.addHeader("If-Range", LAST_MODIFIED);
+		assertNotNull("Matching If-Range date ignored", ImageServlet.parseRange(request, ETAG, LAST_MODIFIED, LENGTH));
+		request = this.buildRangeRequest("bytes=0-4");
+		request.addHeader("If-Range", LAST_MODIFIED - 60000);
+		assertNull("Range returned for non-matching If-Range date", ImageServlet.parseRange(request, ETAG, LAST_MODIFIED, LENGTH));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseRangeInvalid() throws Throwable {
+		// malformed or unsupported headers return the entire file
+		String[] ignored = {null, "bytes=abc-def", "bytes=5", "items=0-4", "bytes=0-1,3-4", "bytes=1-x"};
+		for (String range : ignored) {
+			assertNull("Range returned for " + range, ImageServlet.parseRange(this.buildRangeRequest(range), ETAG, LAST_MODIFIED, LENGTH));
+		}
+		// valid but unsatisfiable ranges
+		String[] unsatisfiable = {"bytes=10-", "bytes=100-200", "bytes=5-2", "bytes=-0"};
+		for (String range : unsatisfiable) {
+			long[] result = ImageServlet.parseRange(this.buildRangeRequest(range), ETAG, LAST_MODIFIED, LENGTH);
+			assertNotNull("No result for " + range, result);
+			assertEquals("Range returned for " + range, 0, result.length);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrepareResponse() throws Throwable {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		long[] range = ImageServlet.prepareResponse(this.buildRangeRequest(null), response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL);
+		assertArrayEquals(new long[] {0, 9}, range);
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		assertEquals("image/png", response.getContentType());
+		assertEquals("10", response.getHeader("Content-Length"));
+		assertEquals("bytes", response.getHeader("Accept-Ranges"));
+		assertEquals(ETAG, response.getHeader("ETag"));
+		assertEquals(CACHE_CONTROL, response.getHeader("Cache-Control"));
+		assertEquals(Long.valueOf(LAST_MODIFIED), response.getHeaderValue("Last-Modified"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrepareResponseNotModified() throws Throwable {
+		MockHttpServletRequest request = this.buildRangeRequest("bytes=0-4");
+		request.addHeader("If-None-Match", ETAG);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertNull(ImageServlet.prepareResponse(request, response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		assertEquals(ETAG, response.getHeader("ETag"));
+		request = this.buildRangeRequest(null);
+		request.addHeader("If-Modified-Since", LAST_MODIFIED);
+		response = new MockHttpServletResponse();
+		assertNull(ImageServlet.prepareResponse(request, response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		// modified since the given date
+		request = this.buildRangeRequest(null);
+		request.addHeader("If-Modified-Since", LAST_MODIFIED - 60000);
+		response = new MockHttpServletResponse();
+		assertNotNull(ImageServlet.prepareResponse(request, response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL));
+		assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrepareResponseRange() throws Throwable {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		long[] range = ImageServlet.prepareResponse(this.buildRangeRequest("bytes=-4"), response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL);
+		assertArrayEquals(new long[] {6, 9}, range);
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		assertEquals("bytes 6-9/10", response.getHeader("Content-Range"));
+		assertEquals("4", response.getHeader("Content-Length"));
+		response = new MockHttpServletResponse();
+		assertNull(ImageServlet.prepareResponse(this.buildRangeRequest("bytes=20-"), response, "image/png", LENGTH, ETAG, LAST_MODIFIED, CACHE_CONTROL));
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+		assertEquals("bytes */10", response.getHeader("Content-Range"));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RateLimiterTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	private RateLimiter buildRateLimiter(int requestsPerMinute, int burst, int maxEntries) {
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setRequestsPerMinute(requestsPerMinute);
+		rateLimiter.setBurst(burst);
+		rateLimiter.setMaxEntries(maxEntries);
+		return rateLimiter;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTryAcquire() throws Throwable {
+		// one token per second, bucket holds three tokens
+		RateLimiter rateLimiter = this.buildRateLimiter(60, 3, 100);
+		assertEquals("First request rejected", 0, rateLimiter.tryAcquire("127.0.0.1", 1));
+		assertEquals("Burst request rejected", 0, rateLimiter.tryAcquire("127.0.0.1", 2));
+		long wait = rateLimiter.tryAcquire("127.0.0.1", 1);
+		assertTrue("Request beyond burst allowed", wait > 0);
+		assertTrue("Unexpected retry time " + wait, wait <= 1000);
+		assertEquals("Separate client rejected", 0, rateLimiter.tryAcquire("user:1", 1));
+		// costs larger than the burst size are capped
+		assertEquals("Expensive request rejected", 0, rateLimiter.tryAcquire("127.0.0.2", 10));
+		assertTrue("Request beyond burst allowed", rateLimiter.tryAcquire("127.0.0.2", 1) > 0);
+		// zero cost requests are never limited
+		assertEquals("Zero cost request rejected", 0, rateLimiter.tryAcquire("127.0.0.1", 0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisabled() throws Throwable {
+		RateLimiter rateLimiter = this.buildRateLimiter(0, 1, 100);
+		for (int i = 0; i < 10; i++) {
+			assertEquals("Disabled limiter rejected request", 0, rateLimiter.tryAcquire("127.0.0.1", 1));
+		}
+		assertEquals("Disabled limiter tracked client", 0, rateLimiter.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMaxEntries() throws Throwable {
+		RateLimiter rateLimiter = this.buildRateLimiter(1, 5, 10);
+		for (int i = 0; i < 100; i++) {
+			rateLimiter.tryAcquire("10.0.0." + i, 1);
+			assertTrue("Too many clients tracked", rateLimiter.size() <= 10);
+		}
+	}
+}
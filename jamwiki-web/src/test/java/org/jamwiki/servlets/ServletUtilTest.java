@@ -19,7 +19,64 @@
 package org.jamwiki.servlets;
 
 import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
 import static org.junit.Assert.*;
 
 public class ServletUtilTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testGzipETag() {
+		assertEquals("\"abc-gzip\"", ServletUtil.gzipETag("\"abc\""));
+		assertEquals("Gzip suffix added twice", "\"abc-gzip\"", ServletUtil.gzipETag("\"abc-gzip\""));
+		assertEquals("Weak ETag modified", "W/\"abc\"", ServletUtil.gzipETag("W/\"abc\""));
+		assertNull(ServletUtil.gzipETag(null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsNotModified() {
+		String etag = "\"abc\"";
+		long lastModified = 1000000000000L;
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/en/Topic");
+		assertFalse("No conditional headers", ServletUtil.isNotModified(request, etag, lastModified));
+		request.addHeader("If-None-Match", "\"xyz\", \"abc\"");
+		assertTrue("ETag in list not matched", ServletUtil.isNotModified(request, etag, lastModified));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("If-None-Match", "W/\"abc-gzip\"");
+		assertTrue("Weak gzip ETag not matched", ServletUtil.isNotModified(request, etag, lastModified));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("If-None-Match", "\"xyz\"");
+		request.addHeader("If-Modified-Since", lastModified);
+		assertFalse("If-Modified-Since used when If-None-Match present", ServletUtil.isNotModified(request, etag, lastModified));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("If-Modified-Since", lastModified);
+		assertTrue("Unchanged date not matched", ServletUtil.isNotModified(request, etag, lastModified));
+		assertFalse("Changed date matched", ServletUtil.isNotModified(request, etag, lastModified + 5000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsGzipAccepted() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/en/Topic");
+		assertFalse("No Accept-Encoding header", ServletUtil.isGzipAccepted(request));
+		request.addHeader("Accept-Encoding", "gzip, deflate");
+		assertTrue("gzip accepted", ServletUtil.isGzipAccepted(request));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("Accept-Encoding", "deflate, GZIP;q=0.5");
+		assertTrue("gzip with quality value accepted", ServletUtil.isGzipAccepted(request));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("Accept-Encoding", "gzip;q=0, deflate");
+		assertFalse("gzip with zero quality value accepted", ServletUtil.isGzipAccepted(request));
+		request = new MockHttpServletRequest("GET", "/en/Topic");
+		request.addHeader("Accept-Encoding", "x-gzip2, identity");
+		assertFalse("Unknown encoding treated as gzip", ServletUtil.isGzipAccepted(request));
+	}
 }
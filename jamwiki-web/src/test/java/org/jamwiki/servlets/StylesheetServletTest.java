@@ -0,0 +1,42 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class StylesheetServletTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMinify() throws Throwable {
+		assertEquals("a{color:red}", StylesheetServlet.minify("/* comment */\na {\n\tcolor: red;\n}\n"));
+		assertEquals("h1,h2>span{margin:0 auto}", StylesheetServlet.minify("h1 , h2 > span { margin: 0  auto ; }"));
+		// whitespace before a colon is significant in selectors
+		assertEquals("div :first-child{padding:0}", StylesheetServlet.minify("div :first-child { padding: 0 }"));
+		// quoted strings and escaped characters are not modified
+		assertEquals("a:after{content:\" /* x */  \\\" ;\"}", StylesheetServlet.minify("a:after { content: \" /* x */  \\\" ;\"; }"));
+		assertEquals(".a\\ b{width:calc(100% - 2px)}", StylesheetServlet.minify(".a\\ b { width: calc(100% - 2px) }"));
+		assertEquals("", StylesheetServlet.minify("  /* unterminated"));
+	}
+}
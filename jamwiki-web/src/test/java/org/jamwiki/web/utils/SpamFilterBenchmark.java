@@ -0,0 +1,117 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Simple benchmark comparing the spam filter blacklist matcher with the
+ * previous implementation, which joined all blacklist entries into a single
+ * regular expression alternation.  This class is not a unit test and is not
+ * run as part of the build; run it manually using the test classpath:
+ *
+ * <pre>
+ * java -cp ... org.jamwiki.web.utils.SpamFilterBenchmark [numEntries] [contentLength] [iterations]
+ * </pre>
+ */
+public class SpamFilterBenchmark {
+
+	private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango", "[[link]]", "http://www.example.com/", "'''bold'''", "{{template}}"};
+	private static final int WARMUP_ITERATIONS = 2;
+
+	/**
+	 *
+	 */
+	public static void main(String[] args) throws Exception {
+		int numEntries = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int contentLength = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+		int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+		List<String> entries = buildEntries(numEntries);
+		long start = System.nanoTime();
+		Pattern alternation = Pattern.compile(StringUtils.join(entries, "|"), Pattern.CASE_INSENSITIVE);
+		long alternationCompile = System.nanoTime() - start;
+		start = System.nanoTime();
+		SpamFilter.CompiledBlacklist blacklist = new SpamFilter.CompiledBlacklist(entries);
+		long blacklistCompile = System.nanoTime() - start;
+		System.out.println(numEntries + " entries: alternation compiled in " + (alternationCompile / 1000000) + " ms, blacklist compiled in " + (blacklistCompile / 1000000) + " ms (" + blacklist.getLiteralCount() + " literals, " + blacklist.getPatternCount() + " regular expressions)");
+		String clean = buildContent(contentLength);
+		String spam = clean + " cheap-pills" + (numEntries - 1) + ".example.com";
+		run("clean content", alternation, blacklist, clean, iterations);
+		run("spam at end of content", alternation, blacklist, spam, iterations);
+	}
+
+	/**
+	 * Build content of the requested length that does not match any entry.
+	 */
+	private static String buildContent(int contentLength) {
+		Random random = new Random(42);
+		StringBuilder content = new StringBuilder(contentLength + 32);
+		while (content.length() < contentLength) {
+			content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+		}
+		return content.toString();
+	}
+
+	/**
+	 * Build a blacklist resembling a large real-world list: mostly escaped
+	 * domain names with a smaller number of regular expressions.
+	 */
+	private static List<String> buildEntries(int numEntries) {
+		List<String> entries = new ArrayList<String>(numEntries);
+		for (int i = 0; i < numEntries; i++) {
+			if (i % 20 == 0) {
+				entries.add("(buy|cheap|generic)[ \\._\\-]pill" + i + "[s]?");
+			} else if (i % 50 == 1) {
+				entries.add("spam" + i + "[0-9]*\\.(com|net|org)");
+			} else {
+				entries.add("cheap\\-pills" + i + "\\.example\\.com");
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 *
+	 */
+	private static void run(String description, Pattern alternation, SpamFilter.CompiledBlacklist blacklist, String content, int iterations) {
+		String alternationResult = null;
+		String blacklistResult = null;
+		long alternationTime = 0;
+		long blacklistTime = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+			long start = System.nanoTime();
+			Matcher m = alternation.matcher(content);
+			alternationResult = (m.find()) ? m.group(0) : null;
+			long alternationEnd = System.nanoTime();
+			blacklistResult = blacklist.find(content);
+			long blacklistEnd = System.nanoTime();
+			if (i >= WARMUP_ITERATIONS) {
+				alternationTime += alternationEnd - start;
+				blacklistTime += blacklistEnd - alternationEnd;
+			}
+		}
+		if ((alternationResult == null) != (blacklistResult == null)) {
+			throw new IllegalStateException("Results differ for " + description + ": " + alternationResult + " / " + blacklistResult);
+		}
+		System.out.println(description + " (" + content.length() + " characters): alternation " + (alternationTime / iterations / 1000) + " us, blacklist " + (blacklistTime / iterations / 1000) + " us per check, match: " + blacklistResult);
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.web.utils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SpamFilterTest extends JAMWikiUnitTest {
+
+	private static final List<String> ENTRIES = Arrays.asList(
+		"\\<a[ ]+h[a]?ref\\=",
+		"(best|free|super)[ \\._\\-]porn",
+		"([\\[]?http[s]?\\://[^ \\n\\t\\.]+\\.[^ \\n\\t]+[\\]]?[ \\n\\t]+){5,}",
+		"[0-9]{5,}\\.com",
+		"airline\\-tickets\\-cheap",
+		"display\\:none",
+		"freehost(ing)?\\.(com|net)",
+		"hice\\ site",
+		"\\bviagra\\b"
+	);
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAhoCorasickMatcher() throws Throwable {
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers"));
+		assertEquals("SHE", matcher.find("uSHErs"));
+		assertEquals("his", matcher.find("this"));
+		assertNull(matcher.find("hxsx"));
+		BitSet matches = matcher.findAll("ushers");
+		assertTrue(matches.get(0));
+		assertTrue(matches.get(1));
+		assertFalse(matches.get(2));
+		assertTrue(matches.get(3));
+	}
+
+	/**
+	 * Verify that the compiled blacklist gives the same result as a single
+	 * alternation of all entries.
+	 */
+	@Test
+	public void testFind() throws Throwable {
+		SpamFilter.CompiledBlacklist blacklist = new SpamFilter.CompiledBlacklist(ENTRIES);
+		assertEquals(3, blacklist.getLiteralCount());
+		assertEquals(6, blacklist.getPatternCount());
+		Pattern alternation = Pattern.compile(StringUtils.join(ENTRIES, "|"), Pattern.CASE_INSENSITIVE);
+		String[] contents = {
+			"A perfectly ordinary paragraph of wiki text.",
+			"Visit Airline-Tickets-CHEAP today",
+			"<div style=\"display:none\">hidden</div>",
+			"<A  HREF=\"http://example.com\">",
+			"free porn",
+			"free  porn",
+			"buy viagra now",
+			"viagraonline",
+			"call 1234567.com",
+			"call 1234.com",
+			"see freehosting.net",
+			"see freehosting.org",
+			"http://a.b http://c.d http://e.f http://g.h http://i.j ",
+			"http://a.b http://c.d http://e.f http://g.h ",
+			"Hice site!"
+		};
+		for (String content : contents) {
+			Matcher m = alternation.matcher(content);
+			boolean expected = m.find();
+			String result = blacklist.find(content);
+			assertEquals("Unexpected result for: " + content, expected, (result != null));
+			if (result != null) {
+				assertTrue("Match not found in content: " + result, content.contains(result));
+			}
+		}
+		assertEquals("Airline-Tickets-CHEAP", blacklist.find("Visit Airline-Tickets-CHEAP today"));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = PatternSyntaxException.class)
+	public void testInvalidPattern() throws Throwable {
+		new SpamFilter.CompiledBlacklist(Arrays.asList("valid\\.com", "(unbalanced"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRequiredLiteral() throws Throwable {
+		assertEquals("porn", SpamFilter.requiredLiteral("(best|free|super)[ \\._\\-]porn"));
+		assertEquals(".com", SpamFilter.requiredLiteral("[0-9]{5,}\\.com"));
+		assertEquals("freehost", SpamFilter.requiredLiteral("freehost(ing)?\\.(com|net)"));
+		assertEquals("http", SpamFilter.requiredLiteral("([\\[]?http[s]?\\://[^ \\n\\t\\.]+\\.[^ \\n\\t]+[\\]]?[ \\n\\t]+){5,}"));
+		assertEquals("ref=", SpamFilter.requiredLiteral("\\<a[ ]+h[a]?ref\\="));
+		assertEquals("colo", SpamFilter.requiredLiteral("colou?r"));
+		assertEquals("viagra", SpamFilter.requiredLiteral("\\bviagra\\b"));
+		assertEquals("abc", SpamFilter.requiredLiteral("x(?=abc)"));
+		assertNull(SpamFilter.requiredLiteral("abc|def"));
+		assertNull(SpamFilter.requiredLiteral("(?i)abc"));
+		assertNull(SpamFilter.requiredLiteral("\\x41bc"));
+		assertNull(SpamFilter.requiredLiteral("(abc){0,3}"));
+		assertNull(SpamFilter.requiredLiteral("(?!abc)"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnescapeLiteral() throws Throwable {
+		assertEquals("airline-tickets-cheap", SpamFilter.unescapeLiteral("airline\\-tickets\\-cheap"));
+		assertEquals("hice site", SpamFilter.unescapeLiteral("hice\\ site"));
+		assertEquals("display:none", SpamFilter.unescapeLiteral("display\\:none"));
+		assertNull(SpamFilter.unescapeLiteral("[0-9]{5,}\\.com"));
+		assertNull(SpamFilter.unescapeLiteral("freehost(ing)?"));
+		assertNull(SpamFilter.unescapeLiteral("example.com"));
+		assertNull(SpamFilter.unescapeLiteral("\\bviagra"));
+		assertNull(SpamFilter.unescapeLiteral("trailing\\"));
+	}
+}